@@ -0,0 +1,66 @@
+package Application.Benchmark;
+
+import Application.Application;
+import Application.DAO.AuthorDAO;
+import Application.DAO.BookDAO;
+import Application.Model.Author;
+import Application.Model.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sets up the database the benchmarks run against. Unless -Dlibrary.db.url is given, the benchmarks use a private
+ * in-memory database, so that they neither depend on nor overwrite the data in ./h2.
+ *
+ * The seeded catalog has AUTHORS authors besides the five created by Application.databaseSetup, and the requested
+ * number of books with consecutive isbns starting at FIRST_ISBN. A quarter of the books have no copies available.
+ */
+public class BenchmarkDatabase {
+    public static final int AUTHORS = 1000;
+    public static final int FIRST_ISBN = 1000;
+    private static final int CHUNK_SIZE = 10000;
+
+    /**
+     * Point ConnectionUtil at the benchmark database. Must be called before anything touches ConnectionUtil.
+     */
+    public static void useBenchmarkDatabase(){
+        if (System.getProperty("library.db.url") == null) {
+            System.setProperty("library.db.url", "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1");
+        }
+    }
+
+    /**
+     * Recreate the tables and fill them with a catalog of some size.
+     * @param books the number of books to seed, eg 1000 to 10000000.
+     */
+    public static void seed(int books){
+        useBenchmarkDatabase();
+        Application.databaseSetup();
+        AuthorDAO authorDAO = new AuthorDAO();
+        List<Author> authors = new ArrayList<>(AUTHORS);
+        for (int i = 0; i < AUTHORS; i++) {
+            authors.add(new Author("author " + i));
+        }
+        authorDAO.insertAuthors(authors);
+        BookDAO bookDAO = new BookDAO();
+        List<Book> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < books; i++) {
+            chunk.add(book(FIRST_ISBN + i));
+            if (chunk.size() == CHUNK_SIZE) {
+                bookDAO.insertBooks(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            bookDAO.insertBooks(chunk);
+        }
+    }
+
+    /**
+     * @return the book the seeded catalog holds for some isbn, or would hold if it were larger.
+     */
+    public static Book book(int isbn){
+        return new Book(isbn, 1 + isbn % (AUTHORS + 5), "title of book " + isbn, isbn % 4);
+    }
+}
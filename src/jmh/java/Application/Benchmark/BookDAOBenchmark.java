@@ -0,0 +1,60 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the BookDAO queries on the hot paths against a seeded catalog of rows books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookDAOBenchmark {
+    @Param({"1000"})
+    public int rows;
+
+    private BookDAO bookDAO;
+    private AtomicInteger nextIsbn;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(rows);
+        bookDAO = new BookDAO();
+        nextIsbn = new AtomicInteger(BenchmarkDatabase.FIRST_ISBN + rows);
+    }
+
+    @Benchmark
+    public List<Book> getAllBooks(){
+        return bookDAO.getAllBooks();
+    }
+
+    @Benchmark
+    public Book getBookByIsbn(){
+        return bookDAO.getBookByIsbn(BenchmarkDatabase.FIRST_ISBN + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public Book insertBook(){
+        return bookDAO.insertBook(BenchmarkDatabase.book(nextIsbn.getAndIncrement()));
+    }
+}
@@ -0,0 +1,75 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import Application.Service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures BookService.addBook, for new and for duplicate isbns, against the check-then-insert pair of queries it
+ * replaced. Run with -p cache=false to measure the service without its catalog cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookServiceBenchmark {
+    @Param({"1000"})
+    public int rows;
+
+    @Param({"true"})
+    public String cache;
+
+    private BookDAO bookDAO;
+    private BookService bookService;
+    private AtomicInteger nextIsbn;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        System.setProperty("library.cache.enabled", cache);
+        BenchmarkDatabase.seed(rows);
+        bookDAO = new BookDAO();
+        bookService = new BookService(bookDAO);
+        nextIsbn = new AtomicInteger(BenchmarkDatabase.FIRST_ISBN + rows);
+    }
+
+    @Benchmark
+    public Book addBook(){
+        return bookService.addBook(BenchmarkDatabase.book(nextIsbn.getAndIncrement()));
+    }
+
+    @Benchmark
+    public Book addBookDuplicate(){
+        int isbn = BenchmarkDatabase.FIRST_ISBN + ThreadLocalRandom.current().nextInt(rows);
+        return bookService.addBook(BenchmarkDatabase.book(isbn));
+    }
+
+    /**
+     * The way addBook used to work: look the isbn up, then insert if it was not found.
+     */
+    @Benchmark
+    public Book checkThenInsert(){
+        Book book = BenchmarkDatabase.book(nextIsbn.getAndIncrement());
+        if (bookDAO.getBookByIsbn(book.getIsbn()) != null) {
+            return null;
+        }
+        return bookDAO.insertBook(book);
+    }
+}
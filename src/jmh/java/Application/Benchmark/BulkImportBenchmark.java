@@ -0,0 +1,64 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rows inserted per second by the batched insert path against one insertBook call per row. Both benchmarks
+ * count one operation per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkImportBenchmark {
+    private static final int CHUNK_SIZE = 1000;
+
+    private BookDAO bookDAO;
+    private int nextIsbn;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(0);
+        bookDAO = new BookDAO();
+        nextIsbn = BenchmarkDatabase.FIRST_ISBN;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public String[] insertBooksBatch(){
+        List<Book> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            chunk.add(BenchmarkDatabase.book(nextIsbn++));
+        }
+        return bookDAO.insertBooks(chunk);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public Book insertBookPerRow(){
+        Book last = null;
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            last = bookDAO.insertBook(BenchmarkDatabase.book(nextIsbn++));
+        }
+        return last;
+    }
+}
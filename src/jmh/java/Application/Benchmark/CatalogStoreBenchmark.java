@@ -0,0 +1,109 @@
+package Application.Benchmark;
+
+import Application.Model.Book;
+import Application.Service.ColumnarCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ColumnarCatalog with the Book objects a CatalogCache holds for the same catalog (a List&lt;Book&gt; and a
+ * map by isbn): the heap retained, printed once the catalog is built, the time of a full collection with the catalog
+ * live, and the time of a lookup by isbn. The catalog is built in memory, not read from the database, so that it can
+ * be large: run with -p rows=10000000 for a catalog of 10M books.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class CatalogStoreBenchmark {
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"objects", "columnar"})
+    public String store;
+
+    private List<Book> books;
+    private ConcurrentSkipListMap<Integer, Book> byIsbn;
+    private ColumnarCatalog catalog;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        if ("columnar".equals(store)) {
+            catalog = new ColumnarCatalog(consumer -> {
+                for (int i = 0; i < rows; i++) {
+                    consumer.accept(BenchmarkDatabase.book(BenchmarkDatabase.FIRST_ISBN + i));
+                }
+            });
+            catalog.get(BenchmarkDatabase.FIRST_ISBN);
+        } else {
+            books = new ArrayList<>();
+            byIsbn = new ConcurrentSkipListMap<>();
+            for (int i = 0; i < rows; i++) {
+                Book book = BenchmarkDatabase.book(BenchmarkDatabase.FIRST_ISBN + i);
+                books.add(book);
+                byIsbn.put(book.getIsbn(), book);
+            }
+        }
+        System.gc();
+        long retained = memory.getHeapMemoryUsage().getUsed() - before;
+        System.out.printf("%n%s catalog of %d books retains %.1f MB of heap (%.1f bytes per book)%n",
+                store, rows, retained / 1e6, (double) retained / rows);
+    }
+
+    /**
+     * A lookup by isbn, creating a Book for the columnar catalog.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public Book get(){
+        int isbn = BenchmarkDatabase.FIRST_ISBN + ThreadLocalRandom.current().nextInt(rows);
+        return catalog != null ? catalog.get(isbn) : byIsbn.get(isbn);
+    }
+
+    /**
+     * A lookup of the copies available by isbn, which the columnar catalog answers without creating a Book.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public int getCopies(){
+        int isbn = BenchmarkDatabase.FIRST_ISBN + ThreadLocalRandom.current().nextInt(rows);
+        return catalog != null ? catalog.getCopies(isbn) : byIsbn.get(isbn).getCopies_available();
+    }
+
+    /**
+     * A full collection, which has to trace every object of the catalog.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public void fullGc(){
+        System.gc();
+    }
+}
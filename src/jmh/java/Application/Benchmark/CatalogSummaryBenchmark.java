@@ -0,0 +1,59 @@
+package Application.Benchmark;
+
+import Application.DAO.AuthorDAO;
+import Application.DAO.BookDAO;
+import Application.Model.CatalogSummary;
+import Application.Service.CatalogSummaryService;
+import Application.Service.QueryExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a catalog summary of rows books, with its queries run at the same time on a QueryExecutor
+ * against the same queries run one after the other on the calling thread. The gain grows with the number of cores,
+ * as each query of the summary is a scan that keeps one of them busy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogSummaryBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    private CatalogSummaryService parallel;
+    private CatalogSummaryService serial;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(rows);
+        BookDAO bookDAO = new BookDAO();
+        AuthorDAO authorDAO = new AuthorDAO();
+        parallel = new CatalogSummaryService(bookDAO, authorDAO, new QueryExecutor(8, 60000));
+        serial = new CatalogSummaryService(bookDAO, authorDAO, new QueryExecutor(0, 60000));
+    }
+
+    @Benchmark
+    public CatalogSummary summaryParallel(){
+        return parallel.summarize(10).join();
+    }
+
+    @Benchmark
+    public CatalogSummary summarySerial(){
+        return serial.summarize(10).join();
+    }
+}
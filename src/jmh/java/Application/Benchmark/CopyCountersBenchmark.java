@@ -0,0 +1,65 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.Service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a checkout and return of one popular book from several threads at once, through the in-memory copy
+ * counters and, for comparison, as one UPDATE of the row each. Run with -t to change the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class CopyCountersBenchmark {
+    private static final int[] DECREMENT = {-1};
+    private static final int[] INCREMENT = {1};
+
+    private BookDAO bookDAO;
+    private BookService bookService;
+    private int[] hot;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(1000);
+        bookDAO = new BookDAO();
+        bookService = new BookService(bookDAO);
+        // copies = isbn % 4, so this book has 3 copies
+        hot = new int[]{BenchmarkDatabase.FIRST_ISBN + 3};
+    }
+
+    @Benchmark
+    public int checkoutAndReturn(){
+        int left = bookService.checkoutBook(hot[0]);
+        if (left >= 0) {
+            bookService.returnBook(hot[0]);
+        }
+        return left;
+    }
+
+    /**
+     * Every checkout and return written to the row as it happens.
+     */
+    @Benchmark
+    public int updateRow(){
+        return bookDAO.updateCopiesAvailable(hot, DECREMENT).length
+                + bookDAO.updateCopiesAvailable(hot, INCREMENT).length;
+    }
+}
@@ -0,0 +1,109 @@
+package Application.Benchmark;
+
+import Application.Controller.LibraryController;
+import Application.Model.Book;
+import Application.Util.JsonUtil;
+import io.javalin.Javalin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures end-to-end request throughput of the Javalin handlers over HTTP on localhost. Run with -t to drive the
+ * server from several client threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpBenchmark {
+    @Param({"1000"})
+    public int rows;
+
+    private Javalin app;
+    private HttpClient client;
+    private String baseUrl;
+    private AtomicInteger nextIsbn;
+    private String booksEtag;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        BenchmarkDatabase.seed(rows);
+        app = new LibraryController().createApp().start(0);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        baseUrl = "http://localhost:" + app.port();
+        nextIsbn = new AtomicInteger(BenchmarkDatabase.FIRST_ISBN + rows);
+        booksEtag = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/books")).build(),
+                HttpResponse.BodyHandlers.discarding()).headers().firstValue("ETag").orElse("");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        app.stop();
+    }
+
+    private byte[] get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Benchmark
+    public byte[] getBooksPage() throws IOException, InterruptedException {
+        int after = BenchmarkDatabase.FIRST_ISBN + ThreadLocalRandom.current().nextInt(rows);
+        return get("/books?limit=100&after=" + after);
+    }
+
+    @Benchmark
+    public byte[] getAvailableBooks() throws IOException, InterruptedException {
+        return get("/books/available");
+    }
+
+    @Benchmark
+    public byte[] getBooksGzip() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/books"))
+                .header("Accept-Encoding", "gzip").build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Benchmark
+    public int getBooksNotModified() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/books"))
+                .header("If-None-Match", booksEtag).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public byte[] getAuthors() throws IOException, InterruptedException {
+        return get("/authors");
+    }
+
+    @Benchmark
+    public int postBook() throws IOException, InterruptedException {
+        Book book = BenchmarkDatabase.book(nextIsbn.getAndIncrement());
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/books"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(JsonUtil.BOOK_WRITER.writeValueAsBytes(book)))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
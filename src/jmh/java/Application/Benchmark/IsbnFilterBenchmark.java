@@ -0,0 +1,65 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import Application.Service.IsbnFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup of an isbn that is not in use, eg a book about to be ingested, by the BookDAO against the
+ * IsbnFilter loaded from the same catalog of rows books, and the lookup of an isbn in use by the filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IsbnFilterBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    private BookDAO bookDAO;
+    private IsbnFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(rows);
+        bookDAO = new BookDAO();
+        filter = new IsbnFilter(bookDAO::forEachIsbn);
+        filter.prepare();
+    }
+
+    private int absentIsbn(){
+        return BenchmarkDatabase.FIRST_ISBN + rows + ThreadLocalRandom.current().nextInt(rows);
+    }
+
+    @Benchmark
+    public Book daoMiss(){
+        return bookDAO.getBookByIsbn(absentIsbn());
+    }
+
+    @Benchmark
+    public boolean filterMiss(){
+        return filter.mightContain(absentIsbn());
+    }
+
+    @Benchmark
+    public boolean filterHit(){
+        return filter.mightContain(BenchmarkDatabase.FIRST_ISBN + ThreadLocalRandom.current().nextInt(rows));
+    }
+}
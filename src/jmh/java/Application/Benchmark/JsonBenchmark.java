@@ -0,0 +1,72 @@
+package Application.Benchmark;
+
+import Application.Model.Author;
+import Application.Model.Book;
+import Application.Util.JsonUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the (de)serialization of Book and Author with the shared readers and writers of JsonUtil, against building
+ * a new ObjectMapper and an intermediate String per call as the POST handlers used to. Run with -prof gc to compare the
+ * allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    private final Book book = new Book(1234, 1, "my favorite book", 1);
+    private final Author author = new Author(1, "mrs writer");
+    private final byte[] bookJson =
+            "{\"isbn\":1234,\"author_id\":1,\"title\":\"my favorite book\",\"copies_available\":1}"
+                    .getBytes(StandardCharsets.UTF_8);
+    private final byte[] authorJson = "{\"name\":\"mrs writer\"}".getBytes(StandardCharsets.UTF_8);
+    private final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Benchmark
+    public Book readBookShared() throws IOException {
+        return JsonUtil.BOOK_READER.readValue(new ByteArrayInputStream(bookJson));
+    }
+
+    @Benchmark
+    public Book readBookNewMapper() throws IOException {
+        return new ObjectMapper().readValue(new String(bookJson, StandardCharsets.UTF_8), Book.class);
+    }
+
+    @Benchmark
+    public void writeBookShared() throws IOException {
+        JsonUtil.BOOK_WRITER.writeValue(sink, book);
+    }
+
+    @Benchmark
+    public String writeBookNewMapper() throws IOException {
+        return new ObjectMapper().writeValueAsString(book);
+    }
+
+    @Benchmark
+    public Author readAuthorShared() throws IOException {
+        return JsonUtil.AUTHOR_READER.readValue(new ByteArrayInputStream(authorJson));
+    }
+
+    @Benchmark
+    public void writeAuthorShared() throws IOException {
+        JsonUtil.AUTHOR_WRITER.writeValue(sink, author);
+    }
+}
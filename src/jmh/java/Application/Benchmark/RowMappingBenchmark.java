@@ -0,0 +1,88 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import Application.Util.ConnectionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many rows per second a full scan of the book table maps, with the rows read as the DAOs used to read
+ * them, SELECT * and a lookup of each column by name, against the mapper of the BookDAO, which selects its columns and
+ * reads them by position, and against the projections, which read the isbn, or the isbn and copies, alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMappingBenchmark {
+    private static final int ROWS = 100000;
+
+    private BookDAO bookDAO;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(ROWS);
+        bookDAO = new BookDAO();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int selectStarByName(Blackhole blackhole) throws SQLException {
+        int count = 0;
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM book")) {
+            preparedStatement.setFetchSize(1000);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    blackhole.consume(new Book(rs.getInt("isbn"),
+                            rs.getInt("author_id"),
+                            rs.getString("title"),
+                            rs.getInt("copies_available")));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int columnsByIndex(Blackhole blackhole){
+        return bookDAO.forEachBook(blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int isbnProjection(Blackhole blackhole){
+        return bookDAO.forEachIsbn(blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int availableCopiesProjection(Blackhole blackhole){
+        return bookDAO.forEachAvailableCopies((isbn, copies) -> {
+            blackhole.consume(isbn);
+            blackhole.consume(copies);
+        });
+    }
+}
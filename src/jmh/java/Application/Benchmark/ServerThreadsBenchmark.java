@@ -0,0 +1,85 @@
+package Application.Benchmark;
+
+import Application.Controller.LibraryController;
+import io.javalin.Javalin;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load test comparing the server's platform thread pool with virtual threads. Each operation sends concurrency
+ * requests for a page of books at once and waits for all of them, so the score is the time for a burst of that many
+ * concurrent requests, each of which blocks on JDBC. Virtual threads need Java 21, eg
+ *   JAVA_HOME=/path/to/jdk21 mvn -Pbenchmark,jdk21 test-compile exec:exec -Djmh.args="ServerThreadsBenchmark"
+ * On an older JVM the server would fall back to platform threads, so the virtual runs fail instead of measuring the
+ * platform pool a second time; run the platform ones alone there with -p threads=platform.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerThreadsBenchmark {
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"100", "1000"})
+    public int concurrency;
+
+    private Javalin app;
+    private HttpClient client;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        if ("virtual".equals(threads) && !VirtualThreads.areSupported()) {
+            throw new IllegalStateException("Virtual threads are not supported by Java "
+                    + System.getProperty("java.version") + ", run the benchmark on Java 21 with -Pbenchmark,jdk21");
+        }
+        BenchmarkDatabase.seed(rows);
+        app = new LibraryController().createApp("virtual".equals(threads)).start(0);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        baseUrl = "http://localhost:" + app.port();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        app.stop();
+    }
+
+    @Benchmark
+    public int burst(){
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            int after = BenchmarkDatabase.FIRST_ISBN + ThreadLocalRandom.current().nextInt(rows);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/books?limit=100&after=" + after))
+                    .build();
+            responses[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        }
+        CompletableFuture.allOf(responses).join();
+        return responses.length;
+    }
+}
@@ -0,0 +1,106 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.DAO.ShardedAuthorDAO;
+import Application.DAO.ShardedBookDAO;
+import Application.Model.Author;
+import Application.Model.Book;
+import Application.Util.ConnectionPool;
+import Application.Util.SchemaMigrator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how inserts and full scans of the books scale with the number of shards: a batch of BATCH_SIZE new books,
+ * split by shard and written to every shard at once, and a scan of a catalog of rows books, read from every shard at
+ * once. With one shard, the plain BookDAO is measured, without the fan-out.
+ *
+ * The shards are private in-memory databases, unless -Dbench.shardUrl gives a pattern of JDBC connection strings
+ * with the shard number in place of %d, eg -Djmh.args="Shard -jvmArgs -Dbench.shardUrl=jdbc:h2:./target/shard%d".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardBenchmark {
+    private static final int BATCH_SIZE = 10000;
+
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    @Param({"200000"})
+    public int rows;
+
+    private List<ConnectionPool> pools;
+    private BookDAO bookDAO;
+    private int nextIsbn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        String url = System.getProperty("bench.shardUrl", "jdbc:h2:mem:shard%d;DB_CLOSE_DELAY=-1");
+        pools = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            ConnectionPool pool = new ConnectionPool(String.format(url, i), "sa", "sa", 1, 4, 30000, 0, false);
+            try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DROP ALL OBJECTS");
+                SchemaMigrator.migrate(connection);
+            }
+            pools.add(pool);
+        }
+        List<DataSource> dataSources = new ArrayList<>(pools);
+        List<Author> authors = new ArrayList<>();
+        for (int i = 0; i < BenchmarkDatabase.AUTHORS + 5; i++) {
+            authors.add(new Author("author " + i));
+        }
+        new ShardedAuthorDAO(dataSources).insertAuthors(authors);
+        bookDAO = shards == 1 ? new BookDAO(pools.get(0)) : new ShardedBookDAO(dataSources);
+        nextIsbn = BenchmarkDatabase.FIRST_ISBN;
+        while (nextIsbn < BenchmarkDatabase.FIRST_ISBN + rows) {
+            insertBatch();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        for (ConnectionPool pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public String[] insertBatch(){
+        List<Book> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(BenchmarkDatabase.book(nextIsbn++));
+        }
+        return bookDAO.insertBooks(batch);
+    }
+
+    @Benchmark
+    public int scanAll(){
+        int[] sum = new int[1];
+        bookDAO.forEachBook(book -> sum[0] += book.getCopies_available());
+        return sum[0];
+    }
+}
@@ -0,0 +1,78 @@
+package Application.Benchmark;
+
+import Application.DAO.BookDAO;
+import Application.Service.BookService;
+import Application.Service.TitleIndex;
+import Application.Util.ConnectionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a search of the titles of a seeded catalog of rows books, whose titles are "title of book " and the isbn,
+ * with the TitleIndex and, for comparison, with the LIKE '%q%' query it replaces. The query "book 4242" matches one
+ * title whole, and "book 42" matches a few hundred titles by prefix, of which the first page is ranked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class TitleSearchBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"book 4242", "book 42"})
+    public String query;
+
+    private BookService bookService;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(rows);
+        bookService = new BookService(new BookDAO());
+        bookService.getTitleIndex().prepare();
+    }
+
+    @Benchmark
+    public int[] index(){
+        return bookService.searchBooks(query, 0, 20).getIsbns();
+    }
+
+    /**
+     * The query a client would need without the index: every title is scanned and compared.
+     */
+    @Benchmark
+    public List<Integer> likeScan() throws SQLException {
+        List<Integer> isbns = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     "SELECT isbn FROM book WHERE LOWER(title) LIKE ? ORDER BY isbn LIMIT 20")) {
+            preparedStatement.setString(1, "%" + query + "%");
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    isbns.add(rs.getInt(1));
+                }
+            }
+        }
+        return isbns;
+    }
+}
@@ -0,0 +1,57 @@
+package Application.Benchmark;
+
+import Application.Model.Book;
+import Application.Service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures single-book inserts per second from many threads, each insert committed on its own against inserts queued
+ * and committed in groups by the WriteQueue. The difference is largest on a file database, where every commit is
+ * written to disk, eg with -Djmh.args="WriteQueue -jvmArgs -Dlibrary.db.url=jdbc:h2:./target/bench".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class WriteQueueBenchmark {
+    private BookService syncService;
+    private BookService queuedService;
+    private AtomicInteger nextIsbn;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        BenchmarkDatabase.seed(0);
+        syncService = new BookService();
+        System.setProperty("library.writes.async", "true");
+        queuedService = new BookService();
+        System.clearProperty("library.writes.async");
+        nextIsbn = new AtomicInteger(BenchmarkDatabase.FIRST_ISBN);
+    }
+
+    @Benchmark
+    public Book addBookCommitEach(){
+        return syncService.addBook(BenchmarkDatabase.book(nextIsbn.getAndIncrement()));
+    }
+
+    @Benchmark
+    public Book addBookGroupCommit(){
+        return queuedService.submitBook(BenchmarkDatabase.book(nextIsbn.getAndIncrement())).join();
+    }
+}
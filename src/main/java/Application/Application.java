@@ -1,70 +1,137 @@
 package Application;
 import Application.Controller.LibraryController;
+import Application.DAO.ShardedAuthorDAO;
+import Application.DAO.ShardedBookDAO;
 import Application.Util.ConnectionUtil;
+import Application.Util.SchemaMigrator;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 /**
  * There is no need to modify anything in this class.
  * The main method will start a new Javalin API on the console at localhost:8080.
  * Take a look at the LibraryController class for API documentation as well as instructions for how to
  * access the API endpoints.
+ *
+ * Starting the API keeps the data already in the database. It only applies the schema migrations the database is
+ * missing. With -Dlibrary.profile=dev (the default) it also loads the sample authors and books into an empty
+ * database; with any other profile, eg -Dlibrary.profile=prod, it never writes any data.
+ *
+ * With -Dlibrary.db.shards, the books are partitioned over the database and the shards (see ShardedBookDAO), and
+ * starting the API also prepares the shards.
  */
 public class Application {
     /**
      * You can run this main method to run the API.
      * @param args
      */
-    public static void main(String[] args) {
-        databaseSetup();
+    public static void main(String[] args) throws SQLException {
+        long start = System.nanoTime();
+        String profile = System.getProperty("library.profile", "dev");
+        String schema = startup("dev".equals(profile));
+        long databaseMillis = (System.nanoTime() - start) / 1000000;
         LibraryController libraryController = new LibraryController();
         libraryController.startAPI();
+        System.out.println("Started in " + (System.nanoTime() - start) / 1000000 + " ms (database ready in "
+                + databaseMillis + " ms) with profile " + profile + ", " + schema);
+    }
+
+    /**
+     * Bring the database up to date without touching its data: apply the pending schema migrations, check that the
+     * tables look as the DAOs expect, and optionally seed an empty database.
+     * @param seed true to load the sample authors and books if the author table is empty.
+     * @return a short description of what was done, for the startup message.
+     * @throws SQLException if the database can not be migrated, or its schema is not the expected one.
+     */
+    public static String startup(boolean seed) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            int applied = SchemaMigrator.migrate(conn);
+            SchemaMigrator.validate(conn);
+            boolean seeded = false;
+            if (seed) {
+                try (PreparedStatement ps = conn.prepareStatement("select 1 from author limit 1");
+                     ResultSet rs = ps.executeQuery()) {
+                    seeded = !rs.next();
+                }
+                if (seeded) {
+                    seedDatabase(conn);
+                }
+            }
+            return "schema version " + SchemaMigrator.currentVersion(conn) + " (" + applied + " migrations applied)"
+                    + (seeded ? ", sample data loaded" : "") + startShards();
+        }
+    }
+
+    /**
+     * With -Dlibrary.db.shards, bring every other shard's schema up to date, copy the authors to it, and move the
+     * books that are not on their shard, eg the sample books or those of a database used without shards, onto it.
+     * @return a short description of what was done, for the startup message, or nothing without shards.
+     * @throws SQLException if a shard can not be migrated, or its schema is not the expected one.
+     */
+    private static String startShards() throws SQLException {
+        List<DataSource> shards = ConnectionUtil.getShards();
+        if (shards.size() == 1) {
+            return "";
+        }
+        for (DataSource shard : shards.subList(1, shards.size())) {
+            try (Connection conn = shard.getConnection()) {
+                SchemaMigrator.migrate(conn);
+                SchemaMigrator.validate(conn);
+            }
+        }
+        if (new ShardedAuthorDAO(shards).syncAuthors() < 0) {
+            throw new SQLException("The authors could not be copied to every shard");
+        }
+        int moved = new ShardedBookDAO(shards).rebalance();
+        return ", " + shards.size() + " shards (" + moved + " books moved)";
     }
     /**
      * For the purpose of this short exercise, this method will destroy and set up new book and author tables.
      * This is not a normal way to set up your tables, in real projects you should set up your database
-     * schema in a SQL editor such as DBeaver or DataGrip. Do not change anything in this method.
+     * schema in a SQL editor such as DBeaver or DataGrip. The tables are created by the SchemaMigrator, so that they
+     * have the same schema as a database that was migrated over time.
      */
     public static void databaseSetup(){
-        try {
-            Connection conn = ConnectionUtil.getConnection();
+        try (Connection conn = ConnectionUtil.getConnection()) {
             PreparedStatement ps1 = conn.prepareStatement("drop table if exists book");
             ps1.executeUpdate();
             PreparedStatement ps2 = conn.prepareStatement("drop table if exists author");
             ps2.executeUpdate();
-            PreparedStatement ps3 = conn.prepareStatement("create table author(" +
-                    "id int primary key auto_increment, " +
-                    "name varchar(255)); ");
+            PreparedStatement ps3 = conn.prepareStatement("drop table if exists schema_version");
             ps3.executeUpdate();
-            PreparedStatement ps4 = conn.prepareStatement("create table book(" +
-                    "isbn int primary key, " +
-                    "author_id int, "+
-                    "title varchar(255), " +
-                    "copies_available varchar(255), " +
-                    "foreign key (author_id) references author(id));");
-            ps4.executeUpdate();
-            PreparedStatement ps5 = conn.prepareStatement(
-                    "insert into author (name) values " +
-                            "('jorge luis borges')," +
-                            "('italo calvino')," +
-                            "('thomas pynchon')," +
-                            "('marshall mcluhan')," +
-                            "('immanuel kant')");
-            ps5.executeUpdate();
-            PreparedStatement ps6 = conn.prepareStatement(
-                    "insert into book (isbn, author_id, title, copies_available) values " +
-                            "(100, 1, 'ficciones', 2)," +
-                            "(101, 1, 'book of sand', 0)," +
-                            "(102, 2, 'mr palomar', 1)," +
-                            "(103, 2, 'invisible cities', 3)," +
-                            "(104, 3, 'crying of lot 49', 0)," +
-                            "(105, 3, 'mason and dixon', 0)," +
-                            "(106, 4, 'understanding media', 1)," +
-                            "(107, 5, 'critique of pure reason', 7);");
-            ps6.executeUpdate();
+            SchemaMigrator.migrate(conn);
+            seedDatabase(conn);
         }catch(SQLException e){
             e.printStackTrace();
         }
     }
+
+    /**
+     * Insert the sample authors and books.
+     */
+    private static void seedDatabase(Connection conn) throws SQLException {
+        PreparedStatement ps1 = conn.prepareStatement(
+                "insert into author (name) values " +
+                        "('jorge luis borges')," +
+                        "('italo calvino')," +
+                        "('thomas pynchon')," +
+                        "('marshall mcluhan')," +
+                        "('immanuel kant')");
+        ps1.executeUpdate();
+        PreparedStatement ps2 = conn.prepareStatement(
+                "insert into book (isbn, author_id, title, copies_available) values " +
+                        "(100, 1, 'ficciones', 2)," +
+                        "(101, 1, 'book of sand', 0)," +
+                        "(102, 2, 'mr palomar', 1)," +
+                        "(103, 2, 'invisible cities', 3)," +
+                        "(104, 3, 'crying of lot 49', 0)," +
+                        "(105, 3, 'mason and dixon', 0)," +
+                        "(106, 4, 'understanding media', 1)," +
+                        "(107, 5, 'critique of pure reason', 7);");
+        ps2.executeUpdate();
+    }
 }
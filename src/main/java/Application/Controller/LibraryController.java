@@ -1,15 +1,56 @@
 package Application.Controller;
 
 import Application.Model.Author;
+import Application.Model.AuthorWithBooks;
 import Application.Model.Book;
+import Application.Model.BulkImportReport;
+import Application.Model.CatalogSummary;
+import Application.Model.Change;
 import Application.Service.AuthorService;
+import Application.Service.AvailabilityIndex;
 import Application.Service.BookService;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import Application.Service.CatalogCache;
+import Application.Service.CatalogSummaryService;
+import Application.Service.CatalogVersion;
+import Application.Service.ChangeFeed;
+import Application.Service.ChangeLog;
+import Application.Service.ColumnarCatalog;
+import Application.Service.CopyCounters;
+import Application.Service.IsbnFilter;
+import Application.Service.QueryExecutor;
+import Application.Service.ReplicaFeeder;
+import Application.Service.TitleIndex;
+import Application.Service.WriteQueue;
+import Application.Util.ConnectionUtil;
+import Application.Util.JsonUtil;
+import Application.Util.Metrics;
+import Application.Util.ResponseCache;
+import Application.Util.RoutingDataSource;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.sse.SseClient;
+import io.javalin.validation.ValidationException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 /**
  * There is no need to modify anything in this class. This class will create a Javalin API with endpoints when the
  * startAPI method is called.
@@ -23,10 +64,20 @@ import java.util.List;
  *     for any type of request. Be sure to set the request type to the intended one (GET/POST/PUT/DELETE), and to
  *     properly format the body (setting the body content type to raw JSON).
  *
+ *  The API runs its handlers on platform threads by default. Start it with -Dlibrary.server.threads=virtual to run
+ *  them on virtual threads instead (Java 21 or later).
+ *
  *  The included endpoints:
  *
  *  GET localhost:8080/books : retrieve all books
  *
+ *  GET localhost:8080/books?after=103&limit=50 : retrieve a page of at most 50 books with an ISBN greater than 103,
+ *  ordered by ISBN. Both parameters are optional; limit defaults to 100 and is capped at 1000. When the page is full,
+ *  the X-Next-After response header holds the value of after for the next page.
+ *
+ *  GET localhost:8080/books?stream=true : retrieve all books as one JSON array that is written to the response while
+ *  the table is read, so that the first books are sent before the last ones have been read.
+ *
  *  POST localhost:8080/books : post a new book. a new book should be contained in the body of the request as a
  *  JSON representation. It must contain an ISBN field, because the ISBN field will not be generated
  *  automatically. example:
@@ -37,23 +88,121 @@ import java.util.List;
  *          "copies_available":1
  *      }
  *
- *  GET localhost:8080/books/available : retrieve all books with a copies_available of at least 1
+ *  POST localhost:8080/books/bulk : post many new books at once, as a JSON array of books or as newline-delimited
+ *  JSON with one book per line. The books are read from the request as they arrive and written in batches of
+ *  chunkSize (a query parameter, default 1000). The response reports the outcome of each book, eg:
+ *      {
+ *          "inserted":1, "duplicates":1, "failed":0, "error":null,
+ *          "rows":[{"index":0,"key":1234,"status":"inserted"}, {"index":1,"key":100,"status":"duplicate"}]
+ *      }
+ *  If the body is malformed the API returns a 400 message with the report of the books read before the problem,
+ *  which have been persisted.
+ *
+ *  GET localhost:8080/books/available : retrieve all books with a copies_available of at least 1, in no particular
+ *  order. They are served from an in-memory index of the available books, without a query.
+ *
+ *  GET localhost:8080/books/search?q=book+of+sa&offset=0&limit=20 : retrieve the books whose title has, for every
+ *  word of q, a word that starts with it, ignoring case and punctuation. The books are ranked by the number of words
+ *  of q that are whole words of the title, then shorter titles first. The X-Total-Count response header holds the
+ *  number of matches; when there are more, the X-Next-Offset header holds the value of offset for the next page.
+ *  limit defaults to 100 and is capped at 1000, and offset is capped at 10000. The titles are searched in an
+ *  in-memory index, built when the API starts.
+ *
+ *  POST localhost:8080/books/{isbn}/checkout : check out one copy of a book. The response holds the copies left, eg
+ *      {"isbn":100,"copies_available":1}
+ *  If there is no book with that isbn the API returns a 404 message, and if it has no copies left a 409 message.
+ *
+ *  POST localhost:8080/books/{isbn}/return : return one copy of a book. The response holds the copies available.
+ *
+ *  GET localhost:8080/authors : retrieve all authors. The after, limit and stream parameters work as they do for
+ *  books, with after and X-Next-After holding an author id.
  *
- *  GET localhost:8080/authors : retrieve all authors
+ *  GET localhost:8080/authors?include=books : retrieve all authors, each with the list of their books, eg
+ *      [{"id":1, "name":"jorge luis borges", "books":[{"isbn":100, "author_id":1, "title":"ficciones", ...}]}]
+ *  The after, limit and stream parameters work as they do without include. Each page is read with one query.
+ *
+ *  GET localhost:8080/authors/{id}/books : retrieve the books of an author, ordered by ISBN, or a 404 message if
+ *  there is no such author.
  *
  *  POST localhost:8080/authors : post a new author. a new author should be contained in the body of the request as a
  *  JSON representation. It should not include the author_id field as this will be automatically generated. example:
  *      {
  *          "name":"mrs writer"
  *      }
+ *
+ *  When the API is started with -Dlibrary.writes.async=true, the books and authors posted one at a time are queued,
+ *  and written in groups with one transaction per group. Each request still waits for its own book or author to be
+ *  committed, and responds as it would otherwise. When the queue is full the API returns a 429 message (too many
+ *  requests) with a Retry-After header, and the book or author is not persisted. A request that has waited
+ *  library.writes.timeoutMillis (default 30000) for its write returns a 503 message (service unavailable); the write
+ *  may still be committed later.
+ *
+ *  POST localhost:8080/authors/bulk : post many new authors at once, in the same formats as books. The key of each
+ *  row in the response is the generated id of the author.
+ *
+ *  The responses of GET /books, GET /books/available and GET /authors, with any of their parameters, carry an ETag
+ *  for the version of the catalog, which changes with every write made through the API. A request whose
+ *  If-None-Match header holds that ETag is answered with 304 Not Modified and no body. The bodies of the whole lists
+ *  are rendered once per version, and gzipped once for clients that send Accept-Encoding: gzip.
+ *
+ *  GET localhost:8080/changes?since=42&limit=100 : retrieve the changes of the catalog made after the change with
+ *  sequence number 42, oldest first, eg
+ *      [{"seq":43, "type":"book", "data":{"isbn":1234, "author_id":1, "title":"my favorite book", ...}},
+ *       {"seq":44, "type":"author", "data":{"id":6, "name":"mrs writer"}}]
+ *  Every book and author persisted through the API is a change, including a book whose copies available changed.
+ *  limit defaults to 100 and is capped at 1000, and the X-Next-Since response header holds the value of since for the
+ *  next request. since=0 retrieves the changes from the start. Only the most recent changes are kept (65536 by
+ *  default): if some of the changes after since are gone, or since was handed out before the API restarted, the API
+ *  returns a 410 message (gone), and the client should retrieve the catalog again with GET /books.
+ *
+ *  GET localhost:8080/changes/stream?since=42 (with Accept: text/event-stream) : the same changes as server-sent
+ *  events, first those after since, then each one as it is made. The name of each event is the type of the change,
+ *  its id is the sequence number, and its data is the change as GET /changes returns it. A reconnecting client that
+ *  sends a Last-Event-ID header resumes after that change; without either, the stream starts with the next change.
+ *  If the stream can not resume, or the client falls more than library.changes.outboxSize changes behind (default
+ *  1000), a "reset" event is sent instead, with the sequence number of the last change, and the stream ends.
+ *
+ *  When the API is started with -Dlibrary.db.replicas=jdbc:h2:mem:replica1,jdbc:h2:mem:replica2 (any JDBC connection
+ *  strings), the reads of the DAOs are spread over those read replicas, which are copied from the database and then
+ *  kept up to date from the change log, and the writes go to the database. A request always reads the writes it made
+ *  itself. The responses of POST /books, /authors and their bulk variants carry an X-Change-Seq header with the
+ *  sequence number of the last change they made; a later request that sends it back in an X-Read-After header only
+ *  reads from replicas that have that change, or from the database. A replica that fails is skipped.
+ *
+ *  GET localhost:8080/catalog/summary?top=5 : summarize the catalog: the number of authors, books, books with a copy
+ *  available and copies available, and the 5 authors with the most books (10 by default, capped at 1000), eg
+ *      {"authors":5, "books":8, "availableBooks":5, "copiesAvailable":14,
+ *       "topAuthors":[{"id":1, "name":"jorge luis borges", "books":2}, ...]}
+ *  The queries of the summary run at the same time, each with a connection of its own. If one of them takes longer
+ *  than library.query.timeoutMillis (default 5000), or fails, the API returns a 503 message with a Retry-After header.
+ *  A summary carries an ETag, as GET /books does; a 503 message does not.
+ *
+ *  GET localhost:8080/metrics : retrieve request counts and latencies per endpoint, query latencies and row counts
+ *  per DAO method, and connection pool and cache statistics, in the Prometheus text format. The isbn filter, which
+ *  spares the database the lookups of isbns that are not in use, reports its answers, its size in memory and its
+ *  expected false positive rate there too.
  */
 public class LibraryController {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_SEARCH_OFFSET = 10000;
+    private static final int DEFAULT_CHUNK_SIZE = Integer.getInteger("library.bulk.chunkSize", 1000);
+    private static final int SERVER_MAX_THREADS = Integer.getInteger("library.server.maxThreads", 250);
+    private static final long WRITE_TIMEOUT_MILLIS = Long.getLong("library.writes.timeoutMillis", 30000);
+    private static final int DEFAULT_TOP_AUTHORS = 10;
+    // one executor for the whole process: its threads, like the connections they use, are shared by every request
+    private static final QueryExecutor QUERIES = new QueryExecutor();
     BookService bookService;
     AuthorService authorService;
+    private final CatalogSummaryService summaries;
+    private final ResponseCache responses = new ResponseCache();
+    private final ChangeFeed changes = new ChangeFeed(ChangeLog.CATALOG);
 
     public LibraryController(){
         this.bookService = new BookService();
         this.authorService = new AuthorService();
+        this.summaries = new CatalogSummaryService(bookService.bookDAO, authorService.getAuthorDAO(), QUERIES);
+        ReplicaFeeder.startAll();
     }
 
     /**
@@ -62,30 +211,127 @@ public class LibraryController {
      * HTTP requests and can generate responses.
      */
     public void startAPI(){
-        Javalin app = Javalin.create();
-        app.get("/books", this::getAllBooksHandler);
-        app.post("/books", this::postBookHandler);
-        app.get("/authors", this::getAllAuthorsHandler);
-        app.post("/authors", this::postAuthorHandler);
-        app.get("/books/available", this::getAvailableBooksHandler);
-        app.start(8080);
+        bookService.getTitleIndex().prepare();
+        bookService.getIsbnFilter().prepare();
+        createApp().start(8080);
+    }
+
+    /**
+     * Create the Javalin app with all of the endpoints registered, without starting it. Handlers run on virtual
+     * threads if -Dlibrary.server.threads=virtual is set, and on the platform threads of the server otherwise.
+     * @return the app, ready to be started on a port of the caller's choosing.
+     */
+    public Javalin createApp(){
+        return createApp("virtual".equals(System.getProperty("library.server.threads")));
+    }
+
+    /**
+     * Create the Javalin app with all of the endpoints registered, without starting it.
+     * @param virtualThreads true to run handlers on virtual threads, false to run them on platform threads.
+     * @return the app, ready to be started on a port of the caller's choosing.
+     */
+    public Javalin createApp(boolean virtualThreads){
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(JsonUtil.javalinJsonMapper());
+            config.jetty.server(() -> createServer(virtualThreads));
+        });
+        route(app, HandlerType.GET, "/books", this::getAllBooksHandler);
+        route(app, HandlerType.POST, "/books", this::postBookHandler);
+        route(app, HandlerType.POST, "/books/bulk", this::postBooksBulkHandler);
+        route(app, HandlerType.GET, "/authors", this::getAllAuthorsHandler);
+        route(app, HandlerType.POST, "/authors", this::postAuthorHandler);
+        route(app, HandlerType.POST, "/authors/bulk", this::postAuthorsBulkHandler);
+        route(app, HandlerType.GET, "/authors/{id}/books", this::getAuthorBooksHandler);
+        route(app, HandlerType.GET, "/books/available", this::getAvailableBooksHandler);
+        route(app, HandlerType.GET, "/books/search", this::searchBooksHandler);
+        route(app, HandlerType.POST, "/books/{isbn}/checkout", this::postCheckoutHandler);
+        route(app, HandlerType.POST, "/books/{isbn}/return", this::postReturnHandler);
+        route(app, HandlerType.GET, "/changes", this::getChangesHandler);
+        route(app, HandlerType.GET, "/catalog/summary", this::getCatalogSummaryHandler);
+        app.sse("/changes/stream", this::streamChangesHandler);
+        app.get("/metrics", this::getMetricsHandler);
+        return app;
+    }
+
+    /**
+     * Create the Jetty server of the app. Jetty always accepts connections and parses requests on the platform threads
+     * of its pool, which holds up to library.server.maxThreads threads (default 250). Without virtual threads the
+     * handlers run on those threads too, so at most that many requests can be handled at once, most of them blocked
+     * on JDBC. With virtual threads every request is handled on a virtual thread of its own, and the number of
+     * requests in progress is no longer bounded by the pool.
+     *
+     * Either way, at most library.pool.maxSize handlers can use the database at once: the others wait for a permit of
+     * the ConnectionPool, whose Semaphore is the JDBC semaphore of the server, sized to the pool. This matters more
+     * with virtual threads, because H2 blocks inside synchronized blocks, which pins the virtual thread to its
+     * carrier; bounding the JDBC calls by the pool size bounds the pinned carriers.
+     *
+     * Virtual threads need Java 21. On an older JVM the server falls back to platform threads.
+     */
+    private static Server createServer(boolean virtualThreads){
+        QueuedThreadPool threadPool = new QueuedThreadPool(SERVER_MAX_THREADS, 8, 60000);
+        threadPool.setName("JettyServerThreadPool");
+        if (virtualThreads) {
+            if (VirtualThreads.areSupported()) {
+                threadPool.setUseVirtualThreads(true);
+            } else {
+                System.out.println("Virtual threads are not supported by Java " + System.getProperty("java.version")
+                        + ", handlers will run on platform threads");
+            }
+        }
+        return new Server(threadPool);
+    }
+
+    /**
+     * Register an endpoint, counting its requests and timing its handler in the Metrics of the route. The reads of the
+     * handler see at least the change of the request's X-Read-After header, and every write the handler makes.
+     * @param method the HTTP method of the endpoint.
+     * @param path the path of the endpoint.
+     * @param handler the handler of the endpoint.
+     */
+    private static void route(Javalin app, HandlerType method, String path, Handler handler){
+        Metrics.Route metrics = Metrics.route(method.name(), path);
+        app.addHandler(method, path, ctx -> {
+            long start = metrics.start();
+            int status = 500;
+            try {
+                RoutingDataSource.resetReadAfter();
+                if (ctx.header("X-Read-After") != null) {
+                    RoutingDataSource.readAfter(ctx.headerAsClass("X-Read-After", Long.class).get());
+                }
+                handler.handle(ctx);
+                status = ctx.statusCode();
+            } catch (HttpResponseException e) {
+                status = e.getStatus();
+                throw e;
+            } catch (ValidationException e) {
+                status = 400;
+                throw e;
+            } finally {
+                RoutingDataSource.resetReadAfter();
+                metrics.end(start, status);
+            }
+        });
     }
 
     /**
      * Handler to post a new author.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into an Author object.
-     * If AuthorService returns a null author (meaning posting an Author was unsuccessful), the API will return a 400
-     * message (client error). There is no need to change anything in this method.
+     * The shared Author reader will convert the JSON of the POST request into an Author object, reading it straight
+     * from the request body stream. If AuthorService returns a null author (meaning posting an Author was
+     * unsuccessful), the API will return a 400 message (client error).
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.post method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
      */
-    private void postAuthorHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Author author = mapper.readValue(ctx.body(), Author.class);
-        Author addedAuthor = authorService.addAuthor(author);
+    private void postAuthorHandler(Context ctx) throws IOException {
+        Author author = JsonUtil.AUTHOR_READER.readValue(ctx.bodyInputStream());
+        Author addedAuthor = await(ctx, authorService.submitAuthor(author));
+        if (ctx.statusCode() == 429 || ctx.statusCode() == 503) {
+            return;
+        }
         if(addedAuthor!=null){
-            ctx.json(mapper.writeValueAsString(addedAuthor));
+            ctx.header("X-Change-Seq", String.valueOf(RoutingDataSource.getReadAfter()));
+            ctx.contentType(ContentType.APPLICATION_JSON);
+            JsonUtil.AUTHOR_WRITER.writeValue(ctx.outputStream(), addedAuthor);
         }else{
             ctx.status(400);
         }
@@ -95,44 +341,560 @@ public class LibraryController {
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.put method.
      */
-    private void getAllAuthorsHandler(Context ctx) {
-        List<Author> authors = authorService.getAllAuthors();
-        ctx.json(authors);
+    private void getAllAuthorsHandler(Context ctx) throws IOException {
+        String include = ctx.queryParam("include");
+        if (include != null && !"books".equals(include)) {
+            ctx.status(400);
+            return;
+        }
+        long version = checkCatalogVersion(ctx);
+        if (version < 0) {
+            return;
+        }
+        if (include != null) {
+            getAllAuthorsWithBooks(ctx, version);
+            return;
+        }
+        if (isStreamRequested(ctx)) {
+            streamJsonArray(ctx, authorService::forEachAuthor);
+            return;
+        }
+        if (isPageRequested(ctx)) {
+            Integer after = ctx.queryParamAsClass("after", Integer.class).allowNullable().get();
+            int limit = pageLimit(ctx);
+            List<Author> authors = authorService.getAuthorsPage(after, limit);
+            if (authors.size() == limit) {
+                ctx.header("X-Next-After", String.valueOf(authors.get(limit - 1).getId()));
+            }
+            ctx.json(authors);
+            return;
+        }
+        respondCached(ctx, "GET /authors", version,
+                out -> JsonUtil.MAPPER.writeValue(out, authorService.getAllAuthors()));
+    }
+    /**
+     * Respond to GET /authors?include=books the way GET /authors responds, with the books of every author included.
+     * Every page, and the whole list, is read with a single query.
+     */
+    private void getAllAuthorsWithBooks(Context ctx, long version) throws IOException {
+        if (isStreamRequested(ctx)) {
+            streamJsonArray(ctx, authorService::forEachAuthorWithBooks);
+            return;
+        }
+        if (isPageRequested(ctx)) {
+            Integer after = ctx.queryParamAsClass("after", Integer.class).allowNullable().get();
+            int limit = pageLimit(ctx);
+            List<AuthorWithBooks> authors = authorService.getAuthorsWithBooksPage(after, limit);
+            if (authors.size() == limit) {
+                ctx.header("X-Next-After", String.valueOf(authors.get(limit - 1).getId()));
+            }
+            ctx.json(authors);
+            return;
+        }
+        respondCached(ctx, "GET /authors?include=books", version,
+                out -> JsonUtil.MAPPER.writeValue(out, authorService.getAllAuthorsWithBooks()));
     }
     /**
-     * Handler to post a new book. There is no need to change anything in this method.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into a Book object.
-     * If BookService returns a null book (meaning posting a Book was unsuccessful), the API will return a 400
-     * message (client error).
+     * Handler to retrieve the books of an author, ordered by isbn, with a 404 message if there is no such author.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     */
+    private void getAuthorBooksHandler(Context ctx) {
+        int id = ctx.pathParamAsClass("id", Integer.class).get();
+        AuthorWithBooks author = authorService.getAuthorWithBooks(id);
+        if (author == null) {
+            ctx.status(404);
+            return;
+        }
+        ctx.json(author.getBooks());
+    }
+    /**
+     * Handler to post a new book.
+     * The shared Book reader will convert the JSON of the POST request into a Book object, reading it straight from
+     * the request body stream. If BookService returns a null book (meaning posting a Book was unsuccessful), the API
+     * will return a 400 message (client error).
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.post method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
      */
-    private void postBookHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Book book = mapper.readValue(ctx.body(), Book.class);
-        Book addedBook = bookService.addBook(book);
+    private void postBookHandler(Context ctx) throws IOException {
+        Book book = JsonUtil.BOOK_READER.readValue(ctx.bodyInputStream());
+        Book addedBook = await(ctx, bookService.submitBook(book));
+        if (ctx.statusCode() == 429 || ctx.statusCode() == 503) {
+            return;
+        }
         if(addedBook!=null){
-            ctx.json(mapper.writeValueAsString(addedBook));
+            ctx.header("X-Change-Seq", String.valueOf(RoutingDataSource.getReadAfter()));
+            ctx.contentType(ContentType.APPLICATION_JSON);
+            JsonUtil.BOOK_WRITER.writeValue(ctx.outputStream(), addedBook);
         }else{
             ctx.status(400);
         }
     }
+    /**
+     * Wait for a queued write to be committed, or respond with 429 Too Many Requests if it could not be queued, and
+     * with 503 Service Unavailable if it is not committed within WRITE_TIMEOUT_MILLIS. The write was made by the
+     * writer thread of the queue, so the reads of this thread are made to see it here.
+     * @return the outcome of the write, or null if it was not queued or not committed in time.
+     * @throws IllegalStateException if the write failed.
+     */
+    private static <T> T await(Context ctx, CompletableFuture<T> write) {
+        if (write == null) {
+            ctx.status(429);
+            ctx.header("Retry-After", "1");
+            return null;
+        }
+        T result;
+        try {
+            result = write.get(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            ctx.status(503);
+            ctx.header("Retry-After", "1");
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ctx.status(503);
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("The queued write failed", e.getCause());
+        }
+        RoutingDataSource.readAfter(ChangeLog.CATALOG.getLatest());
+        return result;
+    }
+    /**
+     * Handler to post many books at once, as a JSON array or as newline-delimited JSON.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     * @throws IOException will be thrown if the request body can not be read.
+     */
+    private void postBooksBulkHandler(Context ctx) throws IOException {
+        BulkImportReport report = new BulkImportReport();
+        try (MappingIterator<Book> books = JsonUtil.BOOK_READER.readValues(ctx.bodyInputStream())) {
+            bookService.addBooks(books, chunkSize(ctx), report);
+        } catch (RuntimeException e) {
+            rejectMalformedBody(ctx, report, e);
+        }
+        ctx.header("X-Change-Seq", String.valueOf(RoutingDataSource.getReadAfter()));
+        ctx.json(report);
+    }
+    /**
+     * Handler to post many authors at once, as a JSON array or as newline-delimited JSON.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     * @throws IOException will be thrown if the request body can not be read.
+     */
+    private void postAuthorsBulkHandler(Context ctx) throws IOException {
+        BulkImportReport report = new BulkImportReport();
+        try (MappingIterator<Author> authors = JsonUtil.AUTHOR_READER.readValues(ctx.bodyInputStream())) {
+            authorService.addAuthors(authors, chunkSize(ctx), report);
+        } catch (RuntimeException e) {
+            rejectMalformedBody(ctx, report, e);
+        }
+        ctx.header("X-Change-Seq", String.valueOf(RoutingDataSource.getReadAfter()));
+        ctx.json(report);
+    }
     /**
      * Handler to retrieve all books. There is no need to change anything in this method.
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.put method.
      */
-    public void getAllBooksHandler(Context ctx){
-        List<Book> books = bookService.getAllBooks();
-        ctx.json(books);
+    public void getAllBooksHandler(Context ctx) throws IOException {
+        long version = checkCatalogVersion(ctx);
+        if (version < 0) {
+            return;
+        }
+        if (isStreamRequested(ctx)) {
+            streamJsonArray(ctx, bookService::forEachBook);
+            return;
+        }
+        if (isPageRequested(ctx)) {
+            Integer after = ctx.queryParamAsClass("after", Integer.class).allowNullable().get();
+            int limit = pageLimit(ctx);
+            List<Book> books = bookService.getBooksPage(after, limit);
+            if (books.size() == limit) {
+                ctx.header("X-Next-After", String.valueOf(books.get(limit - 1).getIsbn()));
+            }
+            ctx.json(books);
+            return;
+        }
+        respondCached(ctx, "GET /books", version, bookService::writeAllBooks);
     }
     /**
-     * Handler to retrieve all books with a book count over zero. There is no need to change anything in this method.
+     * Handler to retrieve all books with a book count over zero, written straight from the availability index.
      * @param context the context object handles information HTTP requests and generates responses within Javalin.
      *                It will be available to this method automatically thanks to the app.put method.
      */
-    private void getAvailableBooksHandler(Context context) {
-        context.json(bookService.getAllAvailableBooks());
+    private void getAvailableBooksHandler(Context context) throws IOException {
+        long version = checkCatalogVersion(context);
+        if (version < 0) {
+            return;
+        }
+        respondCached(context, "GET /books/available", version, bookService::writeAvailableBooks);
+    }
+
+    /**
+     * Tag a read of the catalog with a strong ETag for the current CatalogVersion, and respond with 304 Not Modified,
+     * without reading anything, if the request's If-None-Match holds that ETag. Gzipped responses have ETags of their
+     * own, as their bytes differ.
+     * @return the version the response should reflect, or -1 if 304 was sent.
+     */
+    private static long checkCatalogVersion(Context ctx) {
+        long version = CatalogVersion.get();
+        String etag = "\"" + CatalogVersion.tag(version) + (acceptsGzip(ctx) ? "-gz\"" : "\"");
+        ctx.header("ETag", etag);
+        ctx.header("Vary", "Accept-Encoding");
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals(etag) || candidate.equals("*")) {
+                    ctx.status(304);
+                    return -1;
+                }
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Respond with a JSON body from the ResponseCache, rendering it only if it is not cached for this version yet. The
+     * body is gzipped if the client accepts it, and written past Javalin's own compression.
+     */
+    private void respondCached(Context ctx, String key, long version, ResponseCache.Body body) throws IOException {
+        boolean gzip = acceptsGzip(ctx);
+        byte[] bytes = responses.get(key, version, gzip, body);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        if (gzip) {
+            ctx.header("Content-Encoding", "gzip");
+        }
+        ctx.res().setContentLength(bytes.length);
+        ctx.res().getOutputStream().write(bytes);
+    }
+
+    private static boolean acceptsGzip(Context ctx) {
+        String acceptEncoding = ctx.header("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    /**
+     * Handler to search the titles of the books, a page of the best matches at a time.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     */
+    private void searchBooksHandler(Context ctx) {
+        String query = ctx.queryParamAsClass("q", String.class).get();
+        int offset = ctx.queryParamAsClass("offset", Integer.class).getOrDefault(0);
+        offset = Math.max(0, Math.min(offset, MAX_SEARCH_OFFSET));
+        int limit = pageLimit(ctx);
+        TitleIndex.Hits hits = bookService.searchBooks(query, offset, limit);
+        ctx.header("X-Total-Count", String.valueOf(hits.getTotal()));
+        if (offset + limit < hits.getTotal()) {
+            ctx.header("X-Next-Offset", String.valueOf(offset + limit));
+        }
+        ctx.json(bookService.getBooksByIsbn(hits.getIsbns()));
+    }
+
+    /**
+     * Handler to summarize the catalog, with the queries of the summary run at the same time, and a 503 message,
+     * without an ETag, if one of them misses its deadline or can not read the database.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     */
+    private void getCatalogSummaryHandler(Context ctx) {
+        long version = checkCatalogVersion(ctx);
+        if (version < 0) {
+            return;
+        }
+        int top = ctx.queryParamAsClass("top", Integer.class).check(n -> n >= 0, "must not be negative")
+                .getOrDefault(DEFAULT_TOP_AUTHORS);
+        // the counts are read from the database, so the checkouts and returns not written yet are written first
+        bookService.getCopyCounters().flush();
+        CatalogSummary summary;
+        try {
+            summary = summaries.summarize(Math.min(top, MAX_PAGE_SIZE)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException || e.getCause() instanceof IllegalStateException) {
+                // no summary of this version was read, so the ETag must not answer a later request with 304
+                ctx.res().setHeader("ETag", null);
+                ctx.status(503);
+                ctx.header("Retry-After", "1");
+                return;
+            }
+            throw e;
+        }
+        ctx.json(summary);
+    }
+
+    /**
+     * Handler to retrieve a page of the changes of the catalog after a sequence number, from the ChangeLog, with a
+     * 410 message if the log no longer holds them.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     */
+    private void getChangesHandler(Context ctx) {
+        long since = ctx.queryParamAsClass("since", Long.class).check(seq -> seq >= 0, "must not be negative").get();
+        List<Change> page = ChangeLog.CATALOG.readAfter(since, pageLimit(ctx));
+        if (page == null) {
+            ctx.status(410);
+            return;
+        }
+        ctx.header("X-Next-Since", String.valueOf(page.isEmpty() ? since : page.get(page.size() - 1).getSeq()));
+        ctx.json(page);
+    }
+
+    /**
+     * Handler to stream the changes of the catalog as server-sent events, from the ChangeFeed. The connection is held
+     * open without holding a thread; the feed's single thread writes the events of every stream.
+     * @param client the server-sent event connection of the request.
+     */
+    private void streamChangesHandler(SseClient client) {
+        long latest = ChangeLog.CATALOG.getLatest();
+        long since = latest;
+        String resumeAfter = client.ctx.header("Last-Event-ID");
+        if (resumeAfter == null) {
+            resumeAfter = client.ctx.queryParam("since");
+        }
+        if (resumeAfter != null) {
+            try {
+                since = Long.parseLong(resumeAfter.trim());
+            } catch (NumberFormatException e) {
+                since = -1;
+            }
+        }
+        if (since < 0 || since > latest) {
+            client.sendEvent("reset", String.valueOf(latest));
+            client.close();
+            return;
+        }
+        client.keepAlive();
+        Runnable unsubscribe = changes.subscribe(new ChangeFeed.Subscriber() {
+            @Override
+            public void send(Change change, String json) {
+                client.sendEvent(change.getType(), json, String.valueOf(change.getSeq()));
+            }
+
+            @Override
+            public void heartbeat() {
+                client.sendComment("heartbeat");
+            }
+
+            @Override
+            public void lost() {
+                client.sendEvent("reset", String.valueOf(ChangeLog.CATALOG.getLatest()));
+                client.close();
+            }
+        }, since);
+        client.onClose(unsubscribe);
+    }
+
+    /**
+     * Handler to retrieve the metrics of the API, the database and the caches in the Prometheus text format.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     */
+    private void getMetricsHandler(Context ctx) {
+        StringBuilder out = new StringBuilder(8192);
+        Metrics.writePrometheus(out);
+        List<CatalogCache<?>> caches = List.of(bookService.getCache(), authorService.getCache());
+        Metrics.family(out, "library_cache_requests_total", "counter", "Catalog cache lookups.");
+        for (CatalogCache<?> cache : caches) {
+            String labels = "cache=\"" + cache.getName() + "\"";
+            Metrics.sample(out, "library_cache_requests_total", labels + ",result=\"hit\"", cache.getHits());
+            Metrics.sample(out, "library_cache_requests_total", labels + ",result=\"miss\"", cache.getMisses());
+        }
+        Metrics.family(out, "library_cache_loads_total", "counter", "Whole-table loads of a catalog cache.");
+        for (CatalogCache<?> cache : caches) {
+            Metrics.sample(out, "library_cache_loads_total", "cache=\"" + cache.getName() + "\"", cache.getLoads());
+        }
+        Metrics.family(out, "library_cache_evictions_total", "counter", "Rows evicted from a catalog cache.");
+        for (CatalogCache<?> cache : caches) {
+            Metrics.sample(out, "library_cache_evictions_total", "cache=\"" + cache.getName() + "\"",
+                    cache.getEvictions());
+        }
+        Metrics.family(out, "library_cache_rows", "gauge", "Rows held by a catalog cache.");
+        for (CatalogCache<?> cache : caches) {
+            Metrics.sample(out, "library_cache_rows", "cache=\"" + cache.getName() + "\"", cache.size());
+        }
+        AvailabilityIndex availability = bookService.getAvailabilityIndex();
+        Metrics.family(out, "library_availability_books", "gauge", "Books in the availability index.");
+        Metrics.sample(out, "library_availability_books", null, availability.size());
+        Metrics.family(out, "library_availability_checks_total", "counter", "Checks of the availability index.");
+        Metrics.sample(out, "library_availability_checks_total", null, availability.getChecks());
+        Metrics.family(out, "library_availability_mismatches_total", "counter",
+                "Differences between the availability index and the database found by checks.");
+        Metrics.sample(out, "library_availability_mismatches_total", null, availability.getMismatches());
+        IsbnFilter isbns = bookService.getIsbnFilter();
+        Metrics.family(out, "library_isbn_filter_lookups_total", "counter", "Lookups of the isbn filter by answer.");
+        Metrics.sample(out, "library_isbn_filter_lookups_total", "result=\"absent\"", isbns.getAbsent());
+        Metrics.sample(out, "library_isbn_filter_lookups_total", "result=\"maybe\"", isbns.getMaybe());
+        Metrics.family(out, "library_isbn_filter_false_positives_total", "counter",
+                "Isbns the isbn filter answered maybe for that were not found.");
+        Metrics.sample(out, "library_isbn_filter_false_positives_total", null, isbns.getFalsePositives());
+        Metrics.family(out, "library_isbn_filter_missed_total", "counter",
+                "Isbns the isbn filter answered absent for that were found, eg inserted by another writer.");
+        Metrics.sample(out, "library_isbn_filter_missed_total", null, isbns.getMissed());
+        Metrics.family(out, "library_isbn_filter_builds_total", "counter", "Builds of the isbn filter.");
+        Metrics.sample(out, "library_isbn_filter_builds_total", null, isbns.getRebuilds());
+        Metrics.family(out, "library_isbn_filter_isbns", "gauge", "Isbns in the isbn filter.");
+        Metrics.sample(out, "library_isbn_filter_isbns", null, isbns.size());
+        Metrics.family(out, "library_isbn_filter_bytes", "gauge", "Memory held by the bits of the isbn filter.");
+        Metrics.sample(out, "library_isbn_filter_bytes", null, isbns.getMemoryBytes());
+        Metrics.family(out, "library_isbn_filter_expected_fpp", "gauge",
+                "Expected rate of maybe answers for unknown isbns.");
+        Metrics.sample(out, "library_isbn_filter_expected_fpp", null, isbns.getExpectedFpp());
+        Metrics.family(out, "library_title_index_terms", "gauge", "Distinct terms in the title search index.");
+        Metrics.sample(out, "library_title_index_terms", null, bookService.getTitleIndex().getTerms());
+        Metrics.family(out, "library_response_cache_requests_total", "counter", "Response body cache lookups.");
+        Metrics.sample(out, "library_response_cache_requests_total", "result=\"hit\"", responses.getHits());
+        Metrics.sample(out, "library_response_cache_requests_total", "result=\"miss\"", responses.getMisses());
+        WriteQueue<?, ?> bookWrites = bookService.getWriteQueue();
+        WriteQueue<?, ?> authorWrites = authorService.getWriteQueue();
+        if (bookWrites != null && authorWrites != null) {
+            Metrics.family(out, "library_write_queue_rows", "gauge", "Rows waiting in a write queue.");
+            Metrics.sample(out, "library_write_queue_rows", "table=\"book\"", bookWrites.size());
+            Metrics.sample(out, "library_write_queue_rows", "table=\"author\"", authorWrites.size());
+            Metrics.family(out, "library_write_queue_commits_total", "counter", "Groups committed by a write queue.");
+            Metrics.sample(out, "library_write_queue_commits_total", "table=\"book\"", bookWrites.getGroups());
+            Metrics.sample(out, "library_write_queue_commits_total", "table=\"author\"", authorWrites.getGroups());
+            Metrics.family(out, "library_write_queue_writes_total", "counter", "Rows written by a write queue.");
+            Metrics.sample(out, "library_write_queue_writes_total", "table=\"book\"", bookWrites.getWrites());
+            Metrics.sample(out, "library_write_queue_writes_total", "table=\"author\"", authorWrites.getWrites());
+        }
+        if (ConnectionUtil.getDataSource() instanceof RoutingDataSource) {
+            RoutingDataSource routing = (RoutingDataSource) ConnectionUtil.getDataSource();
+            Metrics.family(out, "library_db_reads_total", "counter", "DAO reads by the database they were sent to.");
+            Metrics.sample(out, "library_db_reads_total", "target=\"replica\"", routing.getReplicaReads());
+            Metrics.sample(out, "library_db_reads_total", "target=\"primary\"", routing.getPrimaryReads());
+            Metrics.family(out, "library_replica_lag_changes", "gauge",
+                    "Changes of the catalog a replica has not applied yet, -1 while it is down.");
+            for (RoutingDataSource.Replica replica : routing.getReplicas()) {
+                long applied = replica.getApplied();
+                Metrics.sample(out, "library_replica_lag_changes", "replica=\"" + replica.getName() + "\"",
+                        applied < 0 ? -1 : ChangeLog.CATALOG.getLatest() - applied);
+            }
+        }
+        Metrics.family(out, "library_query_executor_calls_total", "counter",
+                "Calls run on the query executor, by outcome.");
+        Metrics.sample(out, "library_query_executor_calls_total", "outcome=\"completed\"", QUERIES.getCompleted());
+        Metrics.sample(out, "library_query_executor_calls_total", "outcome=\"timeout\"", QUERIES.getTimeouts());
+        Metrics.sample(out, "library_query_executor_calls_total", "outcome=\"cancelled\"", QUERIES.getCancelled());
+        Metrics.sample(out, "library_query_executor_calls_total", "outcome=\"failed\"", QUERIES.getFailed());
+        Metrics.family(out, "library_change_log_seq", "gauge", "Sequence number of the last change of the catalog.");
+        Metrics.sample(out, "library_change_log_seq", null, ChangeLog.CATALOG.getLatest());
+        Metrics.family(out, "library_change_feed_subscribers", "gauge", "Open streams of the changes of the catalog.");
+        Metrics.sample(out, "library_change_feed_subscribers", null, changes.size());
+        ColumnarCatalog store = bookService.getColumnarCatalog();
+        if (store != null) {
+            Metrics.family(out, "library_columnar_catalog_bytes", "gauge", "Bytes held by the columnar catalog.");
+            Metrics.sample(out, "library_columnar_catalog_bytes", null, store.getBytes());
+        }
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(out.toString());
+    }
+
+    /**
+     * Handler to check out a copy of a book. Responds with the copies left, eg {"isbn":100,"copies_available":1}, or
+     * with a 404 message if there is no such book, or a 409 message (conflict) if it has no copies left.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     * @throws IOException if the response can not be written.
+     */
+    private void postCheckoutHandler(Context ctx) throws IOException {
+        int isbn = ctx.pathParamAsClass("isbn", Integer.class).get();
+        respondWithCopies(ctx, isbn, bookService.checkoutBook(isbn));
+    }
+    /**
+     * Handler to return a copy of a book. Responds with the copies available, or with a 404 message if there is no
+     * such book.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     * @throws IOException if the response can not be written.
+     */
+    private void postReturnHandler(Context ctx) throws IOException {
+        int isbn = ctx.pathParamAsClass("isbn", Integer.class).get();
+        respondWithCopies(ctx, isbn, bookService.returnBook(isbn));
+    }
+
+    private static void respondWithCopies(Context ctx, int isbn, int copies) throws IOException {
+        if (copies == CopyCounters.NOT_FOUND) {
+            ctx.status(404);
+            return;
+        }
+        if (copies == CopyCounters.UNAVAILABLE) {
+            ctx.status(409);
+            return;
+        }
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        try (JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(ctx.outputStream())) {
+            generator.writeStartObject();
+            generator.writeNumberField("isbn", isbn);
+            generator.writeNumberField("copies_available", copies);
+            generator.writeEndObject();
+        }
+    }
+
+    private static boolean isStreamRequested(Context ctx) {
+        return "true".equals(ctx.queryParam("stream"));
+    }
+
+    private static boolean isPageRequested(Context ctx) {
+        return ctx.queryParam("after") != null || ctx.queryParam("limit") != null;
+    }
+
+    /**
+     * @return the limit query parameter, defaulted and clamped to the allowed page sizes.
+     */
+    private static int pageLimit(Context ctx) {
+        int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(DEFAULT_PAGE_SIZE);
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    private static int chunkSize(Context ctx) {
+        int chunkSize = ctx.queryParamAsClass("chunkSize", Integer.class).getOrDefault(DEFAULT_CHUNK_SIZE);
+        return Math.max(1, Math.min(chunkSize, 100000));
+    }
+
+    /**
+     * Turn a failure to parse a bulk request body into a 400 response. The MappingIterator reports a malformed body
+     * with an unchecked exception, which is either a RuntimeJsonMappingException or wraps the parser's IOException.
+     */
+    private static void rejectMalformedBody(Context ctx, BulkImportReport report, RuntimeException e) {
+        if (!(e instanceof RuntimeJsonMappingException) && !(e.getCause() instanceof IOException)) {
+            throw e;
+        }
+        report.setError(e.getMessage());
+        ctx.status(400);
+    }
+
+    /**
+     * Write the rows produced by some source to the response as a JSON array, one element at a time, so that the
+     * rows never have to be held in memory together.
+     *
+     * If the source fails part way, eg because a page of rows could not be read, the array is not closed: a response
+     * that has not been sent yet becomes a 500 message, and one that has already started is cut off, so that the
+     * client sees the failure rather than a shorter array.
+     * @param ctx the context whose response the array is written to.
+     * @param source hands each row to the consumer it is given.
+     * @throws IOException if the response can not be written, eg because the client went away.
+     */
+    private static <T> void streamJsonArray(Context ctx, Consumer<Consumer<T>> source) throws IOException {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(ctx.outputStream());
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        try {
+            generator.writeStartArray();
+            source.accept(row -> {
+                try {
+                    generator.writeObject(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+            generator.close();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            if (ctx.res().isCommitted()) {
+                Request.getBaseRequest(ctx.req()).getHttpChannel().abort(e);
+            } else {
+                ctx.res().resetBuffer();
+            }
+            throw e;
+        }
     }
 }
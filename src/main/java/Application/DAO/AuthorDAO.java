@@ -1,11 +1,17 @@
 package Application.DAO;
 
 import Application.Model.Author;
+import Application.Model.AuthorWithBooks;
+import Application.Model.Book;
 import Application.Util.ConnectionUtil;
+import Application.Util.Metrics;
+import Application.Util.RoutingDataSource;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * A DAO is a class that mediates the transformation of data between the format of objects in Java to rows in a
@@ -15,8 +21,57 @@ import java.util.List;
  * It contains similar values as the Author class:
  * id, which is of type int and is a primary key,
  * name, which is of type varchar(255).
+ *
+ * The authors can be read together with their books, from the 'book' table, with a join.
+ *
+ * Like the BookDAO, it writes with a connection of its DataSource and reads with RoutingDataSource.getReadConnection,
+ * and its queries name the columns they read and map them by position, with AUTHOR.
  */
 public class AuthorDAO {
+    private static final Metrics.Query GET_ALL_AUTHORS = Metrics.query("AuthorDAO", "getAllAuthors");
+    private static final Metrics.Query GET_AUTHOR_BY_ID = Metrics.query("AuthorDAO", "getAuthorById");
+    private static final Metrics.Query INSERT_AUTHOR = Metrics.query("AuthorDAO", "insertAuthor");
+    private static final Metrics.Query FOR_EACH_AUTHOR_AFTER_ID = Metrics.query("AuthorDAO", "forEachAuthorAfterId");
+    private static final Metrics.Query INSERT_AUTHORS = Metrics.query("AuthorDAO", "insertAuthors");
+    private static final Metrics.Query DELETE_AUTHORS = Metrics.query("AuthorDAO", "deleteAuthors");
+    private static final Metrics.Query GET_AUTHOR_WITH_BOOKS = Metrics.query("AuthorDAO", "getAuthorWithBooks");
+    private static final Metrics.Query FOR_EACH_AUTHOR_WITH_BOOKS =
+            Metrics.query("AuthorDAO", "forEachAuthorWithBooks");
+    private static final Metrics.Query COUNT_AUTHORS = Metrics.query("AuthorDAO", "countAuthors");
+    private static final Metrics.Query GET_AUTHORS_BY_IDS = Metrics.query("AuthorDAO", "getAuthorsByIds");
+    private static final String AUTHORS_WITH_BOOKS = "SELECT a.id, a.name, b.isbn, b.author_id, b.title, "
+            + "b.copies_available FROM %s a LEFT JOIN book b ON b.author_id = a.id %s ORDER BY a.id, b.isbn";
+
+    /**
+     * Reads an author, from the columns id and name.
+     */
+    public static final RowMapper<Author> AUTHOR = new RowMapper<>("id, name",
+            rs -> new Author(rs.getInt(1), rs.getString(2)));
+
+    private final DataSource dataSource;
+
+    /**
+     * Create an AuthorDAO over the DataSource of the application, from ConnectionUtil.
+     */
+    public AuthorDAO(){
+        this(ConnectionUtil.getDataSource());
+    }
+
+    /**
+     * @param dataSource the DataSource to read and write the authors with.
+     */
+    public AuthorDAO(DataSource dataSource){
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return an AuthorDAO over the DataSource of the application, or a ShardedAuthorDAO over its shards if
+     * library.db.shards is set.
+     */
+    public static AuthorDAO create(){
+        List<DataSource> shards = ConnectionUtil.getShards();
+        return shards.size() > 1 ? new ShardedAuthorDAO(shards) : new AuthorDAO();
+    }
 
     /**
      * TODO: retrieve all authors from the Author table.
@@ -24,23 +79,102 @@ public class AuthorDAO {
      * @return all Authors.
      */
     public List<Author> getAllAuthors(){
-        Connection connection = ConnectionUtil.getConnection();
+        long start = System.nanoTime();
         List<Author> authors = new ArrayList<>();
-        try {
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
             //Write SQL logic here
-            String sql = "SELECT * FROM Author";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            ResultSet rs = preparedStatement.executeQuery();
-            while(rs.next()){
-                Author author = new Author(rs.getInt("id"), rs.getString("name"));
-                authors.add(author);
+            String sql = AUTHOR.select("Author");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                 ResultSet rs = preparedStatement.executeQuery()) {
+                AUTHOR.forEach(rs, authors::add);
+            }
+        }catch(SQLException e){
+            GET_ALL_AUTHORS.error();
+            System.out.println(e.getMessage());
+        }
+        GET_ALL_AUTHORS.record(start, authors.size());
+        return authors;
+    }
+
+    /**
+     * Retrieve an author from the Author table, identified by its id.
+     * @param id the id of an author.
+     * @return the author, or null if there is no author with that id.
+     */
+    public Author getAuthorById(int id){
+        long start = System.nanoTime();
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = AUTHOR.select("Author WHERE id=?");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setInt(1, id);
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    if(rs.next()){
+                        GET_AUTHOR_BY_ID.record(start, 1);
+                        return AUTHOR.map(rs);
+                    }
+                }
+            }
+        }catch(SQLException e){
+            GET_AUTHOR_BY_ID.error();
+            System.out.println(e.getMessage());
+        }
+        GET_AUTHOR_BY_ID.record(start, 0);
+        return null;
+    }
+
+    /**
+     * Retrieve many authors from the Author table, identified by their ids, with one query.
+     * @param ids the ids of some authors.
+     * @return the authors that exist, in no particular order, or null if they could not be read.
+     */
+    public List<Author> getAuthorsByIds(int[] ids){
+        long start = System.nanoTime();
+        List<Author> authors = new ArrayList<>(ids.length);
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = AUTHOR.select("Author WHERE id = ANY(?)");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                Integer[] array = new Integer[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    array[i] = ids[i];
+                }
+                preparedStatement.setArray(1, connection.createArrayOf("INTEGER", array));
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    AUTHOR.forEach(rs, authors::add);
+                }
             }
         }catch(SQLException e){
+            GET_AUTHORS_BY_IDS.error();
             System.out.println(e.getMessage());
+            GET_AUTHORS_BY_IDS.record(start, 0);
+            return null;
         }
+        GET_AUTHORS_BY_IDS.record(start, authors.size());
         return authors;
     }
 
+    /**
+     * Count the authors of the Author table.
+     * @return the number of authors, or -1 if they could not be counted.
+     */
+    public long countAuthors(){
+        long start = System.nanoTime();
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource);
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM Author");
+             ResultSet rs = preparedStatement.executeQuery()) {
+            if (rs.next()) {
+                COUNT_AUTHORS.record(start, 1);
+                return rs.getLong(1);
+            }
+        }catch(SQLException e){
+            COUNT_AUTHORS.error();
+            System.out.println(e.getMessage());
+        }
+        COUNT_AUTHORS.record(start, 0);
+        return -1;
+    }
+
     /**
      * TODO: insert an author into the Author table.
      * The author_id should be automatically generated by the sql database if it is not provided because it was
@@ -48,25 +182,252 @@ public class AuthorDAO {
      * You only need to change the sql String and leverage PreparedStatements' setString methods.
      */
     public Author insertAuthor(Author author){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
 //          Write SQL logic here. You should only be inserting with the name column, so that the database may
 //          automatically generate a primary key.
             String sql = "INSERT INTO Author (name) VALUES (?);" ;
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-
-            //write preparedStatement's setString method here.
-            preparedStatement.setString(1, author.getName());
-            
-            preparedStatement.executeUpdate();
-            ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
-            if(pkeyResultSet.next()){
-                int generated_author_id = (int) pkeyResultSet.getLong(1);
-                return new Author(generated_author_id, author.getName());
+            try (PreparedStatement preparedStatement =
+                         connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+                //write preparedStatement's setString method here.
+                preparedStatement.setString(1, author.getName());
+
+                preparedStatement.executeUpdate();
+                try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+                    if(pkeyResultSet.next()){
+                        int generated_author_id = (int) pkeyResultSet.getLong(1);
+                        INSERT_AUTHOR.record(start, 1);
+                        return new Author(generated_author_id, author.getName());
+                    }
+                }
+            }
+        }catch(SQLException e){
+            INSERT_AUTHOR.error();
+            System.out.println(e.getMessage());
+        }
+        INSERT_AUTHOR.record(start, 0);
+        return null;
+    }
+
+    /**
+     * Retrieve one page of authors ordered by id, starting after some id.
+     * @param afterId the last id of the previous page, or null for the first page.
+     * @param limit the maximum number of authors in the page.
+     * @return up to limit authors with an id greater than afterId.
+     * @throws IllegalStateException if the page could not be read.
+     */
+    public List<Author> getAuthorsAfterId(Integer afterId, int limit){
+        List<Author> authors = new ArrayList<>();
+        if (forEachAuthorAfterId(afterId, limit, authors::add) < 0) {
+            throw new IllegalStateException("The authors after id " + afterId + " could not be read");
+        }
+        return authors;
+    }
+
+    /**
+     * Hand one page of authors ordered by id to a consumer as they are read from the ResultSet.
+     * @param afterId the last id of the previous page, or null for the first page.
+     * @param limit the maximum number of authors to read.
+     * @param consumer receives each author in id order.
+     * @return the number of authors read, or -1 if the page could not all be read.
+     */
+    public int forEachAuthorAfterId(Integer afterId, int limit, Consumer<Author> consumer){
+        long start = System.nanoTime();
+        int count = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = afterId == null
+                    ? AUTHOR.select("Author ORDER BY id LIMIT ?")
+                    : AUTHOR.select("Author WHERE id > ? ORDER BY id LIMIT ?");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                int parameter = 1;
+                if (afterId != null) {
+                    preparedStatement.setInt(parameter++, afterId);
+                }
+                preparedStatement.setInt(parameter, limit);
+                preparedStatement.setFetchSize(Math.min(limit, RowMapper.FETCH_SIZE));
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    count = AUTHOR.forEach(rs, consumer);
+                }
+            }
+        }catch(SQLException e){
+            FOR_EACH_AUTHOR_AFTER_ID.error();
+            System.out.println(e.getMessage());
+            count = -1;
+        }
+        FOR_EACH_AUTHOR_AFTER_ID.record(start, Math.max(count, 0));
+        return count;
+    }
+
+    /**
+     * Insert many authors with a single JDBC batch in one transaction.
+     * @param authors the authors to insert, without ids.
+     * @return the persisted authors with their generated ids, in order, with null in place of any author that could
+     * not be inserted; or null if the batch could not be run at all.
+     */
+    public List<Author> insertAuthors(List<Author> authors){
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            String sql = "INSERT INTO Author (name) VALUES (?);" ;
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement =
+                         connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (Author author : authors) {
+                    preparedStatement.setString(1, author.getName());
+                    preparedStatement.addBatch();
+                }
+                int[] updateCounts;
+                try {
+                    updateCounts = preparedStatement.executeBatch();
+                } catch (BatchUpdateException e) {
+                    updateCounts = e.getUpdateCounts();
+                }
+                List<Author> persisted = new ArrayList<>(authors.size());
+                try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+                    for (int i = 0; i < authors.size(); i++) {
+                        if (i < updateCounts.length && updateCounts[i] > 0 && pkeyResultSet.next()) {
+                            persisted.add(new Author((int) pkeyResultSet.getLong(1), authors.get(i).getName()));
+                        } else {
+                            persisted.add(null);
+                        }
+                    }
+                }
+                connection.commit();
+                INSERT_AUTHORS.record(start, authors.size());
+                return persisted;
             }
         }catch(SQLException e){
+            INSERT_AUTHORS.error();
             System.out.println(e.getMessage());
         }
+        INSERT_AUTHORS.record(start, 0);
         return null;
     }
+
+    /**
+     * Delete many authors with a single JDBC batch in one transaction, eg the authors whose copy to the other shards
+     * failed.
+     * @param ids the ids of the authors.
+     * @return true if the authors were deleted, false if none were.
+     */
+    boolean deleteAuthors(int[] ids){
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            String sql = "DELETE FROM author WHERE id = ?";
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (int id : ids) {
+                    preparedStatement.setInt(1, id);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                connection.commit();
+                DELETE_AUTHORS.record(start, ids.length);
+                return true;
+            }
+        }catch(SQLException e){
+            DELETE_AUTHORS.error();
+            System.out.println(e.getMessage());
+        }
+        DELETE_AUTHORS.record(start, 0);
+        return false;
+    }
+
+    /**
+     * Retrieve an author and their books with a single join query.
+     * @param id the id of an author.
+     * @return the author with their books ordered by isbn, or null if there is no author with that id.
+     */
+    public AuthorWithBooks getAuthorWithBooks(int id){
+        long start = System.nanoTime();
+        AuthorWithBooks[] found = new AuthorWithBooks[1];
+        int rows = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = String.format(AUTHORS_WITH_BOOKS, "Author", "WHERE a.id = ?");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setInt(1, id);
+                rows = readAuthorsWithBooks(preparedStatement, author -> found[0] = author);
+            }
+        }catch(SQLException e){
+            GET_AUTHOR_WITH_BOOKS.error();
+            System.out.println(e.getMessage());
+        }
+        GET_AUTHOR_WITH_BOOKS.record(start, rows);
+        return found[0];
+    }
+
+    /**
+     * Hand authors ordered by id, each with their books, to a consumer, with a single join query whose rows are
+     * grouped by author as they are read from the ResultSet.
+     * @param afterId the last id of the previous page, or null for the first page.
+     * @param limit the maximum number of authors to read, or null to read every author after afterId.
+     * @param consumer receives each author with their books ordered by isbn.
+     * @return the number of authors read, or -1 if they could not all be read.
+     */
+    public int forEachAuthorWithBooks(Integer afterId, Integer limit, Consumer<AuthorWithBooks> consumer){
+        long start = System.nanoTime();
+        int[] count = new int[1];
+        int rows = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String authors = "Author";
+            if (afterId != null || limit != null) {
+                authors = "(SELECT id, name FROM Author" + (afterId == null ? "" : " WHERE id > ?") + " ORDER BY id"
+                        + (limit == null ? "" : " LIMIT ?") + ")";
+            }
+            String sql = String.format(AUTHORS_WITH_BOOKS, authors, "");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                int parameter = 1;
+                if (afterId != null) {
+                    preparedStatement.setInt(parameter++, afterId);
+                }
+                if (limit != null) {
+                    preparedStatement.setInt(parameter, limit);
+                }
+                preparedStatement.setFetchSize(RowMapper.FETCH_SIZE);
+                rows = readAuthorsWithBooks(preparedStatement, author -> {
+                    count[0]++;
+                    consumer.accept(author);
+                });
+            }
+        }catch(SQLException e){
+            FOR_EACH_AUTHOR_WITH_BOOKS.error();
+            System.out.println(e.getMessage());
+            count[0] = -1;
+        }
+        FOR_EACH_AUTHOR_WITH_BOOKS.record(start, rows);
+        return count[0];
+    }
+
+    /**
+     * Run a query of authors left joined with their books, ordered by author, and group its rows in one pass: an
+     * author is handed on as soon as the rows move on to the next author.
+     * @return the number of rows read.
+     */
+    private static int readAuthorsWithBooks(PreparedStatement preparedStatement, Consumer<AuthorWithBooks> consumer)
+            throws SQLException {
+        int rows = 0;
+        try (ResultSet rs = preparedStatement.executeQuery()) {
+            AuthorWithBooks author = null;
+            while(rs.next()){
+                rows++;
+                int id = rs.getInt(1);
+                if (author == null || author.getId() != id) {
+                    if (author != null) {
+                        consumer.accept(author);
+                    }
+                    author = new AuthorWithBooks(id, rs.getString(2));
+                }
+                int isbn = rs.getInt(3);
+                // an author without books has one row, with nulls in the book columns
+                if (!rs.wasNull()) {
+                    author.getBooks().add(new Book(isbn, rs.getInt(4), rs.getString(5), rs.getInt(6)));
+                }
+            }
+            if (author != null) {
+                consumer.accept(author);
+            }
+        }
+        return rows;
+    }
 }
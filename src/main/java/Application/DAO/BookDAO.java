@@ -1,14 +1,24 @@
 package Application.DAO;
 
 import Application.Util.ConnectionUtil;
+import Application.Util.Metrics;
 import Application.Model.Book;
+import Application.Model.BulkImportReport;
+import Application.Util.RoutingDataSource;
 
+import javax.sql.DataSource;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * A DAO is a class that mediates the transformation of data between the format of objects in Java to rows in a
@@ -20,32 +30,101 @@ import java.util.List;
  * author_id, which is of type int, and is a foreign key associated with the column 'id' of 'author',
  * name, which is of type varchar(255),
  * copies_available, which is of type int.
+ *
+ * Writes use a connection of the DataSource, and reads use RoutingDataSource.getReadConnection, which sends them to a
+ * read replica when the DataSource is a RoutingDataSource.
+ *
+ * The scans also have a streaming form, forEach..., that hands each book on as it is read; the ShardedBookDAO runs
+ * them on every shard at once. The queries name the columns they read and map them by position, with BOOK, and the
+ * projections, forEachIsbn and forEachAvailableCopies, read only the columns they hand on, without building Books.
  */
 public class BookDAO {
+    private static final Metrics.Query GET_ALL_BOOKS = Metrics.query("BookDAO", "getAllBooks");
+    private static final Metrics.Query GET_BOOK_BY_ISBN = Metrics.query("BookDAO", "getBookByIsbn");
+    private static final Metrics.Query GET_BOOKS_BY_AUTHOR_ID = Metrics.query("BookDAO", "getBooksByAuthorId");
+    private static final Metrics.Query INSERT_BOOK = Metrics.query("BookDAO", "insertBook");
+    private static final Metrics.Query INSERT_BOOKS = Metrics.query("BookDAO", "insertBooks");
+    private static final Metrics.Query GET_BOOKS_WITH_BOOK_COUNT_OVER_ZERO =
+            Metrics.query("BookDAO", "getBooksWithBookCountOverZero");
+    private static final Metrics.Query UPDATE_COPIES_AVAILABLE = Metrics.query("BookDAO", "updateCopiesAvailable");
+    private static final Metrics.Query FOR_EACH_BOOK_AFTER_ISBN = Metrics.query("BookDAO", "forEachBookAfterIsbn");
+    private static final Metrics.Query DELETE_BOOKS = Metrics.query("BookDAO", "deleteBooks");
+    private static final Metrics.Query COUNT_BOOKS = Metrics.query("BookDAO", "countBooks");
+    private static final Metrics.Query COUNT_AVAILABLE_BOOKS = Metrics.query("BookDAO", "countAvailableBooks");
+    private static final Metrics.Query SUM_COPIES_AVAILABLE = Metrics.query("BookDAO", "sumCopiesAvailable");
+    private static final Metrics.Query COUNT_BOOKS_BY_AUTHOR = Metrics.query("BookDAO", "countBooksByAuthor");
+    private static final Metrics.Query FOR_EACH_ISBN = Metrics.query("BookDAO", "forEachIsbn");
+    private static final Metrics.Query FOR_EACH_AVAILABLE_COPIES = Metrics.query("BookDAO", "forEachAvailableCopies");
+
+    /**
+     * Reads a whole book, from the columns isbn, author_id, title and copies_available.
+     */
+    public static final RowMapper<Book> BOOK = new RowMapper<>("isbn, author_id, title, copies_available",
+            rs -> new Book(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getInt(4)));
+
+    private final DataSource dataSource;
+
+    /**
+     * Create a BookDAO over the DataSource of the application, from ConnectionUtil.
+     */
+    public BookDAO(){
+        this(ConnectionUtil.getDataSource());
+    }
+
+    /**
+     * @param dataSource the DataSource to read and write the books with, eg a ConnectionPool or a RoutingDataSource.
+     */
+    public BookDAO(DataSource dataSource){
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return a BookDAO over the DataSource of the application, or a ShardedBookDAO over its shards if
+     * library.db.shards is set.
+     */
+    public static BookDAO create(){
+        List<DataSource> shards = ConnectionUtil.getShards();
+        return shards.size() > 1 ? new ShardedBookDAO(shards) : new BookDAO();
+    }
+
     /**
      * TODO: retrieve all books from the Book table.
      * You only need to change the sql String.
      * @return all Books.
+     * @throws IllegalStateException if the books could not all be read.
      */
     public List<Book> getAllBooks(){
-        Connection connection = ConnectionUtil.getConnection();
         List<Book> books = new ArrayList<>();
-        try {
+        if (forEachBook(books::add) < 0) {
+            throw new IllegalStateException("The books could not be read");
+        }
+        return books;
+    }
+
+    /**
+     * Hand every book of the Book table to a consumer as it is read from the ResultSet, in no particular order.
+     * @param consumer receives each book.
+     * @return the number of books read, or -1 if they could not all be read.
+     */
+    public int forEachBook(Consumer<Book> consumer){
+        long start = System.nanoTime();
+        int count = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
             //Write SQL logic here
-            String sql = "SELECT * FROM book";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            ResultSet rs = preparedStatement.executeQuery();
-            while(rs.next()){
-                Book book = new Book(rs.getInt("isbn"),
-                        rs.getInt("author_id"),
-                        rs.getString("title"),
-                        rs.getInt("copies_available"));
-                books.add(book);
+            String sql = BOOK.select("book");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setFetchSize(RowMapper.FETCH_SIZE);
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    count = BOOK.forEach(rs, consumer);
+                }
             }
         }catch(SQLException e){
+            GET_ALL_BOOKS.error();
             System.out.println(e.getMessage());
+            count = -1;
         }
-        return books;
+        GET_ALL_BOOKS.record(start, Math.max(count, 0));
+        return count;
     }
 
     /**
@@ -54,83 +133,455 @@ public class BookDAO {
      * @return a book identified by isbn.
      */
     public Book getBookByIsbn(int isbn){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
             //Write SQL logic here
-            String sql = "SELECT * FROM book WHERE isbn=?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-            //write preparedStatement's setInt method here.
-            preparedStatement.setInt(1, isbn); 
-
-            ResultSet rs = preparedStatement.executeQuery();
-            while(rs.next()){
-                Book book = new Book(rs.getInt("isbn"),
-                        rs.getInt("author_id"),
-                        rs.getString("title"),
-                        rs.getInt("copies_available"));
-                return book;
+            String sql = BOOK.select("book WHERE isbn=?");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+                //write preparedStatement's setInt method here.
+                preparedStatement.setInt(1, isbn);
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    while(rs.next()){
+                        Book book = BOOK.map(rs);
+                        GET_BOOK_BY_ISBN.record(start, 1);
+                        return book;
+                    }
+                }
             }
         }catch(SQLException e){
+            GET_BOOK_BY_ISBN.error();
             System.out.println(e.getMessage());
         }
+        GET_BOOK_BY_ISBN.record(start, 0);
         return null;
     }
 
+    /**
+     * Retrieve the books of one author from the Book table.
+     * @param authorId the id of an author.
+     * @return the books written by that author, ordered by isbn.
+     */
+    public List<Book> getBooksByAuthorId(int authorId){
+        long start = System.nanoTime();
+        List<Book> books = new ArrayList<>();
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = BOOK.select("book WHERE author_id=? ORDER BY isbn");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setInt(1, authorId);
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    BOOK.forEach(rs, books::add);
+                }
+            }
+        }catch(SQLException e){
+            GET_BOOKS_BY_AUTHOR_ID.error();
+            System.out.println(e.getMessage());
+        }
+        GET_BOOKS_BY_AUTHOR_ID.record(start, books.size());
+        return books;
+    }
+
     /**
      * TODO: insert a book into the Book table.
      * Unlike some of the other insert problems, the primary key here will be provided by the client as part of the
      * Book object. Given the specific nature of an ISBN as both a numerical organization of books outside of this
      * database, and as a primary key, it would make sense for the client to submit an ISBN when submitting a book.
      * You only need to change the sql String and leverage PreparedStatement's setString and setInt methods.
+     *
+     * The insert is atomic: if the isbn is already in use, the primary key constraint rejects it, so there is no need
+     * to look the isbn up first, and two concurrent inserts of the same isbn can not both succeed.
+     * @return the book if it was inserted, null if the isbn was already in use or the insert failed.
      */
     public Book insertBook(Book book){
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
             //Write SQL logic here
             String sql = "INSERT INTO Book (isbn, author_id, title, copies_available) VALUES (?, ?, ?, ?);" ;
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
-            //write preparedStatement's setString and setInt methods here.
-            preparedStatement.setInt(1, book.getIsbn());
-            preparedStatement.setInt(2, book.getAuthor_id());
-            preparedStatement.setString(3, book.getTitle());
-            preparedStatement.setInt(4, book.getCopies_available());
+                //write preparedStatement's setString and setInt methods here.
+                preparedStatement.setInt(1, book.getIsbn());
+                preparedStatement.setInt(2, book.getAuthor_id());
+                preparedStatement.setString(3, book.getTitle());
+                preparedStatement.setInt(4, book.getCopies_available());
 
-            preparedStatement.executeUpdate();
-            return book;
+                preparedStatement.executeUpdate();
+                INSERT_BOOK.record(start, 1);
+                return book;
+            }
         }catch(SQLException e){
+            if (!isDuplicateKey(e)) {
+                INSERT_BOOK.error();
+                System.out.println(e.getMessage());
+            }
+        }
+        INSERT_BOOK.record(start, 0);
+        return null;
+    }
+
+    /**
+     * Insert many books with a single JDBC batch in one transaction. A book whose isbn is already in use, either in
+     * the table or earlier in the same list, is skipped rather than failing the batch.
+     * @param books the books to insert.
+     * @return the outcome of each book, in order: BulkImportReport.INSERTED, DUPLICATE or FAILED; or null if the batch
+     * could not be run at all.
+     */
+    public String[] insertBooks(List<Book> books){
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            String sql = "INSERT INTO book (isbn, author_id, title, copies_available) " +
+                    "SELECT CAST(? AS INT), CAST(? AS INT), CAST(? AS VARCHAR(255)), CAST(? AS INT) " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM book WHERE isbn = ?)";
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (Book book : books) {
+                    preparedStatement.setInt(1, book.getIsbn());
+                    preparedStatement.setInt(2, book.getAuthor_id());
+                    preparedStatement.setString(3, book.getTitle());
+                    preparedStatement.setInt(4, book.getCopies_available());
+                    preparedStatement.setInt(5, book.getIsbn());
+                    preparedStatement.addBatch();
+                }
+                String[] statuses;
+                try {
+                    statuses = toStatuses(preparedStatement.executeBatch(), null);
+                } catch (BatchUpdateException e) {
+                    // H2 runs the rest of the batch after a failed row, so the rows that did succeed are kept.
+                    statuses = toStatuses(e.getUpdateCounts(), e);
+                }
+                connection.commit();
+                INSERT_BOOKS.record(start, books.size());
+                return statuses;
+            }
+        }catch(SQLException e){
+            INSERT_BOOKS.error();
             System.out.println(e.getMessage());
         }
+        INSERT_BOOKS.record(start, 0);
         return null;
     }
+
+    /**
+     * Change the copies available of many books with a single JDBC batch in one transaction.
+     * @param isbns the isbns of the books.
+     * @param deltas the number of copies to add to the book with the isbn at the same position, negative to remove.
+     * @return the isbns whose changes were not written: none if the batch was written, all of them if it failed.
+     */
+    public int[] updateCopiesAvailable(int[] isbns, int[] deltas){
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            String sql = "UPDATE book SET copies_available = copies_available + ? WHERE isbn = ?";
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < isbns.length; i++) {
+                    preparedStatement.setInt(1, deltas[i]);
+                    preparedStatement.setInt(2, isbns[i]);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                connection.commit();
+                UPDATE_COPIES_AVAILABLE.record(start, isbns.length);
+                return new int[0];
+            }
+        }catch(SQLException e){
+            UPDATE_COPIES_AVAILABLE.error();
+            System.out.println(e.getMessage());
+        }
+        UPDATE_COPIES_AVAILABLE.record(start, 0);
+        return isbns;
+    }
+
+    /**
+     * Delete many books with a single JDBC batch in one transaction, eg the books moved to another shard.
+     * @param isbns the isbns of the books.
+     * @return true if the books were deleted, false if none were.
+     */
+    boolean deleteBooks(int[] isbns){
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            String sql = "DELETE FROM book WHERE isbn = ?";
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (int isbn : isbns) {
+                    preparedStatement.setInt(1, isbn);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                connection.commit();
+                DELETE_BOOKS.record(start, isbns.length);
+                return true;
+            }
+        }catch(SQLException e){
+            DELETE_BOOKS.error();
+            System.out.println(e.getMessage());
+        }
+        DELETE_BOOKS.record(start, 0);
+        return false;
+    }
+
+    /**
+     * Translate the update counts of a batch into row outcomes. Each failed row has a matching exception in the
+     * chain of the BatchUpdateException, which tells whether it failed because of a duplicate isbn.
+     */
+    static String[] toStatuses(int[] updateCounts, BatchUpdateException failure){
+        String[] statuses = new String[updateCounts.length];
+        SQLException cause = failure == null ? null : failure.getNextException();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                statuses[i] = cause != null && isDuplicateKey(cause)
+                        ? BulkImportReport.DUPLICATE : BulkImportReport.FAILED;
+                cause = cause == null ? null : cause.getNextException();
+            } else if (updateCounts[i] == 0) {
+                statuses[i] = BulkImportReport.DUPLICATE;
+            } else {
+                statuses[i] = BulkImportReport.INSERTED;
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * @return true if an exception was caused by a primary key or unique constraint violation.
+     */
+    static boolean isDuplicateKey(SQLException e){
+        return "23505".equals(e.getSQLState());
+    }
     /**
      * TODO: retrieve all books from the Book table with copies_available over zero.
      * You only need to change the sql String and leverage PreparedStatement's setString and setInt methods.
      * @returnall books with book count > 0.
+     * @throws IllegalStateException if the books could not all be read.
      */
     public List<Book> getBooksWithBookCountOverZero(){
-        Connection connection = ConnectionUtil.getConnection();
         List<Book> books = new ArrayList<>();
-        try {
+        if (forEachBookWithBookCountOverZero(books::add) < 0) {
+            throw new IllegalStateException("The available books could not be read");
+        }
+        return books;
+    }
+
+    /**
+     * Hand every book with copies_available over zero to a consumer as it is read from the ResultSet, in no
+     * particular order.
+     * @param consumer receives each available book.
+     * @return the number of books read, or -1 if they could not all be read.
+     */
+    public int forEachBookWithBookCountOverZero(Consumer<Book> consumer){
+        long start = System.nanoTime();
+        int count = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
             //Write SQL logic here
-            String sql = "SELECT * FROM Book WHERE copies_available > ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-            //write preparedStatement's setInt method here.
-            preparedStatement.setInt(1, 0);
-
-            ResultSet rs = preparedStatement.executeQuery();
-            while(rs.next()){
-                Book book = new Book(rs.getInt("isbn"),
-                        rs.getInt("author_id"),
-                        rs.getString("title"),
-                        rs.getInt("copies_available"));
-                books.add(book);
+            String sql = BOOK.select("Book WHERE copies_available > ?");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+                //write preparedStatement's setInt method here.
+                preparedStatement.setInt(1, 0);
+                preparedStatement.setFetchSize(RowMapper.FETCH_SIZE);
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    count = BOOK.forEach(rs, consumer);
+                }
+            }
+        }catch(SQLException e){
+            GET_BOOKS_WITH_BOOK_COUNT_OVER_ZERO.error();
+            System.out.println(e.getMessage());
+            count = -1;
+        }
+        GET_BOOKS_WITH_BOOK_COUNT_OVER_ZERO.record(start, Math.max(count, 0));
+        return count;
+    }
+
+    /**
+     * Receives the isbn and copies available of a book, without a Book being built for them.
+     */
+    public interface CopiesConsumer {
+        void accept(int isbn, int copiesAvailable);
+    }
+
+    /**
+     * Hand the isbn of every book to a consumer, reading the isbn column alone, eg to learn which isbns are in use.
+     * @param consumer receives each isbn, in no particular order.
+     * @return the number of isbns read, or -1 if they could not all be read.
+     */
+    public int forEachIsbn(IntConsumer consumer){
+        long start = System.nanoTime();
+        int count = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = "SELECT isbn FROM book";
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setFetchSize(RowMapper.FETCH_SIZE);
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    while(rs.next()){
+                        consumer.accept(rs.getInt(1));
+                        count++;
+                    }
+                }
+            }
+        }catch(SQLException e){
+            FOR_EACH_ISBN.error();
+            System.out.println(e.getMessage());
+            count = -1;
+        }
+        FOR_EACH_ISBN.record(start, Math.max(count, 0));
+        return count;
+    }
+
+    /**
+     * Hand the isbn and copies available of every book with copies_available over zero to a consumer, reading those
+     * two columns alone, eg to check the availability of the catalog without reading the titles.
+     * @param consumer receives each available book, in no particular order.
+     * @return the number of books read, or -1 if they could not all be read.
+     */
+    public int forEachAvailableCopies(CopiesConsumer consumer){
+        long start = System.nanoTime();
+        int count = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = "SELECT isbn, copies_available FROM book WHERE copies_available > 0";
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setFetchSize(RowMapper.FETCH_SIZE);
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    while(rs.next()){
+                        consumer.accept(rs.getInt(1), rs.getInt(2));
+                        count++;
+                    }
+                }
+            }
+        }catch(SQLException e){
+            FOR_EACH_AVAILABLE_COPIES.error();
+            System.out.println(e.getMessage());
+            count = -1;
+        }
+        FOR_EACH_AVAILABLE_COPIES.record(start, Math.max(count, 0));
+        return count;
+    }
+
+    /**
+     * Count the books of the Book table.
+     * @return the number of books, or -1 if they could not be counted.
+     */
+    public long countBooks(){
+        return queryForLong(COUNT_BOOKS, "SELECT COUNT(*) FROM book");
+    }
+
+    /**
+     * Count the books with copies_available over zero, from the availability index alone.
+     * @return the number of available books, or -1 if they could not be counted.
+     */
+    public long countAvailableBooks(){
+        return queryForLong(COUNT_AVAILABLE_BOOKS, "SELECT COUNT(*) FROM book WHERE copies_available > 0");
+    }
+
+    /**
+     * Add up the copies available of every book, from the availability index alone.
+     * @return the number of copies available, or -1 if they could not be counted.
+     */
+    public long sumCopiesAvailable(){
+        return queryForLong(SUM_COPIES_AVAILABLE,
+                "SELECT COALESCE(SUM(copies_available), 0) FROM book WHERE copies_available > 0");
+    }
+
+    /**
+     * Count the books of the authors with the most books, from the author_id index alone.
+     * @param limit the maximum number of authors.
+     * @return the number of books by author id, the author with the most books first and ties by id, or null if they
+     * could not be counted.
+     */
+    public Map<Integer, Long> countBooksByAuthor(int limit){
+        long start = System.nanoTime();
+        Map<Integer, Long> counts = new LinkedHashMap<>();
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = "SELECT author_id, COUNT(*) AS books FROM book WHERE author_id IS NOT NULL " +
+                    "GROUP BY author_id ORDER BY books DESC, author_id LIMIT ?";
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setInt(1, limit);
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    while(rs.next()){
+                        counts.put(rs.getInt(1), rs.getLong(2));
+                    }
+                }
             }
         }catch(SQLException e){
+            COUNT_BOOKS_BY_AUTHOR.error();
             System.out.println(e.getMessage());
+            COUNT_BOOKS_BY_AUTHOR.record(start, 0);
+            return null;
+        }
+        COUNT_BOOKS_BY_AUTHOR.record(start, counts.size());
+        return counts;
+    }
+
+    /**
+     * Run a query that returns a single number.
+     * @return the number, or -1 if the query failed.
+     */
+    private long queryForLong(Metrics.Query query, String sql){
+        long start = System.nanoTime();
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource);
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
+            if (rs.next()) {
+                query.record(start, 1);
+                return rs.getLong(1);
+            }
+        }catch(SQLException e){
+            query.error();
+            System.out.println(e.getMessage());
+        }
+        query.record(start, 0);
+        return -1;
+    }
+
+    /**
+     * Retrieve one page of books ordered by isbn, starting after some isbn. Because the page is located through the
+     * primary key index rather than an OFFSET, fetching a page deep into the table costs the same as the first one.
+     * @param afterIsbn the last isbn of the previous page, or null for the first page.
+     * @param limit the maximum number of books in the page.
+     * @return up to limit books with an isbn greater than afterIsbn.
+     * @throws IllegalStateException if the page could not be read.
+     */
+    public List<Book> getBooksAfterIsbn(Integer afterIsbn, int limit){
+        List<Book> books = new ArrayList<>();
+        if (forEachBookAfterIsbn(afterIsbn, limit, books::add) < 0) {
+            throw new IllegalStateException("The books after isbn " + afterIsbn + " could not be read");
         }
         return books;
     }
+
+    /**
+     * Hand one page of books ordered by isbn to a consumer as they are read from the ResultSet, without collecting
+     * them first.
+     * @param afterIsbn the last isbn of the previous page, or null for the first page.
+     * @param limit the maximum number of books to read.
+     * @param consumer receives each book in isbn order.
+     * @return the number of books read, or -1 if the page could not all be read.
+     */
+    public int forEachBookAfterIsbn(Integer afterIsbn, int limit, Consumer<Book> consumer){
+        long start = System.nanoTime();
+        int count = 0;
+        try (Connection connection = RoutingDataSource.getReadConnection(dataSource)) {
+            String sql = afterIsbn == null
+                    ? BOOK.select("book ORDER BY isbn LIMIT ?")
+                    : BOOK.select("book WHERE isbn > ? ORDER BY isbn LIMIT ?");
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                int parameter = 1;
+                if (afterIsbn != null) {
+                    preparedStatement.setInt(parameter++, afterIsbn);
+                }
+                preparedStatement.setInt(parameter, limit);
+                preparedStatement.setFetchSize(Math.min(limit, RowMapper.FETCH_SIZE));
+
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    count = BOOK.forEach(rs, consumer);
+                }
+            }
+        }catch(SQLException e){
+            FOR_EACH_BOOK_AFTER_ISBN.error();
+            System.out.println(e.getMessage());
+            count = -1;
+        }
+        FOR_EACH_BOOK_AFTER_ISBN.record(start, Math.max(count, 0));
+        return count;
+    }
 }
@@ -0,0 +1,73 @@
+package Application.DAO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Reads the current row of a ResultSet into an object, taking the columns by position rather than by name, and names
+ * those columns, in order, for the SELECT list of the queries that use it. A query built with select reads exactly the
+ * columns its mapper needs, and each row then costs one call per column, with no lookup of a column by its label.
+ *
+ * The mappers of the DAOs are built once, as constants, eg BookDAO.BOOK and AuthorDAO.AUTHOR.
+ */
+public final class RowMapper<T> {
+    /**
+     * The number of rows a scan asks the driver for at a time (set with -Dlibrary.db.fetchSize, default 1000).
+     */
+    public static final int FETCH_SIZE = Integer.getInteger("library.db.fetchSize", 1000);
+
+    /**
+     * Reads the columns of a row, from 1 in the order of the column list.
+     */
+    public interface Reader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    private final String columns;
+    private final Reader<T> reader;
+
+    /**
+     * @param columns the columns the reader reads, separated by commas, eg "id, name".
+     * @param reader reads column 1 as the first of the columns, 2 as the second, and so on.
+     */
+    public RowMapper(String columns, Reader<T> reader){
+        this.columns = columns;
+        this.reader = reader;
+    }
+
+    /**
+     * @return the columns of the mapper, separated by commas.
+     */
+    public String getColumns(){
+        return columns;
+    }
+
+    /**
+     * @param rest the rest of the query, from the table on, eg "book WHERE isbn=?".
+     * @return a query that selects the columns of the mapper.
+     */
+    public String select(String rest){
+        return "SELECT " + columns + " FROM " + rest;
+    }
+
+    /**
+     * @return the current row of a ResultSet of a query built with select.
+     */
+    public T map(ResultSet rs) throws SQLException {
+        return reader.read(rs);
+    }
+
+    /**
+     * Hand every remaining row of a ResultSet to a consumer as it is read.
+     * @return the number of rows read.
+     */
+    public int forEach(ResultSet rs, Consumer<? super T> consumer) throws SQLException {
+        int count = 0;
+        while(rs.next()){
+            consumer.accept(reader.read(rs));
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,261 @@
+package Application.DAO;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Runs a query on every shard at once, and hands the rows to one consumer as they arrive, so that a scan of N shards
+ * takes about as long as a scan of the largest one, and no shard's rows are collected before the next one's are read.
+ *
+ * Each shard is read by a thread of its own, which passes its rows on in chunks through a small bounded queue: a
+ * consumer slower than the shards holds them back rather than letting them fill the memory. An unordered scan hands
+ * the chunks on in the order they arrive. An ordered scan needs every shard to read its rows in that order, and merges
+ * them as they arrive, always handing on the smallest of the next rows of the shards; it can stop after a limit, and
+ * the shards then stop reading too.
+ *
+ * A shard whose query fails ends its rows with FAILED rather than END, and the scan then reports -1, like the scan
+ * of a single database that fails, so that the rows of the other shards are not taken for all of them.
+ */
+class ShardScan {
+    private static final int CHUNK_SIZE = 256;
+    private static final int QUEUE_CHUNKS = 16;
+    private static final List<Object> END = new ArrayList<>();
+    private static final List<Object> FAILED = new ArrayList<>();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-scan");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A query of one shard, that hands each row it reads to a consumer, and returns the number of rows, or -1 if they
+     * could not all be read.
+     */
+    interface Scan<T> {
+        int run(int shard, Consumer<T> consumer);
+    }
+
+    /**
+     * Read every shard at once and hand each row on as it arrives, in no particular order.
+     * @param shards the number of shards.
+     * @param scan the query of a shard.
+     * @param consumer receives every row of every shard, on the calling thread.
+     * @return the number of rows handed on, or -1 if a shard could not be read.
+     */
+    static <T> int scan(int shards, Scan<T> scan, Consumer<T> consumer){
+        BlockingQueue<List<Object>> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS * shards);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        for (int shard = 0; shard < shards; shard++) {
+            produce(scan, shard, queue, cancelled);
+        }
+        int count = 0;
+        boolean failed = false;
+        try {
+            for (int ended = 0; ended < shards; ) {
+                List<Object> chunk = queue.take();
+                if (chunk == END || chunk == FAILED) {
+                    failed |= chunk == FAILED;
+                    ended++;
+                    continue;
+                }
+                for (Object row : chunk) {
+                    consumer.accept(cast(row));
+                    count++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        } finally {
+            cancelled.set(true);
+        }
+        return failed ? -1 : count;
+    }
+
+    /**
+     * Read every shard at once and merge their rows as they arrive into one ordered sequence.
+     * @param shards the number of shards.
+     * @param scan the query of a shard, which must read the rows in order.
+     * @param order the order of the rows.
+     * @param limit the maximum number of rows to hand on.
+     * @param consumer receives the rows in order, on the calling thread.
+     * @return the number of rows handed on, or -1 if a shard could not be read before the limit was reached.
+     */
+    static <T> int merge(int shards, Scan<T> scan, Comparator<T> order, int limit, Consumer<T> consumer){
+        AtomicBoolean cancelled = new AtomicBoolean();
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>(shards, (a, b) -> order.compare(a.row, b.row));
+        int count = 0;
+        try {
+            List<Head<T>> started = new ArrayList<>(shards);
+            for (int shard = 0; shard < shards; shard++) {
+                BlockingQueue<List<Object>> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+                produce(scan, shard, queue, cancelled);
+                started.add(new Head<>(queue));
+            }
+            for (Head<T> head : started) {
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+            while (count < limit && !heads.isEmpty()) {
+                Head<T> head = heads.poll();
+                consumer.accept(head.row);
+                count++;
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+            for (Head<T> head : started) {
+                if (head.failed) {
+                    return -1;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } finally {
+            cancelled.set(true);
+        }
+        return count;
+    }
+
+    /**
+     * Run a task for every shard at once, eg a write of the rows that belong to it, and wait for all of them.
+     * @param shards the number of shards.
+     * @param task the task of a shard.
+     * @return the result of each shard's task, by shard.
+     */
+    static <R> List<R> each(int shards, IntFunction<R> task){
+        List<Future<R>> futures = new ArrayList<>(shards);
+        for (int shard = 1; shard < shards; shard++) {
+            int index = shard;
+            futures.add(EXECUTOR.submit(() -> task.apply(index)));
+        }
+        List<R> results = new ArrayList<>(shards);
+        // the calling thread takes the first shard itself rather than wait idle
+        results.add(task.apply(0));
+        for (Future<R> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Start reading a shard on a thread of its own, putting its rows into a queue in chunks, and END after the last,
+     * or FAILED if they could not all be read.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void produce(Scan<T> scan, int shard, BlockingQueue<List<Object>> queue,
+                                    AtomicBoolean cancelled){
+        EXECUTOR.execute(() -> {
+            List<Object>[] chunk = new List[]{new ArrayList<>(CHUNK_SIZE)};
+            List<Object> end = END;
+            try {
+                int read = scan.run(shard, row -> {
+                    chunk[0].add(row);
+                    if (chunk[0].size() == CHUNK_SIZE) {
+                        put(queue, chunk[0], cancelled);
+                        chunk[0] = new ArrayList<>(CHUNK_SIZE);
+                    }
+                });
+                if (!chunk[0].isEmpty()) {
+                    put(queue, chunk[0], cancelled);
+                }
+                if (read < 0) {
+                    end = FAILED;
+                }
+            } catch (Cancelled e) {
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Shard " + shard + " could not be read: " + e.getMessage());
+                end = FAILED;
+            }
+            try {
+                put(queue, end, cancelled);
+            } catch (Cancelled e) {
+                // nobody is waiting for the end any more
+            }
+        });
+    }
+
+    /**
+     * Wait for room in the queue, unless the consumer has stopped, in which case the scan of the shard is abandoned.
+     */
+    private static void put(BlockingQueue<List<Object>> queue, List<Object> chunk, AtomicBoolean cancelled){
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get()) {
+                    throw new Cancelled();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new Cancelled();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object row){
+        return (T) row;
+    }
+
+    /**
+     * The next row of a shard in an ordered scan.
+     */
+    private static class Head<T> {
+        final BlockingQueue<List<Object>> queue;
+        List<Object> chunk = List.of();
+        int index;
+        T row;
+        boolean failed;
+
+        Head(BlockingQueue<List<Object>> queue){
+            this.queue = queue;
+        }
+
+        /**
+         * Move on to the next row of the shard, waiting for it if need be.
+         * @return false if the shard has no more rows, or could not read them.
+         */
+        boolean next() throws InterruptedException {
+            while (index == chunk.size()) {
+                chunk = queue.take();
+                index = 0;
+                if (chunk == END || chunk == FAILED) {
+                    failed = chunk == FAILED;
+                    return false;
+                }
+            }
+            row = cast(chunk.get(index++));
+            return true;
+        }
+    }
+
+    /**
+     * Thrown into a shard's query to stop it once the consumer no longer wants its rows.
+     */
+    private static class Cancelled extends RuntimeException {
+        Cancelled(){
+            super(null, null, false, false);
+        }
+    }
+}
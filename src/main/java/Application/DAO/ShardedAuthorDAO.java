@@ -0,0 +1,209 @@
+package Application.DAO;
+
+import Application.Model.Author;
+import Application.Model.AuthorWithBooks;
+import Application.Model.Book;
+import Application.Util.Metrics;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The AuthorDAO of a catalog whose books are partitioned over shards by the ShardedBookDAO. The authors are few and
+ * read by every shard's book table, so they are not partitioned: the first shard, the database of the application,
+ * holds them and generates their ids, and every author inserted there is copied, with its id, to every other shard.
+ * The reads of authors alone go to the first shard. An author that can not be copied to every shard is not inserted:
+ * it is deleted again from the shards that have it, as a shard without the author could not take their books.
+ *
+ * An author with their books is read from every shard at once, each shard joining the authors with its own books, and
+ * the results are merged by author id.
+ */
+public class ShardedAuthorDAO extends AuthorDAO {
+    private static final Metrics.Query COPY_AUTHORS = Metrics.query("ShardedAuthorDAO", "copyAuthors");
+    private static final String MERGE_AUTHOR = "MERGE INTO author (id, name) KEY (id) VALUES (?, ?)";
+    private static final int SYNC_PAGE_SIZE = 1000;
+
+    private final List<DataSource> dataSources;
+    private final AuthorDAO[] shards;
+
+    /**
+     * @param dataSources the DataSources of the shards, the database of the application first, in the same order as
+     *                    for the ShardedBookDAO.
+     */
+    public ShardedAuthorDAO(List<DataSource> dataSources){
+        super(dataSources.get(0));
+        this.dataSources = List.copyOf(dataSources);
+        shards = new AuthorDAO[dataSources.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new AuthorDAO(dataSources.get(i));
+        }
+    }
+
+    /**
+     * Insert an author into the first shard, then copy it to the others.
+     * @return the persisted author, or null if it could not be inserted into every shard.
+     */
+    @Override
+    public Author insertAuthor(Author author){
+        Author persisted = super.insertAuthor(author);
+        if (persisted != null && !copyToShards(List.of(persisted))) {
+            return null;
+        }
+        return persisted;
+    }
+
+    /**
+     * Insert many authors into the first shard, then copy them to the others.
+     * @return the persisted authors as for an AuthorDAO, or null if they could not be copied to every shard, in which
+     * case none of them is inserted.
+     */
+    @Override
+    public List<Author> insertAuthors(List<Author> authors){
+        List<Author> persisted = super.insertAuthors(authors);
+        if (persisted != null) {
+            List<Author> inserted = new ArrayList<>(persisted.size());
+            for (Author author : persisted) {
+                if (author != null) {
+                    inserted.add(author);
+                }
+            }
+            if (!copyToShards(inserted)) {
+                return null;
+            }
+        }
+        return persisted;
+    }
+
+    @Override
+    public AuthorWithBooks getAuthorWithBooks(int id){
+        List<AuthorWithBooks> parts = ShardScan.each(shards.length, shard -> shards[shard].getAuthorWithBooks(id));
+        AuthorWithBooks author = null;
+        for (AuthorWithBooks part : parts) {
+            if (part == null) {
+                continue;
+            }
+            if (author == null) {
+                author = part;
+            } else {
+                author.getBooks().addAll(part.getBooks());
+            }
+        }
+        if (author != null) {
+            author.getBooks().sort(Comparator.comparingInt(Book::getIsbn));
+        }
+        return author;
+    }
+
+    /**
+     * Hand authors ordered by id, each with their books from every shard, to a consumer. Every shard reads the same
+     * authors, with its own books; the merge brings the rows of an author together, and hands the author on once the
+     * rows move on to the next one.
+     * @return the number of authors, or -1 if a shard could not be read.
+     */
+    @Override
+    public int forEachAuthorWithBooks(Integer afterId, Integer limit, Consumer<AuthorWithBooks> consumer){
+        AuthorWithBooks[] pending = new AuthorWithBooks[1];
+        int[] count = new int[1];
+        int merged = ShardScan.merge(shards.length,
+                (shard, rows) -> shards[shard].forEachAuthorWithBooks(afterId, limit, rows),
+                Comparator.comparingInt(AuthorWithBooks::getId), Integer.MAX_VALUE, author -> {
+                    if (pending[0] != null && pending[0].getId() == author.getId()) {
+                        pending[0].getBooks().addAll(author.getBooks());
+                        return;
+                    }
+                    if (pending[0] != null) {
+                        pending[0].getBooks().sort(Comparator.comparingInt(Book::getIsbn));
+                        consumer.accept(pending[0]);
+                    }
+                    pending[0] = author;
+                    count[0]++;
+                });
+        // the books of a failed shard are missing from the authors, so the last one is not handed on either
+        if (merged < 0) {
+            return -1;
+        }
+        if (pending[0] != null) {
+            pending[0].getBooks().sort(Comparator.comparingInt(Book::getIsbn));
+            consumer.accept(pending[0]);
+        }
+        return count[0];
+    }
+
+    /**
+     * Copy every author of the first shard to the other shards, eg when shards are added, or when a shard missed the
+     * copy of an author because it was down.
+     * @return the number of authors copied to each shard, or -1 if they could not be copied to every shard.
+     */
+    public int syncAuthors(){
+        int copied = 0;
+        Integer after = null;
+        while (true) {
+            List<Author> page = getAuthorsAfterId(after, SYNC_PAGE_SIZE);
+            if (page.isEmpty()) {
+                return copied;
+            }
+            if (!write(page)) {
+                return -1;
+            }
+            copied += page.size();
+            after = page.get(page.size() - 1).getId();
+        }
+    }
+
+    /**
+     * Copy authors just inserted into the first shard to every other shard, or, if that fails, delete them again from
+     * every shard.
+     * @return true if the authors are on every shard, false if they are on none.
+     */
+    private boolean copyToShards(List<Author> authors){
+        if (write(authors)) {
+            return true;
+        }
+        int[] ids = authors.stream().mapToInt(Author::getId).toArray();
+        // the shards the copy failed on may not hold them, and the others are cleaned up as far as they can be
+        ShardScan.each(shards.length, shard -> shards[shard].deleteAuthors(ids));
+        return false;
+    }
+
+    /**
+     * Write authors, with their ids, to every shard but the first, all shards at once, each in one transaction.
+     * @return true if every shard was written.
+     */
+    private boolean write(List<Author> authors){
+        if (authors.isEmpty()) {
+            return true;
+        }
+        List<Boolean> results = ShardScan.each(dataSources.size(), shard -> {
+            if (shard == 0) {
+                return true;
+            }
+            long start = System.nanoTime();
+            try (Connection connection = dataSources.get(shard).getConnection()) {
+                connection.setAutoCommit(false);
+                try (PreparedStatement preparedStatement = connection.prepareStatement(MERGE_AUTHOR)) {
+                    for (Author author : authors) {
+                        preparedStatement.setInt(1, author.getId());
+                        preparedStatement.setString(2, author.getName());
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                    connection.commit();
+                    COPY_AUTHORS.record(start, authors.size());
+                    return true;
+                }
+            }catch(SQLException e){
+                COPY_AUTHORS.error();
+                System.out.println("Authors could not be copied to shard " + shard + ": " + e.getMessage());
+            }
+            COPY_AUTHORS.record(start, 0);
+            return false;
+        });
+        return !results.contains(false);
+    }
+}
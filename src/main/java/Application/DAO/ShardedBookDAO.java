@@ -0,0 +1,304 @@
+package Application.DAO;
+
+import Application.Model.Book;
+import Application.Model.BulkImportReport;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * A BookDAO that partitions the book table over several databases, the shards, by a hash of the isbn. A book lives on
+ * exactly one shard, so a lookup, insert or update of a book goes to that shard alone, and a list of books to insert or
+ * update is split by shard and written to every shard at once, each part in a transaction of its own. The scans run
+ * on every shard at once and merge the rows as they arrive (see ShardScan): in isbn order for the pages and the books
+ * of an author, as they come for the full scans.
+ *
+ * Every shard also holds a copy of the author table, which the book table refers to; the ShardedAuthorDAO keeps the
+ * copies up to date. The first shard is the database of the application, which is the home of the authors.
+ *
+ * The shards are independent databases, so a write that spans several of them is not atomic: if one shard fails, the
+ * parts written to the others stay written. A scan that can not read every shard fails as a whole, as it would on a
+ * single database, rather than hand on the books of the other shards as if they were all of them.
+ */
+public class ShardedBookDAO extends BookDAO {
+    private static final int REBALANCE_PAGE_SIZE = 1000;
+    private static final Comparator<Book> BY_ISBN = Comparator.comparingInt(Book::getIsbn);
+
+    private final BookDAO[] shards;
+
+    /**
+     * @param dataSources the DataSources of the shards, the database of the application first. Their order decides
+     *                    which shard a book lives on, so it must not change once the shards hold books.
+     */
+    public ShardedBookDAO(List<DataSource> dataSources){
+        super(dataSources.get(0));
+        shards = new BookDAO[dataSources.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new BookDAO(dataSources.get(i));
+        }
+    }
+
+    /**
+     * @param isbn the isbn of a book.
+     * @param shards the number of shards.
+     * @return the index of the shard the book lives on.
+     */
+    public static int shardOf(int isbn, int shards){
+        // mix the bits, so that isbns that share a pattern, eg a publisher's range, are spread too
+        int hash = isbn * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), shards);
+    }
+
+    /**
+     * @return the number of shards.
+     */
+    public int getShardCount(){
+        return shards.length;
+    }
+
+    @Override
+    public int forEachBook(Consumer<Book> consumer){
+        return ShardScan.scan(shards.length, (shard, rows) -> shards[shard].forEachBook(rows), consumer);
+    }
+
+    @Override
+    public Book getBookByIsbn(int isbn){
+        return shards[shardOf(isbn, shards.length)].getBookByIsbn(isbn);
+    }
+
+    @Override
+    public List<Book> getBooksByAuthorId(int authorId){
+        List<Book> books = new ArrayList<>();
+        ShardScan.merge(shards.length, (shard, rows) -> {
+            List<Book> part = shards[shard].getBooksByAuthorId(authorId);
+            part.forEach(rows);
+            return part.size();
+        }, BY_ISBN, Integer.MAX_VALUE, books::add);
+        return books;
+    }
+
+    @Override
+    public Book insertBook(Book book){
+        return shards[shardOf(book.getIsbn(), shards.length)].insertBook(book);
+    }
+
+    /**
+     * Insert many books, with a batch for each shard, all shards at once. A book whose isbn is already in use is
+     * skipped, as with a single database.
+     * @return the outcome of each book, in order, with BulkImportReport.FAILED for the books of a shard whose batch
+     * could not be run; or null if no batch could be run.
+     */
+    @Override
+    public String[] insertBooks(List<Book> books){
+        int[] shardOfBook = new int[books.size()];
+        List<List<Book>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (int i = 0; i < books.size(); i++) {
+            shardOfBook[i] = shardOf(books.get(i).getIsbn(), shards.length);
+            parts.get(shardOfBook[i]).add(books.get(i));
+        }
+        List<String[]> results = ShardScan.each(shards.length,
+                shard -> parts.get(shard).isEmpty() ? new String[0] : shards[shard].insertBooks(parts.get(shard)));
+        if (!books.isEmpty() && results.stream().allMatch(result -> result == null)) {
+            return null;
+        }
+        String[] statuses = new String[books.size()];
+        int[] next = new int[shards.length];
+        for (int i = 0; i < books.size(); i++) {
+            String[] result = results.get(shardOfBook[i]);
+            int index = next[shardOfBook[i]]++;
+            statuses[i] = result == null ? BulkImportReport.FAILED : result[index];
+        }
+        return statuses;
+    }
+
+    /**
+     * Change the copies available of many books, with a batch for each shard, all shards at once.
+     * @return the isbns whose changes were not written, those of the shards whose batch failed: the changes of the
+     * other shards are written.
+     */
+    @Override
+    public int[] updateCopiesAvailable(int[] isbns, int[] deltas){
+        int[] counts = new int[shards.length];
+        int[] shardOfBook = new int[isbns.length];
+        for (int i = 0; i < isbns.length; i++) {
+            shardOfBook[i] = shardOf(isbns[i], shards.length);
+            counts[shardOfBook[i]]++;
+        }
+        int[][] partIsbns = new int[shards.length][];
+        int[][] partDeltas = new int[shards.length][];
+        for (int shard = 0; shard < shards.length; shard++) {
+            partIsbns[shard] = new int[counts[shard]];
+            partDeltas[shard] = new int[counts[shard]];
+            counts[shard] = 0;
+        }
+        for (int i = 0; i < isbns.length; i++) {
+            int shard = shardOfBook[i];
+            partIsbns[shard][counts[shard]] = isbns[i];
+            partDeltas[shard][counts[shard]++] = deltas[i];
+        }
+        List<int[]> results = ShardScan.each(shards.length, shard -> partIsbns[shard].length == 0
+                ? partIsbns[shard] : shards[shard].updateCopiesAvailable(partIsbns[shard], partDeltas[shard]));
+        int failed = 0;
+        for (int[] result : results) {
+            failed += result.length;
+        }
+        int[] notWritten = new int[failed];
+        int next = 0;
+        for (int[] result : results) {
+            System.arraycopy(result, 0, notWritten, next, result.length);
+            next += result.length;
+        }
+        return notWritten;
+    }
+
+    @Override
+    public int forEachBookWithBookCountOverZero(Consumer<Book> consumer){
+        return ShardScan.scan(shards.length,
+                (shard, rows) -> shards[shard].forEachBookWithBookCountOverZero(rows), consumer);
+    }
+
+    /**
+     * Hand on the isbns of every shard.
+     * @return the number of isbns, or -1 if a shard could not be read.
+     */
+    @Override
+    public int forEachIsbn(IntConsumer consumer){
+        return ShardScan.scan(shards.length, (shard, rows) -> shards[shard].forEachIsbn(rows::accept),
+                (Integer isbn) -> consumer.accept(isbn));
+    }
+
+    /**
+     * Hand on the isbn and copies available of the available books of every shard, passed between the threads as
+     * pairs.
+     */
+    @Override
+    public int forEachAvailableCopies(CopiesConsumer consumer){
+        return ShardScan.scan(shards.length, (shard, rows) -> shards[shard].forEachAvailableCopies(
+                        (isbn, copies) -> rows.accept(new int[]{isbn, copies})),
+                (int[] book) -> consumer.accept(book[0], book[1]));
+    }
+
+    /**
+     * Hand one page of books ordered by isbn to a consumer, merged from a page of each shard as they are read.
+     */
+    @Override
+    public int forEachBookAfterIsbn(Integer afterIsbn, int limit, Consumer<Book> consumer){
+        return ShardScan.merge(shards.length,
+                (shard, rows) -> shards[shard].forEachBookAfterIsbn(afterIsbn, limit, rows),
+                BY_ISBN, limit, consumer);
+    }
+
+    @Override
+    public long countBooks(){
+        return sum(shard -> shards[shard].countBooks());
+    }
+
+    @Override
+    public long countAvailableBooks(){
+        return sum(shard -> shards[shard].countAvailableBooks());
+    }
+
+    @Override
+    public long sumCopiesAvailable(){
+        return sum(shard -> shards[shard].sumCopiesAvailable());
+    }
+
+    /**
+     * Count the books of the authors with the most books. An author's books are on every shard, so each shard counts
+     * the books of every author, and the counts are added up before the largest are taken.
+     * @return the counts, or null if a shard could not count.
+     */
+    @Override
+    public Map<Integer, Long> countBooksByAuthor(int limit){
+        Map<Integer, Long> totals = new HashMap<>();
+        for (Map<Integer, Long> counts : ShardScan.each(shards.length,
+                shard -> shards[shard].countBooksByAuthor(Integer.MAX_VALUE))) {
+            if (counts == null) {
+                return null;
+            }
+            counts.forEach((authorId, books) -> totals.merge(authorId, books, Long::sum));
+        }
+        Map<Integer, Long> top = new LinkedHashMap<>();
+        totals.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Long>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .forEach(entry -> top.put(entry.getKey(), entry.getValue()));
+        return top;
+    }
+
+    /**
+     * Add up a number counted on every shard at once.
+     * @return the total, or -1 if a shard could not count.
+     */
+    private long sum(IntToLongFunction count){
+        long total = 0;
+        for (long part : ShardScan.each(shards.length, count::applyAsLong)) {
+            if (part < 0) {
+                return -1;
+            }
+            total += part;
+        }
+        return total;
+    }
+
+    /**
+     * Move every book that is not on the shard its isbn hashes to onto that shard, eg the books of a database that
+     * was used without shards, or the sample books seeded into the database of the application. Each book is
+     * inserted into its shard before it is deleted from the wrong one, so a rebalance that is interrupted leaves
+     * every book on at least one shard, and can simply be run again.
+     * @return the number of books moved.
+     */
+    public int rebalance(){
+        int moved = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            Integer after = null;
+            while (true) {
+                List<Book> page = shards[shard].getBooksAfterIsbn(after, REBALANCE_PAGE_SIZE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                after = page.get(page.size() - 1).getIsbn();
+                List<List<Book>> misplaced = new ArrayList<>(shards.length);
+                for (int i = 0; i < shards.length; i++) {
+                    misplaced.add(new ArrayList<>());
+                }
+                for (Book book : page) {
+                    misplaced.get(shardOf(book.getIsbn(), shards.length)).add(book);
+                }
+                for (int target = 0; target < shards.length; target++) {
+                    List<Book> books = misplaced.get(target);
+                    if (target == shard || books.isEmpty()) {
+                        continue;
+                    }
+                    String[] statuses = shards[target].insertBooks(books);
+                    if (statuses == null) {
+                        continue;
+                    }
+                    // a duplicate is a book already moved by an earlier rebalance that was interrupted
+                    List<Integer> done = new ArrayList<>();
+                    for (int i = 0; i < statuses.length; i++) {
+                        if (!BulkImportReport.FAILED.equals(statuses[i])) {
+                            done.add(books.get(i).getIsbn());
+                        }
+                    }
+                    if (shards[shard].deleteBooks(done.stream().mapToInt(Integer::intValue).toArray())) {
+                        moved += done.size();
+                    }
+                }
+            }
+        }
+        return moved;
+    }
+}
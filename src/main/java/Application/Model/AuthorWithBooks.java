@@ -0,0 +1,47 @@
+package Application.Model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is used to model an Author together with the books they wrote, eg for GET /authors?include=books.
+ */
+public class AuthorWithBooks extends Author {
+    List<Book> books = new ArrayList<>();
+
+    /**
+     * A default, no-args constructor is REQUIRED for Jackson ObjectMapper to work.
+     */
+    public AuthorWithBooks(){
+
+    }
+
+    public AuthorWithBooks(int id, String name) {
+        super(id, name);
+    }
+
+    /**
+     * @return the books of the author, ordered by isbn.
+     */
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public void setBooks(List<Book> books) {
+        this.books = books;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && books.equals(((AuthorWithBooks) o).books);
+    }
+
+    @Override
+    public String toString() {
+        return "AuthorWithBooks{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", books=" + books +
+                '}';
+    }
+}
@@ -0,0 +1,119 @@
+package Application.Model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is used to model the outcome of a bulk import of books or authors: how many rows were inserted, how many
+ * were rejected as duplicates or failed, and the outcome of each row in the order the rows were submitted.
+ */
+public class BulkImportReport {
+    public static final String INSERTED = "inserted";
+    public static final String DUPLICATE = "duplicate";
+    public static final String FAILED = "failed";
+
+    int inserted;
+    int duplicates;
+    int failed;
+    String error;
+    List<Row> rows = new ArrayList<>();
+
+    /**
+     * Record the outcome of the next row.
+     * @param key the isbn of a book, or the generated id of an author (0 if none was generated).
+     * @param status one of INSERTED, DUPLICATE or FAILED.
+     */
+    public void add(int key, String status) {
+        rows.add(new Row(rows.size(), key, status));
+        if (INSERTED.equals(status)) {
+            inserted++;
+        } else if (DUPLICATE.equals(status)) {
+            duplicates++;
+        } else {
+            failed++;
+        }
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return a description of the problem that stopped the import early, or null if every row was read.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    /**
+     * The outcome of a single row of the import.
+     */
+    public static class Row {
+        int index;
+        int key;
+        String status;
+
+        /**
+         * A default, no-args constructor is REQUIRED for Jackson ObjectMapper to work.
+         */
+        public Row() {
+
+        }
+
+        public Row(int index, int key, String status) {
+            this.index = index;
+            this.key = key;
+            this.status = status;
+        }
+
+        /**
+         * @return the position of the row in the submitted rows, starting at 0.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        @Override
+        public String toString() {
+            return "Row{" +
+                    "index=" + index +
+                    ", key=" + key +
+                    ", status='" + status + '\'' +
+                    '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BulkImportReport{" +
+                "inserted=" + inserted +
+                ", duplicates=" + duplicates +
+                ", failed=" + failed +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,112 @@
+package Application.Model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is used to model a summary of the catalog, eg for GET /catalog/summary: how many authors, books and
+ * copies it holds, and the authors with the most books.
+ */
+public class CatalogSummary {
+    long authors;
+    long books;
+    long availableBooks;
+    long copiesAvailable;
+    List<TopAuthor> topAuthors = new ArrayList<>();
+
+    /**
+     * A default, no-args constructor is REQUIRED for Jackson ObjectMapper to work.
+     */
+    public CatalogSummary(){
+
+    }
+
+    public CatalogSummary(long authors, long books, long availableBooks, long copiesAvailable,
+                          List<TopAuthor> topAuthors) {
+        this.authors = authors;
+        this.books = books;
+        this.availableBooks = availableBooks;
+        this.copiesAvailable = copiesAvailable;
+        this.topAuthors = topAuthors;
+    }
+
+    public long getAuthors() {
+        return authors;
+    }
+
+    public long getBooks() {
+        return books;
+    }
+
+    /**
+     * @return the number of books with at least one copy available.
+     */
+    public long getAvailableBooks() {
+        return availableBooks;
+    }
+
+    public long getCopiesAvailable() {
+        return copiesAvailable;
+    }
+
+    /**
+     * @return the authors with the most books, most books first.
+     */
+    public List<TopAuthor> getTopAuthors() {
+        return topAuthors;
+    }
+
+    /**
+     * An author and the number of their books.
+     */
+    public static class TopAuthor {
+        int id;
+        String name;
+        long books;
+
+        /**
+         * A default, no-args constructor is REQUIRED for Jackson ObjectMapper to work.
+         */
+        public TopAuthor() {
+
+        }
+
+        public TopAuthor(int id, String name, long books) {
+            this.id = id;
+            this.name = name;
+            this.books = books;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBooks() {
+            return books;
+        }
+
+        @Override
+        public String toString() {
+            return "TopAuthor{" +
+                    "id=" + id +
+                    ", name='" + name + '\'' +
+                    ", books=" + books +
+                    '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogSummary{" +
+                "authors=" + authors +
+                ", books=" + books +
+                ", availableBooks=" + availableBooks +
+                ", copiesAvailable=" + copiesAvailable +
+                ", topAuthors=" + topAuthors +
+                '}';
+    }
+}
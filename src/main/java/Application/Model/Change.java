@@ -0,0 +1,55 @@
+package Application.Model;
+
+/**
+ * This class is used to model one change of the catalog in the ChangeLog, eg for GET /changes: the book or author as
+ * it was persisted, with the sequence number of the change.
+ */
+public class Change {
+    /** The type of the change of a book. */
+    public static final String BOOK = "book";
+    /** The type of the change of an author. */
+    public static final String AUTHOR = "author";
+
+    long seq;
+    String type;
+    Object data;
+
+    /**
+     * A default, no-args constructor is REQUIRED for Jackson ObjectMapper to work.
+     */
+    public Change(){
+
+    }
+
+    /**
+     * @param seq the sequence number of the change, one more than that of the change before it.
+     * @param type BOOK or AUTHOR.
+     * @param data the book or author as it was persisted.
+     */
+    public Change(long seq, String type, Object data) {
+        this.seq = seq;
+        this.type = type;
+        this.data = data;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "Change{" +
+                "seq=" + seq +
+                ", type='" + type + '\'' +
+                ", data=" + data +
+                '}';
+    }
+}
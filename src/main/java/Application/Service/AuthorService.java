@@ -1,9 +1,17 @@
 package Application.Service;
 
 import Application.Model.Author;
+import Application.Model.AuthorWithBooks;
 import Application.DAO.AuthorDAO;
+import Application.Model.BulkImportReport;
+import Application.Model.Change;
+import Application.Util.RoutingDataSource;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * The purpose of a Service class is to contain "business logic" that sits between the web layer (controller) and
@@ -14,15 +22,30 @@ import java.util.List;
  * It's perfectly normal to have Service methods that only contain a single line that calls a DAO method. An
  * application that follows best practices will often have unnecessary code, but this makes the code more
  * readable and maintainable in the long run!
+ *
+ * Reads are served from a {@link CatalogCache} where possible, and writes are applied to it as they are persisted.
  */
 public class AuthorService {
+    private static final int STREAM_PAGE_SIZE = Integer.getInteger("library.stream.pageSize", 1000);
     private AuthorDAO authorDAO;
+    // like those of the BookService, the loaders read from the primary or a replica that has every change so far
+    private final CatalogCache<Author> cache = new CatalogCache<>("authors", Author::getId,
+            () -> {
+                BookService.readLatest();
+                return authorDAO.getAllAuthors();
+            }, id -> {
+                BookService.readLatest();
+                return authorDAO.getAuthorById(id);
+            });
+    // with -Dlibrary.writes.async=true, single authors are inserted in groups, one transaction per group
+    private final WriteQueue<Author, Author> writes = Boolean.getBoolean("library.writes.async")
+            ? new WriteQueue<>("author-writer", this::insertGroup)
+            : null;
     /**
-     * no-args constructor for creating a new AuthorService with a new AuthorDAO.
-     * There is no need to change this constructor.
+     * no-args constructor for creating a new AuthorService with a new AuthorDAO, sharded if library.db.shards is set.
      */
     public AuthorService(){
-        authorDAO = new AuthorDAO();
+        authorDAO = AuthorDAO.create();
     }
     /**
      * Constructor for a AuthorService when a AuthorDAO is provided.
@@ -40,9 +63,21 @@ public class AuthorService {
      * @return all authors
      */
     public List<Author> getAllAuthors() {
+        List<Author> cachedAuthors = cache.getAll();
+        if (cachedAuthors != null) {
+            return cachedAuthors;
+        }
         List<Author> allAuthors = authorDAO.getAllAuthors();
         return allAuthors;
     }
+    /**
+     * Retrieve an author by id, from the cache if possible.
+     * @param id the id of an author.
+     * @return the author, or null if there is no author with that id.
+     */
+    public Author getAuthorById(int id) {
+        return cache.get(id);
+    }
     /**
      * TODO: Use the AuthorDAO to persist an author. The given Author will not have an id provided.
      *
@@ -51,7 +86,180 @@ public class AuthorService {
      */
     public Author addAuthor(Author author) {
         Author persistedAuthor = authorDAO.insertAuthor(author);
-    
+        if (persistedAuthor != null) {
+            authorChanged(persistedAuthor);
+            CatalogVersion.bump();
+        }
         return persistedAuthor;
     }
+    /**
+     * Persist an author the way addAuthor does, through the WriteQueue if writes are asynchronous.
+     * @param author an author object, without an id.
+     * @return the outcome of addAuthor once the author's group has been committed, or null if the queue is full.
+     */
+    public CompletableFuture<Author> submitAuthor(Author author) {
+        if (writes == null) {
+            return CompletableFuture.completedFuture(addAuthor(author));
+        }
+        return writes.submit(author);
+    }
+
+    /**
+     * Write a group of the WriteQueue with the bulk insert, in one transaction.
+     * @return the persisted author, with its generated id, or null, for each author of the group.
+     */
+    private List<Author> insertGroup(List<Author> group) {
+        List<Author> persisted = authorDAO.insertAuthors(group);
+        if (persisted == null) {
+            return null;
+        }
+        for (Author author : persisted) {
+            if (author != null) {
+                authorChanged(author);
+            }
+        }
+        CatalogVersion.bump();
+        return persisted;
+    }
+    /**
+     * Use the AuthorDAO to persist many authors, a chunk at a time, each chunk with one batch in one transaction.
+     * @param authors the authors to persist, without ids.
+     * @param chunkSize the number of authors written per batch.
+     * @param report receives the generated id of each author. If the iterator throws, the authors read before it did
+     *               have been persisted and reported.
+     */
+    public void addAuthors(Iterator<Author> authors, int chunkSize, BulkImportReport report) {
+        List<Author> chunk = new ArrayList<>(chunkSize);
+        try {
+            while (authors.hasNext()) {
+                chunk.add(authors.next());
+                if (chunk.size() == chunkSize) {
+                    addChunk(chunk, report);
+                    chunk.clear();
+                }
+            }
+        } finally {
+            if (!chunk.isEmpty()) {
+                addChunk(chunk, report);
+            }
+        }
+    }
+
+    private void addChunk(List<Author> chunk, BulkImportReport report) {
+        List<Author> persisted = authorDAO.insertAuthors(chunk);
+        for (int i = 0; i < chunk.size(); i++) {
+            Author author = persisted == null ? null : persisted.get(i);
+            if (author != null) {
+                authorChanged(author);
+                report.add(author.getId(), BulkImportReport.INSERTED);
+            } else {
+                report.add(0, BulkImportReport.FAILED);
+            }
+        }
+        CatalogVersion.bump();
+    }
+    /**
+     * Apply an author that has been persisted to the cache, and append it to the ChangeLog, so that the later reads of
+     * this thread see it.
+     */
+    private void authorChanged(Author author) {
+        cache.put(author);
+        RoutingDataSource.readAfter(ChangeLog.CATALOG.append(Change.AUTHOR, author));
+    }
+    /**
+     * Use the AuthorDAO to retrieve one page of authors, ordered by id.
+     * @param afterId the last id of the previous page, or null for the first page.
+     * @param limit the maximum number of authors in the page.
+     * @return up to limit authors with an id greater than afterId.
+     */
+    public List<Author> getAuthorsPage(Integer afterId, int limit) {
+        return authorDAO.getAuthorsAfterId(afterId, limit);
+    }
+    /**
+     * Hand every author to a consumer in id order, reading one page at a time, each in full before it is handed on,
+     * as BookService.forEachBook does.
+     * @param consumer receives each author.
+     * @throws IllegalStateException if a page could not be read.
+     */
+    public void forEachAuthor(Consumer<Author> consumer) {
+        Integer after = null;
+        while (true) {
+            List<Author> page = authorDAO.getAuthorsAfterId(after, STREAM_PAGE_SIZE);
+            page.forEach(consumer);
+            if (page.size() < STREAM_PAGE_SIZE) {
+                return;
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+    }
+    /**
+     * Use the AuthorDAO to retrieve an author with their books, with one query.
+     * @param id the id of an author.
+     * @return the author with their books, or null if there is no author with that id.
+     */
+    public AuthorWithBooks getAuthorWithBooks(int id) {
+        return authorDAO.getAuthorWithBooks(id);
+    }
+    /**
+     * Use the AuthorDAO to retrieve every author with their books, with one query.
+     * @return all authors ordered by id, with their books.
+     */
+    public List<AuthorWithBooks> getAllAuthorsWithBooks() {
+        return readAuthorsWithBooks(null, null);
+    }
+    /**
+     * Use the AuthorDAO to retrieve one page of authors with their books, with one query.
+     * @param afterId the last id of the previous page, or null for the first page.
+     * @param limit the maximum number of authors in the page.
+     * @return up to limit authors with an id greater than afterId, with their books.
+     * @throws IllegalStateException if the page could not be read.
+     */
+    public List<AuthorWithBooks> getAuthorsWithBooksPage(Integer afterId, int limit) {
+        return readAuthorsWithBooks(afterId, limit);
+    }
+    /**
+     * Read authors with their books with one query, failing rather than returning only some of them.
+     */
+    private List<AuthorWithBooks> readAuthorsWithBooks(Integer afterId, Integer limit) {
+        List<AuthorWithBooks> authors = new ArrayList<>();
+        if (authorDAO.forEachAuthorWithBooks(afterId, limit, authors::add) < 0) {
+            throw new IllegalStateException("The authors with their books could not be read");
+        }
+        return authors;
+    }
+    /**
+     * Hand every author with their books to a consumer in id order, reading one page of authors at a time, each in
+     * full before it is handed on.
+     * @param consumer receives each author.
+     * @throws IllegalStateException if a page could not be read.
+     */
+    public void forEachAuthorWithBooks(Consumer<AuthorWithBooks> consumer) {
+        Integer after = null;
+        while (true) {
+            List<AuthorWithBooks> page = readAuthorsWithBooks(after, STREAM_PAGE_SIZE);
+            page.forEach(consumer);
+            if (page.size() < STREAM_PAGE_SIZE) {
+                return;
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+    }
+    /**
+     * @return the queue of authors waiting to be inserted, or null if writes are synchronous.
+     */
+    public WriteQueue<Author, Author> getWriteQueue() {
+        return writes;
+    }
+    /**
+     * @return the AuthorDAO of the service, eg to run its queries on a QueryExecutor.
+     */
+    public AuthorDAO getAuthorDAO() {
+        return authorDAO;
+    }
+    /**
+     * @return the cache in front of the AuthorDAO, eg for its statistics.
+     */
+    public CatalogCache<Author> getCache() {
+        return cache;
+    }
 }
@@ -0,0 +1,440 @@
+package Application.Service;
+
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import Application.Util.JsonUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * An in-memory index of the books with copies available, which serves GET /books/available without touching the
+ * database. It holds the ISBNs in open-addressing primitive hash tables, each ISBN next to the JSON of its book,
+ * serialized once when the book is written rather than on every request.
+ *
+ * The books are spread over CHUNKS chunks by ISBN. Each chunk keeps its part of the response, the JSON of its books
+ * separated by commas, so a request concatenates the prebuilt chunks, and a write only rebuilds the chunk it touched,
+ * on the next request.
+ *
+ * The index is loaded from the database on first use and is then kept up to date by the BookService as books are
+ * inserted or their copies change. The books updated while the first load reads the table are noted, and the rows read
+ * for them are skipped, as they may be older than the update, eg a book checked out down to no copies. As a safety net,
+ * it is compared with the database every checkMillis (set with -Dlibrary.availability.checkMillis, default 60000), and
+ * any difference is counted and repaired. The comparison reads the isbn and copies available of each available book
+ * alone, and only the books that differ are read whole. A book's author and title are not compared, as they never
+ * change once it is inserted. The check is started by the first request after it is due and runs on a thread of its
+ * own, so the request is served from the index as it is, without waiting for the database.
+ */
+public class AvailabilityIndex {
+    private static final int CHUNKS = 64;
+    private static final byte[] EMPTY = new byte[0];
+    private static final ExecutorService CHECKER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "availability-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<List<Book>> loader;
+    private final ToIntFunction<BookDAO.CopiesConsumer> copiesLoader;
+    private final IntFunction<Book> bookLoader;
+    private final long checkMillis;
+    private final Chunk[] chunks = new Chunk[CHUNKS];
+    private final AtomicLong writes = new AtomicLong();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder checks = new LongAdder();
+    private final AtomicBoolean checking = new AtomicBoolean();
+    private volatile boolean loaded;
+    private volatile long checkedAt;
+    private volatile Set<Integer> updatedDuringLoad;
+
+    /**
+     * @param loader reads the books with copies available, eg BookDAO::getBooksWithBookCountOverZero.
+     * @param copiesLoader hands the isbn and copies of every book with copies available to a consumer, eg
+     *                     BookDAO::forEachAvailableCopies, and returns their number, or -1 if they could not all be
+     *                     read.
+     * @param bookLoader reads a single book by isbn, eg BookDAO::getBookByIsbn.
+     */
+    public AvailabilityIndex(Supplier<List<Book>> loader, ToIntFunction<BookDAO.CopiesConsumer> copiesLoader,
+                             IntFunction<Book> bookLoader){
+        this(loader, copiesLoader, bookLoader, Long.getLong("library.availability.checkMillis", 60000));
+    }
+
+    public AvailabilityIndex(Supplier<List<Book>> loader, ToIntFunction<BookDAO.CopiesConsumer> copiesLoader,
+                             IntFunction<Book> bookLoader, long checkMillis){
+        this.loader = loader;
+        this.copiesLoader = copiesLoader;
+        this.bookLoader = bookLoader;
+        this.checkMillis = checkMillis;
+        for (int i = 0; i < CHUNKS; i++) {
+            chunks[i] = new Chunk();
+        }
+    }
+
+    /**
+     * Apply a book that has been persisted: add or replace it if it has copies available, remove it otherwise.
+     * @param book the persisted book.
+     */
+    public void update(Book book){
+        writes.incrementAndGet();
+        Set<Integer> updated = updatedDuringLoad;
+        if (updated != null) {
+            // noted before the chunk is changed, so the load either sees the note or inserts before the change
+            updated.add(book.getIsbn());
+        }
+        if (book.getCopies_available() > 0) {
+            chunkOf(book.getIsbn()).put(book.getIsbn(), serialize(book), book.getCopies_available());
+        } else {
+            chunkOf(book.getIsbn()).remove(book.getIsbn());
+        }
+    }
+
+    /**
+     * Write the books with copies available to a stream, as a JSON array in no particular order.
+     * @param out the stream to write to, eg the response.
+     * @throws IOException if the stream can not be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        prepare();
+        out.write('[');
+        boolean first = true;
+        for (Chunk chunk : chunks) {
+            byte[] body = chunk.body();
+            if (body.length > 0) {
+                if (!first) {
+                    out.write(',');
+                }
+                out.write(body);
+                first = false;
+            }
+        }
+        out.write(']');
+    }
+
+    /**
+     * @return true if a book is in the index, ie it has copies available.
+     */
+    public boolean contains(int isbn){
+        prepare();
+        return chunkOf(isbn).get(isbn) != null;
+    }
+
+    /**
+     * @return the number of books in the index.
+     */
+    public int size(){
+        int size = 0;
+        for (Chunk chunk : chunks) {
+            size += chunk.size();
+        }
+        return size;
+    }
+
+    /**
+     * Compare the index with the database now, and repair any difference. The comparison is given up, and started
+     * again by a later request, if a write comes in while the database is being read, as the rows read may be older
+     * than the write, or if the books could not all be read.
+     * @return the number of books that were missing, extra or stale in the index, or -1 if the check was given up.
+     */
+    public synchronized int check(){
+        long writesBefore = writes.get();
+        List<Map<Integer, Integer>> expected = new ArrayList<>(CHUNKS);
+        for (int i = 0; i < CHUNKS; i++) {
+            expected.add(new HashMap<>());
+        }
+        int read = copiesLoader.applyAsInt((isbn, copies) -> expected.get(chunkIndexOf(isbn)).put(isbn, copies));
+        checks.increment();
+        if (read < 0 || writes.get() != writesBefore) {
+            return -1;
+        }
+        int found = 0;
+        for (int i = 0; i < CHUNKS; i++) {
+            int[] differing = chunks[i].differences(expected.get(i));
+            if (differing.length == 0) {
+                continue;
+            }
+            // only the books that are still available are read again, outside the lock of the chunk
+            Map<Integer, Book> books = new HashMap<>();
+            for (int isbn : differing) {
+                if (expected.get(i).containsKey(isbn)) {
+                    Book book = bookLoader.apply(isbn);
+                    if (book != null) {
+                        books.put(isbn, book);
+                    }
+                }
+            }
+            found += chunks[i].repair(differing, books, writes, writesBefore);
+        }
+        mismatches.add(found);
+        checkedAt = System.currentTimeMillis();
+        return found;
+    }
+
+    /**
+     * @return the number of differences with the database found by consistency checks so far.
+     */
+    public long getMismatches(){
+        return mismatches.sum();
+    }
+
+    public long getChecks(){
+        return checks.sum();
+    }
+
+    /**
+     * Load the index on first use, and start a check in the background once checkMillis have passed since the last.
+     */
+    private void prepare(){
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    Set<Integer> updated = ConcurrentHashMap.newKeySet();
+                    updatedDuringLoad = updated;
+                    try {
+                        for (Book book : loader.get()) {
+                            if (book.getCopies_available() > 0) {
+                                chunkOf(book.getIsbn()).putIfAbsent(book.getIsbn(), serialize(book),
+                                        book.getCopies_available(), updated);
+                            }
+                        }
+                        checkedAt = System.currentTimeMillis();
+                        loaded = true;
+                    } finally {
+                        updatedDuringLoad = null;
+                    }
+                }
+            }
+        } else if (System.currentTimeMillis() - checkedAt >= checkMillis) {
+            checkLater();
+        }
+    }
+
+    private void checkLater(){
+        if (checking.compareAndSet(false, true)) {
+            CHECKER.execute(() -> {
+                try {
+                    check();
+                } catch (RuntimeException e) {
+                    System.out.println("The availability index could not be checked: " + e.getMessage());
+                    checkedAt = System.currentTimeMillis();
+                } finally {
+                    checking.set(false);
+                }
+            });
+        }
+    }
+
+    private Chunk chunkOf(int isbn){
+        return chunks[chunkIndexOf(isbn)];
+    }
+
+    private static int chunkIndexOf(int isbn){
+        return (mix(isbn) >>> 26) & (CHUNKS - 1);
+    }
+
+    private static int mix(int key){
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static byte[] serialize(Book book){
+        try {
+            return JsonUtil.BOOK_WRITER.writeValueAsBytes(book);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The ISBNs of one chunk in an open-addressing hash table with linear probing, each next to the JSON of its
+     * book and its copies available. A slot is free when its value is null. Removal shifts the following entries
+     * back, so no tombstones are left behind.
+     */
+    private static class Chunk {
+        private int[] keys = new int[16];
+        private byte[][] values = new byte[16][];
+        private int[] copies = new int[16];
+        private int size;
+        private byte[] body = EMPTY;
+        private boolean dirty;
+
+        synchronized byte[] get(int key){
+            int slot = find(key);
+            return slot < 0 ? null : values[slot];
+        }
+
+        synchronized int size(){
+            return size;
+        }
+
+        synchronized void put(int key, byte[] value, int available){
+            int slot = find(key);
+            if (slot >= 0) {
+                copies[slot] = available;
+                if (!Arrays.equals(values[slot], value)) {
+                    values[slot] = value;
+                    dirty = true;
+                }
+                return;
+            }
+            insert(key, value, available);
+        }
+
+        /**
+         * Insert a book read by the load, unless the book is in the chunk or was updated since the load began, under
+         * the lock of the chunk, so that an update noted after the check is applied after the insert.
+         */
+        synchronized void putIfAbsent(int key, byte[] value, int available, Set<Integer> updated){
+            if (!updated.contains(key) && find(key) < 0) {
+                insert(key, value, available);
+            }
+        }
+
+        synchronized boolean remove(int key){
+            int slot = find(key);
+            if (slot < 0) {
+                return false;
+            }
+            int mask = keys.length - 1;
+            int free = slot;
+            int next = (free + 1) & mask;
+            while (values[next] != null) {
+                int home = mix(keys[next]) & mask;
+                // move the entry back into the free slot, unless its home slot lies after the free slot
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    keys[free] = keys[next];
+                    values[free] = values[next];
+                    copies[free] = copies[next];
+                    free = next;
+                }
+                next = (next + 1) & mask;
+            }
+            values[free] = null;
+            size--;
+            dirty = true;
+            return true;
+        }
+
+        /**
+         * @return the JSON of the books of the chunk separated by commas, rebuilt if the chunk changed.
+         */
+        synchronized byte[] body(){
+            if (dirty) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (byte[] value : values) {
+                    if (value != null) {
+                        if (out.size() > 0) {
+                            out.write(',');
+                        }
+                        out.writeBytes(value);
+                    }
+                }
+                body = out.toByteArray();
+                dirty = false;
+            }
+            return body;
+        }
+
+        /**
+         * @param expected the copies of the available books of the chunk in the database, by ISBN.
+         * @return the ISBNs of the books that are missing, extra or have other copies in the chunk.
+         */
+        synchronized int[] differences(Map<Integer, Integer> expected){
+            int[] found = new int[size + expected.size()];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null && !expected.containsKey(keys[i])) {
+                    found[count++] = keys[i];
+                }
+            }
+            for (Map.Entry<Integer, Integer> book : expected.entrySet()) {
+                int slot = find(book.getKey());
+                if (slot < 0 || copies[slot] != book.getValue()) {
+                    found[count++] = book.getKey();
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }
+
+        /**
+         * Replace the differing books of the chunk with those of the database, unless a write came in meanwhile.
+         * @param isbns the ISBNs of the differing books.
+         * @param books the books of the database among them, by ISBN; the others are removed.
+         * @return the number of books repaired.
+         */
+        synchronized int repair(int[] isbns, Map<Integer, Book> books, AtomicLong writes, long writesBefore){
+            if (writes.get() != writesBefore) {
+                return 0;
+            }
+            for (int isbn : isbns) {
+                Book book = books.get(isbn);
+                if (book != null && book.getCopies_available() > 0) {
+                    put(isbn, serialize(book), book.getCopies_available());
+                } else {
+                    remove(isbn);
+                }
+            }
+            return isbns.length;
+        }
+
+        private int find(int key){
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(int key, byte[] value, int available){
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            copies[slot] = available;
+            size++;
+            dirty = true;
+        }
+
+        private void grow(){
+            int[] oldKeys = keys;
+            byte[][] oldValues = values;
+            int[] oldCopies = copies;
+            keys = new int[oldKeys.length * 2];
+            values = new byte[oldKeys.length * 2][];
+            copies = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldValues[i], oldCopies[i]);
+                }
+            }
+        }
+    }
+}
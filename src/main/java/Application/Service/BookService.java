@@ -2,8 +2,18 @@ package Application.Service;
 
 import Application.DAO.BookDAO;
 import Application.Model.Book;
+import Application.Model.BulkImportReport;
+import Application.Model.Change;
+import Application.Util.JsonUtil;
+import Application.Util.RoutingDataSource;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * The purpose of a Service class is to contain "business logic" that sits between the web layer (controller) and
@@ -14,16 +24,78 @@ import java.util.List;
  * It's perfectly normal to have Service methods that only contain a single line that calls a DAO method. An
  * application that follows best practices will often have unnecessary code, but this makes the code more
  * readable and maintainable in the long run!
+ *
+ * Reads are served from a {@link CatalogCache} where possible, and writes are applied to it as they are persisted.
+ * A book that is not in the cache is only looked up if the {@link IsbnFilter} has seen its isbn. Like the cache and
+ * the {@link CopyCounters}, the filter assumes that this process is the only writer of the book table.
  */
 public class BookService {
+    private static final int STREAM_PAGE_SIZE = Integer.getInteger("library.stream.pageSize", 1000);
+    private static final boolean ISBN_FILTER_SOLE_WRITER =
+            Boolean.parseBoolean(System.getProperty("library.isbnFilter.soleWriter", "true"));
     public BookDAO bookDAO;
+    private final CopyCounters copies = new CopyCounters(this::getBookByIsbn,
+            (isbns, deltas) -> bookDAO.updateCopiesAvailable(isbns, deltas), this::bookChanged);
+    private final IsbnFilter isbns = new IsbnFilter(consumer -> {
+        readLatest();
+        return bookDAO.forEachIsbn(consumer);
+    });
+    // both loaders write any pending checkouts and returns first, so they do not read copies that are out of date, and
+    // every loader reads from the primary or a replica that has every change so far, as it will only see later ones
+    private final CatalogCache<Book> cache = new CatalogCache<>("books", Book::getIsbn,
+            () -> {
+                copies.flush();
+                readLatest();
+                return bookDAO.getAllBooks();
+            }, isbn -> {
+                // an isbn the filter has never seen is not in the table, as every book is inserted through this
+                // service, like the copy counters assume; with other writers it is looked up all the same
+                boolean seen = isbns.mightContain(isbn);
+                if (!seen && ISBN_FILTER_SOLE_WRITER) {
+                    return null;
+                }
+                readLatest();
+                Book book = bookDAO.getBookByIsbn(isbn);
+                if (book == null && seen) {
+                    isbns.recordFalsePositive();
+                } else if (book != null && !seen) {
+                    isbns.recordMissed(isbn);
+                }
+                return book;
+            })
+            .withIndex("author", Book::getAuthor_id)
+            .withView("available", book -> book.getCopies_available() > 0);
+    private final AvailabilityIndex availability = new AvailabilityIndex(() -> {
+        copies.flush();
+        readLatest();
+        return bookDAO.getBooksWithBookCountOverZero();
+    }, consumer -> {
+        copies.flush();
+        readLatest();
+        return bookDAO.forEachAvailableCopies(consumer);
+    }, isbn -> bookDAO.getBookByIsbn(isbn));
+    private final TitleIndex titles = new TitleIndex(consumer -> {
+        readLatest();
+        forEachBook(consumer);
+    });
+    // with -Dlibrary.catalog.store=columnar, lookups by isbn and the full catalog are served from columns instead
+    private final ColumnarCatalog store = "columnar".equals(System.getProperty("library.catalog.store"))
+            ? new ColumnarCatalog(consumer -> {
+                copies.flush();
+                readLatest();
+                forEachBook(consumer);
+            })
+            : null;
+    // with -Dlibrary.writes.async=true, single books are inserted in groups, one transaction per group
+    private final WriteQueue<Book, Book> writes = Boolean.getBoolean("library.writes.async")
+            ? new WriteQueue<>("book-writer", this::insertGroup)
+            : null;
 
     /**
-     * No-args constructor for bookService which creates a BookDAO.
-     * There is no need to change this constructor.
+     * No-args constructor for bookService which creates a BookDAO, sharded if library.db.shards is set.
      */
     public BookService(){
-        bookDAO = new BookDAO();
+        bookDAO = BookDAO.create();
     }
     /**
      * Constructor for a BookService when a BookDAO is provided.
@@ -37,36 +109,299 @@ public class BookService {
     }
     /**
      * TODO: Use the bookDAO to retrieve all books.
+     * The books are served from the cache when the catalog is held in memory.
      * @return all books.
      */
     public List<Book> getAllBooks() {
+        List<Book> cachedBooks = cache.getAll();
+        if (cachedBooks != null) {
+            return cachedBooks;
+        }
         List<Book> allBooks = bookDAO.getAllBooks();
         return allBooks;
     }
+    /**
+     * Retrieve a book by its isbn, from the columnar catalog or the cache if possible.
+     * @param isbn the isbn of a book.
+     * @return the book, or null if there is no book with that isbn.
+     */
+    public Book getBookByIsbn(int isbn) {
+        if (store != null) {
+            return store.get(isbn);
+        }
+        return cache.get(isbn);
+    }
+    /**
+     * Write all books to a stream as a JSON array, straight from the columnar catalog if it is used.
+     * @param out the stream to write to, eg the response.
+     * @throws IOException if the stream can not be written.
+     */
+    public void writeAllBooks(OutputStream out) throws IOException {
+        if (store != null) {
+            store.writeTo(out);
+            return;
+        }
+        JsonUtil.MAPPER.writeValue(out, getAllBooks());
+    }
+    /**
+     * Retrieve the books of one author, from the cache's author_id index if possible.
+     * @param authorId the id of an author.
+     * @return the books written by that author, ordered by isbn.
+     */
+    public List<Book> getBooksByAuthorId(int authorId) {
+        List<Book> cachedBooks = cache.getIndexed("author", authorId);
+        if (cachedBooks != null) {
+            return cachedBooks;
+        }
+        return bookDAO.getBooksByAuthorId(authorId);
+    }
     /**
      * TODO: Use the bookDAO to persist a book to the database.
-     * An ISBN will be provided in Book. Method should check if the book ISBN already exists before it attempts to
-     * persist it.
+     * An ISBN will be provided in Book. Rather than checking whether the ISBN exists and then inserting, which takes
+     * two round trips and lets two concurrent requests for the same ISBN both pass the check, the book is inserted
+     * directly and the primary key constraint rejects a duplicate. Only a cached catalog is consulted beforehand, as
+     * that costs no round trip.
      * @param book a book object.
      * @return book if it was successfully persisted, null if it was not successfully persisted (eg if the book primary
      * key was already in use.)
      */
     public Book addBook(Book book) {
-        Book isbnExists = bookDAO.getBookByIsbn(book.getIsbn());
+        Book isbnExists = cache.getIfPresent(book.getIsbn());
         if (isbnExists != null) {
             return null;
         }
         Book persistedBook = bookDAO.insertBook(book);
-    
+        if (persistedBook != null) {
+            bookChanged(persistedBook);
+        }
         return persistedBook;
     }
+    /**
+     * Persist a book the way addBook does, through the WriteQueue if writes are asynchronous, so that it is committed
+     * together with the other books posted at the same time.
+     * @param book a book object.
+     * @return the outcome of addBook once the book's group has been committed, or null if the queue is full.
+     */
+    public CompletableFuture<Book> submitBook(Book book) {
+        if (writes == null) {
+            return CompletableFuture.completedFuture(addBook(book));
+        }
+        if (cache.getIfPresent(book.getIsbn()) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return writes.submit(book);
+    }
+
+    /**
+     * Write a group of the WriteQueue with the bulk insert, in one transaction.
+     * @return the persisted book, or null, for each book of the group.
+     */
+    private List<Book> insertGroup(List<Book> group) {
+        String[] statuses = bookDAO.insertBooks(group);
+        List<Book> persisted = new ArrayList<>(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            Book book = group.get(i);
+            if (statuses != null && BulkImportReport.INSERTED.equals(statuses[i])) {
+                bookChanged(book);
+                persisted.add(book);
+            } else {
+                persisted.add(null);
+            }
+        }
+        return persisted;
+    }
+    /**
+     * Use the bookDAO to persist many books, a chunk at a time. Each chunk is written with one batch in one
+     * transaction, so only chunkSize books are held in memory however many are read from the iterator. Books whose
+     * ISBN is already in use are reported as duplicates.
+     * @param books the books to persist, eg as they are parsed from a request body.
+     * @param chunkSize the number of books written per batch.
+     * @param report receives the outcome of each book. If the iterator throws, the books read before it did have
+     *               been persisted and reported.
+     */
+    public void addBooks(Iterator<Book> books, int chunkSize, BulkImportReport report) {
+        List<Book> chunk = new ArrayList<>(chunkSize);
+        try {
+            while (books.hasNext()) {
+                chunk.add(books.next());
+                if (chunk.size() == chunkSize) {
+                    addChunk(chunk, report);
+                    chunk.clear();
+                }
+            }
+        } finally {
+            if (!chunk.isEmpty()) {
+                addChunk(chunk, report);
+            }
+        }
+    }
+
+    private void addChunk(List<Book> chunk, BulkImportReport report) {
+        String[] statuses = bookDAO.insertBooks(chunk);
+        for (int i = 0; i < chunk.size(); i++) {
+            Book book = chunk.get(i);
+            String status = statuses == null ? BulkImportReport.FAILED : statuses[i];
+            if (BulkImportReport.INSERTED.equals(status)) {
+                bookChanged(book);
+            }
+            report.add(book.getIsbn(), status);
+        }
+    }
     /**
      * TODO: Use the bookDAO to retrieve a list of all books that have a bookCount above 0.
      * @return all available books (bookCount over zero)
      */
     public List<Book> getAllAvailableBooks() {
+        List<Book> cachedBooks = cache.getView("available");
+        if (cachedBooks != null) {
+            return cachedBooks;
+        }
         List<Book> allBooks = bookDAO.getBooksWithBookCountOverZero();
         return allBooks;
     }
+    /**
+     * Check out one copy of a book. The copy is taken from an in-memory counter, and the change is written to the
+     * database shortly after, together with the other checkouts and returns of the moment.
+     * @param isbn the isbn of the book.
+     * @return the copies left, or CopyCounters.NOT_FOUND if there is no such book, or CopyCounters.UNAVAILABLE if it
+     * has no copies left.
+     */
+    public int checkoutBook(int isbn) {
+        return copies.checkout(isbn);
+    }
+    /**
+     * Return one copy of a book, the same way as checkoutBook.
+     * @param isbn the isbn of the book.
+     * @return the copies available, or CopyCounters.NOT_FOUND if there is no such book.
+     */
+    public int returnBook(int isbn) {
+        return copies.returnCopy(isbn);
+    }
+
+    /**
+     * Apply a book that has been persisted to everything that holds a copy of it, and append it to the ChangeLog, so
+     * that the later reads of this thread see it, then bump the CatalogVersion, so that a response tagged with the new
+     * version is rendered with the book.
+     */
+    private void bookChanged(Book book) {
+        cache.put(book);
+        isbns.add(book.getIsbn());
+        availability.update(book);
+        titles.add(book);
+        if (store != null) {
+            store.put(book);
+        }
+        RoutingDataSource.readAfter(ChangeLog.CATALOG.append(Change.BOOK, book));
+        CatalogVersion.bump();
+    }
 
+    /**
+     * Make the reads of this thread see every change made so far, even when they are sent to a read replica.
+     */
+    static void readLatest() {
+        RoutingDataSource.readAfter(ChangeLog.CATALOG.getLatest());
+    }
+    /**
+     * Search the titles of the books with the TitleIndex.
+     * @param query the terms to look for, each of which may be the start of a term, eg "book of sa".
+     * @param offset the number of best matches to skip.
+     * @param limit the maximum number of matches to return.
+     * @return the isbns of the matches in the page, best first, and the number of matches in all pages.
+     */
+    public TitleIndex.Hits searchBooks(String query, int offset, int limit) {
+        return titles.search(query, offset, limit);
+    }
+    /**
+     * Retrieve some books by isbn, eg the matches of a search.
+     * @param isbns the isbns of the books.
+     * @return the books, in the order of the isbns, leaving out any that do not exist.
+     */
+    public List<Book> getBooksByIsbn(int[] isbns) {
+        List<Book> books = new ArrayList<>(isbns.length);
+        for (int isbn : isbns) {
+            Book book = getBookByIsbn(isbn);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+    /**
+     * Write all available books to a stream as a JSON array, from the AvailabilityIndex rather than the database.
+     * @param out the stream to write to, eg the response.
+     * @throws IOException if the stream can not be written.
+     */
+    public void writeAvailableBooks(OutputStream out) throws IOException {
+        availability.writeTo(out);
+    }
+    /**
+     * Use the bookDAO to retrieve one page of books, ordered by isbn.
+     * @param afterIsbn the last isbn of the previous page, or null for the first page.
+     * @param limit the maximum number of books in the page.
+     * @return up to limit books with an isbn greater than afterIsbn.
+     */
+    public List<Book> getBooksPage(Integer afterIsbn, int limit) {
+        return bookDAO.getBooksAfterIsbn(afterIsbn, limit);
+    }
+    /**
+     * Hand every book to a consumer in isbn order. The books are read one page at a time, so memory use does not
+     * grow with the size of the table. Each page is read in full before it is handed on, so no connection is held
+     * while the consumer works, eg while a slow client drains a response.
+     * @param consumer receives each book.
+     * @throws IllegalStateException if a page could not be read, after the books of the pages before it were handed
+     * on.
+     */
+    public void forEachBook(Consumer<Book> consumer) {
+        Integer after = null;
+        while (true) {
+            List<Book> page = bookDAO.getBooksAfterIsbn(after, STREAM_PAGE_SIZE);
+            page.forEach(consumer);
+            if (page.size() < STREAM_PAGE_SIZE) {
+                return;
+            }
+            after = page.get(page.size() - 1).getIsbn();
+        }
+    }
+    /**
+     * @return the cache in front of the bookDAO, eg for its statistics.
+     */
+    public CatalogCache<Book> getCache() {
+        return cache;
+    }
+    /**
+     * @return the counters of the books being checked out and returned.
+     */
+    public CopyCounters getCopyCounters() {
+        return copies;
+    }
+    /**
+     * @return the queue of books waiting to be inserted, or null if writes are synchronous.
+     */
+    public WriteQueue<Book, Book> getWriteQueue() {
+        return writes;
+    }
+    /**
+     * @return the columnar catalog, or null if it is not used.
+     */
+    public ColumnarCatalog getColumnarCatalog() {
+        return store;
+    }
+    /**
+     * @return the index of the titles of the books, eg to load it at startup.
+     */
+    public TitleIndex getTitleIndex() {
+        return titles;
+    }
+    /**
+     * @return the filter of the isbns in use, eg to load it at startup.
+     */
+    public IsbnFilter getIsbnFilter() {
+        return isbns;
+    }
+    /**
+     * @return the index of available books, eg for its consistency checks.
+     */
+    public AvailabilityIndex getAvailabilityIndex() {
+        return availability;
+    }
 }
@@ -0,0 +1,466 @@
+package Application.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * A read-through, in-memory copy of a catalog table that sits between a Service class and its DAO. The whole table is
+ * loaded with one query the first time it is needed and is then served from memory, until it is older than the time
+ * to live, at which point it is loaded again. Writes made through the service are applied to the cache as they are
+ * persisted, so the cache never has to be thrown away because of them.
+ *
+ * Besides the lookup by primary key, the cache can maintain secondary indexes (eg books by author_id) and filtered
+ * views (eg the books with copies available), which are kept up to date on every write.
+ *
+ * If the table holds more than maxEntries rows it is not kept in memory. Lookups by key are then cached individually,
+ * up to maxEntries of them, and the other reads return null so that the service falls back to its DAO. The row evicted
+ * to make room is picked by a clock: the hand passes over the rows in the order they were cached, and a row that was
+ * read since the hand last passed it is spared once, so the rows that are read often stay. The catalog tables only
+ * grow, so a table found to be over the bound is not read whole again, until the cache is invalidated.
+ * A disabled cache always returns null or reads through, so that the service behaves as if there was no cache at all.
+ *
+ * Only one thread at a time loads the table. While it is loaded again, the other threads are served the rows of the
+ * previous load, and while it is loaded for the first time, they read through the DAO. A write made while the table
+ * is read may be missing from the rows read, so the table is then read again, as the write has been persisted by
+ * then, up to LOAD_ATTEMPTS times; if writes keep coming, the next read tries again.
+ *
+ * @param <T> the model class of the rows, eg Book.
+ */
+public class CatalogCache<T> {
+    private static final int LOAD_ATTEMPTS = 3;
+
+    private final String name;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final ToIntFunction<T> keyOf;
+    private final Supplier<List<T>> loader;
+    private final IntFunction<T> keyLoader;
+    private final Map<String, ToIntFunction<T>> indexes = new LinkedHashMap<>();
+    private final Map<String, Predicate<T>> views = new LinkedHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+    private volatile long writes;
+    private volatile boolean oversized;
+
+    /**
+     * Create a cache configured by system properties, eg -Dlibrary.cache.ttlMillis=5000:
+     *  library.cache.enabled     set to false to bypass every cache (default true)
+     *  library.cache.maxEntries  the largest table that is kept in memory (default 100000)
+     *  library.cache.ttlMillis   how long a loaded table is served before it is loaded again (default 60000)
+     * @param name the name of the cache in statistics, eg "books".
+     * @param keyOf extracts the primary key of a row.
+     * @param loader reads the whole table, eg BookDAO::getAllBooks.
+     * @param keyLoader reads a single row by primary key, eg BookDAO::getBookByIsbn.
+     */
+    public CatalogCache(String name, ToIntFunction<T> keyOf, Supplier<List<T>> loader, IntFunction<T> keyLoader){
+        this(name, keyOf, loader, keyLoader,
+                !"false".equals(System.getProperty("library.cache.enabled")),
+                Integer.getInteger("library.cache.maxEntries", 100000),
+                Long.getLong("library.cache.ttlMillis", 60000));
+    }
+
+    public CatalogCache(String name, ToIntFunction<T> keyOf, Supplier<List<T>> loader, IntFunction<T> keyLoader,
+                        boolean enabled, int maxEntries, long ttlMillis){
+        this.name = name;
+        this.keyOf = keyOf;
+        this.loader = loader;
+        this.keyLoader = keyLoader;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Maintain a secondary index over some int field. Must be called before the cache is first used.
+     * @param index the name of the index, used with {@link #getIndexed(String, int)}.
+     * @param field extracts the indexed field of a row.
+     * @return this cache.
+     */
+    public CatalogCache<T> withIndex(String index, ToIntFunction<T> field){
+        indexes.put(index, field);
+        return this;
+    }
+
+    /**
+     * Maintain a view of the rows that satisfy some condition. Must be called before the cache is first used.
+     * @param view the name of the view, used with {@link #getView(String)}.
+     * @param condition decides whether a row belongs to the view.
+     * @return this cache.
+     */
+    public CatalogCache<T> withView(String view, Predicate<T> condition){
+        views.put(view, condition);
+        return this;
+    }
+
+    /**
+     * @return every row ordered by key, or null if the table is not held in memory.
+     */
+    public List<T> getAll(){
+        Snapshot current = completeSnapshot();
+        if (current == null) {
+            return null;
+        }
+        Rows all = current.all;
+        long version = current.version;
+        if (all == null || all.version != version) {
+            all = new Rows(version, Collections.unmodifiableList(new ArrayList<>(current.byKey.values())));
+            current.all = all;
+        }
+        return all.rows;
+    }
+
+    /**
+     * @param key a primary key.
+     * @return the row with that key, or null if there is none. Rows that are not cached are read through.
+     */
+    public T get(int key){
+        if (!enabled) {
+            return keyLoader.apply(key);
+        }
+        Snapshot current = completeSnapshot();
+        if (current != null) {
+            return current.byKey.get(key);
+        }
+        current = snapshot;
+        if (current == null) {
+            return keyLoader.apply(key);
+        }
+        T row = current.byKey.get(key);
+        if (row != null) {
+            hits.increment();
+            current.touch(key);
+            return row;
+        }
+        misses.increment();
+        row = keyLoader.apply(key);
+        if (row != null) {
+            current.cache(key, row);
+        }
+        return row;
+    }
+
+    /**
+     * Look up a row without reading through or loading the table.
+     * @param key a primary key.
+     * @return the cached row with that key, or null if it is not cached.
+     */
+    public T getIfPresent(int key){
+        Snapshot current = snapshot;
+        if (!enabled || current == null || System.currentTimeMillis() - current.loadedAt >= ttlMillis) {
+            return null;
+        }
+        return current.byKey.get(key);
+    }
+
+    /**
+     * @param view the name of a view.
+     * @return the rows of the view ordered by key, or null if the table is not held in memory.
+     */
+    public List<T> getView(String view){
+        Snapshot current = completeSnapshot();
+        if (current == null) {
+            return null;
+        }
+        return new ArrayList<>(current.views.get(view).values());
+    }
+
+    /**
+     * @param index the name of an index.
+     * @param value the value of the indexed field.
+     * @return the rows with that value ordered by key, or null if the table is not held in memory.
+     */
+    public List<T> getIndexed(String index, int value){
+        Snapshot current = completeSnapshot();
+        if (current == null) {
+            return null;
+        }
+        Map<Integer, T> rows = current.indexes.get(index).get(value);
+        return rows == null ? new ArrayList<>() : new ArrayList<>(rows.values());
+    }
+
+    /**
+     * Apply a row that has been persisted to the cache, replacing any row with the same key.
+     * @param row the persisted row.
+     */
+    public synchronized void put(T row){
+        if (!enabled) {
+            return;
+        }
+        writes++;
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        int key = keyOf.applyAsInt(row);
+        if (!current.complete) {
+            if (current.byKey.size() >= maxEntries) {
+                current.byKey.remove(key);
+                current.referenced.remove(key);
+            } else if (current.byKey.put(key, row) == null) {
+                current.clock.add(key);
+            }
+            current.version++;
+            return;
+        }
+        T previous = current.byKey.put(key, row);
+        if (current.complete) {
+            if (previous != null) {
+                current.unindex(key, previous);
+            }
+            current.index(key, row);
+        }
+        current.version++;
+    }
+
+    /**
+     * Drop everything, so that the next read loads the table again.
+     */
+    public synchronized void invalidate(){
+        writes++;
+        snapshot = null;
+        oversized = false;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    public long getLoads(){
+        return loads.sum();
+    }
+
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of rows held in memory.
+     */
+    public int size(){
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.byKey.size();
+    }
+
+    /**
+     * @return the snapshot holding the whole table, loading it if needed, or null if the table can not be held.
+     */
+    private Snapshot completeSnapshot(){
+        if (!enabled) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Snapshot current = snapshot;
+        if (current != null && now - current.loadedAt < ttlMillis) {
+            if (current.complete) {
+                hits.increment();
+                return current;
+            }
+            return null;
+        }
+        misses.increment();
+        if (!loading.compareAndSet(false, true)) {
+            // another thread is loading the table: serve the rows it is replacing, if there are any
+            return current != null && current.complete ? current : null;
+        }
+        try {
+            // the table may have been loaded since the snapshot was read
+            current = snapshot;
+            if (current != null && now - current.loadedAt < ttlMillis) {
+                return current.complete ? current : null;
+            }
+            return load(now);
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    /**
+     * Read the whole table into a new snapshot, or, if it is over the size bound, start a new snapshot of single rows.
+     * Must be called by the loading thread alone.
+     * @return the new snapshot, if it holds the whole table, otherwise null.
+     */
+    private Snapshot load(long now){
+        for (int attempt = 1; !oversized; attempt++) {
+            long writesBefore = writes;
+            List<T> rows = loader.get();
+            loads.increment();
+            if (rows.size() > maxEntries) {
+                oversized = true;
+                break;
+            }
+            Snapshot loaded = new Snapshot(true, now);
+            for (String index : indexes.keySet()) {
+                loaded.indexes.put(index, new ConcurrentHashMap<>());
+            }
+            for (String view : views.keySet()) {
+                loaded.views.put(view, new ConcurrentSkipListMap<>());
+            }
+            for (T row : rows) {
+                int key = keyOf.applyAsInt(row);
+                loaded.byKey.put(key, row);
+                loaded.index(key, row);
+            }
+            synchronized (this) {
+                // a write that happened while the table was being read may be missing from the rows, so the rows are
+                // only kept if no write came in between; the write is persisted by now, so the table is read again
+                if (writes == writesBefore) {
+                    snapshot = loaded;
+                    return loaded;
+                }
+                if (attempt == LOAD_ATTEMPTS) {
+                    if (snapshot == null) {
+                        // expired from the start, so that the next read loads the table again
+                        snapshot = new Snapshot(false, now - ttlMillis);
+                    }
+                    return null;
+                }
+            }
+        }
+        synchronized (this) {
+            snapshot = new Snapshot(false, now);
+        }
+        return null;
+    }
+
+    /**
+     * The rows of the cache as of one load, along with the indexes and views derived from them, or, if it is not
+     * complete, the rows cached one at a time, with the clock that picks the row to evict.
+     */
+    private class Snapshot {
+        final boolean complete;
+        final long loadedAt;
+        final ConcurrentMap<Integer, T> byKey;
+        final ConcurrentLinkedQueue<Integer> clock = new ConcurrentLinkedQueue<>();
+        final Set<Integer> referenced = ConcurrentHashMap.newKeySet();
+        final Map<String, ConcurrentHashMap<Integer, ConcurrentSkipListMap<Integer, T>>> indexes = new LinkedHashMap<>();
+        final Map<String, ConcurrentSkipListMap<Integer, T>> views = new LinkedHashMap<>();
+        volatile long version;
+        volatile Rows all;
+
+        Snapshot(boolean complete, long loadedAt){
+            this.complete = complete;
+            this.loadedAt = loadedAt;
+            // the complete rows are kept in key order, for getAll
+            this.byKey = complete ? new ConcurrentSkipListMap<>() : new ConcurrentHashMap<>();
+        }
+
+        /**
+         * Mark a row cached one at a time as read, so that the clock spares it once.
+         */
+        void touch(int key){
+            if (!referenced.contains(key)) {
+                referenced.add(key);
+            }
+        }
+
+        /**
+         * Cache a row read through, evicting rows to stay within maxEntries.
+         */
+        void cache(int key, T row){
+            if (byKey.putIfAbsent(key, row) != null) {
+                return;
+            }
+            clock.add(key);
+            while (byKey.size() > maxEntries && evict()) {
+                evictions.increment();
+            }
+        }
+
+        /**
+         * Move the hand of the clock to the next row that was not read since the hand last passed it, and evict it.
+         * @return false if there was nothing to evict.
+         */
+        boolean evict(){
+            // every row passed is no longer marked, so the hand stops within two rounds, unless the rows are read
+            // again meanwhile, in which case it stops after two rounds anyway
+            int spared = 2 * byKey.size();
+            Integer key;
+            while ((key = clock.poll()) != null) {
+                if (!byKey.containsKey(key)) {
+                    // removed by a write, or evicted through an earlier entry of the same key
+                    referenced.remove(key);
+                    continue;
+                }
+                if (referenced.remove(key) && spared-- > 0) {
+                    clock.add(key);
+                    continue;
+                }
+                byKey.remove(key);
+                return true;
+            }
+            return false;
+        }
+
+        void index(int key, T row){
+            for (Map.Entry<String, ToIntFunction<T>> index : CatalogCache.this.indexes.entrySet()) {
+                indexes.get(index.getKey())
+                        .computeIfAbsent(index.getValue().applyAsInt(row), value -> new ConcurrentSkipListMap<>())
+                        .put(key, row);
+            }
+            for (Map.Entry<String, Predicate<T>> view : CatalogCache.this.views.entrySet()) {
+                if (view.getValue().test(row)) {
+                    views.get(view.getKey()).put(key, row);
+                }
+            }
+        }
+
+        void unindex(int key, T row){
+            for (Map.Entry<String, ToIntFunction<T>> index : CatalogCache.this.indexes.entrySet()) {
+                Map<Integer, T> rows = indexes.get(index.getKey()).get(index.getValue().applyAsInt(row));
+                if (rows != null) {
+                    rows.remove(key);
+                }
+            }
+            for (String view : CatalogCache.this.views.keySet()) {
+                views.get(view).remove(key);
+            }
+        }
+    }
+
+    /**
+     * The list of every row as of some version of a snapshot, kept so that repeated reads of the whole table do not
+     * copy it each time.
+     */
+    private class Rows {
+        final long version;
+        final List<T> rows;
+
+        Rows(long version, List<T> rows){
+            this.version = version;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package Application.Service;
+
+import Application.DAO.AuthorDAO;
+import Application.DAO.BookDAO;
+import Application.Model.Author;
+import Application.Model.CatalogSummary;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+/**
+ * Summarizes the catalog, eg for GET /catalog/summary, from several independent queries: the counts of the authors,
+ * the books, the available books and the copies available, and the authors with the most books, whose names are then
+ * read in one more query. The independent queries run at the same time on the QueryExecutor, so a summary takes about
+ * as long as its slowest query, plus the names; if one of them fails or misses its deadline, the summary fails at
+ * once and the queries that have not started yet are cancelled. A query fails when its DAO reports that it could
+ * not read the database, so a summary is never made of the -1 of a count that failed.
+ */
+public class CatalogSummaryService {
+    private final BookDAO bookDAO;
+    private final AuthorDAO authorDAO;
+    private final QueryExecutor executor;
+
+    /**
+     * @param bookDAO the DAO to count the books with.
+     * @param authorDAO the DAO to count and name the authors with.
+     * @param executor the executor to run the queries on.
+     */
+    public CatalogSummaryService(BookDAO bookDAO, AuthorDAO authorDAO, QueryExecutor executor){
+        this.bookDAO = bookDAO;
+        this.authorDAO = authorDAO;
+        this.executor = executor;
+    }
+
+    /**
+     * Summarize the catalog.
+     * @param topAuthors the number of authors with the most books to include.
+     * @return the summary, or a failure: a TimeoutException if a query missed its deadline, or an
+     * IllegalStateException if one could not read the database.
+     */
+    public CompletableFuture<CatalogSummary> summarize(int topAuthors){
+        CompletableFuture<Long> authors = count(authorDAO::countAuthors, "authors");
+        CompletableFuture<Long> books = count(bookDAO::countBooks, "books");
+        CompletableFuture<Long> availableBooks = count(bookDAO::countAvailableBooks, "available books");
+        CompletableFuture<Long> copiesAvailable = count(bookDAO::sumCopiesAvailable, "copies available");
+        CompletableFuture<List<CatalogSummary.TopAuthor>> top = topAuthors == 0
+                ? CompletableFuture.completedFuture(List.of())
+                : executor.submit(() -> {
+                    Map<Integer, Long> counts = bookDAO.countBooksByAuthor(topAuthors);
+                    if (counts == null) {
+                        throw new IllegalStateException("The books by author could not be counted");
+                    }
+                    return counts;
+                }).thenCompose(this::nameAuthors);
+        return QueryExecutor.allOf(authors, books, availableBooks, copiesAvailable, top)
+                .thenApply(done -> new CatalogSummary(authors.join(), books.join(), availableBooks.join(),
+                        copiesAvailable.join(), top.join()));
+    }
+
+    /**
+     * Run a count that returns -1 if it fails, failing the result then.
+     */
+    private CompletableFuture<Long> count(LongSupplier count, String what){
+        return executor.submit(() -> {
+            long n = count.getAsLong();
+            if (n < 0) {
+                throw new IllegalStateException("The " + what + " could not be counted");
+            }
+            return n;
+        });
+    }
+
+    /**
+     * Read the names of the authors with the most books, keeping the order of their counts.
+     */
+    private CompletableFuture<List<CatalogSummary.TopAuthor>> nameAuthors(Map<Integer, Long> counts){
+        int[] ids = counts.keySet().stream().mapToInt(Integer::intValue).toArray();
+        return executor.submit(() -> authorDAO.getAuthorsByIds(ids)).thenApply(authors -> {
+            if (authors == null) {
+                throw new IllegalStateException("The authors could not be read");
+            }
+            Map<Integer, String> names = new HashMap<>();
+            for (Author author : authors) {
+                names.put(author.getId(), author.getName());
+            }
+            List<CatalogSummary.TopAuthor> top = new ArrayList<>(counts.size());
+            counts.forEach((id, books) -> top.add(new CatalogSummary.TopAuthor(id, names.get(id), books)));
+            return top;
+        });
+    }
+}
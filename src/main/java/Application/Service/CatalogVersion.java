@@ -0,0 +1,36 @@
+package Application.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The version of the catalog, which the BookService and AuthorService bump on every write they persist, so that a
+ * response rendered from the catalog can be tagged with the version it reflects and reused, or answered with 304 Not
+ * Modified, until the version changes.
+ *
+ * The tag of a version starts with the time the process started, so that a tag handed out before a restart never
+ * matches the catalog after it. Only writes made through the services are counted: a change made to the database by
+ * anything else is not seen until the next write.
+ */
+public class CatalogVersion {
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    /**
+     * Record that the catalog changed.
+     */
+    public static void bump(){
+        VERSION.incrementAndGet();
+    }
+
+    public static long get(){
+        return VERSION.get();
+    }
+
+    /**
+     * @param version a version of the catalog.
+     * @return a short text that identifies that version in this process and no other, eg for an ETag.
+     */
+    public static String tag(long version){
+        return EPOCH + "-" + Long.toString(version, 36);
+    }
+}
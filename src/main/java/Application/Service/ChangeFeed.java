@@ -0,0 +1,310 @@
+package Application.Service;
+
+import Application.Model.Change;
+import Application.Util.JsonUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes the changes of a ChangeLog to any number of subscribers, eg the clients of a server-sent event stream. A
+ * single dispatcher thread serves every subscriber: when changes are appended it reads them from the log once,
+ * renders each one to JSON once, and hands the same text to every subscriber that is up to date, so a thousand
+ * subscribers cost a thousand queued writes per change, not a thousand threads or a thousand reads and renders of the
+ * log. A subscriber that starts behind, eg one that reconnects with the last change it saw, is caught up from the log
+ * on its own before it joins the others.
+ *
+ * The dispatcher never calls a subscriber itself: it puts the changes into the outbox of each subscriber, which holds
+ * up to outboxSize of them (set with -Dlibrary.changes.outboxSize, default 1000), and a sender thread takes them out
+ * and calls the subscriber, one at a time, in order. The sender threads are only held while an outbox is not empty,
+ * so a subscriber that blocks, eg a client that stopped reading, holds one of them, not the dispatcher and the other
+ * subscribers. A subscriber whose outbox is full when a change comes in has fallen behind: it is dropped, and told
+ * so once its sender gets to it. A subscriber that is being caught up is only sent more changes once its outbox is
+ * half empty.
+ *
+ * A subscriber that falls further behind than the log holds is told so, and dropped. When nothing changes for
+ * heartbeatMillis (set with -Dlibrary.changes.heartbeatMillis, default 15000), every subscriber with an empty outbox is
+ * sent a heartbeat, which keeps idle connections open and finds out about the closed ones.
+ *
+ * The dispatcher thread is started by the first subscription. Each subscriber is called from one sender thread at a
+ * time.
+ */
+public class ChangeFeed {
+    private static final int READ_LIMIT = 1000;
+    private static final Event HEARTBEAT = new Event(null, null);
+    private static final ExecutorService SENDERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "change-feed-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ChangeLog log;
+    private final long heartbeatMillis;
+    private final int outboxSize;
+    private final List<Cursor> cursors = new CopyOnWriteArrayList<>();
+    private boolean started;
+
+    /**
+     * Receives the changes of the feed.
+     */
+    public interface Subscriber {
+        /**
+         * @param change the next change.
+         * @param json the change rendered as JSON, shared by all subscribers.
+         */
+        void send(Change change, String json);
+
+        /**
+         * Nothing has changed for a while.
+         */
+        void heartbeat();
+
+        /**
+         * Some of the changes the subscriber has not seen are no longer in the log, or it fell further behind than its
+         * outbox holds. It is not called again.
+         */
+        void lost();
+    }
+
+    public ChangeFeed(ChangeLog log){
+        this(log, Long.getLong("library.changes.heartbeatMillis", 15000),
+                Integer.getInteger("library.changes.outboxSize", 1000));
+    }
+
+    public ChangeFeed(ChangeLog log, long heartbeatMillis, int outboxSize){
+        this.log = log;
+        this.heartbeatMillis = heartbeatMillis;
+        this.outboxSize = Math.max(1, outboxSize);
+    }
+
+    /**
+     * Send a subscriber every change after a sequence number, and then every change as it is appended.
+     * @param subscriber the subscriber.
+     * @param since the sequence number of the last change the subscriber has seen, eg ChangeLog.getLatest() for only
+     *              the changes from now on.
+     * @return a Runnable that ends the subscription, eg when the client disconnects.
+     */
+    public Runnable subscribe(Subscriber subscriber, long since){
+        Cursor cursor = new Cursor(subscriber, since, outboxSize);
+        cursors.add(cursor);
+        synchronized (this) {
+            if (!started) {
+                Thread thread = new Thread(this::run, "change-feed");
+                thread.setDaemon(true);
+                thread.start();
+                started = true;
+            }
+        }
+        log.wake();
+        return () -> drop(cursor, false);
+    }
+
+    /**
+     * @return the number of subscribers.
+     */
+    public int size(){
+        return cursors.size();
+    }
+
+    private void run(){
+        long dispatched = log.getLatest();
+        while (true) {
+            if (!isBehind(dispatched)) {
+                boolean changed;
+                try {
+                    changed = log.awaitAfter(dispatched, heartbeatMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!changed && !isBehind(dispatched)) {
+                    for (Cursor cursor : cursors) {
+                        if (cursor.outbox.isEmpty() && cursor.outbox.offer(HEARTBEAT)) {
+                            schedule(cursor);
+                        }
+                    }
+                    continue;
+                }
+            }
+            List<Change> changes = log.readAfter(dispatched, READ_LIMIT);
+            if (changes == null) {
+                // the dispatcher itself fell behind: every subscriber is caught up on its own
+                dispatched = log.getLatest();
+                changes = List.of();
+            }
+            String[] json = render(changes);
+            for (Cursor cursor : cursors) {
+                if (cursor.seq == dispatched) {
+                    send(cursor, changes, json);
+                } else {
+                    catchUp(cursor);
+                }
+            }
+            if (!changes.isEmpty()) {
+                dispatched = changes.get(changes.size() - 1).getSeq();
+            }
+        }
+    }
+
+    /**
+     * @return true if a subscriber has not been sent every change up to dispatched, eg a new one, and has room for
+     * more.
+     */
+    private boolean isBehind(long dispatched){
+        for (Cursor cursor : cursors) {
+            if (cursor.seq != dispatched && !cursor.waiting.get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send a subscriber one read of the changes after its own cursor, as many as its outbox has room for, and drop it
+     * if they are no longer in the log. A subscriber whose outbox is more than half full is left waiting, and its
+     * sender wakes the dispatcher once it has taken out enough.
+     */
+    private void catchUp(Cursor cursor){
+        if (cursor.outbox.size() > outboxSize / 2) {
+            cursor.waiting.set(true);
+            // checked again, as the sender may have taken the changes out before it could see the flag
+            if (cursor.outbox.size() > outboxSize / 2) {
+                return;
+            }
+            cursor.waiting.set(false);
+        }
+        List<Change> changes = log.readAfter(cursor.seq, Math.min(READ_LIMIT, cursor.outbox.remainingCapacity()));
+        if (changes == null) {
+            drop(cursor, true);
+            return;
+        }
+        send(cursor, changes, render(changes));
+    }
+
+    /**
+     * Put changes into the outbox of a subscriber, and drop it if the outbox is full.
+     */
+    private void send(Cursor cursor, List<Change> changes, String[] json){
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            if (!cursor.outbox.offer(new Event(change, json[i]))) {
+                drop(cursor, true);
+                return;
+            }
+            cursor.seq = change.getSeq();
+        }
+        if (!changes.isEmpty()) {
+            schedule(cursor);
+        }
+    }
+
+    /**
+     * Stop sending to a subscriber, and have its sender tell it that it lost changes if lost is true.
+     */
+    private void drop(Cursor cursor, boolean lost){
+        cursors.remove(cursor);
+        cursor.closed = true;
+        cursor.outbox.clear();
+        if (lost) {
+            cursor.lost.set(true);
+            schedule(cursor);
+        }
+    }
+
+    /**
+     * Have a sender thread empty the outbox of a subscriber, unless one already is.
+     */
+    private void schedule(Cursor cursor){
+        if (cursor.draining.compareAndSet(false, true)) {
+            SENDERS.execute(() -> drain(cursor));
+        }
+    }
+
+    /**
+     * Call a subscriber with the events of its outbox, in order, until it is empty.
+     */
+    private void drain(Cursor cursor){
+        do {
+            Event event;
+            while (!cursor.closed && (event = cursor.outbox.poll()) != null) {
+                if (cursor.outbox.size() <= outboxSize / 2 && cursor.waiting.compareAndSet(true, false)) {
+                    log.wake();
+                }
+                Event next = event;
+                if (!call(cursor, next == HEARTBEAT ? cursor.subscriber::heartbeat
+                        : () -> cursor.subscriber.send(next.change, next.json))) {
+                    break;
+                }
+            }
+            if (cursor.lost.compareAndSet(true, false)) {
+                call(cursor, cursor.subscriber::lost);
+            }
+            cursor.draining.set(false);
+        } while ((cursor.lost.get() || !cursor.closed && !cursor.outbox.isEmpty())
+                && cursor.draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Call a subscriber, dropping it if it throws, so that one broken subscriber does not stop the others.
+     * @return false if the subscriber threw.
+     */
+    private boolean call(Cursor cursor, Runnable call){
+        try {
+            call.run();
+            return true;
+        } catch (RuntimeException e) {
+            drop(cursor, false);
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    private static String[] render(List<Change> changes){
+        String[] json = new String[changes.size()];
+        try {
+            for (int i = 0; i < json.length; i++) {
+                json[i] = JsonUtil.MAPPER.writeValueAsString(changes.get(i));
+            }
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        return json;
+    }
+
+    /**
+     * A change in an outbox with its JSON, or the HEARTBEAT.
+     */
+    private static class Event {
+        final Change change;
+        final String json;
+
+        Event(Change change, String json){
+            this.change = change;
+            this.json = json;
+        }
+    }
+
+    /**
+     * A subscriber, the sequence number of the last change put into its outbox, and the outbox.
+     */
+    private static class Cursor {
+        final Subscriber subscriber;
+        final ArrayBlockingQueue<Event> outbox;
+        final AtomicBoolean draining = new AtomicBoolean();
+        final AtomicBoolean waiting = new AtomicBoolean();
+        final AtomicBoolean lost = new AtomicBoolean();
+        volatile boolean closed;
+        long seq;
+
+        Cursor(Subscriber subscriber, long seq, int outboxSize){
+            this.subscriber = subscriber;
+            this.seq = seq;
+            this.outbox = new ArrayBlockingQueue<>(outboxSize);
+        }
+    }
+}
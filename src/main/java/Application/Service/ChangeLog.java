@@ -0,0 +1,112 @@
+package Application.Service;
+
+import Application.Model.Change;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An append-only log of the changes of the catalog, so that clients can follow the catalog by reading what changed
+ * since the last change they saw, instead of reading the whole catalog again. The BookService and AuthorService
+ * append every book and author they persist, with a sequence number one more than the change before it.
+ *
+ * The log keeps the last capacity changes (set with -Dlibrary.changes.capacity, default 65536, rounded up to a power
+ * of two) in a ring: each change is written to the slot of its sequence number, over the change capacity before it.
+ * Appends take a lock only long enough to number the change and fill its slot; reads take no lock at all, and check
+ * the sequence number of every change they read, so that a reader that falls further behind than the ring holds
+ * finds out, rather than skipping changes unknowingly. A client that finds out has to read the catalog again.
+ *
+ * Like the CatalogVersion, only writes made through the services are logged, and the log starts empty with every
+ * process.
+ */
+public class ChangeLog {
+    /** The log of the catalog, shared by the services. */
+    public static final ChangeLog CATALOG = new ChangeLog(Integer.getInteger("library.changes.capacity", 65536));
+
+    private final AtomicReferenceArray<Change> ring;
+    private final int mask;
+    private volatile long latest;
+
+    /**
+     * @param capacity the number of changes to keep, rounded up to a power of two.
+     */
+    public ChangeLog(int capacity){
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Append a change and wake the threads waiting for one.
+     * @param type Change.BOOK or Change.AUTHOR.
+     * @param data the book or author as it was persisted.
+     * @return the sequence number of the change.
+     */
+    public synchronized long append(String type, Object data){
+        long seq = latest + 1;
+        ring.set((int) (seq & mask), new Change(seq, type, data));
+        latest = seq;
+        notifyAll();
+        return seq;
+    }
+
+    /**
+     * @return the sequence number of the last change, or 0 if there is none yet.
+     */
+    public long getLatest(){
+        return latest;
+    }
+
+    /**
+     * Read the changes after a sequence number, oldest first.
+     * @param since the sequence number of the last change already seen, or 0 for all changes.
+     * @param limit the maximum number of changes to read.
+     * @return up to limit changes, or null if some of the changes after since are no longer in the log, or if since
+     * is after the last change, eg because it was handed out before a restart.
+     */
+    public List<Change> readAfter(long since, int limit){
+        long last = Math.min(latest, since + limit);
+        if (since < 0 || since > last) {
+            return null;
+        }
+        List<Change> changes = new ArrayList<>((int) Math.max(0, last - since));
+        for (long seq = since + 1; seq <= last; seq++) {
+            Change change = ring.get((int) (seq & mask));
+            // a newer change in the slot means this one was written over
+            if (change == null || change.getSeq() != seq) {
+                return null;
+            }
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    /**
+     * Wait until there is a change after a sequence number, or until wake is called.
+     * @param since the sequence number of the last change already seen.
+     * @param timeoutMillis the longest time to wait.
+     * @return true if there is a change after since.
+     * @throws InterruptedException if the thread is interrupted while it waits.
+     */
+    public synchronized boolean awaitAfter(long since, long timeoutMillis) throws InterruptedException {
+        if (latest <= since) {
+            wait(timeoutMillis);
+        }
+        return latest > since;
+    }
+
+    /**
+     * Wake the threads waiting in awaitAfter without appending a change, eg to have a new reader served.
+     */
+    public synchronized void wake(){
+        notifyAll();
+    }
+
+    /**
+     * @return the number of changes the log keeps.
+     */
+    public int getCapacity(){
+        return mask + 1;
+    }
+}
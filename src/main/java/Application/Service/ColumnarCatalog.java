@@ -0,0 +1,257 @@
+package Application.Service;
+
+import Application.Model.Book;
+import Application.Util.IntIntHashMap;
+import Application.Util.JsonUtil;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A read-optimized copy of the book table, held in columns rather than in Book objects. Each book is a row number:
+ * its isbn, author_id and copies_available are at that position of three int arrays, and its title is a range of a
+ * byte array shared by all titles, in UTF-8. An IntIntHashMap maps each isbn to its row.
+ *
+ * A catalog of millions of books is then a handful of large arrays, instead of several objects per book (the Book, its
+ * String title and the title's bytes, plus the entry and boxed key of a map), which the garbage collector would have
+ * to trace on every full collection. Book objects are only created when a book is asked for, and the JSON of the
+ * catalog is written straight from the columns.
+ *
+ * Like the AvailabilityIndex, the catalog is loaded on first use and is then kept up to date by the writes of the
+ * BookService. Titles that are replaced by longer ones leave their old bytes unused in the shared array.
+ */
+public class ColumnarCatalog {
+    private static final int NULL_TITLE = -1;
+
+    private final Consumer<Consumer<Book>> loader;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Queue<Book> pending = new ConcurrentLinkedQueue<>();
+
+    private final IntIntHashMap rows = new IntIntHashMap();
+    private int[] isbns = new int[16];
+    private int[] authorIds = new int[16];
+    private int[] copies = new int[16];
+    private int[] titleOffsets = new int[16];
+    private int[] titleLengths = new int[16];
+    private byte[] titles = new byte[256];
+    private int size;
+    private int titlesSize;
+    private volatile boolean loaded;
+
+    /**
+     * @param loader hands every book of the table to a consumer, eg BookService::forEachBook.
+     */
+    public ColumnarCatalog(Consumer<Consumer<Book>> loader){
+        this.loader = loader;
+    }
+
+    /**
+     * @param isbn the isbn of a book.
+     * @return a new Book with the columns of that isbn, or null if there is no such book.
+     */
+    public Book get(int isbn){
+        prepare();
+        lock.readLock().lock();
+        try {
+            int row = rows.get(isbn);
+            if (row == IntIntHashMap.MISSING) {
+                return null;
+            }
+            return new Book(isbns[row], authorIds[row], title(row), copies[row]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param isbn the isbn of a book.
+     * @return the copies available of that book, or -1 if there is no such book, without creating a Book.
+     */
+    public int getCopies(int isbn){
+        prepare();
+        lock.readLock().lock();
+        try {
+            int row = rows.get(isbn);
+            return row == IntIntHashMap.MISSING ? -1 : copies[row];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply a book that has been persisted, adding or replacing its row. Books persisted before the catalog starts
+     * loading are read by the load; books persisted while it loads are applied once it has loaded.
+     * @param book the persisted book.
+     */
+    public void put(Book book){
+        if (!loaded) {
+            // never wait for a load here: the loader may be waiting for the thread that persisted the book
+            if (lock.writeLock().tryLock()) {
+                try {
+                    if (loaded) {
+                        add(book);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                return;
+            }
+            pending.add(book);
+            if (loaded) {
+                lock.writeLock().lock();
+                try {
+                    drain();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            add(book);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write every book to a stream as a JSON array, in the order the books were added, without creating any Book.
+     * @param out the stream to write to, eg the response.
+     * @throws IOException if the stream can not be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        prepare();
+        lock.readLock().lock();
+        try (JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (int row = 0; row < size; row++) {
+                generator.writeStartObject();
+                generator.writeNumberField("isbn", isbns[row]);
+                generator.writeNumberField("author_id", authorIds[row]);
+                generator.writeFieldName("title");
+                if (titleLengths[row] == NULL_TITLE) {
+                    generator.writeNull();
+                } else {
+                    generator.writeUTF8String(titles, titleOffsets[row], titleLengths[row]);
+                }
+                generator.writeNumberField("copies_available", copies[row]);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of books in the catalog.
+     */
+    public int size(){
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes held by the arrays of the catalog, including the room left for growth.
+     */
+    public long getBytes(){
+        lock.readLock().lock();
+        try {
+            return 20L * isbns.length + titles.length + rows.getBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Load the catalog on first use.
+     */
+    private void prepare(){
+        if (!loaded) {
+            lock.writeLock().lock();
+            try {
+                if (!loaded) {
+                    loader.accept(this::add);
+                    trim();
+                    loaded = true;
+                    drain();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Give back the room the arrays grew for while loading, which can be most of a large catalog.
+     */
+    private void trim(){
+        int capacity = Math.max(size, 16);
+        isbns = Arrays.copyOf(isbns, capacity);
+        authorIds = Arrays.copyOf(authorIds, capacity);
+        copies = Arrays.copyOf(copies, capacity);
+        titleOffsets = Arrays.copyOf(titleOffsets, capacity);
+        titleLengths = Arrays.copyOf(titleLengths, capacity);
+        titles = Arrays.copyOf(titles, Math.max(titlesSize, 256));
+    }
+
+    private void drain(){
+        Book book;
+        while ((book = pending.poll()) != null) {
+            add(book);
+        }
+    }
+
+    private void add(Book book){
+        byte[] title = book.getTitle() == null ? null : book.getTitle().getBytes(StandardCharsets.UTF_8);
+        int length = title == null ? 0 : title.length;
+        int row = rows.get(book.getIsbn());
+        if (row == IntIntHashMap.MISSING) {
+            if (size == isbns.length) {
+                int capacity = size * 2;
+                isbns = Arrays.copyOf(isbns, capacity);
+                authorIds = Arrays.copyOf(authorIds, capacity);
+                copies = Arrays.copyOf(copies, capacity);
+                titleOffsets = Arrays.copyOf(titleOffsets, capacity);
+                titleLengths = Arrays.copyOf(titleLengths, capacity);
+            }
+            row = size++;
+            rows.put(book.getIsbn(), row);
+            isbns[row] = book.getIsbn();
+            titleOffsets[row] = titlesSize;
+            titleLengths[row] = NULL_TITLE;
+        }
+        authorIds[row] = book.getAuthor_id();
+        copies[row] = book.getCopies_available();
+        // a title that fits in the bytes of the previous one is written over it, a longer one is appended
+        if (length > Math.max(titleLengths[row], 0)) {
+            if (titlesSize + length > titles.length) {
+                titles = Arrays.copyOf(titles, Math.max(titles.length * 2, titlesSize + length));
+            }
+            titleOffsets[row] = titlesSize;
+            titlesSize += length;
+        }
+        if (title != null) {
+            System.arraycopy(title, 0, titles, titleOffsets[row], length);
+        }
+        titleLengths[row] = title == null ? NULL_TITLE : length;
+    }
+
+    private String title(int row){
+        int length = titleLengths[row];
+        return length == NULL_TITLE ? null : new String(titles, titleOffsets[row], length, StandardCharsets.UTF_8);
+    }
+}
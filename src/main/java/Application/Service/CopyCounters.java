@@ -0,0 +1,222 @@
+package Application.Service;
+
+import Application.Model.Book;
+import Application.Util.StripedCounter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * The copies available of the books being checked out and returned, counted in memory. The count of a book is read
+ * from the database the first time it is checked out or returned, and is from then on kept in a StripedCounter, so
+ * checkouts of a popular book do not queue up on one row of the database, nor on one counter in memory, and a book can
+ * never be checked out more times than it has copies.
+ *
+ * The changes are written to the database behind the requests: at most flushMillis (set with
+ * -Dlibrary.copies.flushMillis, default 100) after a checkout or return, the net change of every book touched since
+ * the last write is applied with one batch of UPDATEs. A checkout that takes the last copy of a book, and a return
+ * to a book that had none, write the batch at once instead, before they return, as they change whether the book is
+ * available: a book is only reported changed once it is written, so the views of the available books, the ChangeLog
+ * and the replicas fed from it never get ahead of the database. The changes the writer could not write, eg those of a
+ * shard that is down, are retried with the next one.
+ *
+ * The counters assume that this process is the only one changing copies_available.
+ */
+public class CopyCounters {
+    /** The result of a checkout or return of a book that does not exist. */
+    public static final int NOT_FOUND = -1;
+    /** The result of a checkout of a book with no copies left. */
+    public static final int UNAVAILABLE = -2;
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "copy-counter-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final IntFunction<Book> loader;
+    private final BiFunction<int[], int[], int[]> writer;
+    private final Consumer<Book> onChange;
+    private final long flushMillis;
+    private final ConcurrentHashMap<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Create counters configured by system properties.
+     * @param loader reads a book by isbn, eg BookService::getBookByIsbn.
+     * @param writer adds deltas[i] to the copies available of isbns[i], returning the isbns it could not write, eg
+     *               BookDAO::updateCopiesAvailable.
+     * @param onChange receives a book whose copies available changed, once written to the database.
+     */
+    public CopyCounters(IntFunction<Book> loader, BiFunction<int[], int[], int[]> writer, Consumer<Book> onChange){
+        this(loader, writer, onChange, Long.getLong("library.copies.flushMillis", 100));
+    }
+
+    public CopyCounters(IntFunction<Book> loader, BiFunction<int[], int[], int[]> writer, Consumer<Book> onChange,
+                        long flushMillis){
+        this.loader = loader;
+        this.writer = writer;
+        this.onChange = onChange;
+        this.flushMillis = flushMillis;
+    }
+
+    /**
+     * Check out one copy of a book.
+     * @param isbn the isbn of the book.
+     * @return the copies left after the checkout, NOT_FOUND or UNAVAILABLE.
+     */
+    public int checkout(int isbn){
+        Counter counter = counter(isbn);
+        if (counter == null) {
+            return NOT_FOUND;
+        }
+        if (!counter.copies.tryDecrement()) {
+            return UNAVAILABLE;
+        }
+        changed(counter);
+        int left = counter.copies.sum();
+        if (left == 0) {
+            flush();
+        }
+        return left;
+    }
+
+    /**
+     * Return one copy of a book.
+     * @param isbn the isbn of the book.
+     * @return the copies available after the return, or NOT_FOUND.
+     */
+    public int returnCopy(int isbn){
+        Counter counter = counter(isbn);
+        if (counter == null) {
+            return NOT_FOUND;
+        }
+        counter.copies.increment();
+        changed(counter);
+        int available = counter.copies.sum();
+        if (available == 1) {
+            flush();
+        }
+        return available;
+    }
+
+    /**
+     * @return the copies available of a book as counted in memory, or NOT_FOUND if it is not being counted.
+     */
+    public int getCopies(int isbn){
+        Counter counter = counters.get(isbn);
+        return counter == null ? NOT_FOUND : counter.copies.sum();
+    }
+
+    /**
+     * Write the net change of every book touched since the last write to the database, now.
+     * @return the number of books written, or -1 if some of them could not be written, in which case those are
+     * retried, and the others are written.
+     */
+    public synchronized int flush(){
+        List<Counter> touched = new ArrayList<>();
+        List<Integer> totals = new ArrayList<>();
+        int changed = 0;
+        Set<Integer> failed = new HashSet<>();
+        for (Counter counter : counters.values()) {
+            if (counter.dirty) {
+                counter.dirty = false;
+                int total = counter.copies.sum();
+                touched.add(counter);
+                totals.add(total);
+                if (total != counter.flushed) {
+                    changed++;
+                }
+            }
+        }
+        if (changed > 0) {
+            int[] isbns = new int[changed];
+            int[] deltas = new int[changed];
+            int next = 0;
+            for (int i = 0; i < touched.size(); i++) {
+                int delta = totals.get(i) - touched.get(i).flushed;
+                if (delta != 0) {
+                    isbns[next] = touched.get(i).book.getIsbn();
+                    deltas[next++] = delta;
+                }
+            }
+            for (int isbn : writer.apply(isbns, deltas)) {
+                failed.add(isbn);
+            }
+        }
+        for (int i = 0; i < touched.size(); i++) {
+            Counter counter = touched.get(i);
+            if (failed.contains(counter.book.getIsbn())) {
+                // the delta from flushed is written again with the next flush, with whatever has changed since
+                counter.dirty = true;
+                continue;
+            }
+            counter.flushed = totals.get(i);
+            onChange.accept(counter.withCopies(counter.flushed));
+        }
+        if (!failed.isEmpty()) {
+            schedule();
+            return -1;
+        }
+        return changed;
+    }
+
+    private Counter counter(int isbn){
+        Counter counter = counters.get(isbn);
+        if (counter != null) {
+            return counter;
+        }
+        return counters.computeIfAbsent(isbn, key -> {
+            Book book = loader.apply(key);
+            return book == null ? null : new Counter(book);
+        });
+    }
+
+    private void changed(Counter counter){
+        if (!counter.dirty) {
+            counter.dirty = true;
+        }
+        if (!scheduled.get()) {
+            schedule();
+        }
+    }
+
+    private void schedule(){
+        if (scheduled.compareAndSet(false, true)) {
+            FLUSHER.schedule(() -> {
+                scheduled.set(false);
+                flush();
+            }, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The in-memory count of one book, and the count last written to the database.
+     */
+    private static class Counter {
+        final Book book;
+        final StripedCounter copies;
+        volatile boolean dirty;
+        int flushed;
+
+        Counter(Book book){
+            this.book = book;
+            this.copies = new StripedCounter(book.getCopies_available());
+            this.flushed = book.getCopies_available();
+        }
+
+        Book withCopies(int copies){
+            return new Book(book.getIsbn(), book.getAuthor_id(), book.getTitle(), copies);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package Application.Service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A Bloom filter of the isbns in the book table, which tells that an isbn is certainly not in use without a query, eg
+ * before a lookup of a book that is not held in memory. An isbn the filter has seen is only possibly in use: the
+ * filter answers "maybe" for about fpp of the isbns it has not seen (set with -Dlibrary.isbnFilter.fpp, default 0.01),
+ * and those are looked up as before. Each isbn sets k bits of a bit array; a lookup checks them, without locks.
+ *
+ * The filter is loaded from the database by prepare, at startup. A lookup never reads the table itself: before the
+ * first build is complete, it answers "maybe" and has the filter built on the rebuild thread. The BookService adds
+ * every book it persists. It can not forget an isbn, and it gets less selective as isbns are added beyond the number it
+ * was sized for, so it is rebuilt from the database, on a thread of its own, every rebuildMillis (set with
+ * -Dlibrary.isbnFilter.rebuildMillis, default 3600000) and as soon as it holds more isbns than it was sized for. The
+ * old filter keeps answering until the new one is complete, and the isbns added meanwhile go to both.
+ *
+ * If the isbns can not be read, the filter answers "maybe" for every isbn, until it can be built. Only the books
+ * persisted through the BookService are added between builds, so an "absent" answer is final because this process is
+ * the only writer of the book table, as the catalog cache and the copy counters assume too. Where it is not (set with
+ * -Dlibrary.isbnFilter.soleWriter=false), the BookService looks the isbn up anyway, and adds the books it finds that
+ * way with recordMissed.
+ */
+public class IsbnFilter {
+    private static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "isbn-filter-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ToIntFunction<IntConsumer> loader;
+    private final double fpp;
+    private final int minIsbns;
+    private final long rebuildMillis;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final LongAdder absent = new LongAdder();
+    private final LongAdder maybe = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private volatile Bits bits;
+    private volatile Bits building;
+    private volatile boolean loaded;
+    private volatile long builtAt;
+
+    /**
+     * Create a filter configured by system properties, eg -Dlibrary.isbnFilter.fpp=0.001:
+     *  library.isbnFilter.fpp            the rate of "maybe" answers for unknown isbns it is sized for (default 0.01)
+     *  library.isbnFilter.minIsbns       the least number of isbns it is sized for (default 100000)
+     *  library.isbnFilter.rebuildMillis  how long a build is used before it is rebuilt (default 3600000)
+     * @param loader hands every isbn of the table to a consumer, eg BookDAO::forEachIsbn, and returns the number of
+     *               isbns, or -1 if they could not all be read.
+     */
+    public IsbnFilter(ToIntFunction<IntConsumer> loader){
+        this(loader, Double.parseDouble(System.getProperty("library.isbnFilter.fpp", "0.01")),
+                Integer.getInteger("library.isbnFilter.minIsbns", 100000),
+                Long.getLong("library.isbnFilter.rebuildMillis", 3600000));
+    }
+
+    public IsbnFilter(ToIntFunction<IntConsumer> loader, double fpp, int minIsbns, long rebuildMillis){
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("fpp must be between 0 and 1: " + fpp);
+        }
+        this.loader = loader;
+        this.fpp = fpp;
+        this.minIsbns = Math.max(1, minIsbns);
+        this.rebuildMillis = rebuildMillis;
+    }
+
+    /**
+     * @param isbn an isbn.
+     * @return false if no book has the isbn, as far as the filter knows, true if one may have it.
+     */
+    public boolean mightContain(int isbn){
+        if (!loaded || isDue()) {
+            rebuildLater();
+        }
+        Bits current = bits;
+        if (current != null && !current.mightContain(isbn)) {
+            absent.increment();
+            return false;
+        }
+        maybe.increment();
+        return true;
+    }
+
+    /**
+     * Add the isbn of a book that has been persisted.
+     */
+    public void add(int isbn){
+        // the build in progress first: if there is none, either it has not started, and will read this book, or it
+        // has completed, and bits is already the new filter
+        Bits next = building;
+        if (next != null) {
+            next.add(isbn);
+        }
+        Bits current = bits;
+        if (current != null && current != next) {
+            current.add(isbn);
+        }
+    }
+
+    /**
+     * Count an isbn the filter answered "maybe" for that turned out not to be in use.
+     */
+    public void recordFalsePositive(){
+        falsePositives.increment();
+    }
+
+    /**
+     * Add and count an isbn the filter answered "absent" for that turned out to be in use, ie a book inserted into
+     * the database by another writer since the last build.
+     */
+    public void recordMissed(int isbn){
+        missed.increment();
+        add(isbn);
+    }
+
+    /**
+     * Load the filter now, if it is not loaded yet, eg at startup, so that the lookups do not wait for it.
+     */
+    public void prepare(){
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    build();
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the filter again from the database now, sized for twice the isbns it holds, and then use it.
+     * @return true if it was built, false if the isbns could not be read, in which case the old filter is kept.
+     */
+    public synchronized boolean rebuild(){
+        return build();
+    }
+
+    /**
+     * @return the number of isbns in the filter: those read by the last build, and those added since that set a new
+     * bit.
+     */
+    public int size(){
+        Bits current = bits;
+        return current == null ? 0 : current.count.get();
+    }
+
+    /**
+     * @return the memory held by the bits of the filter, in bytes.
+     */
+    public long getMemoryBytes(){
+        Bits current = bits;
+        return current == null ? 0 : current.words.length() * 8L;
+    }
+
+    /**
+     * @return the rate of "maybe" answers expected for unknown isbns with the isbns the filter holds now.
+     */
+    public double getExpectedFpp(){
+        Bits current = bits;
+        return current == null ? 1 : current.expectedFpp();
+    }
+
+    /**
+     * @return the number of lookups answered with "certainly absent".
+     */
+    public long getAbsent(){
+        return absent.sum();
+    }
+
+    /**
+     * @return the number of lookups answered with "maybe".
+     */
+    public long getMaybe(){
+        return maybe.sum();
+    }
+
+    /**
+     * @return the number of "maybe" answers for isbns that were then not found.
+     */
+    public long getFalsePositives(){
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return the number of "absent" answers for isbns that were then found.
+     */
+    public long getMissed(){
+        return missed.sum();
+    }
+
+    /**
+     * @return the number of builds of the filter, the first load included.
+     */
+    public long getRebuilds(){
+        return rebuilds.sum();
+    }
+
+    private boolean isDue(){
+        Bits current = bits;
+        return System.currentTimeMillis() - builtAt >= rebuildMillis
+                || current != null && current.count.get() > current.capacity;
+    }
+
+    private void rebuildLater(){
+        if (rebuilding.compareAndSet(false, true)) {
+            REBUILDER.execute(() -> {
+                try {
+                    rebuild();
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Read every isbn into a new filter, then swap it in. Must hold the lock of the filter.
+     */
+    private boolean build(){
+        Bits current = bits;
+        Bits next = new Bits(Math.max(minIsbns, current == null ? 0 : 2 * current.count.get()), fpp);
+        building = next;
+        int read = -1;
+        try {
+            read = loader.applyAsInt(next::load);
+        } finally {
+            builtAt = System.currentTimeMillis();
+            loaded = true;
+            if (read < 0) {
+                building = null;
+            }
+        }
+        if (read < 0) {
+            System.out.println("The isbn filter could not be built, keeping the previous one");
+            return false;
+        }
+        bits = next;
+        building = null;
+        rebuilds.increment();
+        return true;
+    }
+
+    /**
+     * The bit array of one build, sized for capacity isbns at the false positive rate. The k bits of an isbn are
+     * picked from two halves of one 64 bit hash, h1 + i * h2 for i from 0 to k - 1.
+     */
+    private static class Bits {
+        final int capacity;
+        final AtomicLongArray words;
+        final long bitCount;
+        final int hashes;
+        final AtomicInteger count = new AtomicInteger();
+
+        Bits(int capacity, double fpp){
+            this.capacity = capacity;
+            double ln2 = Math.log(2);
+            long bits = (long) Math.ceil(-capacity * Math.log(fpp) / (ln2 * ln2));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) / 64));
+            this.words = new AtomicLongArray(words);
+            this.bitCount = words * 64L;
+            this.hashes = (int) Math.max(1, Math.min(16, Math.round((double) bitCount / capacity * ln2)));
+        }
+
+        boolean mightContain(int isbn){
+            long hash = mix(isbn);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Add an isbn read from the table, which is counted: the isbns of the table are distinct.
+         */
+        void load(int isbn){
+            set(isbn);
+            count.incrementAndGet();
+        }
+
+        /**
+         * Add an isbn persisted since, which is counted only if it sets a new bit, as it may already be in the filter,
+         * eg when the copies of its book change.
+         */
+        void add(int isbn){
+            if (set(isbn)) {
+                count.incrementAndGet();
+            }
+        }
+
+        private boolean set(int isbn){
+            long hash = mix(isbn);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            boolean changed = false;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                if ((words.get(word) & mask) == 0) {
+                    words.accumulateAndGet(word, mask, (a, b) -> a | b);
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        double expectedFpp(){
+            return Math.pow(1 - Math.exp(-(double) hashes * count.get() / bitCount), hashes);
+        }
+
+        private static long mix(long key){
+            long h = key * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            return h ^ (h >>> 33);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package Application.Service;
+
+import Application.Util.RoutingDataSource;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs independent DAO calls at the same time, each on a thread of its own with a connection of its own, so that a
+ * request that needs several of them waits about as long as the slowest one rather than for all of them in turn.
+ *
+ * Each call has a deadline, timeoutMillis after it is submitted (set with -Dlibrary.query.timeoutMillis, default
+ * 5000): its future then fails with a TimeoutException, even if the call is still waiting for a thread or running.
+ * Cancelling the future, or its deadline passing, stops a call that has not started from ever running. A call that has
+ * already started runs to its end, and its result is dropped: the thread is not interrupted, because H2 closes a
+ * file database when a thread is interrupted in the middle of a read.
+ *
+ * The calls see the writes of the thread that submitted them, as its reads would (see RoutingDataSource.readAfter).
+ * There are threads threads (set with -Dlibrary.query.threads, default the size of the connection pool); with 0
+ * threads, every call runs on the thread that submits it, one after the other, eg to compare against.
+ */
+public class QueryExecutor {
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Create an executor configured by system properties.
+     */
+    public QueryExecutor(){
+        this(Integer.getInteger("library.query.threads",
+                        Integer.getInteger("library.pool.maxSize", 2 * Runtime.getRuntime().availableProcessors())),
+                Long.getLong("library.query.timeoutMillis", 5000));
+    }
+
+    /**
+     * @param threads the number of calls that can run at once, or 0 to run each call on the thread that submits it.
+     * @param timeoutMillis the default deadline of a call, from when it is submitted.
+     */
+    public QueryExecutor(int threads, long timeoutMillis){
+        AtomicInteger next = new AtomicInteger();
+        this.executor = threads == 0 ? null : Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "query-" + next.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Run a call with the default deadline.
+     * @param call a DAO call, eg bookDAO::countBooks.
+     * @return the result of the call.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> call){
+        return submit(call, timeoutMillis);
+    }
+
+    /**
+     * Run a call on a thread of the executor.
+     * @param call a DAO call, eg bookDAO::countBooks.
+     * @param timeoutMillis how long after now the result must be ready.
+     * @return the result of the call, which fails with a TimeoutException once the deadline has passed. Cancelling it
+     * stops the call from running if it has not started yet.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> call, long timeoutMillis){
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.whenComplete((value, failure) -> count(failure));
+        long readAfter = RoutingDataSource.getReadAfter();
+        if (executor == null) {
+            try {
+                result.complete(call.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+        Future<?> task = executor.submit(() -> run(call, result, readAfter));
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((value, failure) -> {
+            if (failure != null) {
+                task.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Combine the results of several calls, failing as soon as one of them fails rather than once all are done, and
+     * then cancelling the others, whose results are no longer needed.
+     * @param parts the results of the calls.
+     * @return completes when every call has completed, or fails with the first failure.
+     */
+    public static CompletableFuture<Void> allOf(CompletableFuture<?>... parts){
+        CompletableFuture<Void> all = CompletableFuture.allOf(parts);
+        for (CompletableFuture<?> part : parts) {
+            part.whenComplete((value, failure) -> {
+                if (failure != null) {
+                    all.completeExceptionally(failure);
+                }
+            });
+        }
+        all.whenComplete((value, failure) -> {
+            if (failure != null) {
+                for (CompletableFuture<?> part : parts) {
+                    part.cancel(false);
+                }
+            }
+        });
+        return all;
+    }
+
+    /**
+     * @return the number of calls that completed with a result.
+     */
+    public long getCompleted(){
+        return completed.sum();
+    }
+
+    /**
+     * @return the number of calls whose deadline passed before they completed.
+     */
+    public long getTimeouts(){
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of calls that were cancelled, eg because another part of the same request failed.
+     */
+    public long getCancelled(){
+        return cancelled.sum();
+    }
+
+    /**
+     * @return the number of calls that threw.
+     */
+    public long getFailed(){
+        return failed.sum();
+    }
+
+    private static <T> void run(Supplier<T> call, CompletableFuture<T> result, long readAfter){
+        // a call whose deadline passed while it waited for a thread, or that was cancelled, is not run
+        if (result.isDone()) {
+            return;
+        }
+        RoutingDataSource.resetReadAfter();
+        RoutingDataSource.readAfter(readAfter);
+        try {
+            result.complete(call.get());
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        } finally {
+            RoutingDataSource.resetReadAfter();
+        }
+    }
+
+    private void count(Throwable failure){
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure == null) {
+            completed.increment();
+        } else if (failure instanceof TimeoutException) {
+            timeouts.increment();
+        } else if (failure instanceof CancellationException) {
+            cancelled.increment();
+        } else {
+            failed.increment();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package Application.Service;
+
+import Application.DAO.RowMapper;
+import Application.Model.Author;
+import Application.Model.Book;
+import Application.Model.Change;
+import Application.Util.ConnectionUtil;
+import Application.Util.RoutingDataSource;
+import Application.Util.SchemaMigrator;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps a read replica up to date with the primary by replaying the ChangeLog into it. The replica is first brought
+ * up to date with a copy of the author and book tables of the primary, taken after reading the sequence number of the
+ * last change, so that every change up to that number is in the copy. The changes after it are then applied a batch
+ * per transaction. A change only tells which author or book changed: the feeder reads that row from the primary
+ * again and writes it to the replica with a MERGE, or deletes it if it is gone. As every write to the primary is
+ * logged after it is made, the copies of checkouts and returns included, a change is always applied with the row as
+ * written up to it, or later. After each batch the replica's applied sequence number moves on, which is what the
+ * RoutingDataSource looks at to decide whether a read may go to it.
+ *
+ * If the replica can not be written, it is taken out of the rotation, and copied again from the primary after
+ * retryMillis (set with -Dlibrary.replica.retryMillis, default 5000). It is also copied again if it falls further
+ * behind than the ChangeLog holds.
+ *
+ * Only the changes made through the services are in the ChangeLog: a change made to the primary by anything else only
+ * reaches the replicas when they are copied again, or when the same row is changed through the services.
+ */
+public class ReplicaFeeder {
+    private static final int BATCH_SIZE = 1000;
+    private static final String MERGE_AUTHOR = "MERGE INTO author (id, name) KEY (id) VALUES (?, ?)";
+    private static final String MERGE_BOOK =
+            "MERGE INTO book (isbn, author_id, title, copies_available) KEY (isbn) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_BOOK = "DELETE FROM book WHERE isbn = ?";
+    private static final String READ_AUTHOR = "SELECT id, name FROM author WHERE id = ?";
+    private static final String READ_BOOK = "SELECT isbn, author_id, title, copies_available FROM book WHERE isbn = ?";
+    private static boolean started;
+
+    private final ChangeLog log;
+    private final DataSource primary;
+    private final RoutingDataSource.Replica replica;
+    private final long retryMillis;
+    private volatile long copies;
+    private volatile long failures;
+
+    public ReplicaFeeder(ChangeLog log, DataSource primary, RoutingDataSource.Replica replica){
+        this(log, primary, replica, Long.getLong("library.replica.retryMillis", 5000));
+    }
+
+    /**
+     * @param log the log of the changes to replay.
+     * @param primary the database to copy the replica from.
+     * @param replica the replica to keep up to date.
+     * @param retryMillis how long to wait before copying a replica that could not be written again.
+     */
+    public ReplicaFeeder(ChangeLog log, DataSource primary, RoutingDataSource.Replica replica, long retryMillis){
+        this.log = log;
+        this.primary = primary;
+        this.replica = replica;
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * Start feeding every replica of the DataSource of the application, if it has any. Only the first call starts
+     * anything.
+     */
+    public static synchronized void startAll(){
+        if (started) {
+            return;
+        }
+        started = true;
+        DataSource dataSource = ConnectionUtil.getDataSource();
+        if (dataSource instanceof RoutingDataSource) {
+            RoutingDataSource routing = (RoutingDataSource) dataSource;
+            for (RoutingDataSource.Replica replica : routing.getReplicas()) {
+                new ReplicaFeeder(ChangeLog.CATALOG, routing.getPrimary(), replica).start();
+            }
+        }
+    }
+
+    /**
+     * Start the thread that copies the replica and then applies the changes to it.
+     */
+    public void start(){
+        Thread thread = new Thread(this::run, "replica-feeder-" + replica.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the number of times the replica was copied from the primary.
+     */
+    public long getCopies(){
+        return copies;
+    }
+
+    /**
+     * @return the number of times the replica could not be written.
+     */
+    public long getFailures(){
+        return failures;
+    }
+
+    private void run(){
+        while (true) {
+            try {
+                long applied = copy();
+                replica.setApplied(applied);
+                while (true) {
+                    if (!log.awaitAfter(applied, 1000)) {
+                        continue;
+                    }
+                    List<Change> changes = log.readAfter(applied, BATCH_SIZE);
+                    if (changes == null) {
+                        System.out.println("Replica " + replica.getName() + " fell behind the change log, copying it");
+                        replica.markDown();
+                        break;
+                    }
+                    apply(changes);
+                    applied = changes.get(changes.size() - 1).getSeq();
+                    replica.setApplied(applied);
+                }
+            } catch (SQLException | RuntimeException e) {
+                replica.markDown();
+                failures++;
+                System.out.println("Replica " + replica.getName() + " could not be written: " + e.getMessage());
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replace the tables of the replica with those of the primary.
+     * @return the sequence number of the last change that is certainly in the copy.
+     */
+    long copy() throws SQLException {
+        long seq = log.getLatest();
+        try (Connection source = primary.getConnection();
+             Connection target = replica.getDataSource().getConnection()) {
+            SchemaMigrator.migrate(target);
+            target.setAutoCommit(false);
+            try (Statement statement = target.createStatement()) {
+                statement.executeUpdate("DELETE FROM book");
+                statement.executeUpdate("DELETE FROM author");
+            }
+            try (PreparedStatement read = source.prepareStatement("SELECT id, name FROM author");
+                 PreparedStatement write = target.prepareStatement(MERGE_AUTHOR)) {
+                read.setFetchSize(RowMapper.FETCH_SIZE);
+                try (ResultSet rs = read.executeQuery()) {
+                    int batched = 0;
+                    while (rs.next()) {
+                        write.setInt(1, rs.getInt(1));
+                        write.setString(2, rs.getString(2));
+                        write.addBatch();
+                        if (++batched % BATCH_SIZE == 0) {
+                            write.executeBatch();
+                        }
+                    }
+                }
+                write.executeBatch();
+            }
+            try (PreparedStatement read = source.prepareStatement(
+                    "SELECT isbn, author_id, title, copies_available FROM book");
+                 PreparedStatement write = target.prepareStatement(MERGE_BOOK)) {
+                read.setFetchSize(RowMapper.FETCH_SIZE);
+                try (ResultSet rs = read.executeQuery()) {
+                    int batched = 0;
+                    while (rs.next()) {
+                        write.setInt(1, rs.getInt(1));
+                        write.setObject(2, rs.getObject(2));
+                        write.setString(3, rs.getString(3));
+                        write.setObject(4, rs.getObject(4));
+                        write.addBatch();
+                        if (++batched % BATCH_SIZE == 0) {
+                            write.executeBatch();
+                        }
+                    }
+                }
+                write.executeBatch();
+            }
+            target.commit();
+        }
+        copies++;
+        return seq;
+    }
+
+    /**
+     * Apply changes to the replica in one transaction, with the rows they name as the primary holds them now.
+     */
+    void apply(List<Change> changes) throws SQLException {
+        Set<Integer> authors = new LinkedHashSet<>();
+        Set<Integer> books = new LinkedHashSet<>();
+        for (Change change : changes) {
+            if (change.getData() instanceof Author) {
+                authors.add(((Author) change.getData()).getId());
+            } else if (change.getData() instanceof Book) {
+                books.add(((Book) change.getData()).getIsbn());
+            }
+        }
+        try (Connection source = primary.getConnection();
+             Connection target = replica.getDataSource().getConnection()) {
+            target.setAutoCommit(false);
+            try (PreparedStatement readAuthor = source.prepareStatement(READ_AUTHOR);
+                 PreparedStatement readBook = source.prepareStatement(READ_BOOK);
+                 PreparedStatement author = target.prepareStatement(MERGE_AUTHOR);
+                 PreparedStatement book = target.prepareStatement(MERGE_BOOK);
+                 PreparedStatement deleteBook = target.prepareStatement(DELETE_BOOK)) {
+                // the authors go first, as a book may refer to an author created just before it
+                for (int id : authors) {
+                    readAuthor.setInt(1, id);
+                    try (ResultSet rs = readAuthor.executeQuery()) {
+                        if (rs.next()) {
+                            author.setInt(1, rs.getInt(1));
+                            author.setString(2, rs.getString(2));
+                            author.addBatch();
+                        }
+                    }
+                }
+                author.executeBatch();
+                for (int isbn : books) {
+                    readBook.setInt(1, isbn);
+                    try (ResultSet rs = readBook.executeQuery()) {
+                        if (rs.next()) {
+                            book.setInt(1, rs.getInt(1));
+                            book.setObject(2, rs.getObject(2));
+                            book.setString(3, rs.getString(3));
+                            book.setObject(4, rs.getObject(4));
+                            book.addBatch();
+                        } else {
+                            deleteBook.setInt(1, isbn);
+                            deleteBook.addBatch();
+                        }
+                    }
+                }
+                book.executeBatch();
+                deleteBook.executeBatch();
+            }
+            target.commit();
+        }
+    }
+}
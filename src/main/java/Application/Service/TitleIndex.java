@@ -0,0 +1,365 @@
+package Application.Service;
+
+import Application.Model.Book;
+import Application.Util.IntIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * An inverted index over the titles of the books: for every term that appears in a title, the sorted isbns of the
+ * books whose title contains it. Titles and queries are split into terms at every character that is not a letter or a
+ * digit, and lowercased, so "The Book of Sand" has the terms "the", "book", "of" and "sand".
+ *
+ * A query matches the books whose title has, for every term of the query, a term that starts with it, so
+ * "boo sa" matches "The Book of Sand". The candidates are the books of the rarest query term, which are checked
+ * against the postings of the other terms with binary searches, so a search costs about as much as its rarest term
+ * has books rather than as much as the catalog has titles. Only very short prefixes, which start most terms, come
+ * close to the cost of a scan.
+ *
+ * Matches are ranked by the number of query terms that are whole terms of the title (rather than prefixes), then
+ * by the number of terms in the title, so that shorter titles come first, then by isbn.
+ *
+ * Like the AvailabilityIndex, the index is loaded on first use, or by prepare, eg at startup, and is then kept up to
+ * date by the BookService. The title of a book that is already indexed is not indexed again.
+ */
+public class TitleIndex {
+    private final Consumer<Consumer<Book>> loader;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final IntIntHashMap termCounts = new IntIntHashMap();
+    private volatile boolean loaded;
+
+    /**
+     * @param loader hands every book of the table to a consumer, eg BookService::forEachBook.
+     */
+    public TitleIndex(Consumer<Consumer<Book>> loader){
+        this.loader = loader;
+    }
+
+    /**
+     * Find the books whose title matches a query, best first.
+     * @param query the terms to look for, eg "book of sa".
+     * @param offset the number of best matches to skip, for the pages after the first.
+     * @param limit the maximum number of matches to return.
+     * @return the isbns of the matches in the page, and the number of matches in all pages.
+     */
+    public Hits search(String query, int offset, int limit){
+        prepare();
+        List<String> queryTerms = new ArrayList<>(tokenize(query));
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return new Hits(0, new int[0]);
+        }
+        lock.readLock().lock();
+        try {
+            Postings[] matches = new Postings[queryTerms.size()];
+            Postings[] whole = new Postings[queryTerms.size()];
+            int rarest = 0;
+            for (int i = 0; i < queryTerms.size(); i++) {
+                matches[i] = startingWith(queryTerms.get(i));
+                whole[i] = terms.get(queryTerms.get(i));
+                if (matches[i].size < matches[rarest].size) {
+                    rarest = i;
+                }
+            }
+            TopMatches top = new TopMatches(offset + limit);
+            int total = 0;
+            // the candidates come in isbn order, so each search in the other postings starts where the last ended
+            int[] matchesFrom = new int[matches.length];
+            int[] wholeFrom = new int[matches.length];
+            candidates:
+            for (int c = 0; c < matches[rarest].size; c++) {
+                int isbn = matches[rarest].isbns[c];
+                int score = 0;
+                for (int i = 0; i < queryTerms.size(); i++) {
+                    if (i != rarest) {
+                        matchesFrom[i] = matches[i].seek(isbn, matchesFrom[i]);
+                        if (!matches[i].has(isbn, matchesFrom[i])) {
+                            continue candidates;
+                        }
+                    }
+                    if (whole[i] == matches[i]) {
+                        score++;
+                    } else if (whole[i] != null) {
+                        wholeFrom[i] = whole[i].seek(isbn, wholeFrom[i]);
+                        if (whole[i].has(isbn, wholeFrom[i])) {
+                            score++;
+                        }
+                    }
+                }
+                total++;
+                top.add(rank(score, termCounts.get(isbn), isbn));
+            }
+            return new Hits(total, top.isbns(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Index the title of a book that has been persisted, unless it is already indexed. Books persisted before the
+     * index starts loading are read by the load.
+     * @param book the persisted book.
+     */
+    public void add(Book book){
+        // a book persisted while the index loads waits for the load, as it may have been read before it was persisted
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                index(book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Load the index now, if it is not loaded yet, rather than on the first search.
+     */
+    public void prepare(){
+        if (!loaded) {
+            lock.writeLock().lock();
+            try {
+                if (!loaded) {
+                    loader.accept(this::index);
+                    loaded = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct terms in the index.
+     */
+    public int getTerms(){
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of books in the index.
+     */
+    public int size(){
+        lock.readLock().lock();
+        try {
+            return termCounts.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Split a title or query into its distinct terms, in the order they appear.
+     */
+    static Set<String> tokenize(String text){
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean inTerm = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (inTerm && start < 0) {
+                start = i;
+            } else if (!inTerm && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private void index(Book book){
+        if (termCounts.get(book.getIsbn()) != IntIntHashMap.MISSING) {
+            return;
+        }
+        Set<String> titleTerms = tokenize(book.getTitle());
+        for (String term : titleTerms) {
+            terms.computeIfAbsent(term, key -> new Postings()).add(book.getIsbn());
+        }
+        termCounts.put(book.getIsbn(), titleTerms.size());
+    }
+
+    /**
+     * @return the books with a term that starts with prefix: the postings of that term if there is only one.
+     */
+    private Postings startingWith(String prefix){
+        List<Postings> range = new ArrayList<>(terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+        if (range.size() == 1) {
+            return range.get(0);
+        }
+        int size = 0;
+        for (Postings postings : range) {
+            size += postings.size;
+        }
+        Postings union = new Postings();
+        union.isbns = new int[size];
+        for (Postings postings : range) {
+            System.arraycopy(postings.isbns, 0, union.isbns, union.size, postings.size);
+            union.size += postings.size;
+        }
+        // a title may have several terms with the prefix
+        Arrays.sort(union.isbns);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || union.isbns[i] != union.isbns[distinct - 1]) {
+                union.isbns[distinct++] = union.isbns[i];
+            }
+        }
+        union.size = distinct;
+        return union;
+    }
+
+    /**
+     * Pack the ranking of a match in a long that sorts best first: fewer whole-term misses, fewer title terms, lower
+     * isbn.
+     */
+    private static long rank(int score, int titleTerms, int isbn){
+        long misses = 255 - Math.min(score, 255);
+        return misses << 40 | (long) Math.min(titleTerms, 255) << 32 | (isbn & 0xFFFFFFFFL) ^ 0x80000000L;
+    }
+
+    /**
+     * The outcome of a search.
+     */
+    public static class Hits {
+        private final int total;
+        private final int[] isbns;
+
+        Hits(int total, int[] isbns){
+            this.total = total;
+            this.isbns = isbns;
+        }
+
+        /**
+         * @return the number of books that match the query, in all pages.
+         */
+        public int getTotal(){
+            return total;
+        }
+
+        /**
+         * @return the isbns of the matches in the requested page, best first.
+         */
+        public int[] getIsbns(){
+            return isbns;
+        }
+    }
+
+    /**
+     * The sorted isbns of the books with one term.
+     */
+    private static class Postings {
+        int[] isbns = new int[1];
+        int size;
+
+        void add(int isbn){
+            int at = size == 0 || isbn > isbns[size - 1] ? size : Arrays.binarySearch(isbns, 0, size, isbn);
+            if (at >= 0 && at < size) {
+                return;
+            }
+            at = at < 0 ? -at - 1 : at;
+            if (size == isbns.length) {
+                isbns = Arrays.copyOf(isbns, size * 2);
+            }
+            System.arraycopy(isbns, at, isbns, at + 1, size - at);
+            isbns[at] = isbn;
+            size++;
+        }
+
+        /**
+         * @return the position of the first isbn that is not below isbn, at or after from, found by galloping.
+         */
+        int seek(int isbn, int from){
+            int step = 1;
+            int high = from;
+            while (high < size && isbns[high] < isbn) {
+                from = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(isbns, from, Math.min(high + 1, size), isbn);
+            return found < 0 ? -found - 1 : found;
+        }
+
+        boolean has(int isbn, int at){
+            return at < size && isbns[at] == isbn;
+        }
+    }
+
+    /**
+     * The best ranks seen so far, at most capacity of them, in a binary heap with the worst on top.
+     */
+    private static class TopMatches {
+        final long[] heap;
+        int size;
+
+        TopMatches(int capacity){
+            heap = new long[Math.max(0, capacity)];
+        }
+
+        void add(long rank){
+            if (size < heap.length) {
+                int i = size++;
+                heap[i] = rank;
+                while (i > 0 && heap[(i - 1) / 2] < heap[i]) {
+                    swap(i, (i - 1) / 2);
+                    i = (i - 1) / 2;
+                }
+            } else if (size > 0 && rank < heap[0]) {
+                heap[0] = rank;
+                int i = 0;
+                while (true) {
+                    int largest = i;
+                    int left = 2 * i + 1;
+                    if (left < size && heap[left] > heap[largest]) {
+                        largest = left;
+                    }
+                    if (left + 1 < size && heap[left + 1] > heap[largest]) {
+                        largest = left + 1;
+                    }
+                    if (largest == i) {
+                        break;
+                    }
+                    swap(i, largest);
+                    i = largest;
+                }
+            }
+        }
+
+        /**
+         * @return the isbns of the ranks after the first offset, best first.
+         */
+        int[] isbns(int offset){
+            long[] sorted = Arrays.copyOf(heap, size);
+            Arrays.sort(sorted);
+            int[] isbns = new int[Math.max(0, size - offset)];
+            for (int i = 0; i < isbns.length; i++) {
+                isbns[i] = (int) (sorted[offset + i] ^ 0x80000000L);
+            }
+            return isbns;
+        }
+
+        private void swap(int i, int j){
+            long swapped = heap[i];
+            heap[i] = heap[j];
+            heap[j] = swapped;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package Application.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A bounded queue of inserts that one writer thread commits in groups. Each insert on its own would be a transaction
+ * of its own, and pay for a commit of its own; the writer instead takes every insert waiting in the queue, up to
+ * maxGroup of them, and writes the group with one batch in one transaction, then completes the future of each insert
+ * with its own result. Under load the groups grow by themselves, as inserts queue up while the previous group
+ * commits; a lone insert is written as soon as it arrives.
+ *
+ * When the queue holds capacity inserts (set with -Dlibrary.writes.queueSize, default 10000), submit refuses new ones
+ * instead of waiting, so that callers can push back on their clients rather than pile up. Groups hold at most
+ * maxGroup inserts (set with -Dlibrary.writes.maxGroup, default 256).
+ *
+ * @param <T> the type of the rows to insert.
+ * @param <R> the result of each insert, eg the persisted row, or null if it was not inserted.
+ */
+public class WriteQueue<T, R> {
+    private final BlockingQueue<Pending<T, R>> queue;
+    private final Function<List<T>, List<R>> writer;
+    private final int maxGroup;
+    private volatile long groups;
+    private volatile long writes;
+
+    /**
+     * Create a queue configured by system properties and start its writer thread.
+     * @param name the name of the writer thread, eg "book-writer".
+     * @param writer writes a group in one transaction, returning the result of each row in order.
+     */
+    public WriteQueue(String name, Function<List<T>, List<R>> writer){
+        this(name, writer, Integer.getInteger("library.writes.queueSize", 10000),
+                Integer.getInteger("library.writes.maxGroup", 256));
+    }
+
+    /**
+     * Create a queue and start its writer thread.
+     * @param name the name of the writer thread, eg "book-writer".
+     * @param writer writes a group in one transaction, returning the result of each row in order, eg with
+     *               the bulk insert of a DAO. If it throws, or returns a result for some other number of rows, every
+     *               insert of the group fails, and the writer thread goes on with the next group.
+     * @param capacity the number of inserts that can wait to be written.
+     * @param maxGroup the maximum number of inserts written together.
+     */
+    public WriteQueue(String name, Function<List<T>, List<R>> writer, int capacity, int maxGroup){
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = writer;
+        this.maxGroup = maxGroup;
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a row to be inserted with the next group.
+     * @param row the row to insert.
+     * @return the result of the insert once its group has been committed, or null if the queue is full.
+     */
+    public CompletableFuture<R> submit(T row){
+        Pending<T, R> pending = new Pending<>(row);
+        return queue.offer(pending) ? pending.result : null;
+    }
+
+    /**
+     * @return the number of inserts waiting to be written.
+     */
+    public int size(){
+        return queue.size();
+    }
+
+    /**
+     * @return the number of groups written, each with one commit.
+     */
+    public long getGroups(){
+        return groups;
+    }
+
+    /**
+     * @return the number of inserts written, over all groups.
+     */
+    public long getWrites(){
+        return writes;
+    }
+
+    private void run(){
+        List<Pending<T, R>> group = new ArrayList<>(maxGroup);
+        while (true) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                // nothing will write the inserts still waiting, so they fail rather than wait forever
+                queue.drainTo(group);
+                fail(group, new IllegalStateException("The writer thread was interrupted"));
+                return;
+            }
+            queue.drainTo(group, maxGroup - 1);
+            write(group);
+            group.clear();
+        }
+    }
+
+    private void write(List<Pending<T, R>> group){
+        List<T> rows = new ArrayList<>(group.size());
+        for (Pending<T, R> pending : group) {
+            rows.add(pending.row);
+        }
+        List<R> results;
+        try {
+            results = writer.apply(rows);
+            if (results != null && results.size() != rows.size()) {
+                throw new IllegalStateException("The writer returned " + results.size() + " results for "
+                        + rows.size() + " rows");
+            }
+        } catch (Throwable e) {
+            // whatever went wrong, the callers waiting on the group must hear of it, and the thread must live on
+            System.out.println("A group of " + rows.size() + " inserts failed: " + e);
+            count(group);
+            fail(group, e);
+            return;
+        }
+        count(group);
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).result.complete(results == null ? null : results.get(i));
+        }
+    }
+
+    private void fail(List<Pending<T, R>> group, Throwable e){
+        for (Pending<T, R> pending : group) {
+            pending.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Count a group before its futures complete, so that a caller that has seen its insert complete sees it counted.
+     */
+    private void count(List<Pending<T, R>> group){
+        // only the writer thread changes the counts
+        groups++;
+        writes += group.size();
+    }
+
+    /**
+     * A row waiting to be written, with the future of its result.
+     */
+    private static class Pending<T, R> {
+        final T row;
+        final CompletableFuture<R> result = new CompletableFuture<>();
+
+        Pending(T row){
+            this.row = row;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package Application.Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of JDBC connections. Callers borrow a connection with {@link #borrow()} and give it back by calling
+ * close() on it, which is why the DAOs open their connections in a try-with-resources block.
+ *
+ * The pool never holds more than maxSize physical connections. A borrower that finds every connection in use waits up
+ * to acquireTimeoutMillis for one to be returned before an SQLTimeoutException is thrown. The borrowers wait on a fair
+ * Semaphore of maxSize permits, which is the bound on the JDBC calls in progress: the request handlers take no other
+ * permit, as every DAO call borrows a connection first, and a virtual thread parks on the Semaphore without pinning
+ * its carrier, while it would pin it inside H2. Idle connections are
+ * validated before they are handed out, unless they were used within the last validationBypassMillis. A background
+ * thread reports connections that have been held longer than leakDetectionMillis.
+ *
+ * Every pooled connection keeps a {@link StatementCache} of up to statementCacheSize prepared statements, so that the
+ * statements the DAOs prepare on each call are reused rather than prepared again.
+ *
+ * The pool is a DataSource, whose getConnection() borrows a connection, so that it can be handed to the DAOs directly
+ * or behind a RoutingDataSource.
+ */
+public class ConnectionPool extends AbstractDataSource {
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long leakDetectionMillis;
+    private final boolean leakTrace;
+    private final long validationBypassMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final ScheduledExecutorService leakDetector;
+
+    /**
+     * Create a pool that caches up to 32 prepared statements per connection.
+     */
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+                          long acquireTimeoutMillis, long leakDetectionMillis, boolean leakTrace) {
+        this(url, username, password, minSize, maxSize, acquireTimeoutMillis, leakDetectionMillis, leakTrace, 32);
+    }
+
+    /**
+     * @param url the JDBC connection string.
+     * @param username the database user.
+     * @param password the database password.
+     * @param minSize the number of connections opened up front and kept open.
+     * @param maxSize the upper bound of physical connections.
+     * @param acquireTimeoutMillis how long a borrower waits for a free connection.
+     * @param leakDetectionMillis how long a connection may be held before it is reported, 0 disables the check.
+     * @param leakTrace whether to capture the borrowing stack trace so that leak reports point at the culprit.
+     * @param statementCacheSize the number of prepared statements cached per connection, 0 disables the cache.
+     */
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+                          long acquireTimeoutMillis, long leakDetectionMillis, boolean leakTrace,
+                          int statementCacheSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.leakTrace = leakTrace;
+        this.validationBypassMillis = 500;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        if (leakDetectionMillis > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(leakDetectionMillis / 2, 100);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+        for (int i = 0; i < minSize; i++) {
+            try {
+                idle.offerLast(openConnection());
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Borrow a connection from the pool. The returned connection must be closed to return it to the pool.
+     * @return a validated connection that is used by no other thread.
+     * @throws SQLException if no connection became available within the acquire timeout, or none could be opened.
+     */
+    public Connection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLTimeoutException("timed out after " + acquireTimeoutMillis
+                        + "ms waiting for a connection (max pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        }
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (pooled.isUsable(validationBypassMillis)) {
+                    break;
+                }
+                pooled.destroy();
+            }
+            if (pooled == null) {
+                pooled = openConnection();
+            }
+            borrowCount.incrementAndGet();
+            borrowed.add(pooled);
+            return pooled.lease(leakTrace);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrow a connection from the pool, the same as borrow().
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return borrow();
+    }
+
+    /**
+     * Return a connection to the pool. This is called by the close() method of a borrowed connection.
+     */
+    void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        if (pooled.reset()) {
+            idle.offerFirst(pooled);
+        } else {
+            pooled.destroy();
+        }
+        permits.release();
+    }
+
+    /**
+     * Close every idle connection. Borrowed connections are closed as they are returned.
+     */
+    public void shutdown() {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.destroy();
+        }
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of physical connections currently open, idle or borrowed.
+     */
+    public int getOpenCount() {
+        return open.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return the number of threads currently waiting for a connection.
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getTotalBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * @return the number of prepareStatement calls that were served by a cached statement.
+     */
+    public long getStatementCacheHits() {
+        return statementHits.sum();
+    }
+
+    /**
+     * @return the number of prepareStatement calls that had to prepare a new statement.
+     */
+    public long getStatementCacheMisses() {
+        return statementMisses.sum();
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        PooledConnection pooled = new PooledConnection(this, DriverManager.getConnection(url, username, password));
+        open.incrementAndGet();
+        return pooled;
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            Lease lease = pooled.currentLease;
+            if (lease != null && !lease.reported && now - lease.borrowedAt > leakDetectionMillis) {
+                lease.reported = true;
+                leakCount.incrementAndGet();
+                System.out.println("Possible connection leak: connection held by " + lease.thread.getName()
+                        + " for " + (now - lease.borrowedAt) + "ms");
+                if (lease.borrowSite != null) {
+                    lease.borrowSite.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    static class PooledConnection {
+        private final ConnectionPool pool;
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private volatile Lease currentLease;
+        private long lastUsed;
+
+        PooledConnection(ConnectionPool pool, Connection connection) {
+            this.pool = pool;
+            this.connection = connection;
+            this.statementCache = new StatementCache(connection, pool.statementCacheSize,
+                    pool.statementHits, pool.statementMisses);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        Connection lease(boolean trace) {
+            Lease lease = new Lease(this, trace);
+            currentLease = lease;
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, lease);
+        }
+
+        boolean isUsable(long bypassMillis) {
+            try {
+                if (System.currentTimeMillis() - lastUsed < bypassMillis) {
+                    return !connection.isClosed();
+                }
+                return connection.isValid(1);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Bring the connection back into the state a new borrower expects.
+         * @return false if the connection is broken and should be discarded.
+         */
+        boolean reset() {
+            Lease lease = currentLease;
+            currentLease = null;
+            lastUsed = System.currentTimeMillis();
+            try {
+                if (lease != null) {
+                    lease.closeStatements();
+                }
+                if (connection.isClosed()) {
+                    return false;
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                if (connection.isReadOnly()) {
+                    connection.setReadOnly(false);
+                }
+                return true;
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+                return false;
+            }
+        }
+
+        void destroy() {
+            pool.open.decrementAndGet();
+            statementCache.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One borrowing of a pooled connection. It is the invocation handler behind the connection handed to the
+     * borrower, so that close() returns the connection to the pool instead of closing it, and so that the connection
+     * can not be used any more once it has been returned.
+     */
+    static class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final Thread thread;
+        private final long borrowedAt;
+        private final Exception borrowSite;
+        private final List<Statement> statements = new ArrayList<>();
+        private volatile boolean reported;
+        private boolean closed;
+
+        Lease(PooledConnection pooled, boolean trace) {
+            this.pooled = pooled;
+            this.thread = Thread.currentThread();
+            this.borrowedAt = System.currentTimeMillis();
+            this.borrowSite = trace ? new Exception("connection borrowed here") : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        pooled.pool.release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.connection;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("connection has already been returned to the pool");
+            }
+            if (method.getName().equals("prepareStatement") && (args.length == 1
+                    || (args.length == 2 && method.getParameterTypes()[1] == int.class))) {
+                PreparedStatement cached = pooled.statementCache.prepare((String) args[0],
+                        args.length == 1 ? Statement.NO_GENERATED_KEYS : (Integer) args[1]);
+                if (cached != null) {
+                    statements.add(cached);
+                    return cached;
+                }
+            }
+            try {
+                Object result = method.invoke(pooled.connection, args);
+                if (result instanceof Statement) {
+                    statements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Close any statement the borrower left open, so that cursors do not outlive the lease. Cached statements are
+         * handed back to the statement cache.
+         */
+        void closeStatements() {
+            for (Statement statement : statements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+            statements.clear();
+        }
+    }
+}
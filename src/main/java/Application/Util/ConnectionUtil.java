@@ -1,37 +1,140 @@
 package Application.Util;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The ConnectionUtil class will be utilized to create an active connection to our database. This class utilizes the
- * singleton design pattern. We will be utilizing an in-memory called h2database. In-memory means that the database
- * is dissolved when the program ends - it is only for use in testing. Do not change anything in this class.
+ * The ConnectionUtil class will be utilized to hand out active connections to our database. This class utilizes the
+ * singleton design pattern: every caller shares one ConnectionPool, but each caller borrows a connection of its own.
+ * We will be utilizing an in-memory called h2database. In-memory means that the database is dissolved when the
+ * program ends - it is only for use in testing.
+ *
+ * The pool can be tuned with system properties, eg -Dlibrary.pool.maxSize=16:
+ *  library.db.url                   the JDBC connection string (default jdbc:h2:./h2/db)
+ *  library.pool.minSize             connections opened up front (default 2)
+ *  library.pool.maxSize             upper bound of open connections (default 2 * available processors)
+ *  library.pool.acquireTimeoutMillis  how long to wait for a free connection (default 30000)
+ *  library.pool.leakDetectionMillis   report connections held longer than this, 0 to disable (default 60000)
+ *  library.pool.leakTrace           capture the stack trace of every borrow for leak reports (default false)
+ *  library.pool.statementCacheSize  prepared statements cached per connection, 0 to disable (default 32)
+ *  library.db.replicas              comma-separated JDBC connection strings of read replicas (default none)
+ *  library.db.shards                comma-separated JDBC connection strings of the shards the books are partitioned
+ *                                   over besides the database of the application (default none)
+ *
+ * With replicas, the DataSource handed to the DAOs is a RoutingDataSource over one pool per database, and the
+ * replicas are kept up to date by the ReplicaFeeder. With shards, the DAOs are a ShardedBookDAO and a ShardedAuthorDAO
+ * over the DataSource and one pool per shard. Shards and replicas can not be combined, as the replicas are copies of
+ * the database of the application alone.
  */
 public class ConnectionUtil {
-    
+
     //url will represent our connection string. Since this is an in-memory db, we will represent a file location to store the data
-    private static String url = "jdbc:h2:./h2/db";
+    private static String url = System.getProperty("library.db.url", "jdbc:h2:./h2/db");
     private static String username = "sa";
     private static String password = "sa";
 
-    private static Connection connection = null;
+    private static volatile ConnectionPool pool = null;
+    private static volatile DataSource dataSource = null;
+    private static volatile List<DataSource> shards = null;
 
     /**
+     * Borrow a connection from the pool. The connection must be closed once the caller is done with it, which
+     * returns it to the pool, so it should be opened in a try-with-resources block.
      * @return active connection to the database
+     * @throws SQLException if no connection became available within the acquire timeout.
      */
-    public static Connection getConnection(){
-        if(connection == null){
-            try {
-                connection = DriverManager.getConnection(url, username, password);
+    public static Connection getConnection() throws SQLException {
+        return getPool().borrow();
+    }
 
-            } catch (SQLException e) {
-                e.printStackTrace();
+    /**
+     * @return the pool shared by the whole application, created on first use.
+     */
+    public static ConnectionPool getPool(){
+        ConnectionPool result = pool;
+        if(result == null){
+            synchronized (ConnectionUtil.class){
+                result = pool;
+                if(result == null){
+                    result = createPool(url);
+                    pool = result;
+                }
             }
         }
+        return result;
+    }
+
+    /**
+     * @return the DataSource of the DAOs: the pool, or a RoutingDataSource over the pool and the pools of the
+     * replicas if library.db.replicas is set. Created on first use.
+     */
+    public static DataSource getDataSource(){
+        DataSource result = dataSource;
+        if(result == null){
+            synchronized (ConnectionUtil.class){
+                result = dataSource;
+                if(result == null){
+                    String replicaUrls = System.getProperty("library.db.replicas", "").trim();
+                    if (replicaUrls.isEmpty()) {
+                        result = getPool();
+                    } else {
+                        List<RoutingDataSource.Replica> replicas = new ArrayList<>();
+                        for (String replicaUrl : replicaUrls.split(",")) {
+                            replicas.add(new RoutingDataSource.Replica(replicaUrl.trim(),
+                                    createPool(replicaUrl.trim())));
+                        }
+                        result = new RoutingDataSource(getPool(), replicas);
+                    }
+                    dataSource = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the DataSources the books are partitioned over: the DataSource of the DAOs first, then a pool per shard
+     * in library.db.shards. Only the DataSource of the DAOs if library.db.shards is not set. Created on first use.
+     * @throws IllegalStateException if both library.db.shards and library.db.replicas are set.
+     */
+    public static List<DataSource> getShards(){
+        List<DataSource> result = shards;
+        if(result == null){
+            synchronized (ConnectionUtil.class){
+                result = shards;
+                if(result == null){
+                    String shardUrls = System.getProperty("library.db.shards", "").trim();
+                    List<DataSource> dataSources = new ArrayList<>();
+                    dataSources.add(getDataSource());
+                    if (!shardUrls.isEmpty()) {
+                        if (dataSources.get(0) instanceof RoutingDataSource) {
+                            throw new IllegalStateException("library.db.shards can not be combined with "
+                                    + "library.db.replicas");
+                        }
+                        for (String shardUrl : shardUrls.split(",")) {
+                            dataSources.add(createPool(shardUrl.trim()));
+                        }
+                    }
+                    result = List.copyOf(dataSources);
+                    shards = result;
+                }
+            }
+        }
+        return result;
+    }
 
-        return connection;
+    private static ConnectionPool createPool(String url){
+        int maxSize = Integer.getInteger("library.pool.maxSize",
+                2 * Runtime.getRuntime().availableProcessors());
+        int minSize = Math.min(Integer.getInteger("library.pool.minSize", 2), maxSize);
+        return new ConnectionPool(url, username, password, minSize, maxSize,
+                Long.getLong("library.pool.acquireTimeoutMillis", 30000),
+                Long.getLong("library.pool.leakDetectionMillis", 60000),
+                Boolean.getBoolean("library.pool.leakTrace"),
+                Integer.getInteger("library.pool.statementCacheSize", 32));
     }
 
 }
@@ -0,0 +1,110 @@
+package Application.Util;
+
+import java.util.Arrays;
+
+/**
+ * A map from int keys to non-negative int values, in two int arrays with open addressing and linear probing. Unlike a
+ * HashMap&lt;Integer, Integer&gt; it holds no object per entry, so a map of millions of entries is two arrays for the
+ * garbage collector to look at, and a lookup reads at most a few adjacent slots rather than following pointers.
+ *
+ * A slot is free when its value is -1. Entries can not be removed. The map is not thread-safe.
+ */
+public class IntIntHashMap {
+    /** The value returned by get for a key that is not in the map. */
+    public static final int MISSING = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public IntIntHashMap(){
+        this(16);
+    }
+
+    /**
+     * @param expected the number of entries the map should hold without growing.
+     */
+    public IntIntHashMap(int expected){
+        int capacity = Integer.highestOneBit(Math.max(16, expected + expected / 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+    }
+
+    /**
+     * @return the value of a key, or MISSING if it is not in the map.
+     */
+    public int get(int key){
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int value = values[slot];
+            if (value == MISSING || keys[slot] == key) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Add a key or replace its value.
+     * @param value a value of 0 or more.
+     * @return the previous value of the key, or MISSING if it was not in the map.
+     */
+    public int put(int key, int value){
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        // keep the map at most two thirds full, so probe sequences stay short
+        if ((size + 1) * 3L > keys.length * 2L) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int previous = values[slot];
+            if (previous == MISSING) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return MISSING;
+            }
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return previous;
+            }
+        }
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return the number of bytes held by the arrays of the map.
+     */
+    public long getBytes(){
+        return 8L * keys.length;
+    }
+
+    private void grow(){
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(values, MISSING);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (values[slot] != MISSING) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(int key){
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,39 @@
+package Application.Util;
+
+import Application.Model.Author;
+import Application.Model.Book;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+
+/**
+ * The JsonUtil class holds the one Jackson ObjectMapper used by the whole application. An ObjectMapper is expensive to
+ * build and caches the serializers it creates, so it should be created once and shared rather than created for every
+ * request; it is thread-safe once configured.
+ *
+ * The readers and writers for Book and Author are built up front, so that handlers do not have to look up the
+ * (de)serializer for the type on every call.
+ */
+public class JsonUtil {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+
+    public static final ObjectReader BOOK_READER = MAPPER.readerFor(Book.class);
+    public static final ObjectWriter BOOK_WRITER = MAPPER.writerFor(Book.class);
+    public static final ObjectReader AUTHOR_READER = MAPPER.readerFor(Author.class);
+    public static final ObjectWriter AUTHOR_WRITER = MAPPER.writerFor(Author.class);
+
+    /**
+     * @return a Javalin JsonMapper backed by the shared ObjectMapper, so that ctx.json uses it as well.
+     */
+    public static JsonMapper javalinJsonMapper(){
+        return new JavalinJackson(MAPPER);
+    }
+
+}
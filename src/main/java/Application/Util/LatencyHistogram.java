@@ -0,0 +1,86 @@
+package Application.Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size histogram of durations in nanoseconds, in the spirit of HdrHistogram. Every power of two is split into
+ * 8 linear sub-buckets, so a recorded value is known to within 12.5% whether it is a microsecond or a minute, and the
+ * whole range of a long fits in 488 buckets.
+ *
+ * Recording is a couple of shifts and an atomic increment, and allocates nothing, so it can be called on every request
+ * and every query. Percentiles are computed when they are read.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param nanos a duration, eg System.nanoTime() - start. Negative durations are recorded as 0.
+     */
+    public void record(long nanos){
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        sum.add(nanos);
+    }
+
+    public long getCount(){
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of every recorded duration, in nanoseconds.
+     */
+    public long getSum(){
+        return sum.sum();
+    }
+
+    /**
+     * @param quantile eg 0.99 for the 99th percentile.
+     * @return the upper bound of the bucket holding that percentile, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double quantile){
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    static int bucketOf(long value){
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket){
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,236 @@
+package Application.Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Metrics class holds the counters and latency histograms of the application: one Route for every endpoint and
+ * one Query for every DAO method. They are registered once, by the controller and as static fields of the DAOs, and
+ * recording on them afterwards is allocation-free, so the instrumentation costs little on the hot paths.
+ *
+ * Everything can be written out in the Prometheus text exposition format, which is served by GET /metrics. Latencies
+ * are reported as summaries with the 0.5, 0.99 and 0.999 quantiles, in seconds.
+ */
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final Map<String, Route> ROUTES = new ConcurrentSkipListMap<>();
+    private static final Map<String, Query> QUERIES = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the metrics of an endpoint, created on first use.
+     */
+    public static Route route(String method, String path){
+        return ROUTES.computeIfAbsent(method + " " + path, key -> new Route(method, path));
+    }
+
+    /**
+     * @return the metrics of a DAO method, created on first use.
+     */
+    public static Query query(String dao, String method){
+        return QUERIES.computeIfAbsent(dao + "." + method, key -> new Query(dao, method));
+    }
+
+    /**
+     * @return the number of runs of every DAO method so far, ie the round trips to the database.
+     */
+    public static long getQueryCount(){
+        long count = 0;
+        for (Query query : QUERIES.values()) {
+            count += query.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * The metrics of one endpoint: the requests in progress, the requests completed by status class, and the latency
+     * of the handler.
+     */
+    public static class Route {
+        final String labels;
+        final LongAdder inFlight = new LongAdder();
+        final LongAdder[] byStatusClass = new LongAdder[6];
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Route(String method, String path){
+            this.labels = "method=\"" + method + "\",route=\"" + escape(path) + "\"";
+            for (int i = 0; i < byStatusClass.length; i++) {
+                byStatusClass[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Mark a request as started.
+         * @return the start time to pass to {@link #end(long, int)}.
+         */
+        public long start(){
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        /**
+         * Mark a request as completed.
+         * @param start the value returned by {@link #start()}.
+         * @param status the HTTP status of the response.
+         */
+        public void end(long start, int status){
+            latency.record(System.nanoTime() - start);
+            inFlight.decrement();
+            byStatusClass[status >= 100 && status < 600 ? status / 100 : 0].increment();
+        }
+
+        public long getInFlight(){
+            return inFlight.sum();
+        }
+
+        public long getCount(){
+            return latency.getCount();
+        }
+
+        public LatencyHistogram getLatency(){
+            return latency;
+        }
+    }
+
+    /**
+     * The metrics of one DAO method: how often it ran, how long it took, how many rows it read or wrote, and how
+     * often it failed.
+     */
+    public static class Query {
+        final String labels;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder rows = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        Query(String dao, String method){
+            this.labels = "dao=\"" + dao + "\",method=\"" + method + "\"";
+        }
+
+        /**
+         * Record one run of the query.
+         * @param start System.nanoTime() from before the connection was borrowed.
+         * @param rowCount the number of rows read or written.
+         */
+        public void record(long start, int rowCount){
+            latency.record(System.nanoTime() - start);
+            rows.add(rowCount);
+        }
+
+        /**
+         * Record that a run of the query failed with an SQLException. The run is recorded by {@link #record} too.
+         */
+        public void error(){
+            errors.increment();
+        }
+
+        public long getCount(){
+            return latency.getCount();
+        }
+
+        public long getRows(){
+            return rows.sum();
+        }
+
+        public long getErrors(){
+            return errors.sum();
+        }
+
+        public LatencyHistogram getLatency(){
+            return latency;
+        }
+    }
+
+    /**
+     * Write the metrics of every route and query, and the statistics of the connection pool, in the Prometheus text
+     * format.
+     * @param out the text to append to.
+     */
+    public static void writePrometheus(StringBuilder out){
+        family(out, "library_http_requests_in_flight", "gauge", "Requests being handled.");
+        for (Route route : ROUTES.values()) {
+            sample(out, "library_http_requests_in_flight", route.labels, route.inFlight.sum());
+        }
+        family(out, "library_http_requests_total", "counter", "Requests completed, by status class.");
+        for (Route route : ROUTES.values()) {
+            for (int i = 1; i < route.byStatusClass.length; i++) {
+                long count = route.byStatusClass[i].sum();
+                if (count > 0) {
+                    sample(out, "library_http_requests_total", route.labels + ",status=\"" + i + "xx\"", count);
+                }
+            }
+        }
+        family(out, "library_http_request_duration_seconds", "summary", "Time spent in the request handler.");
+        for (Route route : ROUTES.values()) {
+            summary(out, "library_http_request_duration_seconds", route.labels, route.latency);
+        }
+
+        family(out, "library_db_query_duration_seconds", "summary", "Time spent in a DAO method, connection included.");
+        for (Query query : QUERIES.values()) {
+            summary(out, "library_db_query_duration_seconds", query.labels, query.latency);
+        }
+        family(out, "library_db_query_rows_total", "counter", "Rows read or written by a DAO method.");
+        for (Query query : QUERIES.values()) {
+            sample(out, "library_db_query_rows_total", query.labels, query.rows.sum());
+        }
+        family(out, "library_db_query_errors_total", "counter", "DAO method runs that failed with an SQLException.");
+        for (Query query : QUERIES.values()) {
+            sample(out, "library_db_query_errors_total", query.labels, query.errors.sum());
+        }
+
+        ConnectionPool pool = ConnectionUtil.getPool();
+        family(out, "library_pool_connections", "gauge", "Connections of the pool, by state.");
+        sample(out, "library_pool_connections", "state=\"idle\"", pool.getIdleCount());
+        sample(out, "library_pool_connections", "state=\"borrowed\"", pool.getBorrowedCount());
+        sample(out, "library_pool_connections", "state=\"open\"", pool.getOpenCount());
+        sample(out, "library_pool_connections", "state=\"max\"", pool.getMaxSize());
+        family(out, "library_pool_waiting_threads", "gauge", "Threads waiting for a connection.");
+        sample(out, "library_pool_waiting_threads", null, pool.getWaitingCount());
+        family(out, "library_pool_borrows_total", "counter", "Connections borrowed.");
+        sample(out, "library_pool_borrows_total", null, pool.getTotalBorrowCount());
+        family(out, "library_pool_timeouts_total", "counter", "Borrows that timed out.");
+        sample(out, "library_pool_timeouts_total", null, pool.getTimeoutCount());
+        family(out, "library_pool_leaks_total", "counter", "Connections reported as leaked.");
+        sample(out, "library_pool_leaks_total", null, pool.getLeakCount());
+        family(out, "library_pool_statement_cache_total", "counter", "Prepared statement cache lookups.");
+        sample(out, "library_pool_statement_cache_total", "result=\"hit\"", pool.getStatementCacheHits());
+        sample(out, "library_pool_statement_cache_total", "result=\"miss\"", pool.getStatementCacheMisses());
+    }
+
+    /**
+     * Write the HELP and TYPE lines that introduce a metric.
+     */
+    public static void family(StringBuilder out, String name, String type, String help){
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Write one sample of a metric.
+     * @param labels the labels of the sample, eg cache="books", or null for none.
+     */
+    public static void sample(StringBuilder out, String name, String labels, double value){
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram){
+        for (double quantile : QUANTILES) {
+            sample(out, name, labels + ",quantile=\"" + quantile + "\"", histogram.getPercentile(quantile) / 1e9);
+        }
+        sample(out, name + "_sum", labels, histogram.getSum() / 1e9);
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static String escape(String value){
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
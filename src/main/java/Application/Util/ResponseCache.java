@@ -0,0 +1,111 @@
+package Application.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of rendered response bodies, each kept as it was written and gzipped, for the version of the catalog it was
+ * rendered from. A body is reused by every request for the same key until the version changes, so an unchanged
+ * catalog is serialized and compressed once rather than on every request.
+ *
+ * The least recently used bodies are dropped once there are more than maxEntries of them (set with
+ * -Dlibrary.http.cacheEntries, default 16).
+ */
+public class ResponseCache {
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ResponseCache(){
+        this(Integer.getInteger("library.http.cacheEntries", 16));
+    }
+
+    public ResponseCache(int maxEntries){
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Renders a response body.
+     */
+    public interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * @param key identifies the response, eg "GET /books".
+     * @param version the version of the catalog the body should reflect.
+     * @param gzip true for the gzipped body, false for the body as written.
+     * @param body renders the body if there is none for this version yet.
+     * @return the body of the response.
+     * @throws IOException if the body can not be rendered.
+     */
+    public byte[] get(String key, long version, boolean gzip, Body body) throws IOException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null || entry.version < version) {
+                entry = new Entry(version);
+                entries.put(key, entry);
+            } else if (entry.version > version) {
+                // a request that read the version before a write is answered without replacing the newer body
+                entry = new Entry(version);
+            }
+        }
+        // rendered outside of the lock on entries, so that one slow body does not hold up the others
+        synchronized (entry) {
+            byte[] bytes = gzip ? entry.gzipped : entry.identity;
+            if (bytes != null) {
+                hits.increment();
+                return bytes;
+            }
+            misses.increment();
+            if (entry.identity == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+                body.writeTo(out);
+                entry.identity = out.toByteArray();
+            }
+            if (!gzip) {
+                return entry.identity;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(entry.identity.length / 4 + 64);
+            try (GZIPOutputStream compressed = new GZIPOutputStream(out)) {
+                compressed.write(entry.identity);
+            }
+            entry.gzipped = out.toByteArray();
+            return entry.gzipped;
+        }
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /**
+     * The bodies of one key for one version.
+     */
+    private static class Entry {
+        final long version;
+        byte[] identity;
+        byte[] gzipped;
+
+        Entry(long version){
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package Application.Util;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A DataSource that sends writes to a primary database and spreads reads over its read replicas. getConnection()
+ * always returns a connection to the primary; the DAOs ask for their reads with getReadConnection(dataSource), which
+ * returns a connection to the next replica in turn that is healthy and up to date enough, or to the primary if there
+ * is none.
+ *
+ * A replica is as up to date as the sequence number of the last change of the catalog it has applied (see
+ * Replica.setApplied). A thread that has written, or that serves a request from a client that has written, calls
+ * readAfter with the sequence number of the write, and from then on only reads from replicas that have applied it,
+ * so that it always reads its own writes. resetReadAfter forgets it, eg at the end of a request.
+ *
+ * A replica that fails to hand out a connection is skipped for retryMillis (set with -Dlibrary.replica.retryMillis,
+ * default 5000), and the read is sent to the next one. A replica is not used at all until it has applied a first
+ * change, and a replica whose feed has failed is marked down until it has caught up again.
+ */
+public class RoutingDataSource extends AbstractDataSource {
+    private static final ThreadLocal<long[]> READ_AFTER = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long retryMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+
+    public RoutingDataSource(DataSource primary, List<Replica> replicas){
+        this(primary, replicas, Long.getLong("library.replica.retryMillis", 5000));
+    }
+
+    /**
+     * @param primary the database that takes every write.
+     * @param replicas the copies of the primary that can take reads.
+     * @param retryMillis how long a replica that failed is skipped.
+     */
+    public RoutingDataSource(DataSource primary, List<Replica> replicas, long retryMillis){
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * @return a connection to the primary, for writes and for reads that must see every write.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    /**
+     * @return a connection to a healthy replica that has applied the writes of this thread, or to the primary.
+     */
+    public Connection getReadConnection() throws SQLException {
+        long required = READ_AFTER.get()[0];
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(1, replicas.size()));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.isAvailable(now) && replica.getApplied() >= required) {
+                try {
+                    Connection connection = replica.dataSource.getConnection();
+                    replicaReads.increment();
+                    return connection;
+                } catch (SQLException e) {
+                    replica.failed(now + retryMillis);
+                    System.out.println("Replica " + replica.name + " failed, reading elsewhere: " + e.getMessage());
+                }
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    /**
+     * Get a connection for a read from any DataSource: a replica or the primary of a RoutingDataSource, or a
+     * connection of any other DataSource.
+     */
+    public static Connection getReadConnection(DataSource dataSource) throws SQLException {
+        if (dataSource instanceof RoutingDataSource) {
+            return ((RoutingDataSource) dataSource).getReadConnection();
+        }
+        return dataSource.getConnection();
+    }
+
+    /**
+     * Make the reads of this thread see the change with a sequence number, and every change before it.
+     * @param seq the sequence number of a change of the catalog, eg of a write made by this thread.
+     */
+    public static void readAfter(long seq){
+        long[] readAfter = READ_AFTER.get();
+        readAfter[0] = Math.max(readAfter[0], seq);
+    }
+
+    /**
+     * @return the sequence number of the last change the reads of this thread must see, or 0.
+     */
+    public static long getReadAfter(){
+        return READ_AFTER.get()[0];
+    }
+
+    /**
+     * Let the reads of this thread see any replica again.
+     */
+    public static void resetReadAfter(){
+        READ_AFTER.get()[0] = 0;
+    }
+
+    public DataSource getPrimary(){
+        return primary;
+    }
+
+    public List<Replica> getReplicas(){
+        return replicas;
+    }
+
+    /**
+     * @return the number of reads sent to a replica.
+     */
+    public long getReplicaReads(){
+        return replicaReads.sum();
+    }
+
+    /**
+     * @return the number of reads sent to the primary, as no replica was healthy and up to date enough.
+     */
+    public long getPrimaryReads(){
+        return primaryReads.sum();
+    }
+
+    /**
+     * A read replica: its DataSource, how far it has applied the changes of the catalog, and whether it is healthy.
+     */
+    public static class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile long applied = -1;
+        private volatile long downUntil;
+
+        /**
+         * @param name the name of the replica, for logs and metrics.
+         * @param dataSource the replica's DataSource, eg a ConnectionPool.
+         */
+        public Replica(String name, DataSource dataSource){
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public DataSource getDataSource(){
+            return dataSource;
+        }
+
+        /**
+         * @return the sequence number of the last change applied, or -1 if the replica is not ready for reads.
+         */
+        public long getApplied(){
+            return applied;
+        }
+
+        /**
+         * Record that the replica holds every change up to a sequence number, and is healthy.
+         * @param seq the sequence number of the last change applied.
+         */
+        public void setApplied(long seq){
+            applied = seq;
+            downUntil = 0;
+        }
+
+        /**
+         * Take the replica out of the rotation until it is brought up to date again with setApplied.
+         */
+        public void markDown(){
+            applied = -1;
+        }
+
+        /**
+         * @return true if reads may be sent to the replica.
+         */
+        public boolean isAvailable(long now){
+            return applied >= 0 && now >= downUntil;
+        }
+
+        void failed(long until){
+            downUntil = until;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package Application.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The SchemaMigrator class brings the database schema up to date. The schema is described by a list of numbered
+ * migrations, and the schema_version table records which of them have been applied, so each migration runs once per
+ * database, in order, and a database that is already up to date is left alone.
+ *
+ * Migrations are never edited once released: a change to the schema is made by adding a migration to the end of the
+ * list.
+ */
+public class SchemaMigrator {
+
+    /**
+     * The migrations, in the order they are applied.
+     */
+    public static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "create author and book tables",
+                    "create table author(" +
+                            "id int primary key auto_increment, " +
+                            "name varchar(255));",
+                    "create table book(" +
+                            "isbn int primary key, " +
+                            "author_id int, " +
+                            "title varchar(255), " +
+                            "copies_available varchar(255), " +
+                            "foreign key (author_id) references author(id));"),
+            // copies_available was a varchar, so every availability query converted each row to compare it. H2 has no
+            // filtered indexes, so the availability index leads with copies_available and also holds the other
+            // columns of the book, which lets the range copies_available > 0 be read from the index alone.
+            new Migration(2, "copies_available as int, indexes on author_id and availability",
+                    "alter table book alter column copies_available set data type int",
+                    "create index book_author_id_idx on book(author_id, isbn)",
+                    "create index book_available_idx on book(copies_available, isbn, author_id, title)")
+    );
+
+    /**
+     * The columns the DAOs read and write, by table.
+     */
+    static final Map<String, List<String>> EXPECTED_COLUMNS = Map.of(
+            "AUTHOR", List.of("ID", "NAME"),
+            "BOOK", List.of("ISBN", "AUTHOR_ID", "TITLE", "COPIES_AVAILABLE"));
+
+    /**
+     * Apply every migration that has not been applied to the database yet, each in a transaction of its own.
+     *
+     * A database created before there were migrations has the tables of the first migration but no schema_version
+     * table. It is recorded as being at version 1, and the later migrations are applied to it.
+     * @param connection a connection to the database.
+     * @return the number of migrations applied.
+     * @throws SQLException if a migration fails. The migrations before it stay applied.
+     */
+    public static int migrate(Connection connection) throws SQLException {
+        createVersionTable(connection);
+        int current = currentVersion(connection);
+        if (current == 0 && tableExists(connection, "AUTHOR")) {
+            recordVersion(connection, MIGRATIONS.get(0).version, "baseline of a schema created before migrations");
+            current = MIGRATIONS.get(0).version;
+        }
+        int applied = 0;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version <= current) {
+                    continue;
+                }
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : migration.statements) {
+                        statement.executeUpdate(sql);
+                    }
+                }
+                recordVersion(connection, migration.version, migration.description);
+                connection.commit();
+                applied++;
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return applied;
+    }
+
+    /**
+     * Check that the database is at the version of this build and has every column the DAOs use. This reads only the
+     * catalog of the database, so it takes milliseconds however much data there is.
+     * @param connection a connection to the database.
+     * @throws SQLException if the schema is not the expected one.
+     */
+    public static void validate(Connection connection) throws SQLException {
+        int current = currentVersion(connection);
+        if (current != latestVersion()) {
+            throw new SQLException("The database is at schema version " + current + ", expected " + latestVersion());
+        }
+        Set<String> columns = new HashSet<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "select table_name, column_name from information_schema.columns where table_schema = 'PUBLIC'");
+             ResultSet rs = preparedStatement.executeQuery()) {
+            while (rs.next()) {
+                columns.add(rs.getString("table_name") + "." + rs.getString("column_name"));
+            }
+        }
+        for (Map.Entry<String, List<String>> table : EXPECTED_COLUMNS.entrySet()) {
+            for (String column : table.getValue()) {
+                if (!columns.contains(table.getKey() + "." + column)) {
+                    throw new SQLException("The database has no column " + table.getKey() + "." + column);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param connection a connection to the database.
+     * @return the version of the last migration applied to the database, or 0 if there is none.
+     * @throws SQLException if the schema_version table can not be read.
+     */
+    public static int currentVersion(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement =
+                     connection.prepareStatement("select max(version) from schema_version");
+             ResultSet rs = preparedStatement.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * @return the version of the last migration, which an up to date database is at.
+     */
+    public static int latestVersion(){
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "select 1 from information_schema.tables where table_schema = 'PUBLIC' and table_name = ?")) {
+            preparedStatement.setString(1, table);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static void recordVersion(Connection connection, int version, String description) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "insert into schema_version (version, description) values (?, ?)")) {
+            preparedStatement.setInt(1, version);
+            preparedStatement.setString(2, description);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private static void createVersionTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table if not exists schema_version(" +
+                    "version int primary key, " +
+                    "description varchar(255), " +
+                    "installed_at timestamp default current_timestamp)");
+        }
+    }
+
+    /**
+     * One step of the schema: a version number, a description, and the SQL statements that make the change.
+     */
+    public static class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        public Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package Application.Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of prepared statements for a single pooled connection, keyed by SQL text. The DAOs prepare the same handful
+ * of statements over and over, so instead of preparing a new statement on every call the cache hands back the one it
+ * prepared before. Closing a cached statement does not close it: its parameters are cleared, every ResultSet it handed
+ * out is closed, the settings the caller changed, eg the fetch size or the maximum rows, are set back to what they were
+ * when it was prepared, and it becomes available to the next caller that prepares the same SQL. A statement the caller
+ * asked to closeOnCompletion is closed for good instead, and prepared again by the next caller.
+ *
+ * The cache holds at most maxSize statements and evicts the least recently used one when it is full. It is only ever
+ * used by the thread that has borrowed the connection, so it needs no synchronization of its own.
+ */
+class StatementCache {
+    private final Connection connection;
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * @param connection the physical connection the statements belong to.
+     * @param maxSize the number of statements to keep, 0 disables caching.
+     * @param hits counter incremented whenever a cached statement is reused.
+     * @param misses counter incremented whenever a statement has to be prepared.
+     */
+    StatementCache(Connection connection, int maxSize, LongAdder hits, LongAdder misses) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a prepared statement for some SQL, reusing a cached one if it is not already in use.
+     * @param sql the SQL text of the statement.
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS.
+     * @return a statement that must be closed by the caller once it is done with it, or null if the statement can
+     * not be cached and should be prepared directly.
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        if (maxSize <= 0) {
+            return null;
+        }
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && cached.autoGeneratedKeys == autoGeneratedKeys && !cached.evicted) {
+            if (cached.inUse) {
+                return null;
+            }
+            hits.increment();
+            cached.inUse = true;
+            return cached.proxy;
+        }
+        misses.increment();
+        cached = new CachedStatement(connection.prepareStatement(sql, autoGeneratedKeys), autoGeneratedKeys);
+        CachedStatement replaced = statements.put(sql, cached);
+        if (replaced != null) {
+            replaced.evict();
+        }
+        cached.inUse = true;
+        return cached.proxy;
+    }
+
+    /**
+     * @return the number of statements currently cached.
+     */
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * Close every cached statement, when the physical connection is about to be closed.
+     */
+    void clear() {
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().evict();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A prepared statement owned by the cache. It is the invocation handler behind the statement handed out by
+     * {@link #prepare(String, int)}, so that close() hands the statement back to the cache.
+     */
+    private static class CachedStatement implements InvocationHandler {
+        /** The setters of the statement that outlive a call, and are undone when it is handed back. */
+        private static final Set<String> SETTINGS = Set.of("setFetchSize", "setFetchDirection", "setMaxRows",
+                "setLargeMaxRows", "setMaxFieldSize", "setQueryTimeout", "setEscapeProcessing", "setPoolable");
+
+        private final PreparedStatement statement;
+        private final int autoGeneratedKeys;
+        private final PreparedStatement proxy;
+        private final List<ResultSet> resultSets = new ArrayList<>();
+        private boolean inUse;
+        private boolean evicted;
+        private boolean closeOnCompletion;
+        // the settings as prepared, read the first time a caller changes one
+        private boolean settingsChanged;
+        private int fetchSize;
+        private int fetchDirection;
+        private int maxRows;
+        private int maxFieldSize;
+        private int queryTimeout;
+        private boolean poolable;
+
+        CachedStatement(PreparedStatement statement, int autoGeneratedKeys) {
+            this.statement = statement;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        inUse = false;
+                        release();
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + statement;
+                default:
+                    break;
+            }
+            if (!inUse) {
+                throw new SQLException("statement has already been closed");
+            }
+            if (SETTINGS.contains(method.getName()) && !settingsChanged) {
+                saveSettings();
+            } else if (method.getName().equals("closeOnCompletion")) {
+                closeOnCompletion = true;
+            }
+            try {
+                Object result = method.invoke(statement, args);
+                // every ResultSet is kept, eg the generated keys of an insert besides the rows of a query
+                if (result instanceof ResultSet && !resultSets.contains(result)) {
+                    resultSets.add((ResultSet) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Put the statement back into a clean state once the caller is done with it.
+         */
+        private void release() throws SQLException {
+            for (ResultSet resultSet : resultSets) {
+                resultSet.close();
+            }
+            resultSets.clear();
+            if (closeOnCompletion) {
+                // it can not be undone, so the statement is not handed out again
+                evicted = true;
+            }
+            if (evicted) {
+                statement.close();
+            } else {
+                statement.clearParameters();
+                statement.clearBatch();
+                if (settingsChanged) {
+                    restoreSettings();
+                }
+            }
+        }
+
+        /**
+         * Read the settings of the statement, before a caller changes one of them.
+         */
+        private void saveSettings() throws SQLException {
+            fetchSize = statement.getFetchSize();
+            fetchDirection = statement.getFetchDirection();
+            maxRows = statement.getMaxRows();
+            maxFieldSize = statement.getMaxFieldSize();
+            queryTimeout = statement.getQueryTimeout();
+            poolable = statement.isPoolable();
+            settingsChanged = true;
+        }
+
+        /**
+         * Set the settings of the statement back to what they were before a caller changed them.
+         */
+        private void restoreSettings() throws SQLException {
+            // first, as a driver may refuse a fetch size over the maximum rows; also undoes setLargeMaxRows
+            statement.setMaxRows(maxRows);
+            statement.setFetchSize(fetchSize);
+            statement.setFetchDirection(fetchDirection);
+            statement.setMaxFieldSize(maxFieldSize);
+            statement.setQueryTimeout(queryTimeout);
+            statement.setPoolable(poolable);
+            // the one setting without a getter, and true unless a caller changed it
+            statement.setEscapeProcessing(true);
+            settingsChanged = false;
+        }
+
+        /**
+         * Called when the statement leaves the cache. A statement that is still in use is closed once it is returned.
+         */
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package Application.Util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A counter that never goes below zero and can be decremented by many threads at once without all of them contending
+ * on one memory location. The count is split over a power of two stripes, at least one per core, each on its own
+ * cache line. A thread decrements the stripe its id maps to, and only moves on to the other stripes when its own is
+ * empty, so a thread takes a unit only if one is left in some stripe and the total never goes negative.
+ *
+ * The total is the sum of the stripes. Reading it while threads update the counter may miss updates made during the
+ * read, but it is never negative and is exact once the updates stop.
+ */
+public class StripedCounter {
+    // ints per stripe, so that each stripe sits on a 64 byte cache line of its own
+    private static final int PADDING = 16;
+
+    private final AtomicIntegerArray cells;
+    private final int mask;
+
+    /**
+     * @param initial the starting count, spread evenly over the stripes.
+     */
+    public StripedCounter(int initial){
+        this(initial, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedCounter(int initial, int minStripes){
+        int stripes = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        this.mask = stripes - 1;
+        this.cells = new AtomicIntegerArray(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            cells.set(i * PADDING, initial / stripes + (i < initial % stripes ? 1 : 0));
+        }
+    }
+
+    /**
+     * Take one unit, if any is left.
+     * @return true if a unit was taken, false if the counter was at zero.
+     */
+    public boolean tryDecrement(){
+        int home = stripe();
+        for (int i = 0; i <= mask; i++) {
+            int index = ((home + i) & mask) * PADDING;
+            int value = cells.get(index);
+            while (value > 0) {
+                if (cells.compareAndSet(index, value, value - 1)) {
+                    return true;
+                }
+                value = cells.get(index);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Give one unit back.
+     */
+    public void increment(){
+        cells.getAndIncrement(stripe() * PADDING);
+    }
+
+    /**
+     * @return the current count.
+     */
+    public int sum(){
+        int sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public int getStripes(){
+        return mask + 1;
+    }
+
+    private int stripe(){
+        int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return (hash >>> 16) & mask;
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Application.Model.Book;
+import Application.Service.AvailabilityIndex;
+
+public class AvailabilityIndexTest {
+    public Map<Integer, Book> table;
+    public int loads;
+
+    /**
+     * Before every test, set up a small table of books, some without copies available.
+     */
+    @Before
+    public void setUp(){
+        table = new HashMap<>();
+        table.put(100, new Book(100, 1, "ficciones", 2));
+        table.put(101, new Book(101, 1, "book of sand", 0));
+        table.put(102, new Book(102, 2, "mr palomar", 1));
+        loads = 0;
+    }
+
+    public AvailabilityIndex index(long checkMillis){
+        return new AvailabilityIndex(() -> {
+            loads++;
+            return table.values().stream().filter(book -> book.getCopies_available() > 0)
+                    .collect(Collectors.toList());
+        }, consumer -> {
+            int count = 0;
+            for (Book book : new ArrayList<>(table.values())) {
+                if (book.getCopies_available() > 0) {
+                    consumer.accept(book.getIsbn(), book.getCopies_available());
+                    count++;
+                }
+            }
+            return count;
+        }, table::get, checkMillis);
+    }
+
+    public List<Book> available(AvailabilityIndex index) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeTo(out);
+        List<Book> books = new ObjectMapper().readValue(out.toByteArray(), new TypeReference<List<Book>>(){});
+        books.sort((a, b) -> Integer.compare(a.getIsbn(), b.getIsbn()));
+        return books;
+    }
+
+    /**
+     * The index should serve the available books as loaded, and only load them once.
+     */
+    @Test
+    public void index_loadTest() throws IOException {
+        AvailabilityIndex index = index(60000);
+        List<Book> books = available(index);
+        Assert.assertEquals(2, books.size());
+        Assert.assertEquals(table.get(100), books.get(0));
+        Assert.assertEquals(table.get(102), books.get(1));
+        available(index);
+        Assert.assertEquals(1, loads);
+    }
+
+    /**
+     * Updates should add, replace and remove books without reading the table again.
+     */
+    @Test
+    public void index_updateTest() throws IOException {
+        AvailabilityIndex index = index(60000);
+        available(index);
+        index.update(new Book(101, 1, "book of sand", 3));
+        index.update(new Book(100, 1, "ficciones", 0));
+        index.update(new Book(102, 2, "mr palomar", 5));
+        List<Book> books = available(index);
+        Assert.assertEquals(2, books.size());
+        Assert.assertEquals(new Book(101, 1, "book of sand", 3), books.get(0));
+        Assert.assertEquals(new Book(102, 2, "mr palomar", 5), books.get(1));
+        Assert.assertFalse(index.contains(100));
+        Assert.assertEquals(1, loads);
+    }
+
+    /**
+     * A book checked out down to no copies while the first load reads the table should not be brought back by the
+     * row the load read before the checkout.
+     */
+    @Test
+    public void index_updateDuringLoadTest() throws IOException {
+        AtomicReference<AvailabilityIndex> holder = new AtomicReference<>();
+        AvailabilityIndex index = new AvailabilityIndex(() -> {
+            List<Book> books = table.values().stream().filter(book -> book.getCopies_available() > 0)
+                    .collect(Collectors.toList());
+            // checked out after the rows were read, and applied before the load inserts them
+            table.put(100, new Book(100, 1, "ficciones", 0));
+            holder.get().update(table.get(100));
+            table.put(101, new Book(101, 1, "book of sand", 1));
+            holder.get().update(table.get(101));
+            return books;
+        }, consumer -> -1, table::get, 60000);
+        holder.set(index);
+        List<Book> books = available(index);
+        Assert.assertEquals(2, books.size());
+        Assert.assertEquals(table.get(101), books.get(0));
+        Assert.assertEquals(table.get(102), books.get(1));
+        Assert.assertFalse(index.contains(100));
+        index.update(new Book(100, 1, "ficciones", 1));
+        Assert.assertTrue(index.contains(100));
+    }
+
+    /**
+     * Many random adds and removes should leave the index holding exactly the books that were last added.
+     */
+    @Test
+    public void index_randomUpdatesTest() throws IOException {
+        table.clear();
+        AvailabilityIndex index = index(60000);
+        Map<Integer, Book> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            Book book = new Book(random.nextInt(3000), 1, "book " + i, random.nextInt(3));
+            index.update(book);
+            if (book.getCopies_available() > 0) {
+                expected.put(book.getIsbn(), book);
+            } else {
+                expected.remove(book.getIsbn());
+            }
+        }
+        Assert.assertEquals(expected.size(), index.size());
+        List<Book> books = available(index);
+        Assert.assertEquals(new ArrayList<>(new TreeMap<>(expected).values()), books);
+    }
+
+    /**
+     * A check should find and repair books changed in the database behind the index's back.
+     */
+    @Test
+    public void index_checkRepairsTest() throws IOException {
+        AvailabilityIndex index = index(60000);
+        available(index);
+        table.put(103, new Book(103, 2, "invisible cities", 3));
+        table.put(100, new Book(100, 1, "ficciones", 0));
+        table.put(102, new Book(102, 2, "mr palomar", 9));
+        Assert.assertEquals(3, index.check());
+        Assert.assertEquals(3, index.getMismatches());
+        List<Book> books = available(index);
+        Assert.assertEquals(2, books.size());
+        Assert.assertEquals(table.get(102), books.get(0));
+        Assert.assertEquals(table.get(103), books.get(1));
+        Assert.assertEquals(0, index.check());
+    }
+
+    /**
+     * Once checkMillis have passed, a request should start a check of the index against the table in the background.
+     */
+    @Test
+    public void index_periodicCheckTest() throws Exception {
+        AvailabilityIndex index = index(0);
+        available(index);
+        table.put(101, new Book(101, 1, "book of sand", 1));
+        available(index);
+        for (int i = 0; i < 500 && index.size() < 3; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(3, index.size());
+        Assert.assertTrue(index.getChecks() > 0);
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.Model.Book;
+import Application.Service.CatalogCache;
+
+public class CatalogCacheTest {
+    public List<Book> table;
+    public AtomicInteger tableReads;
+    public AtomicInteger rowReads;
+
+    /**
+     * Before every test, set up a small table and count how often the cache reads it.
+     */
+    @Before
+    public void setUp(){
+        table = new ArrayList<>();
+        table.add(new Book(100, 1, "ficciones", 2));
+        table.add(new Book(101, 1, "book of sand", 0));
+        table.add(new Book(102, 2, "mr palomar", 1));
+        tableReads = new AtomicInteger();
+        rowReads = new AtomicInteger();
+    }
+
+    public CatalogCache<Book> cache(boolean enabled, int maxEntries, long ttlMillis){
+        return new CatalogCache<Book>("books", Book::getIsbn,
+                () -> {
+                    tableReads.incrementAndGet();
+                    return new ArrayList<>(table);
+                },
+                isbn -> {
+                    rowReads.incrementAndGet();
+                    return table.stream().filter(book -> book.getIsbn() == isbn).findFirst().orElse(null);
+                },
+                enabled, maxEntries, ttlMillis)
+                .withIndex("author", Book::getAuthor_id)
+                .withView("available", book -> book.getCopies_available() > 0);
+    }
+
+    /**
+     * A cache holding the whole table should answer lookups, including misses, without reading through.
+     */
+    @Test
+    public void cache_servesWholeTableTest(){
+        CatalogCache<Book> cache = cache(true, 100, 60000);
+        Assert.assertEquals(3, cache.getAll().size());
+        Assert.assertEquals("mr palomar", cache.get(102).getTitle());
+        Assert.assertNull(cache.get(999));
+        Assert.assertEquals(2, cache.getIndexed("author", 1).size());
+        Assert.assertEquals(2, cache.getView("available").size());
+        Assert.assertEquals(1, tableReads.get());
+        Assert.assertEquals(0, rowReads.get());
+        Assert.assertEquals(1, cache.getLoads());
+    }
+
+    /**
+     * Replacing a row should move it in and out of the views and indexes it belongs to.
+     */
+    @Test
+    public void cache_putMaintainsViewsTest(){
+        CatalogCache<Book> cache = cache(true, 100, 60000);
+        cache.getAll();
+        cache.put(new Book(101, 2, "book of sand", 4));
+        cache.put(new Book(100, 1, "ficciones", 0));
+        Assert.assertEquals(1, cache.getIndexed("author", 1).size());
+        Assert.assertEquals(2, cache.getIndexed("author", 2).size());
+        List<Book> available = cache.getView("available");
+        Assert.assertEquals(101, available.get(0).getIsbn());
+        Assert.assertEquals(102, available.get(1).getIsbn());
+        Assert.assertEquals(2, available.size());
+        Assert.assertEquals(3, cache.getAll().size());
+    }
+
+    /**
+     * Once the time to live has passed, the table should be read again.
+     */
+    @Test
+    public void cache_expiresAfterTtlTest(){
+        CatalogCache<Book> cache = cache(true, 100, 0);
+        cache.getAll();
+        cache.getAll();
+        Assert.assertEquals(2, tableReads.get());
+    }
+
+    /**
+     * A table larger than the size bound should not be held; lookups by key are then cached one at a time.
+     */
+    @Test
+    public void cache_tableOverSizeBoundTest(){
+        CatalogCache<Book> cache = cache(true, 2, 60000);
+        Assert.assertNull(cache.getAll());
+        Assert.assertNull(cache.getView("available"));
+        Assert.assertEquals(100, cache.get(100).getIsbn());
+        Assert.assertEquals(100, cache.get(100).getIsbn());
+        Assert.assertEquals(1, rowReads.get());
+        cache.get(101);
+        cache.get(102);
+        Assert.assertTrue(cache.size() <= 2);
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    /**
+     * A row that is read again and again should be spared by the eviction, whatever its key.
+     */
+    @Test
+    public void cache_evictLeastRecentlyReadTest(){
+        for (int isbn = 103; isbn < 110; isbn++) {
+            table.add(new Book(isbn, 1, "title " + isbn, 1));
+        }
+        CatalogCache<Book> cache = cache(true, 3, 60000);
+        Assert.assertNull(cache.getAll());
+        cache.get(100);
+        for (int isbn = 101; isbn < 110; isbn++) {
+            cache.get(isbn);
+            cache.get(100);
+        }
+        Assert.assertEquals(7, cache.getEvictions());
+        Assert.assertEquals(3, cache.size());
+        int reads = rowReads.get();
+        Assert.assertEquals(100, cache.get(100).getIsbn());
+        Assert.assertEquals(109, cache.get(109).getIsbn());
+        Assert.assertEquals(reads, rowReads.get());
+    }
+
+    /**
+     * A write made while the table is read for the first time should have it read again at once, rather than leave
+     * the reads to fall back to the DAO until the time to live has passed.
+     */
+    @Test
+    public void cache_writeDuringFirstLoadTest(){
+        AtomicReference<CatalogCache<Book>> cache = new AtomicReference<>();
+        cache.set(new CatalogCache<Book>("books", Book::getIsbn,
+                () -> {
+                    List<Book> rows = new ArrayList<>(table);
+                    if (tableReads.incrementAndGet() == 1) {
+                        // a book persisted after the read went past its isbn
+                        Book written = new Book(103, 2, "invisible cities", 1);
+                        table.add(written);
+                        cache.get().put(written);
+                    }
+                    return rows;
+                }, isbn -> null, true, 100, 60000));
+        List<Book> all = cache.get().getAll();
+        Assert.assertEquals(4, all.size());
+        Assert.assertEquals(2, tableReads.get());
+        Assert.assertEquals(4, cache.get().getAll().size());
+        Assert.assertEquals(2, cache.get().getLoads());
+    }
+
+    /**
+     * A table found to be over the size bound should not be read whole again when its snapshot expires.
+     */
+    @Test
+    public void cache_rememberOverSizeBoundTest(){
+        CatalogCache<Book> cache = cache(true, 2, 0);
+        Assert.assertNull(cache.getAll());
+        Assert.assertNull(cache.getAll());
+        Assert.assertNull(cache.getIndexed("author", 1));
+        Assert.assertEquals(1, tableReads.get());
+        cache.invalidate();
+        Assert.assertNull(cache.getAll());
+        Assert.assertEquals(2, tableReads.get());
+    }
+
+    /**
+     * While one thread loads the table again, the others should be served the rows of the previous load.
+     */
+    @Test
+    public void cache_singleReloadTest() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CatalogCache<Book> cache = new CatalogCache<Book>("books", Book::getIsbn,
+                () -> {
+                    if (tableReads.incrementAndGet() == 2) {
+                        reading.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return new ArrayList<>(table);
+                }, isbn -> null, true, 100, 0);
+        Assert.assertEquals(3, cache.getAll().size());
+        Thread reloader = new Thread(cache::getAll);
+        reloader.start();
+        Assert.assertTrue(reading.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, cache.getAll().size());
+        Assert.assertEquals(2, tableReads.get());
+        release.countDown();
+        reloader.join(5000);
+        Assert.assertEquals(2, cache.getLoads());
+    }
+
+    /**
+     * A disabled cache should read through every time.
+     */
+    @Test
+    public void cache_disabledTest(){
+        CatalogCache<Book> cache = cache(false, 100, 60000);
+        Assert.assertNull(cache.getAll());
+        cache.get(100);
+        cache.get(100);
+        Assert.assertEquals(2, rowReads.get());
+        Assert.assertEquals(0, tableReads.get());
+    }
+}
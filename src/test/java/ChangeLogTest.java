@@ -0,0 +1,161 @@
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Application.Model.Change;
+import Application.Service.ChangeFeed;
+import Application.Service.ChangeLog;
+
+public class ChangeLogTest {
+    /**
+     * Changes should be numbered from 1 and read back after any sequence number, a page at a time.
+     */
+    @Test
+    public void changeLog_readAfterTest(){
+        ChangeLog log = new ChangeLog(8);
+        Assert.assertEquals(0, log.getLatest());
+        Assert.assertEquals(List.of(), log.readAfter(0, 10));
+        for (int i = 1; i <= 5; i++) {
+            Assert.assertEquals(i, log.append(Change.BOOK, "book " + i));
+        }
+        List<Change> changes = log.readAfter(1, 3);
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals(2, changes.get(0).getSeq());
+        Assert.assertEquals("book 4", changes.get(2).getData());
+        Assert.assertEquals(List.of(), log.readAfter(5, 10));
+        Assert.assertNull(log.readAfter(6, 10));
+    }
+
+    /**
+     * Once the ring wraps around, a read of changes that were written over should fail rather than skip them.
+     */
+    @Test
+    public void changeLog_wrapAroundTest(){
+        ChangeLog log = new ChangeLog(8);
+        Assert.assertEquals(8, log.getCapacity());
+        for (int i = 1; i <= 20; i++) {
+            log.append(Change.AUTHOR, i);
+        }
+        Assert.assertNull(log.readAfter(0, 100));
+        Assert.assertNull(log.readAfter(11, 100));
+        List<Change> changes = log.readAfter(12, 100);
+        Assert.assertEquals(8, changes.size());
+        Assert.assertEquals(20, changes.get(7).getData());
+    }
+
+    /**
+     * A feed should send new changes to its subscribers, catch up one that starts behind, and tell one that starts
+     * too far behind.
+     */
+    @Test
+    public void changeFeed_subscribeTest() throws Exception {
+        ChangeLog log = new ChangeLog(4);
+        ChangeFeed feed = new ChangeFeed(log, 50, 1000);
+        BlockingQueue<String> current = new LinkedBlockingQueue<>();
+        BlockingQueue<String> behind = new LinkedBlockingQueue<>();
+        BlockingQueue<String> lost = new LinkedBlockingQueue<>();
+        log.append(Change.BOOK, "a");
+        log.append(Change.BOOK, "b");
+        feed.subscribe(subscriber(current), log.getLatest());
+        feed.subscribe(subscriber(behind), 1);
+        Assert.assertEquals("2:\"b\"", poll(behind));
+        log.append(Change.BOOK, "c");
+        Assert.assertEquals("3:\"c\"", poll(current));
+        Assert.assertEquals("3:\"c\"", poll(behind));
+        Assert.assertEquals("heartbeat", current.poll(5, TimeUnit.SECONDS));
+        // four more changes write over the third, which the lost subscriber has not seen, but not the fourth
+        for (int i = 0; i < 4; i++) {
+            log.append(Change.BOOK, "d");
+        }
+        feed.subscribe(subscriber(lost), 2);
+        Assert.assertEquals("lost", poll(lost));
+        Assert.assertEquals(2, feed.size());
+    }
+
+    /**
+     * A subscriber that stops taking changes should not hold up the others, and should be dropped, and told so, once
+     * it falls further behind than its outbox holds.
+     */
+    @Test
+    public void changeFeed_stalledSubscriberTest() throws Exception {
+        ChangeLog log = new ChangeLog(64);
+        ChangeFeed feed = new ChangeFeed(log, 50, 4);
+        BlockingQueue<String> current = new LinkedBlockingQueue<>();
+        BlockingQueue<String> stalled = new LinkedBlockingQueue<>();
+        CountDownLatch release = new CountDownLatch(1);
+        ChangeFeed.Subscriber events = subscriber(stalled);
+        feed.subscribe(subscriber(current), log.getLatest());
+        feed.subscribe(new ChangeFeed.Subscriber() {
+            @Override
+            public void send(Change change, String json){
+                events.send(change, json);
+                try {
+                    // a client that stopped reading, until the write times out
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void heartbeat(){
+            }
+
+            @Override
+            public void lost(){
+                events.lost();
+            }
+        }, log.getLatest());
+        for (int i = 1; i <= 10; i++) {
+            log.append(Change.BOOK, "book " + i);
+            Assert.assertEquals(i + ":\"book " + i + "\"", poll(current));
+        }
+        Assert.assertEquals(1, feed.size());
+        release.countDown();
+        // the first change, unless the outbox was full before the sender took it out
+        String event = poll(stalled);
+        if (!"lost".equals(event)) {
+            Assert.assertEquals("1:\"book 1\"", event);
+            event = poll(stalled);
+        }
+        Assert.assertEquals("lost", event);
+        log.append(Change.BOOK, "book 11");
+        Assert.assertEquals("11:\"book 11\"", poll(current));
+        Assert.assertNull(stalled.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static ChangeFeed.Subscriber subscriber(BlockingQueue<String> events){
+        return new ChangeFeed.Subscriber() {
+            @Override
+            public void send(Change change, String json){
+                events.add(change.getSeq() + ":" + json.substring(json.indexOf("\"data\":") + 7, json.length() - 1));
+            }
+
+            @Override
+            public void heartbeat(){
+                events.add("heartbeat");
+            }
+
+            @Override
+            public void lost(){
+                events.add("lost");
+            }
+        };
+    }
+
+    /**
+     * @return the next event other than a heartbeat.
+     */
+    private static String poll(BlockingQueue<String> events) throws InterruptedException {
+        String event = events.poll(5, TimeUnit.SECONDS);
+        while ("heartbeat".equals(event)) {
+            event = events.poll(5, TimeUnit.SECONDS);
+        }
+        return event;
+    }
+}
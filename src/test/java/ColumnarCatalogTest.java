@@ -0,0 +1,158 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.Application;
+import Application.Model.Book;
+import Application.Service.BookService;
+import Application.Service.ColumnarCatalog;
+import Application.Util.IntIntHashMap;
+import Application.Util.JsonUtil;
+
+public class ColumnarCatalogTest {
+    public TreeMap<Integer, Book> table;
+    public int loads;
+
+    /**
+     * Before every test, set up a small table of books, one of them with a title outside of ASCII.
+     */
+    @Before
+    public void setUp(){
+        table = new TreeMap<>();
+        table.put(100, new Book(100, 1, "ficciones", 2));
+        table.put(101, new Book(101, 1, "el libro de arena", 0));
+        table.put(102, new Book(102, 2, "se\u00f1or palomar \"the\" novel", 1));
+        loads = 0;
+    }
+
+    public ColumnarCatalog catalog(){
+        return new ColumnarCatalog(consumer -> {
+            loads++;
+            table.values().forEach(consumer);
+        });
+    }
+
+    public String json(ColumnarCatalog catalog) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        catalog.writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * The catalog should hand back the books as loaded, and only load them once.
+     */
+    @Test
+    public void catalog_getTest(){
+        ColumnarCatalog catalog = catalog();
+        Assert.assertEquals(new Book(102, 2, "se\u00f1or palomar \"the\" novel", 1), catalog.get(102));
+        Assert.assertEquals(0, catalog.getCopies(101));
+        Assert.assertNull(catalog.get(999));
+        Assert.assertEquals(-1, catalog.getCopies(999));
+        Assert.assertEquals(3, catalog.size());
+        Assert.assertEquals(1, loads);
+    }
+
+    /**
+     * The JSON written from the columns should be the JSON Jackson writes for the same books.
+     */
+    @Test
+    public void catalog_writeToTest() throws IOException {
+        ColumnarCatalog catalog = catalog();
+        catalog.get(100);
+        catalog.put(new Book(103, 3, null, 4));
+        List<Book> books = new ArrayList<>(table.values());
+        books.add(new Book(103, 3, null, 4));
+        Assert.assertEquals(JsonUtil.MAPPER.writeValueAsString(books), json(catalog));
+        Assert.assertNull(catalog.get(103).getTitle());
+    }
+
+    /**
+     * Puts should add new rows, and replace every column of existing rows, whether the new title is shorter or longer.
+     */
+    @Test
+    public void catalog_putTest(){
+        ColumnarCatalog catalog = catalog();
+        catalog.get(100);
+        catalog.put(new Book(100, 1, "ficc", 1));
+        Assert.assertEquals(new Book(100, 1, "ficc", 1), catalog.get(100));
+        catalog.put(new Book(100, 4, "ficciones, second edition", 0));
+        Assert.assertEquals(new Book(100, 4, "ficciones, second edition", 0), catalog.get(100));
+        Assert.assertEquals(new Book(101, 1, "el libro de arena", 0), catalog.get(101));
+        for (int isbn = 1000; isbn < 3000; isbn++) {
+            catalog.put(new Book(isbn, 1, "title " + isbn, isbn % 3));
+        }
+        Assert.assertEquals(2003, catalog.size());
+        Assert.assertEquals(new Book(2999, 1, "title 2999", 2), catalog.get(2999));
+    }
+
+    /**
+     * A put before the catalog is loaded should be left to the load, and a put while it loads applied after it.
+     */
+    @Test
+    public void catalog_putDuringLoadTest(){
+        ColumnarCatalog[] catalog = new ColumnarCatalog[1];
+        catalog[0] = new ColumnarCatalog(consumer -> {
+            table.values().forEach(consumer);
+            Thread writer = new Thread(() -> catalog[0].put(new Book(104, 1, "the aleph", 3)));
+            writer.start();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        catalog[0].put(new Book(105, 1, "never persisted", 1));
+        Assert.assertEquals(new Book(104, 1, "the aleph", 3), catalog[0].get(104));
+        Assert.assertNull(catalog[0].get(105));
+    }
+
+    /**
+     * The int map should keep every entry through growth, including negative and zero keys.
+     */
+    @Test
+    public void intIntHashMap_test(){
+        IntIntHashMap map = new IntIntHashMap();
+        for (int key = -5000; key < 5000; key++) {
+            Assert.assertEquals(IntIntHashMap.MISSING, map.put(key, key + 5000));
+        }
+        Assert.assertEquals(10000, map.size());
+        Assert.assertEquals(5000, map.put(0, 7));
+        Assert.assertEquals(7, map.get(0));
+        Assert.assertEquals(1, map.get(-4999));
+        Assert.assertEquals(IntIntHashMap.MISSING, map.get(5000));
+        Assert.assertEquals(10000, map.size());
+    }
+
+    /**
+     * With -Dlibrary.catalog.store=columnar the service should serve books from the columns and keep them up to date.
+     */
+    @Test
+    public void bookService_columnarTest() throws IOException {
+        Application.databaseSetup();
+        System.setProperty("library.catalog.store", "columnar");
+        BookService bookService;
+        try {
+            bookService = new BookService();
+        } finally {
+            System.clearProperty("library.catalog.store");
+        }
+        Assert.assertNotNull(bookService.getColumnarCatalog());
+        Assert.assertEquals(new Book(100, 1, "ficciones", 2), bookService.getBookByIsbn(100));
+        Assert.assertEquals(8, bookService.getColumnarCatalog().size());
+        bookService.addBook(new Book(108, 1, "cosmicomics", 1));
+        Assert.assertEquals(new Book(108, 1, "cosmicomics", 1), bookService.getBookByIsbn(108));
+        Assert.assertEquals(0, bookService.checkoutBook(108));
+        Assert.assertEquals(0, bookService.getColumnarCatalog().getCopies(108));
+        bookService.getCopyCounters().flush();
+        Assert.assertEquals(0, bookService.bookDAO.getBookByIsbn(108).getCopies_available());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bookService.writeAllBooks(out);
+        Assert.assertTrue(out.toString("UTF-8").contains("{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":0}"));
+    }
+}
@@ -0,0 +1,251 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.Application;
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import Application.Util.ConnectionPool;
+import Application.Util.ConnectionUtil;
+
+public class ConnectionPoolTest {
+    public ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool against a private in-memory database.
+     */
+    @Before
+    public void setUp(){
+        pool = new ConnectionPool("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1", "sa", "sa", 1, 2, 200, 0, false);
+    }
+
+    @After
+    public void tearDown(){
+        pool.shutdown();
+    }
+
+    /**
+     * The pool should open the minimum number of connections up front.
+     */
+    @Test
+    public void pool_opensMinimumConnectionsTest(){
+        Assert.assertEquals(1, pool.getOpenCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    /**
+     * Closing a borrowed connection should return it to the pool rather than closing the physical connection.
+     */
+    @Test
+    public void pool_closeReturnsConnectionTest() throws SQLException {
+        Connection connection = pool.borrow();
+        Assert.assertEquals(1, pool.getBorrowedCount());
+        connection.close();
+        Assert.assertTrue(connection.isClosed());
+        Assert.assertEquals(0, pool.getBorrowedCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+        try (Connection again = pool.borrow()) {
+            Assert.assertFalse(again.isClosed());
+        }
+        Assert.assertEquals(1, pool.getOpenCount());
+    }
+
+    /**
+     * A connection that has been returned may not be used any more.
+     */
+    @Test(expected = SQLException.class)
+    public void pool_returnedConnectionIsUnusableTest() throws SQLException {
+        Connection connection = pool.borrow();
+        connection.close();
+        connection.prepareStatement("select 1");
+    }
+
+    /**
+     * When every connection is borrowed, a further borrow should time out instead of exceeding the maximum size.
+     */
+    @Test
+    public void pool_boundedByMaxSizeTest() throws SQLException {
+        try (Connection c1 = pool.borrow(); Connection c2 = pool.borrow()) {
+            Assert.assertEquals(2, pool.getOpenCount());
+            try {
+                pool.borrow();
+                Assert.fail();
+            } catch (SQLTimeoutException e) {
+                Assert.assertEquals(1, pool.getTimeoutCount());
+            }
+        }
+        Assert.assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * A connection left in a transaction should be rolled back and put back into autocommit mode when returned.
+     */
+    @Test
+    public void pool_resetsConnectionStateTest() throws SQLException {
+        try (Connection connection = pool.borrow()) {
+            connection.setAutoCommit(false);
+        }
+        try (Connection connection = pool.borrow()) {
+            Assert.assertTrue(connection.getAutoCommit());
+        }
+    }
+
+    /**
+     * DAO calls from many threads at once should each get a working connection from the shared pool.
+     */
+    @Test
+    public void pool_concurrentDaoReadsTest() throws Exception {
+        Application.databaseSetup();
+        BookDAO bookDAO = new BookDAO();
+        Book expected = new Book(100, 1, "ficciones", 2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Book>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(executor.submit(() -> bookDAO.getBookByIsbn(100)));
+        }
+        for (Future<Book> future : futures) {
+            Assert.assertEquals(expected, future.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Preparing the same SQL again after closing the statement should hand back the cached statement.
+     */
+    @Test
+    public void statementCache_reusesClosedStatementTest() throws SQLException {
+        try (Connection connection = pool.borrow()) {
+            PreparedStatement first = connection.prepareStatement("select ?");
+            first.setInt(1, 5);
+            try (ResultSet rs = first.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(5, rs.getInt(1));
+            }
+            first.close();
+            Assert.assertTrue(first.isClosed());
+            try (PreparedStatement second = connection.prepareStatement("select ?")) {
+                Assert.assertSame(first, second);
+                Assert.assertFalse(second.isClosed());
+            }
+        }
+        Assert.assertEquals(1, pool.getStatementCacheMisses());
+        Assert.assertEquals(1, pool.getStatementCacheHits());
+    }
+
+    /**
+     * A statement that is still open should not be handed out a second time.
+     */
+    @Test
+    public void statementCache_doesNotShareOpenStatementTest() throws SQLException {
+        try (Connection connection = pool.borrow();
+             PreparedStatement first = connection.prepareStatement("select 1");
+             PreparedStatement second = connection.prepareStatement("select 1")) {
+            Assert.assertNotSame(first, second);
+        }
+    }
+
+    /**
+     * A cached statement should be handed back with the settings it was prepared with, and with every ResultSet it
+     * handed out closed, the generated keys included.
+     */
+    @Test
+    public void statementCache_resetsStatementTest() throws SQLException {
+        try (Connection connection = pool.borrow()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE IF EXISTS counted");
+                statement.executeUpdate("CREATE TABLE counted (id INT AUTO_INCREMENT PRIMARY KEY, n INT)");
+            }
+            String insert = "INSERT INTO counted (n) VALUES (?)";
+            PreparedStatement first = connection.prepareStatement(insert, Statement.RETURN_GENERATED_KEYS);
+            int maxRows = first.getMaxRows();
+            int fetchSize = first.getFetchSize();
+            first.setMaxRows(10);
+            first.setFetchSize(7);
+            first.setQueryTimeout(5);
+            first.setInt(1, 1);
+            first.executeUpdate();
+            ResultSet keys = first.getGeneratedKeys();
+            Assert.assertTrue(keys.next());
+            first.close();
+            Assert.assertTrue(keys.isClosed());
+            try (PreparedStatement second = connection.prepareStatement(insert, Statement.RETURN_GENERATED_KEYS)) {
+                Assert.assertSame(first, second);
+                Assert.assertEquals(maxRows, second.getMaxRows());
+                Assert.assertEquals(fetchSize, second.getFetchSize());
+                Assert.assertEquals(0, second.getQueryTimeout());
+            }
+        }
+    }
+
+    /**
+     * A statement the caller asked to close on completion should not be handed out again.
+     */
+    @Test
+    public void statementCache_closeOnCompletionNotReusedTest() throws SQLException {
+        try (Connection connection = pool.borrow()) {
+            PreparedStatement first = connection.prepareStatement("select 1");
+            first.closeOnCompletion();
+            first.executeQuery().close();
+            first.close();
+            try (PreparedStatement second = connection.prepareStatement("select 1");
+                 ResultSet rs = second.executeQuery()) {
+                Assert.assertNotSame(first, second);
+                Assert.assertTrue(rs.next());
+            }
+        }
+        Assert.assertEquals(2, pool.getStatementCacheMisses());
+    }
+
+    /**
+     * When the cache is full the least recently used statement should be evicted.
+     */
+    @Test
+    public void statementCache_evictsLeastRecentlyUsedTest() throws SQLException {
+        ConnectionPool small = new ConnectionPool("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1", "sa", "sa",
+                1, 1, 200, 0, false, 2);
+        try (Connection connection = small.borrow()) {
+            connection.prepareStatement("select 1").close();
+            connection.prepareStatement("select 2").close();
+            connection.prepareStatement("select 1").close();
+            connection.prepareStatement("select 3").close();
+            Assert.assertEquals(3, small.getStatementCacheMisses());
+            connection.prepareStatement("select 1").close();
+            Assert.assertEquals(3, small.getStatementCacheMisses());
+            connection.prepareStatement("select 2").close();
+            Assert.assertEquals(4, small.getStatementCacheMisses());
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    /**
+     * Once the DAO statements have been prepared, repeated reads should not prepare any new statements.
+     */
+    @Test
+    public void statementCache_daoReadsSteadyStateTest(){
+        Application.databaseSetup();
+        BookDAO bookDAO = new BookDAO();
+        bookDAO.getBookByIsbn(100);
+        bookDAO.getAllBooks();
+        long misses = ConnectionUtil.getPool().getStatementCacheMisses();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotNull(bookDAO.getBookByIsbn(100));
+            Assert.assertEquals(8, bookDAO.getAllBooks().size());
+        }
+        Assert.assertEquals(misses, ConnectionUtil.getPool().getStatementCacheMisses());
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.Model.Book;
+import Application.Service.CopyCounters;
+import Application.Util.StripedCounter;
+
+public class CopyCountersTest {
+    public Map<Integer, Book> table;
+    public Map<Integer, Book> changes;
+    public AtomicInteger writes;
+    public AtomicBoolean failWrites;
+
+    /**
+     * Before every test, set up a table with one popular book, and record what the counters write and report.
+     */
+    @Before
+    public void setUp(){
+        table = new HashMap<>();
+        table.put(100, new Book(100, 1, "ficciones", 1000));
+        table.put(101, new Book(101, 1, "book of sand", 0));
+        changes = new ConcurrentHashMap<>();
+        writes = new AtomicInteger();
+        failWrites = new AtomicBoolean();
+    }
+
+    public CopyCounters counters(long flushMillis){
+        return new CopyCounters(table::get, (isbns, deltas) -> {
+            if (failWrites.get()) {
+                return isbns;
+            }
+            writes.incrementAndGet();
+            for (int i = 0; i < isbns.length; i++) {
+                Book book = table.get(isbns[i]);
+                table.put(isbns[i], new Book(book.getIsbn(), book.getAuthor_id(), book.getTitle(),
+                        book.getCopies_available() + deltas[i]));
+            }
+            return new int[0];
+        }, book -> changes.put(book.getIsbn(), book), flushMillis);
+    }
+
+    /**
+     * A striped counter should hand out exactly its initial count, over all of its stripes.
+     */
+    @Test
+    public void stripedCounter_neverBelowZeroTest(){
+        StripedCounter counter = new StripedCounter(5, 4);
+        Assert.assertEquals(4, counter.getStripes());
+        Assert.assertEquals(5, counter.sum());
+        int taken = 0;
+        while (counter.tryDecrement()) {
+            taken++;
+        }
+        Assert.assertEquals(5, taken);
+        Assert.assertEquals(0, counter.sum());
+        counter.increment();
+        Assert.assertTrue(counter.tryDecrement());
+        Assert.assertFalse(counter.tryDecrement());
+    }
+
+    /**
+     * Many threads checking out one book at once should get exactly as many copies as it has, and the database
+     * should be left with none after a single write, made by the checkout of the last copy.
+     */
+    @Test
+    public void checkout_noOversellingStressTest() throws InterruptedException {
+        CopyCounters counters = counters(60000);
+        int threads = 8;
+        AtomicInteger checkedOut = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicBoolean negative = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 500; i++) {
+                    int left = counters.checkout(100);
+                    if (left == CopyCounters.UNAVAILABLE) {
+                        rejected.incrementAndGet();
+                    } else if (left < 0) {
+                        negative.set(true);
+                    } else {
+                        checkedOut.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertFalse(negative.get());
+        Assert.assertEquals(1000, checkedOut.get());
+        Assert.assertEquals(3000, rejected.get());
+        Assert.assertEquals(0, counters.getCopies(100));
+        Assert.assertEquals(1, writes.get());
+        Assert.assertEquals(0, counters.flush());
+        Assert.assertEquals(0, table.get(100).getCopies_available());
+        Assert.assertEquals(0, changes.get(100).getCopies_available());
+    }
+
+    /**
+     * Returning a copy of a book that was out should make it available again, and unknown books should be reported.
+     * As they change whether the book is available, the return and the checkout of its last copy should be written
+     * before they return, and reported with the copies written.
+     */
+    @Test
+    public void return_test(){
+        CopyCounters counters = counters(60000);
+        Assert.assertEquals(CopyCounters.UNAVAILABLE, counters.checkout(101));
+        Assert.assertEquals(1, counters.returnCopy(101));
+        Assert.assertEquals(1, table.get(101).getCopies_available());
+        Assert.assertEquals(1, changes.get(101).getCopies_available());
+        Assert.assertEquals(0, counters.checkout(101));
+        Assert.assertEquals(0, table.get(101).getCopies_available());
+        Assert.assertEquals(0, changes.get(101).getCopies_available());
+        Assert.assertEquals(CopyCounters.NOT_FOUND, counters.checkout(999));
+        Assert.assertEquals(CopyCounters.NOT_FOUND, counters.returnCopy(999));
+        Assert.assertEquals(0, counters.flush());
+        Assert.assertEquals(2, writes.get());
+    }
+
+    /**
+     * A checkout of the last copy that can not be written should not be reported until it is.
+     */
+    @Test
+    public void checkout_lastCopyWrittenBeforeReportedTest(){
+        CopyCounters counters = counters(60000);
+        Assert.assertEquals(1, counters.returnCopy(101));
+        failWrites.set(true);
+        Assert.assertEquals(0, counters.checkout(101));
+        Assert.assertEquals(1, changes.get(101).getCopies_available());
+        failWrites.set(false);
+        Assert.assertEquals(1, counters.flush());
+        Assert.assertEquals(0, table.get(101).getCopies_available());
+        Assert.assertEquals(0, changes.get(101).getCopies_available());
+    }
+
+    /**
+     * A failed write should be retried with the next one, without losing or repeating any change.
+     */
+    @Test
+    public void flush_retriesFailedWriteTest(){
+        CopyCounters counters = counters(60000);
+        counters.checkout(100);
+        failWrites.set(true);
+        Assert.assertEquals(-1, counters.flush());
+        counters.checkout(100);
+        failWrites.set(false);
+        Assert.assertEquals(1, counters.flush());
+        Assert.assertEquals(998, table.get(100).getCopies_available());
+        Assert.assertEquals(0, counters.flush());
+    }
+
+    /**
+     * The changes should reach the database on their own shortly after the checkouts.
+     */
+    @Test
+    public void flush_writeBehindTest() throws InterruptedException {
+        CopyCounters counters = counters(10);
+        counters.checkout(100);
+        counters.checkout(100);
+        for (int i = 0; i < 200 && table.get(100).getCopies_available() != 998; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(998, table.get(100).getCopies_available());
+    }
+}
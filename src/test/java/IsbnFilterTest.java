@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.Service.IsbnFilter;
+
+public class IsbnFilterTest {
+    public List<Integer> table;
+    public boolean failing;
+    public int loads;
+
+    /**
+     * Before every test, set up a table of 10000 isbns, from 1000 to 10999.
+     */
+    @Before
+    public void setUp(){
+        table = new ArrayList<>();
+        for (int isbn = 1000; isbn < 11000; isbn++) {
+            table.add(isbn);
+        }
+        failing = false;
+        loads = 0;
+    }
+
+    public IsbnFilter filter(int minIsbns){
+        return new IsbnFilter(consumer -> {
+            loads++;
+            if (failing) {
+                return -1;
+            }
+            // a copy, as a test may add to the table while it is read
+            for (int isbn : new ArrayList<>(table)) {
+                consumer.accept(isbn);
+            }
+            return table.size();
+        }, 0.01, minIsbns, 3600000);
+    }
+
+    /**
+     * Every isbn of the table should be possibly in use, and only about fpp of the others.
+     */
+    @Test
+    public void filter_noFalseNegativesTest(){
+        IsbnFilter filter = filter(10000);
+        filter.prepare();
+        for (int isbn : table) {
+            Assert.assertTrue(filter.mightContain(isbn));
+        }
+        int maybe = 0;
+        for (int isbn = 100000; isbn < 200000; isbn++) {
+            if (filter.mightContain(isbn)) {
+                maybe++;
+            }
+        }
+        Assert.assertTrue("false positives: " + maybe, maybe < 2000);
+        Assert.assertEquals(1, loads);
+        Assert.assertEquals(10000, filter.getMaybe() - maybe, 0);
+        Assert.assertEquals(100000 - maybe, filter.getAbsent());
+        // about 9.6 bits per isbn at 1%
+        Assert.assertTrue(filter.getMemoryBytes() > 10000 && filter.getMemoryBytes() < 14000);
+        Assert.assertEquals(0.01, filter.getExpectedFpp(), 0.005);
+    }
+
+    /**
+     * The isbns added after a load, and those added while a rebuild reads the table, should be in the filter, and a
+     * rebuild should size it for the isbns it holds.
+     */
+    @Test
+    public void filter_addAndRebuildTest(){
+        IsbnFilter filter = filter(20000);
+        filter.prepare();
+        Assert.assertFalse(filter.mightContain(50000));
+        filter.add(50000);
+        Assert.assertTrue(filter.mightContain(50000));
+        IsbnFilter[] during = new IsbnFilter[1];
+        IsbnFilter small = new IsbnFilter(consumer -> {
+            for (int isbn : table) {
+                consumer.accept(isbn);
+                if (isbn == 5000 && during[0] != null) {
+                    // a book persisted while the table is read, after the read went past its isbn
+                    during[0].add(3);
+                }
+            }
+            return table.size();
+        }, 0.01, 1000, 3600000);
+        small.prepare();
+        long smallBytes = small.getMemoryBytes();
+        during[0] = small;
+        Assert.assertTrue(small.rebuild());
+        Assert.assertTrue(small.getMemoryBytes() > 10 * smallBytes);
+        Assert.assertTrue(small.mightContain(3));
+        Assert.assertFalse(small.mightContain(50000));
+        Assert.assertEquals(2, small.getRebuilds());
+    }
+
+    /**
+     * A filter that can not be loaded should answer maybe for every isbn, and a failed rebuild should keep the
+     * filter it had.
+     */
+    @Test
+    public void filter_failedLoadTest(){
+        failing = true;
+        IsbnFilter filter = filter(10000);
+        filter.prepare();
+        Assert.assertTrue(filter.mightContain(1));
+        Assert.assertEquals(1.0, filter.getExpectedFpp(), 0);
+        failing = false;
+        Assert.assertTrue(filter.rebuild());
+        Assert.assertFalse(filter.mightContain(1));
+        failing = true;
+        Assert.assertFalse(filter.rebuild());
+        Assert.assertFalse(filter.mightContain(1));
+        Assert.assertTrue(filter.mightContain(1000));
+    }
+
+    /**
+     * A lookup before the filter is loaded should answer maybe rather than read the table, and have it built in the
+     * background; an isbn found after an absent answer should be added.
+     */
+    @Test
+    public void filter_lookupBeforeLoadTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IsbnFilter filter = new IsbnFilter(consumer -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return -1;
+            }
+            for (int isbn : table) {
+                consumer.accept(isbn);
+            }
+            return table.size();
+        }, 0.01, 20000, 3600000);
+        // the table is not read until released, so a lookup that read it itself would not return
+        Assert.assertTrue(filter.mightContain(1));
+        Assert.assertEquals(0, filter.getRebuilds());
+        release.countDown();
+        for (int i = 0; i < 500 && filter.getRebuilds() == 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, filter.getRebuilds());
+        Assert.assertFalse(filter.mightContain(1));
+        filter.recordMissed(1);
+        Assert.assertTrue(filter.mightContain(1));
+        Assert.assertEquals(1, filter.getMissed());
+    }
+}
@@ -1,5 +1,10 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -10,9 +15,12 @@ import Application.Application;
 import Application.DAO.AuthorDAO;
 import Application.DAO.BookDAO;
 import Application.Model.Author;
+import Application.Model.AuthorWithBooks;
 import Application.Model.Book;
+import Application.Model.BulkImportReport;
 import Application.Service.AuthorService;
 import Application.Service.BookService;
+import Application.Util.Metrics;
 
 public class LibraryAppTest {
     public AuthorDAO authorDAO;
@@ -68,6 +76,74 @@ public class LibraryAppTest {
         Assert.assertTrue(authors.contains(a6));
     }
 
+    /**
+     * Getting a page of authors should return the authors following the given id, in id order.
+     */
+    @Test
+    public void AuthorDAO_getAuthorsAfterIdTest(){
+        List<Author> authors = authorDAO.getAuthorsAfterId(2, 2);
+        Assert.assertEquals(2, authors.size());
+        Assert.assertEquals(new Author(3, "thomas pynchon"), authors.get(0));
+        Assert.assertEquals(new Author(4, "marshall mcluhan"), authors.get(1));
+    }
+
+    /**
+     * Inserting authors in a batch should return them with their generated ids.
+     */
+    @Test
+    public void AuthorDAO_insertAuthorsBatchTest(){
+        List<Author> authors = new ArrayList<>();
+        authors.add(new Author("james joyce"));
+        authors.add(new Author("leo tolstoy"));
+        List<Author> persisted = authorDAO.insertAuthors(authors);
+        Assert.assertEquals(new Author(6, "james joyce"), persisted.get(0));
+        Assert.assertEquals(new Author(7, "leo tolstoy"), persisted.get(1));
+        Assert.assertTrue(authorDAO.getAllAuthors().contains(persisted.get(1)));
+    }
+
+    /**
+     * An author should be read with their books, and an author without books with none.
+     */
+    @Test
+    public void AuthorDAO_getAuthorWithBooksTest(){
+        AuthorWithBooks borges = authorDAO.getAuthorWithBooks(1);
+        Assert.assertEquals("jorge luis borges", borges.getName());
+        Assert.assertEquals(List.of(new Book(100, 1, "ficciones", 2), new Book(101, 1, "book of sand", 0)),
+                borges.getBooks());
+        authorDAO.insertAuthor(new Author("james joyce"));
+        Assert.assertTrue(authorDAO.getAuthorWithBooks(6).getBooks().isEmpty());
+        Assert.assertNull(authorDAO.getAuthorWithBooks(99));
+    }
+
+    /**
+     * Authors with books should be read a page at a time, whatever the number of books of each author, and with one
+     * round trip however many authors there are.
+     */
+    @Test
+    public void AuthorDAO_forEachAuthorWithBooksTest(){
+        List<AuthorWithBooks> page = new ArrayList<>();
+        Assert.assertEquals(2, authorDAO.forEachAuthorWithBooks(1, 2, page::add));
+        Assert.assertEquals(2, page.get(0).getId());
+        Assert.assertEquals(2, page.get(0).getBooks().size());
+        Assert.assertEquals(3, page.get(1).getId());
+        List<Author> authors = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            authors.add(new Author("author " + i));
+        }
+        authorDAO.insertAuthors(authors);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            books.add(new Book(1000 + i, 6 + i % 200, "book " + i, 1));
+        }
+        bookDAO.insertBooks(books);
+        long before = Metrics.getQueryCount();
+        List<AuthorWithBooks> all = new ArrayList<>();
+        Assert.assertEquals(205, authorDAO.forEachAuthorWithBooks(null, null, all::add));
+        Assert.assertEquals(1, Metrics.getQueryCount() - before);
+        Assert.assertEquals(2, all.get(204).getBooks().size());
+        Assert.assertEquals(408, all.stream().mapToInt(author -> author.getBooks().size()).sum());
+    }
+
     /**
      * AUTHOR SERVICE TESTS
      */
@@ -149,6 +225,41 @@ public class LibraryAppTest {
         Assert.assertEquals(b1, book);
     }
 
+    /**
+     * Inserting books in a batch should insert the new ones and report existing or repeated isbns as duplicates,
+     * while a book that violates the author foreign key fails on its own.
+     */
+    @Test
+    public void BookDAO_insertBooksBatchTest(){
+        List<Book> books = new ArrayList<>();
+        books.add(new Book(108, 1, "cosmicomics", 1));
+        books.add(new Book(100, 1, "ficciones", 2));
+        books.add(new Book(108, 1, "cosmicomics", 1));
+        books.add(new Book(109, 99, "no such author", 1));
+        books.add(new Book(110, 2, "if on a winter's night a traveler", 4));
+        String[] statuses = bookDAO.insertBooks(books);
+        Assert.assertArrayEquals(new String[]{BulkImportReport.INSERTED, BulkImportReport.DUPLICATE,
+                BulkImportReport.DUPLICATE, BulkImportReport.FAILED, BulkImportReport.INSERTED}, statuses);
+        Assert.assertEquals(10, bookDAO.getAllBooks().size());
+        Assert.assertNull(bookDAO.getBookByIsbn(109));
+    }
+
+    /**
+     * Getting a page of books should return the books following the given isbn, in isbn order.
+     */
+    @Test
+    public void BookDAO_getBooksAfterIsbnTest(){
+        List<Book> firstPage = bookDAO.getBooksAfterIsbn(null, 2);
+        Assert.assertEquals(2, firstPage.size());
+        Assert.assertEquals(100, firstPage.get(0).getIsbn());
+        Assert.assertEquals(101, firstPage.get(1).getIsbn());
+        List<Book> nextPage = bookDAO.getBooksAfterIsbn(101, 3);
+        Assert.assertEquals(3, nextPage.size());
+        Assert.assertEquals(new Book(102, 2, "mr palomar", 1), nextPage.get(0));
+        Assert.assertEquals(104, nextPage.get(2).getIsbn());
+        Assert.assertTrue(bookDAO.getBooksAfterIsbn(107, 10).isEmpty());
+    }
+
     /**
      * Getting all available books should retrieve all books with copies_available over 0, but should not return
      * any other books.
@@ -217,8 +328,8 @@ public class LibraryAppTest {
         Mockito.verify(mockBookDAO).insertBook(b4);
     }
     /**
-     * When addBook is called and the mockBookDAO already contains the author, the method should return null
-     * and the insertBook method of BookDAO should not have been called.
+     * When addBook is called and the mockBookDAO already contains the book, the method should return null.
+     * The insert itself detects the duplicate isbn, so the book should not be looked up beforehand.
      */
     @Test
     public void bookService_addBookVerifyNullOnUnsuccessfulAdd(){
@@ -231,10 +342,58 @@ public class LibraryAppTest {
         bookList.add(b3);
         Mockito.when(mockBookDAO.getAllBooks()).thenReturn(bookList);
         Mockito.when(mockBookDAO.getBookByIsbn(103)).thenReturn(b3);
+        Mockito.when(mockBookDAO.insertBook(b3)).thenReturn(null);
+        Assert.assertEquals(null, bookService.addBook(b3));
+        Mockito.verify(mockBookDAO, Mockito.never()).getBookByIsbn(103);
+    }
+
+    /**
+     * When the catalog is cached and already contains the book, addBook should return null without an insert.
+     */
+    @Test
+    public void bookService_addBookCachedDuplicateTest(){
+        List<Book> bookList = new ArrayList<Book>();
+        Book b3 = new Book(103, 2, "War and Peace", 1);
+        bookList.add(b3);
+        Mockito.when(mockBookDAO.getAllBooks()).thenReturn(bookList);
+        bookService.getAllBooks();
         Assert.assertEquals(null, bookService.addBook(b3));
         Mockito.verify(mockBookDAO, Mockito.never()).insertBook(b3);
     }
 
+    /**
+     * When many threads add the same isbns at once, exactly one of them should succeed for each isbn.
+     */
+    @Test
+    public void bookService_addBookConcurrentSingleWinnerTest() throws Exception {
+        BookService service = new BookService(bookDAO);
+        int isbns = 20;
+        int writersPerIsbn = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Book>> futures = new ArrayList<>();
+        for (int i = 0; i < isbns * writersPerIsbn; i++) {
+            Book book = new Book(200 + i % isbns, 1, "title " + i, 1);
+            futures.add(executor.submit(() -> {
+                start.await();
+                return service.addBook(book);
+            }));
+        }
+        start.countDown();
+        int[] winners = new int[isbns];
+        for (Future<Book> future : futures) {
+            Book added = future.get(30, TimeUnit.SECONDS);
+            if (added != null) {
+                winners[added.getIsbn() - 200]++;
+            }
+        }
+        executor.shutdown();
+        for (int i = 0; i < isbns; i++) {
+            Assert.assertEquals(1, winners[i]);
+            Assert.assertNotNull(bookDAO.getBookByIsbn(200 + i));
+        }
+    }
+
     /**
      * When getAllAvailableBooks is called, all books in the database with copies_available over 0 should be returned.
      */
@@ -262,4 +421,82 @@ public class LibraryAppTest {
         }
         
     }
+
+    /**
+     * Repeated reads of the catalog should be served from the cache after the first one.
+     */
+    @Test
+    public void bookService_getAllBooksCachedTest(){
+        List<Book> bookList = new ArrayList<>();
+        bookList.add(new Book(101, 1, "Ulysses", 2));
+        Mockito.when(mockBookDAO.getAllBooks()).thenReturn(bookList);
+        bookService.getAllBooks();
+        bookService.getAllBooks();
+        bookService.getBookByIsbn(101);
+        bookService.getAllAvailableBooks();
+        Mockito.verify(mockBookDAO, Mockito.times(1)).getAllBooks();
+        Mockito.verify(mockBookDAO, Mockito.never()).getBookByIsbn(101);
+        Mockito.verify(mockBookDAO, Mockito.never()).getBooksWithBookCountOverZero();
+        Assert.assertTrue(bookService.getCache().getHits() >= 3);
+    }
+
+    /**
+     * A book added through the service should be visible in the cached catalog, its author index and the
+     * available view, without reloading the catalog.
+     */
+    @Test
+    public void bookService_addBookUpdatesCacheTest(){
+        List<Book> bookList = new ArrayList<>();
+        Book b1 = new Book(101, 1, "Ulysses", 2);
+        Book b2 = new Book(104, 1, "Dubliners", 3);
+        bookList.add(b1);
+        Mockito.when(mockBookDAO.getAllBooks()).thenReturn(bookList);
+        Mockito.when(mockBookDAO.insertBook(b2)).thenReturn(b2);
+        bookService.getAllBooks();
+        Assert.assertEquals(b2, bookService.addBook(b2));
+        Assert.assertTrue(bookService.getAllBooks().contains(b2));
+        Assert.assertTrue(bookService.getAllAvailableBooks().contains(b2));
+        Assert.assertEquals(2, bookService.getBooksByAuthorId(1).size());
+        Assert.assertEquals(b2, bookService.getBookByIsbn(104));
+        Mockito.verify(mockBookDAO, Mockito.times(1)).getAllBooks();
+    }
+
+    /**
+     * An author added through the service should be visible in the cached author list.
+     */
+    @Test
+    public void AuthorService_addAuthorUpdatesCacheTest(){
+        List<Author> authors = new ArrayList<>();
+        authors.add(new Author(1, "James Joyce"));
+        Author newAuthor = new Author("Leo Tolstoy");
+        Author persistedAuthor = new Author(2, "Leo Tolstoy");
+        Mockito.when(mockAuthorDAO.getAllAuthors()).thenReturn(authors);
+        Mockito.when(mockAuthorDAO.insertAuthor(newAuthor)).thenReturn(persistedAuthor);
+        authorService.getAllAuthors();
+        authorService.addAuthor(newAuthor);
+        Assert.assertTrue(authorService.getAllAuthors().contains(persistedAuthor));
+        Assert.assertEquals(persistedAuthor, authorService.getAuthorById(2));
+        Mockito.verify(mockAuthorDAO, Mockito.times(1)).getAllAuthors();
+    }
+
+    /**
+     * Streaming the books should hand on the pages read, and then fail, rather than end early, when a page can not be
+     * read.
+     */
+    @Test
+    public void BookService_forEachBookFailureTest(){
+        List<Book> page = new ArrayList<>();
+        for (int isbn = 0; isbn < 1000; isbn++) {
+            page.add(new Book(isbn, 1, "title " + isbn, 1));
+        }
+        Mockito.when(mockBookDAO.getBooksAfterIsbn(null, 1000)).thenReturn(page);
+        Mockito.when(mockBookDAO.getBooksAfterIsbn(999, 1000)).thenThrow(new IllegalStateException("unreadable"));
+        List<Book> streamed = new ArrayList<>();
+        try {
+            bookService.forEachBook(streamed::add);
+            Assert.fail("the failed page should have been reported");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1000, streamed.size());
+        }
+    }
 }
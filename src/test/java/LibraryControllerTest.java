@@ -0,0 +1,520 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Application.Application;
+import Application.Controller.LibraryController;
+import Application.DAO.BookDAO;
+import Application.Model.Author;
+import Application.Model.AuthorWithBooks;
+import Application.Model.Book;
+import Application.Model.BulkImportReport;
+import Application.Service.ChangeLog;
+import Application.Util.ConnectionUtil;
+import Application.Util.Metrics;
+import io.javalin.Javalin;
+import org.eclipse.jetty.util.VirtualThreads;
+
+public class LibraryControllerTest {
+    public Javalin app;
+    public HttpClient client;
+    public ObjectMapper mapper;
+
+    /**
+     * Before every test, reset the database and start the API on a free port.
+     */
+    @Before
+    public void setUp(){
+        Application.databaseSetup();
+        app = new LibraryController().createApp().start(0);
+        client = HttpClient.newHttpClient();
+        mapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown(){
+        app.stop();
+    }
+
+    public HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Streaming all books should produce the same JSON array as retrieving them all at once.
+     */
+    @Test
+    public void getBooks_streamTest() throws Exception {
+        HttpResponse<String> streamed = get("/books?stream=true");
+        HttpResponse<String> buffered = get("/books");
+        Assert.assertEquals(200, streamed.statusCode());
+        List<Book> streamedBooks = mapper.readValue(streamed.body(), new TypeReference<List<Book>>(){});
+        List<Book> bufferedBooks = mapper.readValue(buffered.body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(8, streamedBooks.size());
+        Assert.assertTrue(streamedBooks.containsAll(bufferedBooks));
+    }
+
+    /**
+     * Following the X-Next-After header from page to page should visit every book exactly once.
+     */
+    @Test
+    public void getBooks_pageTest() throws Exception {
+        HttpResponse<String> first = get("/books?limit=5");
+        List<Book> firstPage = mapper.readValue(first.body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(5, firstPage.size());
+        String next = first.headers().firstValue("X-Next-After").orElseThrow();
+        Assert.assertEquals("104", next);
+        HttpResponse<String> second = get("/books?limit=5&after=" + next);
+        List<Book> secondPage = mapper.readValue(second.body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(3, secondPage.size());
+        Assert.assertEquals(105, secondPage.get(0).getIsbn());
+        Assert.assertFalse(second.headers().firstValue("X-Next-After").isPresent());
+    }
+
+    /**
+     * A cursor that is not a number should be rejected as a client error.
+     */
+    @Test
+    public void getBooks_invalidCursorTest() throws Exception {
+        Assert.assertEquals(400, get("/books?after=abc").statusCode());
+    }
+
+    /**
+     * Authors should be pageable and streamable too.
+     */
+    @Test
+    public void getAuthors_pageAndStreamTest() throws Exception {
+        List<Author> page = mapper.readValue(get("/authors?after=1&limit=2").body(),
+                new TypeReference<List<Author>>(){});
+        Assert.assertEquals(new Author(2, "italo calvino"), page.get(0));
+        Assert.assertEquals(2, page.size());
+        List<Author> streamed = mapper.readValue(get("/authors?stream=true").body(),
+                new TypeReference<List<Author>>(){});
+        Assert.assertEquals(5, streamed.size());
+    }
+
+    public HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Posting a new book should echo it back as JSON, and posting it again should be rejected.
+     */
+    @Test
+    public void postBook_test() throws Exception {
+        String json = "{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":1}";
+        HttpResponse<String> response = post("/books", json);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith("application/json"));
+        Assert.assertEquals(new Book(108, 1, "cosmicomics", 1), mapper.readValue(response.body(), Book.class));
+        Assert.assertEquals(400, post("/books", json).statusCode());
+    }
+
+    /**
+     * Posting a new author should echo it back with its generated id.
+     */
+    @Test
+    public void postAuthor_test() throws Exception {
+        HttpResponse<String> response = post("/authors", "{\"name\":\"james joyce\"}");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Author(6, "james joyce"), mapper.readValue(response.body(), Author.class));
+    }
+
+    /**
+     * With asynchronous writes, books and authors posted at the same time should each be persisted and echoed back,
+     * and a duplicate should still be rejected.
+     */
+    @Test
+    public void postBook_asyncTest() throws Exception {
+        System.setProperty("library.writes.async", "true");
+        Javalin asyncApp;
+        try {
+            asyncApp = new LibraryController().createApp().start(0);
+        } finally {
+            System.clearProperty("library.writes.async");
+        }
+        try {
+            String base = "http://localhost:" + asyncApp.port();
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                String json = "{\"isbn\":" + (200 + i) + ",\"author_id\":1,\"title\":\"t\",\"copies_available\":1}";
+                responses.add(client.sendAsync(HttpRequest.newBuilder(URI.create(base + "/books"))
+                        .POST(HttpRequest.BodyPublishers.ofString(json)).build(), HttpResponse.BodyHandlers.ofString()));
+            }
+            for (int i = 0; i < 50; i++) {
+                HttpResponse<String> response = responses.get(i).get();
+                Assert.assertEquals(200, response.statusCode());
+                Assert.assertEquals(200 + i, mapper.readValue(response.body(), Book.class).getIsbn());
+            }
+            HttpResponse<String> duplicate = client.send(HttpRequest.newBuilder(URI.create(base + "/books"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"isbn\":100,\"author_id\":1,\"title\":\"t\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(400, duplicate.statusCode());
+            HttpResponse<String> author = client.send(HttpRequest.newBuilder(URI.create(base + "/authors"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"name\":\"james joyce\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(new Author(6, "james joyce"), mapper.readValue(author.body(), Author.class));
+            Assert.assertEquals(58, new BookDAO().getAllBooks().size());
+        } finally {
+            asyncApp.stop();
+        }
+    }
+
+    /**
+     * Bulk posting books as a JSON array, in chunks smaller than the array, should report every row.
+     */
+    @Test
+    public void postBooksBulk_jsonArrayTest() throws Exception {
+        String json = "[{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":1},"
+                + "{\"isbn\":100,\"author_id\":1,\"title\":\"ficciones\",\"copies_available\":2},"
+                + "{\"isbn\":109,\"author_id\":2,\"title\":\"t zero\",\"copies_available\":0}]";
+        HttpResponse<String> response = post("/books/bulk?chunkSize=2", json);
+        Assert.assertEquals(200, response.statusCode());
+        BulkImportReport report = mapper.readValue(response.body(), BulkImportReport.class);
+        Assert.assertEquals(2, report.getInserted());
+        Assert.assertEquals(1, report.getDuplicates());
+        Assert.assertEquals(3, report.getRows().size());
+        Assert.assertEquals(BulkImportReport.DUPLICATE, report.getRows().get(1).getStatus());
+        Assert.assertEquals(109, report.getRows().get(2).getKey());
+        List<Book> books = mapper.readValue(get("/books").body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(10, books.size());
+    }
+
+    /**
+     * Bulk posting authors as newline-delimited JSON should insert each line.
+     */
+    @Test
+    public void postAuthorsBulk_ndjsonTest() throws Exception {
+        HttpResponse<String> response = post("/authors/bulk", "{\"name\":\"james joyce\"}\n{\"name\":\"leo tolstoy\"}\n");
+        BulkImportReport report = mapper.readValue(response.body(), BulkImportReport.class);
+        Assert.assertEquals(2, report.getInserted());
+        Assert.assertEquals(7, report.getRows().get(1).getKey());
+    }
+
+    /**
+     * A malformed bulk body should be rejected, keeping the rows that were read before the problem.
+     */
+    @Test
+    public void postBooksBulk_malformedTest() throws Exception {
+        String json = "[{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":1}, {\"isbn\":";
+        HttpResponse<String> response = post("/books/bulk", json);
+        Assert.assertEquals(400, response.statusCode());
+        BulkImportReport report = mapper.readValue(response.body(), BulkImportReport.class);
+        Assert.assertEquals(1, report.getInserted());
+        Assert.assertNotNull(report.getError());
+    }
+
+    /**
+     * Requests and the queries they run should be counted on the metrics endpoint.
+     */
+    @Test
+    public void getMetrics_test() throws Exception {
+        get("/books?limit=2");
+        get("/books?after=abc");
+        HttpResponse<String> response = get("/metrics");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElseThrow().startsWith("text/plain"));
+        String text = response.body();
+        Assert.assertTrue(text.contains("library_http_requests_total{method=\"GET\",route=\"/books\",status=\"2xx\"}"));
+        Assert.assertTrue(text.contains("library_http_requests_total{method=\"GET\",route=\"/books\",status=\"4xx\"}"));
+        Assert.assertTrue(text.contains("library_db_query_rows_total{dao=\"BookDAO\",method=\"forEachBookAfterIsbn\"}"));
+        Assert.assertTrue(text.contains("library_cache_requests_total{cache=\"books\",result=\"hit\"}"));
+    }
+
+    /**
+     * In virtual thread mode, handlers should run on virtual threads where the JVM supports them, and concurrent
+     * requests beyond the connection pool size should all be served.
+     */
+    @Test
+    public void virtualThreads_test() throws Exception {
+        Javalin virtualApp = new LibraryController().createApp(true);
+        virtualApp.get("/thread", ctx -> ctx.result(String.valueOf(VirtualThreads.isVirtualThread())));
+        virtualApp.start(0);
+        try {
+            String base = "http://localhost:" + virtualApp.port();
+            HttpResponse<String> thread = client.send(HttpRequest.newBuilder(URI.create(base + "/thread")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(String.valueOf(VirtualThreads.areSupported()), thread.body());
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                responses.add(client.sendAsync(HttpRequest.newBuilder(URI.create(base + "/books?limit=3")).build(),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            for (CompletableFuture<HttpResponse<String>> response : responses) {
+                Assert.assertEquals(200, response.get().statusCode());
+            }
+        } finally {
+            virtualApp.stop();
+        }
+    }
+
+    /**
+     * Available books should be served from the index, and follow the books posted after it was loaded.
+     */
+    @Test
+    public void getAvailableBooks_test() throws Exception {
+        List<Book> books = mapper.readValue(get("/books/available").body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(5, books.size());
+        post("/books", "{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":1}");
+        post("/books", "{\"isbn\":109,\"author_id\":2,\"title\":\"t zero\",\"copies_available\":0}");
+        books = mapper.readValue(get("/books/available").body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(6, books.size());
+        Assert.assertTrue(books.contains(new Book(108, 1, "cosmicomics", 1)));
+    }
+
+    /**
+     * Checking out and returning copies should answer from the counters and reach the database shortly after.
+     */
+    @Test
+    public void postCheckoutAndReturn_test() throws Exception {
+        HttpResponse<String> response = post("/books/106/checkout", "");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("{\"isbn\":106,\"copies_available\":0}", response.body());
+        Assert.assertEquals(409, post("/books/106/checkout", "").statusCode());
+        Assert.assertEquals(404, post("/books/999/checkout", "").statusCode());
+        Assert.assertEquals(400, post("/books/abc/checkout", "").statusCode());
+        List<Book> available = mapper.readValue(get("/books/available").body(), new TypeReference<List<Book>>(){});
+        Assert.assertFalse(available.stream().anyMatch(book -> book.getIsbn() == 106));
+        Assert.assertEquals("{\"isbn\":101,\"copies_available\":1}", post("/books/101/return", "").body());
+        BookDAO bookDAO = new BookDAO();
+        for (int i = 0; i < 200 && bookDAO.getBookByIsbn(101).getCopies_available() != 1; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, bookDAO.getBookByIsbn(101).getCopies_available());
+        Assert.assertEquals(0, bookDAO.getBookByIsbn(106).getCopies_available());
+    }
+
+    /**
+     * Searching titles should return a ranked page of books, with the total and the offset of the next page.
+     */
+    @Test
+    public void getSearchBooks_test() throws Exception {
+        post("/books", "{\"isbn\":108,\"author_id\":1,\"title\":\"the book of imaginary beings\",\"copies_available\":1}");
+        HttpResponse<String> response = get("/books/search?q=Book+OF&limit=1");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("2", response.headers().firstValue("X-Total-Count").orElseThrow());
+        Assert.assertEquals("1", response.headers().firstValue("X-Next-Offset").orElseThrow());
+        List<Book> books = mapper.readValue(response.body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(List.of(new Book(101, 1, "book of sand", 0)), books);
+        books = mapper.readValue(get("/books/search?q=book+of&offset=1").body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(108, books.get(0).getIsbn());
+        Assert.assertEquals("[]", get("/books/search?q=zzz").body());
+        Assert.assertEquals(400, get("/books/search").statusCode());
+    }
+
+    /**
+     * Authors should be served with their books with one query, however many authors there are.
+     */
+    @Test
+    public void getAuthorsWithBooks_test() throws Exception {
+        long before = Metrics.getQueryCount();
+        List<AuthorWithBooks> authors = mapper.readValue(get("/authors?include=books").body(),
+                new TypeReference<List<AuthorWithBooks>>(){});
+        Assert.assertEquals(1, Metrics.getQueryCount() - before);
+        Assert.assertEquals(5, authors.size());
+        Assert.assertEquals(List.of(new Book(106, 4, "understanding media", 1)), authors.get(3).getBooks());
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            ndjson.append("{\"name\":\"author ").append(i).append("\"}\n");
+        }
+        post("/authors/bulk", ndjson.toString());
+        before = Metrics.getQueryCount();
+        authors = mapper.readValue(get("/authors?include=books").body(), new TypeReference<List<AuthorWithBooks>>(){});
+        Assert.assertEquals(1, Metrics.getQueryCount() - before);
+        Assert.assertEquals(105, authors.size());
+        HttpResponse<String> page = get("/authors?include=books&after=1&limit=2");
+        Assert.assertEquals("3", page.headers().firstValue("X-Next-After").orElseThrow());
+        Assert.assertEquals(2, mapper.readValue(page.body(), new TypeReference<List<AuthorWithBooks>>(){}).size());
+        Assert.assertEquals(105, mapper.readValue(get("/authors?include=books&stream=true").body(),
+                new TypeReference<List<AuthorWithBooks>>(){}).size());
+        Assert.assertEquals(400, get("/authors?include=everything").statusCode());
+    }
+
+    /**
+     * The books of an author should be served in isbn order, with a 404 message for an unknown author.
+     */
+    @Test
+    public void getAuthorBooks_test() throws Exception {
+        List<Book> books = mapper.readValue(get("/authors/2/books").body(), new TypeReference<List<Book>>(){});
+        Assert.assertEquals(List.of(new Book(102, 2, "mr palomar", 1), new Book(103, 2, "invisible cities", 3)), books);
+        Assert.assertEquals(404, get("/authors/99/books").statusCode());
+        Assert.assertEquals(400, get("/authors/abc/books").statusCode());
+    }
+
+    public HttpResponse<byte[]> getBytes(String path, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + path));
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * A client that has the current version of a list should get 304 without a query, until the catalog changes.
+     */
+    @Test
+    public void getBooks_notModifiedTest() throws Exception {
+        HttpResponse<byte[]> first = getBytes("/authors?include=books", "Accept", "application/json");
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        long before = Metrics.getQueryCount();
+        HttpResponse<byte[]> again = getBytes("/authors?include=books", "If-None-Match", etag);
+        Assert.assertEquals(304, again.statusCode());
+        Assert.assertEquals(0, again.body().length);
+        Assert.assertEquals(200, getBytes("/authors?include=books", "If-None-Match", "\"other\"").statusCode());
+        Assert.assertEquals(0, Metrics.getQueryCount() - before);
+        Assert.assertEquals(304, getBytes("/books/available", "If-None-Match", etag).statusCode());
+        post("/books", "{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":1}");
+        HttpResponse<byte[]> changed = getBytes("/authors?include=books", "If-None-Match", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+        Assert.assertTrue(new String(changed.body(), "UTF-8").contains("cosmicomics"));
+    }
+
+    /**
+     * A client that accepts gzip should get the same list gzipped, under an ETag of its own.
+     */
+    @Test
+    public void getBooks_gzipTest() throws Exception {
+        HttpResponse<byte[]> plain = getBytes("/books");
+        HttpResponse<byte[]> gzipped = getBytes("/books", "Accept-Encoding", "gzip, deflate");
+        Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElseThrow());
+        Assert.assertArrayEquals(plain.body(),
+                new GZIPInputStream(new ByteArrayInputStream(gzipped.body())).readAllBytes());
+        String etag = gzipped.headers().firstValue("ETag").orElseThrow();
+        Assert.assertNotEquals(plain.headers().firstValue("ETag").orElseThrow(), etag);
+        Assert.assertEquals(304, getBytes("/books", "Accept-Encoding", "gzip", "If-None-Match", etag).statusCode());
+        Assert.assertArrayEquals(gzipped.body(), getBytes("/books", "Accept-Encoding", "gzip").body());
+    }
+
+    /**
+     * The summary should count the seeded catalog, and name the authors with the most books, most books first.
+     */
+    @Test
+    public void getCatalogSummary_test() throws Exception {
+        HttpResponse<String> response = get("/catalog/summary?top=2");
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode summary = mapper.readTree(response.body());
+        Assert.assertEquals(5, summary.get("authors").asInt());
+        Assert.assertEquals(8, summary.get("books").asInt());
+        Assert.assertEquals(5, summary.get("availableBooks").asInt());
+        Assert.assertEquals(14, summary.get("copiesAvailable").asInt());
+        JsonNode top = summary.get("topAuthors");
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals(1, top.get(0).get("id").asInt());
+        Assert.assertEquals("jorge luis borges", top.get(0).get("name").asText());
+        Assert.assertEquals(2, top.get(0).get("books").asInt());
+        Assert.assertEquals(2, top.get(1).get("id").asInt());
+        Assert.assertEquals(400, get("/catalog/summary?top=-1").statusCode());
+    }
+
+    /**
+     * A summary whose queries can not read the database should fail with a 503 message, without an ETag that a later
+     * request could be answered 304 with.
+     */
+    @Test
+    public void getCatalogSummary_failureTest() throws Exception {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE author RENAME TO author_down");
+        }
+        try {
+            HttpResponse<String> response = get("/catalog/summary");
+            Assert.assertEquals(503, response.statusCode());
+            Assert.assertTrue(response.headers().firstValue("Retry-After").isPresent());
+            Assert.assertFalse(response.headers().firstValue("ETag").isPresent());
+        } finally {
+            try (Connection connection = ConnectionUtil.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate("ALTER TABLE author_down RENAME TO author");
+            }
+        }
+        Assert.assertEquals(200, get("/catalog/summary").statusCode());
+    }
+
+    /**
+     * Posted books and authors should show up in GET /changes after the sequence number read before them, and a
+     * since after the last change should be gone.
+     */
+    @Test
+    public void getChanges_test() throws Exception {
+        long since = ChangeLog.CATALOG.getLatest();
+        post("/books", "{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":1}");
+        post("/authors", "{\"name\":\"james joyce\"}");
+        HttpResponse<String> response = get("/changes?since=" + since);
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode changes = mapper.readTree(response.body());
+        Assert.assertEquals(2, changes.size());
+        Assert.assertEquals(since + 1, changes.get(0).get("seq").asLong());
+        Assert.assertEquals("book", changes.get(0).get("type").asText());
+        Assert.assertEquals(108, changes.get(0).get("data").get("isbn").asInt());
+        Assert.assertEquals("james joyce", changes.get(1).get("data").get("name").asText());
+        Assert.assertEquals(String.valueOf(since + 2), response.headers().firstValue("X-Next-Since").orElseThrow());
+        HttpResponse<String> first = get("/changes?limit=1&since=" + since);
+        Assert.assertEquals(1, mapper.readTree(first.body()).size());
+        Assert.assertEquals(String.valueOf(since + 1), first.headers().firstValue("X-Next-Since").orElseThrow());
+        Assert.assertEquals(410, get("/changes?since=" + (since + 3)).statusCode());
+        Assert.assertEquals(400, get("/changes").statusCode());
+    }
+
+    /**
+     * The change stream should replay the changes after since, then send each new change as an event.
+     */
+    @Test
+    public void streamChanges_test() throws Exception {
+        post("/authors", "{\"name\":\"james joyce\"}");
+        long since = ChangeLog.CATALOG.getLatest() - 1;
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + app.port() + "/changes/stream?since=" + since))
+                .header("Accept", "text/event-stream").build();
+        HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+        Assert.assertEquals(200, response.statusCode());
+        Iterator<String> lines = response.body().iterator();
+        List<String> event = nextEvent(lines);
+        Assert.assertTrue(event.contains("event: author"));
+        Assert.assertTrue(event.contains("id: " + (since + 1)));
+        Assert.assertTrue(String.join("\n", event).contains("\"name\":\"james joyce\""));
+        post("/books", "{\"isbn\":108,\"author_id\":1,\"title\":\"cosmicomics\",\"copies_available\":1}");
+        event = nextEvent(lines);
+        Assert.assertTrue(event.contains("event: book"));
+        Assert.assertTrue(event.contains("id: " + (since + 2)));
+        Assert.assertTrue(String.join("\n", event).contains("\"isbn\":108"));
+        response.body().close();
+    }
+
+    /**
+     * @return the lines of the next server-sent event, up to the blank line that ends it.
+     */
+    private static List<String> nextEvent(Iterator<String> lines) {
+        List<String> event = new ArrayList<>();
+        while (event.isEmpty() || !event.get(event.size() - 1).isEmpty()) {
+            String line = lines.next();
+            if (!line.startsWith(":") && !(event.isEmpty() && line.isEmpty())) {
+                event.add(line);
+            }
+        }
+        return event;
+    }
+}
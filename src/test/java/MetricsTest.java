@@ -0,0 +1,60 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Application.Util.LatencyHistogram;
+import Application.Util.Metrics;
+
+public class MetricsTest {
+
+    /**
+     * Percentiles should be reported to within the 12.5% precision of the buckets, never below the true value.
+     */
+    @Test
+    public void histogram_percentileTest(){
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500500000L, histogram.getSum());
+        long p50 = histogram.getPercentile(0.5);
+        long p99 = histogram.getPercentile(0.99);
+        Assert.assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125);
+        Assert.assertTrue(p99 >= 990000 && p99 <= 990000 * 1.125);
+        Assert.assertTrue(histogram.getPercentile(0.999) >= p99);
+    }
+
+    /**
+     * Small, huge and negative values should all land in a bucket.
+     */
+    @Test
+    public void histogram_extremesTest(){
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(0.99));
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(0, histogram.getPercentile(0.1));
+        Assert.assertEquals(3, histogram.getPercentile(0.5));
+        Assert.assertEquals(Long.MAX_VALUE, histogram.getPercentile(1.0));
+    }
+
+    /**
+     * A recorded route should show up in the Prometheus output with its status class and quantiles.
+     */
+    @Test
+    public void metrics_prometheusTest(){
+        Metrics.Route route = Metrics.route("GET", "/metricstest");
+        route.end(route.start(), 404);
+        Assert.assertEquals(0, route.getInFlight());
+        StringBuilder out = new StringBuilder();
+        Metrics.writePrometheus(out);
+        String text = out.toString();
+        Assert.assertTrue(text.contains("# TYPE library_http_requests_total counter\n"));
+        Assert.assertTrue(text.contains(
+                "library_http_requests_total{method=\"GET\",route=\"/metricstest\",status=\"4xx\"} 1\n"));
+        Assert.assertTrue(text.contains(
+                "library_http_request_duration_seconds{method=\"GET\",route=\"/metricstest\",quantile=\"0.999\"}"));
+        Assert.assertTrue(text.contains("library_pool_connections{state=\"max\"}"));
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Application.Service.QueryExecutor;
+import Application.Util.RoutingDataSource;
+
+public class QueryExecutorTest {
+    /**
+     * Calls should run at the same time, on threads that see the writes of the thread that submitted them.
+     */
+    @Test
+    public void queryExecutor_concurrentTest() throws Exception {
+        QueryExecutor executor = new QueryExecutor(2, 5000);
+        CountDownLatch both = new CountDownLatch(2);
+        RoutingDataSource.resetReadAfter();
+        RoutingDataSource.readAfter(42);
+        try {
+            CompletableFuture<Long> first = executor.submit(() -> {
+                both.countDown();
+                await(both);
+                return RoutingDataSource.getReadAfter();
+            });
+            CompletableFuture<Long> second = executor.submit(() -> {
+                both.countDown();
+                await(both);
+                return RoutingDataSource.getReadAfter();
+            });
+            QueryExecutor.allOf(first, second).join();
+            Assert.assertEquals(Long.valueOf(42), first.get());
+            Assert.assertEquals(Long.valueOf(42), second.get());
+            assertCount(2, executor::getCompleted);
+        } finally {
+            RoutingDataSource.resetReadAfter();
+        }
+    }
+
+    /**
+     * A call should fail with a TimeoutException once its deadline has passed, and a call that was still waiting for
+     * a thread then should never run.
+     */
+    @Test
+    public void queryExecutor_deadlineTest() throws Exception {
+        QueryExecutor executor = new QueryExecutor(1, 5000);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slow = executor.submit(() -> {
+            await(release);
+            return "slow";
+        }, 50);
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<String> queued = executor.submit(() -> {
+            ran.set(true);
+            return "queued";
+        }, 50);
+        try {
+            slow.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        try {
+            queued.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        release.countDown();
+        Assert.assertEquals("after", executor.submit(() -> "after").get());
+        Assert.assertFalse(ran.get());
+        assertCount(2, executor::getTimeouts);
+    }
+
+    /**
+     * allOf should fail as soon as one call fails, and cancel the calls that have not completed.
+     */
+    @Test
+    public void queryExecutor_allOfFailsFastTest() throws Exception {
+        QueryExecutor executor = new QueryExecutor(2, 5000);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slow = executor.submit(() -> {
+            await(release);
+            return "slow";
+        });
+        CompletableFuture<String> failing = executor.submit(() -> {
+            throw new IllegalStateException("no database");
+        });
+        try {
+            QueryExecutor.allOf(slow, failing).join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(slow.isCancelled());
+        release.countDown();
+        try {
+            slow.join();
+            Assert.fail();
+        } catch (CancellationException e) {
+            // the result of the slow call is dropped
+        }
+        assertCount(1, executor::getFailed);
+        assertCount(1, executor::getCancelled);
+    }
+
+    /**
+     * A call is counted once it has completed, on the thread that completed it, which may be after the caller has
+     * seen the result, so wait a while for the count.
+     */
+    private static void assertCount(long expected, LongSupplier count) throws InterruptedException {
+        for (int i = 0; i < 500 && count.getAsLong() != expected; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, count.getAsLong());
+    }
+
+    private static void await(CountDownLatch latch){
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import Application.Model.Change;
+import Application.Service.ChangeLog;
+import Application.Service.ReplicaFeeder;
+import Application.Util.AbstractDataSource;
+import Application.Util.ConnectionPool;
+import Application.Util.RoutingDataSource;
+import Application.Util.SchemaMigrator;
+
+public class ReplicationTest {
+    public ConnectionPool primary;
+    public ConnectionPool replicaPool;
+    public AtomicBoolean replicaDown;
+    public RoutingDataSource.Replica replica;
+    public RoutingDataSource routing;
+    public ChangeLog log;
+
+    /**
+     * Before every test, create a primary with two books, and an empty replica behind a DataSource that can be made
+     * to fail.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        primary = new ConnectionPool("jdbc:h2:mem:primarytest;DB_CLOSE_DELAY=-1", "sa", "sa", 1, 4, 1000, 0, false);
+        replicaPool = new ConnectionPool("jdbc:h2:mem:replicatest;DB_CLOSE_DELAY=-1", "sa", "sa", 1, 4, 1000, 0,
+                false);
+        try (Connection connection = primary.getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP ALL OBJECTS");
+            SchemaMigrator.migrate(connection);
+            statement.executeUpdate("INSERT INTO author (name) VALUES ('jorge luis borges')");
+            statement.executeUpdate("INSERT INTO book VALUES (100, 1, 'ficciones', 2), (101, 1, 'book of sand', 0)");
+        }
+        try (Connection connection = replicaPool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP ALL OBJECTS");
+        }
+        replicaDown = new AtomicBoolean();
+        replica = new RoutingDataSource.Replica("replica", new AbstractDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                if (replicaDown.get()) {
+                    throw new SQLException("replica is down");
+                }
+                return replicaPool.getConnection();
+            }
+        });
+        routing = new RoutingDataSource(primary, List.of(replica), 100);
+        log = new ChangeLog(16);
+        RoutingDataSource.resetReadAfter();
+    }
+
+    @After
+    public void tearDown(){
+        RoutingDataSource.resetReadAfter();
+        primary.shutdown();
+        replicaPool.shutdown();
+    }
+
+    /**
+     * A replica should be copied from the primary, then follow the change log, and take the reads once it is ready.
+     */
+    @Test
+    public void replica_copyAndApplyTest() throws Exception {
+        BookDAO bookDAO = new BookDAO(routing);
+        Assert.assertEquals(2, bookDAO.getAllBooks().size());
+        Assert.assertEquals(1, routing.getPrimaryReads());
+        new ReplicaFeeder(log, primary, replica, 100).start();
+        awaitApplied(0);
+        Book book = new Book(102, 1, "the aleph", 1);
+        Assert.assertNotNull(bookDAO.insertBook(book));
+        long seq = log.append(Change.BOOK, book);
+        awaitApplied(seq);
+        Assert.assertEquals(book, new BookDAO(replicaPool).getBookByIsbn(102));
+        Assert.assertEquals(3, bookDAO.getAllBooks().size());
+        Assert.assertEquals(1, routing.getReplicaReads());
+    }
+
+    /**
+     * A change logged out of the order of the writes should still leave the replica with the row as written last.
+     */
+    @Test
+    public void replica_changeOutOfOrderTest() throws Exception {
+        new ReplicaFeeder(log, primary, replica, 100).start();
+        awaitApplied(0);
+        BookDAO bookDAO = new BookDAO(primary);
+        Assert.assertEquals(0, bookDAO.updateCopiesAvailable(new int[]{100}, new int[]{5}).length);
+        Book written = bookDAO.getBookByIsbn(100);
+        log.append(Change.BOOK, written);
+        long seq = log.append(Change.BOOK, new Book(100, written.getAuthor_id(), written.getTitle(), 0));
+        awaitApplied(seq);
+        Assert.assertEquals(written, new BookDAO(replicaPool).getBookByIsbn(100));
+    }
+
+    /**
+     * A thread that must read a change the replica has not applied yet should read from the primary.
+     */
+    @Test
+    public void replica_readYourWritesTest() throws Exception {
+        new ReplicaFeeder(log, primary, replica, 100).start();
+        awaitApplied(0);
+        BookDAO bookDAO = new BookDAO(routing);
+        RoutingDataSource.readAfter(1);
+        Assert.assertEquals(2, bookDAO.getAllBooks().size());
+        Assert.assertEquals(1, routing.getPrimaryReads());
+        Assert.assertEquals(0, routing.getReplicaReads());
+        RoutingDataSource.resetReadAfter();
+        bookDAO.getAllBooks();
+        Assert.assertEquals(1, routing.getReplicaReads());
+    }
+
+    /**
+     * Reads should fail over to the primary while the replica fails, and the replica should be copied again and take
+     * reads once it is back.
+     */
+    @Test
+    public void replica_failoverTest() throws Exception {
+        ReplicaFeeder feeder = new ReplicaFeeder(log, primary, replica, 100);
+        feeder.start();
+        awaitApplied(0);
+        BookDAO bookDAO = new BookDAO(routing);
+        replicaDown.set(true);
+        Assert.assertEquals(2, bookDAO.getAllBooks().size());
+        Assert.assertEquals(1, routing.getPrimaryReads());
+        log.append(Change.BOOK, new Book(100, 1, "ficciones", 1));
+        for (int i = 0; i < 500 && replica.getApplied() >= 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(-1, replica.getApplied());
+        Assert.assertEquals(2, bookDAO.getAllBooks().size());
+        Assert.assertEquals(2, routing.getPrimaryReads());
+        replicaDown.set(false);
+        awaitApplied(1);
+        Assert.assertEquals(2, feeder.getCopies());
+        bookDAO.getAllBooks();
+        Assert.assertEquals(1, routing.getReplicaReads());
+    }
+
+    private void awaitApplied(long seq) throws InterruptedException {
+        for (int i = 0; i < 500 && replica.getApplied() < seq; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("replica applied " + replica.getApplied(), replica.getApplied() >= seq);
+    }
+}
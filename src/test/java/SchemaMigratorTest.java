@@ -0,0 +1,153 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.Application;
+import Application.DAO.BookDAO;
+import Application.Model.Book;
+import Application.Util.ConnectionUtil;
+import Application.Util.SchemaMigrator;
+
+public class SchemaMigratorTest {
+
+    /**
+     * Before every test, reset the database.
+     */
+    @Before
+    public void setUp(){
+        Application.databaseSetup();
+    }
+
+    public String explain(String sql, int parameter) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + sql)) {
+            preparedStatement.setInt(1, parameter);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * The setup should leave the database at the latest version, and migrating it again should do nothing.
+     */
+    @Test
+    public void migrate_upToDateTest() throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            Assert.assertEquals(SchemaMigrator.latestVersion(), SchemaMigrator.currentVersion(connection));
+            Assert.assertEquals(0, SchemaMigrator.migrate(connection));
+        }
+    }
+
+    /**
+     * copies_available should be an integer column.
+     */
+    @Test
+    public void migrate_copiesAvailableIsIntTest() throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     "SELECT data_type FROM information_schema.columns " +
+                             "WHERE table_name = 'BOOK' AND column_name = 'COPIES_AVAILABLE'");
+             ResultSet rs = preparedStatement.executeQuery()) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals("INTEGER", rs.getString(1));
+        }
+    }
+
+    /**
+     * The query behind /books/available should read the availability index rather than scan the table.
+     */
+    @Test
+    public void explain_availableBooksUsesIndexTest() throws SQLException {
+        String plan = explain("SELECT * FROM Book WHERE copies_available > ?", 0);
+        Assert.assertFalse(plan, plan.contains("tableScan"));
+        Assert.assertTrue(plan, plan.contains("BOOK_AVAILABLE_IDX"));
+    }
+
+    /**
+     * The books of an author should be found through the index H2 keeps on the author_id foreign key.
+     */
+    @Test
+    public void explain_booksByAuthorUsesIndexTest() throws SQLException {
+        String plan = explain("SELECT * FROM book WHERE author_id=? ORDER BY isbn", 1);
+        Assert.assertFalse(plan, plan.contains("tableScan"));
+        Assert.assertTrue(plan, plan.contains("_INDEX_") && plan.contains(": AUTHOR_ID = ?1 */"));
+    }
+
+    public void execute(String... statements) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+        }
+    }
+
+    public int count(String table) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement("SELECT count(*) FROM " + table);
+             ResultSet rs = preparedStatement.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Starting up against an up to date database should keep its data and not seed it again.
+     */
+    @Test
+    public void startup_keepsDataTest() throws SQLException {
+        new BookDAO().insertBook(new Book(108, 1, "cosmicomics", 1));
+        String report = Application.startup(true);
+        Assert.assertTrue(report, report.contains("(0 migrations applied)"));
+        Assert.assertFalse(report, report.contains("sample data"));
+        Assert.assertEquals(9, count("book"));
+        Assert.assertEquals(5, count("author"));
+    }
+
+    /**
+     * Starting up against an empty database should create the schema, and seed it only when asked to.
+     */
+    @Test
+    public void startup_seedsOnlyWhenAskedTest() throws SQLException {
+        execute("drop table book", "drop table author", "drop table schema_version");
+        Application.startup(false);
+        Assert.assertEquals(0, count("author"));
+        String report = Application.startup(true);
+        Assert.assertTrue(report, report.contains("sample data loaded"));
+        Assert.assertEquals(8, count("book"));
+    }
+
+    /**
+     * A database created before there were migrations should be migrated in place, keeping its rows.
+     */
+    @Test
+    public void startup_migratesLegacySchemaTest() throws SQLException {
+        execute("drop table book", "drop table author", "drop table schema_version",
+                "create table author(id int primary key auto_increment, name varchar(255))",
+                "create table book(isbn int primary key, author_id int, title varchar(255), " +
+                        "copies_available varchar(255), foreign key (author_id) references author(id))",
+                "insert into author (name) values ('jorge luis borges')",
+                "insert into book values (100, 1, 'ficciones', '2')");
+        String report = Application.startup(true);
+        Assert.assertTrue(report, report.contains("schema version " + SchemaMigrator.latestVersion()));
+        Assert.assertEquals(1, count("book"));
+        Assert.assertEquals(2, new BookDAO().getBookByIsbn(100).getCopies_available());
+    }
+
+    /**
+     * A database missing a column the DAOs use should be rejected at startup.
+     */
+    @Test(expected = SQLException.class)
+    public void validate_rejectsMissingColumnTest() throws SQLException {
+        execute("alter table book drop column title");
+        Application.startup(false);
+    }
+}
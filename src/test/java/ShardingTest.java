@@ -0,0 +1,254 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.DAO.BookDAO;
+import Application.DAO.ShardedAuthorDAO;
+import Application.DAO.ShardedBookDAO;
+import Application.Model.Author;
+import Application.Model.AuthorWithBooks;
+import Application.Model.Book;
+import Application.Model.BulkImportReport;
+import Application.Service.CopyCounters;
+import Application.Util.ConnectionPool;
+import Application.Util.SchemaMigrator;
+
+public class ShardingTest {
+    public List<ConnectionPool> pools;
+    public ShardedAuthorDAO authorDAO;
+    public ShardedBookDAO bookDAO;
+
+    /**
+     * Before every test, create three empty shards and two authors, and insert 100 books over the shards.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        pools = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:shardtest" + i + ";DB_CLOSE_DELAY=-1", "sa", "sa",
+                    1, 4, 1000, 0, false);
+            try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DROP ALL OBJECTS");
+                SchemaMigrator.migrate(connection);
+            }
+            pools.add(pool);
+        }
+        List<DataSource> shards = new ArrayList<>(pools);
+        authorDAO = new ShardedAuthorDAO(shards);
+        bookDAO = new ShardedBookDAO(shards);
+        authorDAO.insertAuthors(List.of(new Author("jorge luis borges"), new Author("italo calvino")));
+        List<Book> books = new ArrayList<>();
+        for (int isbn = 100; isbn < 200; isbn++) {
+            books.add(new Book(isbn, 1 + isbn % 2, "title " + isbn, isbn % 3));
+        }
+        String[] statuses = bookDAO.insertBooks(books);
+        for (String status : statuses) {
+            Assert.assertEquals(BulkImportReport.INSERTED, status);
+        }
+    }
+
+    @After
+    public void tearDown(){
+        for (ConnectionPool pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Every book should be on the shard of its isbn alone, and every shard should hold some of them.
+     */
+    @Test
+    public void shard_partitionTest(){
+        int total = 0;
+        for (int shard = 0; shard < pools.size(); shard++) {
+            List<Book> books = new BookDAO(pools.get(shard)).getAllBooks();
+            Assert.assertFalse(books.isEmpty());
+            for (Book book : books) {
+                Assert.assertEquals(shard, ShardedBookDAO.shardOf(book.getIsbn(), pools.size()));
+            }
+            total += books.size();
+        }
+        Assert.assertEquals(100, total);
+        Assert.assertEquals(new Book(150, 1, "title 150", 0), bookDAO.getBookByIsbn(150));
+        Assert.assertNull(bookDAO.insertBook(new Book(150, 1, "duplicate", 1)));
+    }
+
+    /**
+     * The scans should merge the books of every shard: the pages and the books of an author in isbn order.
+     */
+    @Test
+    public void shard_scanTest(){
+        Set<Integer> isbns = new HashSet<>();
+        for (Book book : bookDAO.getAllBooks()) {
+            Assert.assertTrue(isbns.add(book.getIsbn()));
+        }
+        Assert.assertEquals(100, isbns.size());
+        for (Book book : bookDAO.getBooksWithBookCountOverZero()) {
+            Assert.assertTrue(book.getCopies_available() > 0);
+        }
+        Assert.assertEquals(67, bookDAO.getBooksWithBookCountOverZero().size());
+        List<Book> page = bookDAO.getBooksAfterIsbn(120, 10);
+        Assert.assertEquals(10, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            Assert.assertEquals(121 + i, page.get(i).getIsbn());
+        }
+        List<Book> byAuthor = bookDAO.getBooksByAuthorId(2);
+        Assert.assertEquals(50, byAuthor.size());
+        for (int i = 0; i < byAuthor.size(); i++) {
+            Assert.assertEquals(101 + 2 * i, byAuthor.get(i).getIsbn());
+        }
+    }
+
+    /**
+     * The projections should hand on the isbns, and the copies of the available books, of every shard.
+     */
+    @Test
+    public void shard_projectionTest(){
+        Set<Integer> isbns = new HashSet<>();
+        Assert.assertEquals(100, bookDAO.forEachIsbn(isbn -> Assert.assertTrue(isbns.add(isbn))));
+        Assert.assertEquals(100, isbns.size());
+        Assert.assertTrue(isbns.contains(100) && isbns.contains(199));
+        int[] copies = new int[200];
+        Assert.assertEquals(67, bookDAO.forEachAvailableCopies((isbn, available) -> copies[isbn] = available));
+        for (int isbn = 100; isbn < 200; isbn++) {
+            Assert.assertEquals(isbn % 3, copies[isbn]);
+        }
+        int onShards = 0;
+        for (ConnectionPool pool : pools) {
+            onShards += new BookDAO(pool).forEachIsbn(isbn -> { });
+        }
+        Assert.assertEquals(100, onShards);
+    }
+
+    /**
+     * The authors should be on every shard, and read with their books from all of them.
+     */
+    @Test
+    public void shard_authorsTest(){
+        Author author = authorDAO.insertAuthor(new Author("thomas pynchon"));
+        for (ConnectionPool pool : pools) {
+            Assert.assertEquals(author, new Application.DAO.AuthorDAO(pool).getAuthorById(author.getId()));
+        }
+        AuthorWithBooks borges = authorDAO.getAuthorWithBooks(1);
+        Assert.assertEquals(50, borges.getBooks().size());
+        Assert.assertEquals(100, borges.getBooks().get(0).getIsbn());
+        Assert.assertEquals(198, borges.getBooks().get(49).getIsbn());
+        List<AuthorWithBooks> authors = new ArrayList<>();
+        Assert.assertEquals(2, authorDAO.forEachAuthorWithBooks(null, 2, authors::add));
+        Assert.assertEquals(2, authors.size());
+        Assert.assertEquals(borges, authors.get(0));
+        Assert.assertEquals(50, authors.get(1).getBooks().size());
+    }
+
+    /**
+     * A scan that can not read one of the shards should fail rather than hand on the books of the others, and an
+     * author that can not be copied to every shard should not be inserted.
+     */
+    @Test
+    public void shard_failureTest() throws SQLException {
+        try (Connection connection = pools.get(2).getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE book");
+            statement.executeUpdate("DROP TABLE author");
+        }
+        Assert.assertEquals(-1, bookDAO.forEachIsbn(isbn -> { }));
+        Assert.assertEquals(-1, bookDAO.forEachAvailableCopies((isbn, copies) -> { }));
+        Assert.assertEquals(-1, bookDAO.forEachBookAfterIsbn(null, 10, book -> { }));
+        Assert.assertEquals(-1, authorDAO.forEachAuthorWithBooks(null, 2, author -> { }));
+        try {
+            bookDAO.getAllBooks();
+            Assert.fail("the books of the failed shard should have been missed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertNull(authorDAO.insertAuthor(new Author("thomas pynchon")));
+        Assert.assertEquals(2, new Application.DAO.AuthorDAO(pools.get(0)).getAllAuthors().size());
+        Assert.assertEquals(2, new Application.DAO.AuthorDAO(pools.get(1)).getAllAuthors().size());
+    }
+
+    /**
+     * Checkouts and returns of books on different shards should be written to each of them.
+     */
+    @Test
+    public void shard_updateCopiesAvailableTest(){
+        int[] failed = bookDAO.updateCopiesAvailable(new int[]{100, 101, 102, 103}, new int[]{1, 2, 3, 4});
+        Assert.assertEquals(0, failed.length);
+        Assert.assertEquals(2, bookDAO.getBookByIsbn(100).getCopies_available());
+        Assert.assertEquals(4, bookDAO.getBookByIsbn(101).getCopies_available());
+        Assert.assertEquals(3, bookDAO.getBookByIsbn(102).getCopies_available());
+        Assert.assertEquals(5, bookDAO.getBookByIsbn(103).getCopies_available());
+    }
+
+    /**
+     * The checkouts of the books on a shard that is down during a flush should be written once it is back, and those
+     * of the other shards at once, and only once.
+     */
+    @Test
+    public void shard_flushWithShardDownTest() throws SQLException {
+        CopyCounters counters = new CopyCounters(bookDAO::getBookByIsbn, bookDAO::updateCopiesAvailable,
+                book -> { }, 3600000);
+        // on shards 0, 1, 0, 1, 2 and 2, with two copies each, so that no checkout takes a last copy and writes at once
+        int[] isbns = {101, 104, 128, 107, 116, 122};
+        for (int isbn : isbns) {
+            Assert.assertEquals(isbn % 3 - 1, counters.checkout(isbn));
+        }
+        try (Connection connection = pools.get(2).getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE book RENAME TO book_down");
+        }
+        Assert.assertEquals(-1, counters.flush());
+        for (int shard = 0; shard < 2; shard++) {
+            BookDAO onShard = new BookDAO(pools.get(shard));
+            for (int isbn : isbns) {
+                if (ShardedBookDAO.shardOf(isbn, pools.size()) == shard) {
+                    Assert.assertEquals(isbn % 3 - 1, onShard.getBookByIsbn(isbn).getCopies_available());
+                }
+            }
+        }
+        try (Connection connection = pools.get(2).getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE book_down RENAME TO book");
+        }
+        Assert.assertEquals(2, bookDAO.getBookByIsbn(122).getCopies_available());
+        Assert.assertTrue(counters.flush() > 0);
+        for (int isbn : isbns) {
+            Assert.assertEquals(isbn % 3 - 1, bookDAO.getBookByIsbn(isbn).getCopies_available());
+            Assert.assertEquals(isbn % 3 - 1, counters.getCopies(isbn));
+        }
+        Assert.assertEquals(0, counters.flush());
+    }
+
+    /**
+     * Books written to the first shard without the ShardedBookDAO should be moved to their own shards.
+     */
+    @Test
+    public void shard_rebalanceTest(){
+        BookDAO first = new BookDAO(pools.get(0));
+        List<Book> misplaced = new ArrayList<>();
+        for (int isbn = 200; isbn < 230; isbn++) {
+            misplaced.add(new Book(isbn, 1, "title " + isbn, 1));
+        }
+        first.insertBooks(misplaced);
+        int expected = 0;
+        for (Book book : misplaced) {
+            if (ShardedBookDAO.shardOf(book.getIsbn(), pools.size()) != 0) {
+                expected++;
+            }
+            Assert.assertNotNull(first.getBookByIsbn(book.getIsbn()));
+        }
+        Assert.assertEquals(expected, bookDAO.rebalance());
+        Assert.assertEquals(0, bookDAO.rebalance());
+        for (Book book : misplaced) {
+            Assert.assertEquals(book, bookDAO.getBookByIsbn(book.getIsbn()));
+        }
+        Assert.assertEquals(130, bookDAO.getAllBooks().size());
+    }
+}
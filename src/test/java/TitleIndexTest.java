@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Application.Model.Book;
+import Application.Service.TitleIndex;
+
+public class TitleIndexTest {
+    public List<Book> table;
+    public int loads;
+
+    /**
+     * Before every test, set up a small table of books with overlapping title terms.
+     */
+    @Before
+    public void setUp(){
+        table = new ArrayList<>();
+        table.add(new Book(100, 1, "Ficciones", 2));
+        table.add(new Book(101, 1, "The Book of Sand", 0));
+        table.add(new Book(102, 1, "The Book of Imaginary Beings", 1));
+        table.add(new Book(103, 2, "Invisible Cities", 3));
+        table.add(new Book(104, 3, "The Crying of Lot 49", 0));
+        table.add(new Book(105, 1, "Booker's Sandbox", 1));
+        loads = 0;
+    }
+
+    public TitleIndex index(){
+        return new TitleIndex(consumer -> {
+            loads++;
+            table.forEach(consumer);
+        });
+    }
+
+    public static void assertHits(TitleIndex.Hits hits, int total, int... isbns){
+        Assert.assertEquals(total, hits.getTotal());
+        Assert.assertArrayEquals(isbns, hits.getIsbns());
+    }
+
+    /**
+     * Every query term should match the start of a title term, ignoring case and punctuation.
+     */
+    @Test
+    public void search_prefixTest(){
+        TitleIndex index = index();
+        assertHits(index.search("book", 0, 10), 3, 101, 102, 105);
+        assertHits(index.search("BOOK, of!", 0, 10), 2, 101, 102);
+        assertHits(index.search("ficc", 0, 10), 1, 100);
+        assertHits(index.search("49", 0, 10), 1, 104);
+        assertHits(index.search("book sandwich", 0, 10), 0);
+        assertHits(index.search(" ,. ", 0, 10), 0);
+        Assert.assertEquals(1, loads);
+    }
+
+    /**
+     * Titles with more whole-term matches should come first, then shorter titles.
+     */
+    @Test
+    public void search_rankTest(){
+        TitleIndex index = index();
+        // "book" and "sand" are whole terms of 101, but only the start of the terms of 105
+        assertHits(index.search("book sand", 0, 10), 2, 101, 105);
+        assertHits(index.search("sand book", 0, 10), 2, 101, 105);
+        // both are whole terms of 101 and 102, and 101 has the shorter title
+        assertHits(index.search("the book", 0, 10), 2, 101, 102);
+    }
+
+    /**
+     * Pages should follow the ranking, with the total of all pages.
+     */
+    @Test
+    public void search_pageTest(){
+        TitleIndex index = index();
+        // no whole-term matches, so the titles with fewer terms come first: "booker s sandbox" has three
+        assertHits(index.search("b", 0, 2), 3, 105, 101);
+        assertHits(index.search("b", 2, 2), 3, 102);
+        assertHits(index.search("b", 4, 2), 3);
+    }
+
+    /**
+     * Books added after the load should be searchable, and books added before it should be left to the load.
+     */
+    @Test
+    public void add_test(){
+        TitleIndex index = index();
+        index.add(new Book(200, 1, "never persisted", 1));
+        index.prepare();
+        Assert.assertEquals(6, index.size());
+        index.add(new Book(106, 4, "Understanding Media", 1));
+        index.add(new Book(106, 4, "Understanding Media", 0));
+        assertHits(index.search("media", 0, 10), 1, 106);
+        assertHits(index.search("never", 0, 10), 0);
+        Assert.assertEquals(7, index.size());
+        Assert.assertEquals(1, loads);
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Application.Service.WriteQueue;
+
+public class WriteQueueTest {
+    /**
+     * Rows queued while a group is being written should be written together in the next group, and each future should
+     * complete with the result of its own row.
+     */
+    @Test
+    public void writeQueue_groupsTest() throws Exception {
+        CountDownLatch firstGroup = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> groupSizes = new CopyOnWriteArrayList<>();
+        WriteQueue<Integer, String> queue = new WriteQueue<>("test-writer", rows -> {
+            firstGroup.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            groupSizes.add(rows.size());
+            List<String> results = new ArrayList<>();
+            for (Integer row : rows) {
+                results.add(row % 2 == 0 ? "row " + row : null);
+            }
+            return results;
+        }, 100, 100);
+        CompletableFuture<String> first = queue.submit(0);
+        firstGroup.await();
+        List<CompletableFuture<String>> rest = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            rest.add(queue.submit(i));
+        }
+        Assert.assertEquals(10, queue.size());
+        release.countDown();
+        Assert.assertEquals("row 0", first.get());
+        for (int i = 1; i <= 10; i++) {
+            Assert.assertEquals(i % 2 == 0 ? "row " + i : null, rest.get(i - 1).get());
+        }
+        Assert.assertEquals(List.of(1, 10), groupSizes);
+        Assert.assertEquals(2, queue.getGroups());
+        Assert.assertEquals(11, queue.getWrites());
+    }
+
+    /**
+     * A full queue should refuse rows rather than wait, and accept them again once it has room.
+     */
+    @Test
+    public void writeQueue_fullTest() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteQueue<Integer, Integer> queue = new WriteQueue<>("test-writer", rows -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return rows;
+        }, 2, 10);
+        CompletableFuture<Integer> first = queue.submit(1);
+        writing.await();
+        Assert.assertNotNull(queue.submit(2));
+        Assert.assertNotNull(queue.submit(3));
+        Assert.assertNull(queue.submit(4));
+        release.countDown();
+        Assert.assertEquals(Integer.valueOf(1), first.get());
+        CompletableFuture<Integer> later = null;
+        for (int i = 0; i < 1000 && later == null; i++) {
+            later = queue.submit(5);
+            Thread.sleep(1);
+        }
+        Assert.assertNotNull(later);
+        Assert.assertEquals(Integer.valueOf(5), later.get());
+    }
+
+    /**
+     * A writer that throws should fail every row of its group, and leave the queue writing later groups.
+     */
+    @Test
+    public void writeQueue_failedGroupTest() throws Exception {
+        WriteQueue<Integer, Integer> queue = new WriteQueue<>("test-writer", rows -> {
+            if (rows.contains(-1)) {
+                throw new IllegalStateException("bad row");
+            }
+            return rows;
+        }, 10, 10);
+        try {
+            queue.submit(-1).join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertEquals("bad row", e.getCause().getMessage());
+        }
+        Assert.assertEquals(Integer.valueOf(7), queue.submit(7).get());
+    }
+
+    /**
+     * A writer that throws an Error, or returns too few results, should fail its group rather than leave it waiting.
+     */
+    @Test
+    public void writeQueue_writerErrorTest() throws Exception {
+        WriteQueue<Integer, Integer> queue = new WriteQueue<>("test-writer", rows -> {
+            if (rows.contains(-1)) {
+                throw new AssertionError("broken writer");
+            }
+            return rows.contains(-2) ? new ArrayList<>() : rows;
+        }, 10, 10);
+        try {
+            queue.submit(-1).get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals("broken writer", e.getCause().getMessage());
+        }
+        try {
+            queue.submit(-2).get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(Integer.valueOf(7), queue.submit(7).get(5, TimeUnit.SECONDS));
+    }
+}